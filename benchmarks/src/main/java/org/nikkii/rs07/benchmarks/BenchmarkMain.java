@@ -0,0 +1,65 @@
+package org.nikkii.rs07.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Runs the benchmarks with the regular JMH options, exporting the results as JSON so runs can be compared.
+ *
+ * Unless -rf or -rff is given, the results are written to results/jmh-yyyyMMdd-HHmmss.json, next to the previous runs.
+ *
+ * Usage: java -jar benchmarks.jar [JMH options] [benchmark regexp...]
+ *
+ * @author Nikki
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws RunnerException, IOException {
+		CommandLineOptions options;
+
+		try {
+			options = new CommandLineOptions(args);
+		} catch (CommandLineOptionException e) {
+			System.err.println("Error parsing command line: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+			|| options.shouldListProfilers() || options.shouldListResultFormats()) {
+			// Nothing is run, leave it to JMH
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(options);
+
+		if (!options.getResultFormat().hasValue() && !options.getResult().hasValue()) {
+			File results = new File("results");
+
+			if (!results.isDirectory() && !results.mkdirs()) {
+				System.err.println("Unable to create " + results.getAbsolutePath());
+				System.exit(1);
+			}
+
+			String name = "jmh-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json";
+
+			builder.resultFormat(ResultFormatType.JSON).result(new File(results, name).getPath());
+		}
+
+		if (new Runner(builder.build()).run().isEmpty()) {
+			System.err.println("No benchmarks were run");
+			System.exit(1);
+		}
+	}
+}
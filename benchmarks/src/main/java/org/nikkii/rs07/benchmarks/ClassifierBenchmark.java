@@ -0,0 +1,132 @@
+package org.nikkii.rs07.benchmarks;
+
+import org.nikkii.rs07.event.DuelVictoryParser;
+import org.nikkii.rs07.event.ParseEventError;
+import org.nikkii.rs07.event.RuleClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how long it takes to turn a screenshot file name into an event, the work done by the tracker's parseEvent
+ * for every file that appears in a screenshot directory.
+ *
+ * The scores are per file name, averaged over a corpus in the proportions of a real directory. The duel benchmarks
+ * compare the hand written opponent parser with the pattern it replaced.
+ *
+ * @author Nikki
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassifierBenchmark {
+
+	/**
+	 * The number of file names in the corpus.
+	 */
+	private static final int CORPUS_SIZE = 1024;
+
+	/**
+	 * The number of duel victory file names, taken from the corpus.
+	 */
+	private static final int DUEL_COUNT = 64;
+
+	/**
+	 * The pattern duel victories were parsed with before they had their own parser.
+	 */
+	private static final Pattern DUEL_PATTERN = Pattern.compile("^Victory against (.*?) - ([0-9\\._-]+)$");
+
+	/**
+	 * The classifier built from the bundled rules.
+	 */
+	private RuleClassifier classifier;
+
+	/**
+	 * The screenshot files.
+	 */
+	private File[] files;
+
+	/**
+	 * The duel victory file names.
+	 */
+	private String[] duels;
+
+	/**
+	 * The duel victory parser.
+	 */
+	private DuelVictoryParser duelParser;
+
+	@Setup
+	public void setup() throws IOException {
+		classifier = new RuleClassifier(Corpus.loadSettings().getEventRules());
+		duelParser = new DuelVictoryParser();
+
+		String[] names = Corpus.fileNames(CORPUS_SIZE);
+		List<String> duelNames = new ArrayList<>();
+
+		files = new File[names.length];
+
+		for (int i = 0; i < names.length; i++) {
+			files[i] = new File("screenshots", names[i]);
+
+			if (names[i].startsWith("Victory against")) {
+				duelNames.add(names[i]);
+			}
+		}
+
+		duels = new String[DUEL_COUNT];
+
+		for (int i = 0; i < duels.length; i++) {
+			duels[i] = duelNames.get(i % duelNames.size());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CORPUS_SIZE)
+	public void classify(Blackhole blackhole) throws ParseEventError {
+		for (File file : files) {
+			blackhole.consume(classifier.classify("Zezima", file));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(DUEL_COUNT)
+	public void duelParser(Blackhole blackhole) {
+		for (String name : duels) {
+			blackhole.consume(duelParser.parse(name, name.length() - 4));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(DUEL_COUNT)
+	public void duelPattern(Blackhole blackhole) {
+		for (String name : duels) {
+			Matcher matcher = DUEL_PATTERN.matcher(name).region(0, name.length() - 4);
+
+			if (matcher.find()) {
+				blackhole.consume(matcher.group(1));
+				blackhole.consume(matcher.group(2));
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package org.nikkii.rs07.benchmarks;
+
+import com.google.gson.Gson;
+import org.nikkii.rs07.ProgressTrackerSettings;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Builds the inputs shared by the benchmarks. Everything is generated from a fixed seed, so every run measures the same
+ * data.
+ *
+ * @author Nikki
+ */
+public final class Corpus {
+
+	/**
+	 * The seed of every generated input.
+	 */
+	public static final long SEED = 0x5eedL;
+
+	/**
+	 * The skills which appear in level up screenshots.
+	 */
+	private static final String[] SKILLS = {
+		"Attack", "Strength", "Defence", "Ranged", "Prayer", "Magic", "Hitpoints", "Crafting", "Mining", "Smithing",
+		"Fishing", "Cooking", "Firemaking", "Woodcutting", "Runecraft", "Agility", "Herblore", "Thieving", "Fletching",
+		"Slayer", "Farming", "Construction", "Hunter"
+	};
+
+	/**
+	 * The clue scroll difficulties.
+	 */
+	private static final String[] DIFFICULTIES = { "Easy", "Medium", "Hard", "Elite" };
+
+	/**
+	 * Opponent names, including the spacing and punctuation real names use.
+	 */
+	private static final String[] OPPONENTS = {
+		"Zezima", "Lynx Titan", "B0aty", "Iron_Hyger", "Mr Mammal", "A Friend", "Woox", "Sick Nerd", "J-1", "x x x"
+	};
+
+	private Corpus() {
+	}
+
+	/**
+	 * Load the bundled settings of the tracker.
+	 *
+	 * @return The settings.
+	 * @throws IOException If the settings could not be read.
+	 */
+	public static ProgressTrackerSettings loadSettings() throws IOException {
+		try (Reader reader = new InputStreamReader(Corpus.class.getResourceAsStream("/settings.json"), "UTF-8")) {
+			return new Gson().fromJson(reader, ProgressTrackerSettings.class);
+		}
+	}
+
+	/**
+	 * Generate screenshot file names in the proportions of a typical screenshot directory: mostly level ups and plain
+	 * screenshots, with some clue scrolls, duels and a few names which almost match a rule.
+	 *
+	 * @param count The number of names.
+	 * @return The names.
+	 */
+	public static String[] fileNames(int count) {
+		Random random = new Random(SEED);
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+		long time = 1420070400000L;
+		String[] names = new String[count];
+
+		for (int i = 0; i < count; i++) {
+			time += random.nextInt(3600000);
+
+			String date = format.format(new Date(time));
+			int kind = random.nextInt(100);
+
+			if (kind < 40) {
+				names[i] = SKILLS[random.nextInt(SKILLS.length)] + " Level (" + (2 + random.nextInt(98)) + ").png";
+			} else if (kind < 50) {
+				names[i] = "Treasure Trail - " + DIFFICULTIES[random.nextInt(DIFFICULTIES.length)] + " - " + date + ".png";
+			} else if (kind < 60) {
+				names[i] = "Victory against " + OPPONENTS[random.nextInt(OPPONENTS.length)] + " - " + date + ".png";
+			} else if (kind < 95) {
+				names[i] = date + ".png";
+			} else {
+				// Near misses, which get past the keyword check but not the rule
+				names[i] = random.nextBoolean() ? "Quest Level (guide) " + date + ".png" : "Treasure Trail - " + date + ".png";
+			}
+		}
+
+		return names;
+	}
+
+	/**
+	 * Draw an image which looks like a client screenshot: a gradient background with text and flat interface boxes,
+	 * which compresses about as well as a real one.
+	 *
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @return The image.
+	 */
+	public static BufferedImage screenshot(int width, int height) {
+		Random random = new Random(SEED);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+
+		try {
+			graphics.setPaint(new GradientPaint(0, 0, new Color(0x3e5b2a), width, height, new Color(0x7a6a4f)));
+			graphics.fillRect(0, 0, width, height);
+
+			// Terrain noise, as the game world isn't flat
+			for (int i = 0; i < 4000; i++) {
+				graphics.setColor(new Color(random.nextInt(0x1000000)));
+				graphics.fillRect(random.nextInt(width), random.nextInt(height), 1 + random.nextInt(4), 1 + random.nextInt(4));
+			}
+
+			graphics.setColor(new Color(0x3e3529));
+			graphics.fillRect(0, height - 165, 519, 165);
+			graphics.fillRect(width - 241, height - 337, 241, 337);
+
+			graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			graphics.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 14));
+			graphics.setColor(new Color(0x000080));
+			graphics.drawString("Congratulations, you just advanced a Hunter level.", 40, height - 120);
+			graphics.drawString("Your Hunter level is now 99.", 40, height - 100);
+			graphics.setColor(Color.BLACK);
+
+			for (int line = 0; line < 6; line++) {
+				graphics.drawString("Zezima: " + Long.toString(random.nextLong(), 36), 8, height - 60 + line * 12);
+			}
+		} finally {
+			graphics.dispose();
+		}
+
+		return image;
+	}
+
+	/**
+	 * Write a generated screenshot to a temporary PNG file, which is deleted on exit.
+	 *
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @return The file.
+	 * @throws IOException If the file could not be written.
+	 */
+	public static File screenshotFile(int width, int height) throws IOException {
+		File file = File.createTempFile("Hunter Level (99)", ".png");
+		file.deleteOnExit();
+
+		if (!ImageIO.write(screenshot(width, height), "png", file)) {
+			throw new IOException("No PNG writer");
+		}
+
+		return file;
+	}
+}
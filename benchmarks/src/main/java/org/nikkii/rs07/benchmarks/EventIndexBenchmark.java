@@ -0,0 +1,136 @@
+package org.nikkii.rs07.benchmarks;
+
+import org.nikkii.rs07.EventIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the duplicate event check, the tracker's parsedEvents index, when it is full.
+ *
+ * The index is loaded from a journal of random keys, like the one left by a long running tracker. Adding a key to the
+ * full index evicts the oldest key and appends to the journal, so it includes the journal write.
+ *
+ * @author Nikki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventIndexBenchmark {
+
+	/**
+	 * The number of keys looked up, a power of two.
+	 */
+	private static final int SAMPLES = 4096;
+
+	/**
+	 * The number of keys in the index.
+	 */
+	@Param({ "10000", "100000", "1000000" })
+	private int size;
+
+	/**
+	 * The journal file.
+	 */
+	private File journal;
+
+	/**
+	 * The index.
+	 */
+	private EventIndex index;
+
+	/**
+	 * Keys which are in the index.
+	 */
+	private long[] present;
+
+	/**
+	 * Keys which aren't in the index.
+	 */
+	private long[] absent;
+
+	/**
+	 * The key generator for new keys.
+	 */
+	private Random random;
+
+	/**
+	 * The next sample.
+	 */
+	private int sample;
+
+	@Setup
+	public void setup() throws IOException {
+		random = new Random(Corpus.SEED);
+		journal = File.createTempFile("events", ".idx");
+		present = new long[SAMPLES];
+		absent = new long[SAMPLES];
+
+		long now = System.currentTimeMillis();
+		int step = size / SAMPLES;
+
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journal)))) {
+			for (int i = 0; i < size; i++) {
+				long key = random.nextLong();
+
+				output.writeLong(key);
+				output.writeLong(now);
+
+				// Spread over the whole journal, so lookups don't only hit the newest keys
+				if (i % step == 0 && i / step < SAMPLES) {
+					present[i / step] = key;
+				}
+			}
+		}
+
+		for (int i = 0; i < SAMPLES; i++) {
+			absent[i] = random.nextLong();
+		}
+
+		index = new EventIndex(journal, size, 0);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		index.close();
+
+		if (!journal.delete()) {
+			journal.deleteOnExit();
+		}
+	}
+
+	@Benchmark
+	public boolean containsPresent() {
+		return index.contains(present[sample++ & (SAMPLES - 1)]);
+	}
+
+	@Benchmark
+	public boolean containsAbsent() {
+		return index.contains(absent[sample++ & (SAMPLES - 1)]);
+	}
+
+	@Benchmark
+	public boolean add() throws IOException {
+		return index.add(random.nextLong());
+	}
+}
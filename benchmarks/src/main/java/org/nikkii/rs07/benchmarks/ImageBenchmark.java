@@ -0,0 +1,182 @@
+package org.nikkii.rs07.benchmarks;
+
+import com.google.gson.Gson;
+import org.nikkii.rs07.ProgressTrackerSettings;
+import org.nikkii.rs07.ProgressType;
+import org.nikkii.rs07.event.EventClassifier;
+import org.nikkii.rs07.event.OSBuddyEvent;
+import org.nikkii.rs07.event.ParseEventError;
+import org.nikkii.rs07.event.RuleClassifier;
+import org.nikkii.rs07.image.CropRegion;
+import org.nikkii.rs07.image.EncodedImage;
+import org.nikkii.rs07.image.ImageFormat;
+import org.nikkii.rs07.image.ImagePipeline;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs screenshots through a few {@link ImagePipeline} configurations and reports the size and encoding time of each
+ * image, to help choose the image settings.
+ *
+ * Unlike the JMH benchmarks it runs on its own, on real screenshots rather than a generated one.
+ *
+ * Usage: java -cp benchmarks.jar org.nikkii.rs07.benchmarks.ImageBenchmark [-iterations n] file|directory...
+ *
+ * @author Nikki
+ */
+public class ImageBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int iterations = 5;
+		List<File> files = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-iterations") && i + 1 < args.length) {
+				iterations = Integer.parseInt(args[++i]);
+			} else {
+				collect(new File(args[i]), files);
+			}
+		}
+
+		if (files.isEmpty()) {
+			System.err.println("Usage: ImageBenchmark [-iterations n] file|directory...");
+			System.exit(1);
+		}
+
+		ProgressTrackerSettings settings;
+
+		try (Reader reader = new InputStreamReader(ImageBenchmark.class.getResourceAsStream("/settings.json"))) {
+			settings = new Gson().fromJson(reader, ProgressTrackerSettings.class);
+		}
+
+		Map<ProgressType, CropRegion> cropRegions = settings.getCropRegions();
+		RuleClassifier classifier = new RuleClassifier(settings.getEventRules());
+
+		Map<String, ImagePipeline> pipelines = new LinkedHashMap<>();
+		pipelines.put("png", new ImagePipeline(null, 0, 0, ImageFormat.PNG, 0, 0));
+		pipelines.put("palette", new ImagePipeline(null, 0, 0, ImageFormat.PNG_PALETTE, 0, 0));
+		pipelines.put("jpeg-85", new ImagePipeline(null, 0, 0, ImageFormat.JPEG, 0.85f, 0));
+		pipelines.put("palette-half", new ImagePipeline(null, 384, 0, ImageFormat.PNG_PALETTE, 0, 0));
+		pipelines.put("crop-palette", new ImagePipeline(cropRegions, 0, 0, ImageFormat.PNG_PALETTE, 0, 0));
+		pipelines.put("crop-jpeg-85", new ImagePipeline(cropRegions, 0, 0, ImageFormat.JPEG, 0.85f, 0));
+
+		long[] totalBytes = new long[pipelines.size()];
+		double[] totalMillis = new double[pipelines.size()];
+		long originalBytes = 0;
+
+		System.out.printf("%-40s %-14s %10s %7s %9s %11s%n", "image", "pipeline", "bytes", "ratio", "ms", "size");
+
+		for (File file : files) {
+			BufferedImage image = ImageIO.read(file);
+
+			if (image == null) {
+				System.err.println("Skipping " + file + ", unable to decode it");
+				continue;
+			}
+
+			ProgressType type = getType(classifier, file);
+			originalBytes += file.length();
+
+			System.out.printf("%-40s %-14s %10d %7s %9s %11s%n", shorten(file.getName()), "original", file.length(), "100%",
+				"-", image.getWidth() + "x" + image.getHeight());
+
+			int index = 0;
+
+			for (Map.Entry<String, ImagePipeline> entry : pipelines.entrySet()) {
+				double[] millis = new double[iterations];
+				EncodedImage encoded = null;
+
+				// The first run warms up the encoder and isn't counted
+				entry.getValue().encode(image, type);
+
+				for (int i = 0; i < iterations; i++) {
+					encoded = entry.getValue().encode(image, type);
+					millis[i] = encoded.getTime() / 1e6;
+				}
+
+				Arrays.sort(millis);
+
+				double median = millis[iterations / 2];
+
+				totalBytes[index] += encoded.getData().length;
+				totalMillis[index] += median;
+				index++;
+
+				System.out.printf("%-40s %-14s %10d %6.0f%% %9.1f %11s%n", "", entry.getKey(), encoded.getData().length,
+					100.0 * encoded.getData().length / file.length(), median, encoded.getWidth() + "x" + encoded.getHeight());
+			}
+		}
+
+		System.out.println();
+		System.out.printf("%-14s %12s %7s %12s%n", "pipeline", "total bytes", "ratio", "ms / image");
+		System.out.printf("%-14s %12d %7s %12s%n", "original", originalBytes, "100%", "-");
+
+		int index = 0;
+
+		for (String name : pipelines.keySet()) {
+			System.out.printf("%-14s %12d %6.0f%% %12.1f%n", name, totalBytes[index],
+				originalBytes == 0 ? 0.0 : 100.0 * totalBytes[index] / originalBytes, totalMillis[index] / files.size());
+			index++;
+		}
+	}
+
+	/**
+	 * Add a screenshot file, or every screenshot in a directory tree.
+	 *
+	 * @param file The file or directory.
+	 * @param files The list of files.
+	 */
+	private static void collect(File file, List<File> files) {
+		File[] children = file.listFiles();
+
+		if (children == null) {
+			files.add(file);
+			return;
+		}
+
+		Arrays.sort(children);
+
+		for (File child : children) {
+			if (child.isDirectory() || child.getName().toLowerCase().endsWith(".png")) {
+				collect(child, files);
+			}
+		}
+	}
+
+	/**
+	 * Classify a screenshot with the bundled event rules, to pick its crop region.
+	 *
+	 * @param classifier The classifier.
+	 * @param file The screenshot file.
+	 * @return The event type, or null if unknown.
+	 */
+	private static ProgressType getType(EventClassifier classifier, File file) {
+		try {
+			OSBuddyEvent event = classifier.classify("", file);
+
+			return event != null ? event.getType() : null;
+		} catch (ParseEventError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Shorten a file name to fit its column.
+	 *
+	 * @param name The file name.
+	 * @return The shortened name.
+	 */
+	private static String shorten(String name) {
+		return name.length() <= 40 ? name : name.substring(0, 37) + "...";
+	}
+}
@@ -0,0 +1,113 @@
+package org.nikkii.rs07.benchmarks;
+
+import org.nikkii.rs07.ProgressType;
+import org.nikkii.rs07.UploadCache;
+import org.nikkii.rs07.event.LevelUpEvent;
+import org.nikkii.rs07.event.OSBuddyEvent;
+import org.nikkii.rs07.image.EncodedImage;
+import org.nikkii.rs07.image.ImageFormat;
+import org.nikkii.rs07.image.ImagePipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the screenshot work done by the tracker's uploadImage: the upload cache digest, decoding the PNG file and
+ * encoding it in each output format. The screenshot is generated at the size of the fixed mode client.
+ *
+ * Use {@link ImageBenchmark} to compare the output sizes on real screenshots.
+ *
+ * @author Nikki
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageUploadBenchmark {
+
+	/**
+	 * The screenshot file.
+	 */
+	private File file;
+
+	/**
+	 * The decoded screenshot.
+	 */
+	private BufferedImage image;
+
+	/**
+	 * The event the screenshot belongs to.
+	 */
+	private OSBuddyEvent event;
+
+	@Setup
+	public void setup() throws IOException {
+		file = Corpus.screenshotFile(765, 503);
+		image = ImageIO.read(file);
+		event = new LevelUpEvent(file, "Zezima", "Hunter", 99);
+	}
+
+	@Benchmark
+	public String digest() throws IOException {
+		return UploadCache.digest(file, "original");
+	}
+
+	@Benchmark
+	public BufferedImage decode() throws IOException {
+		return ImageIO.read(file);
+	}
+
+	@Benchmark
+	public EncodedImage encode(Pipeline pipeline) throws IOException {
+		return pipeline.pipeline.encode(image, ProgressType.LEVEL_UP);
+	}
+
+	@Benchmark
+	public EncodedImage process(Pipeline pipeline) throws IOException {
+		return pipeline.pipeline.process(event);
+	}
+
+	/**
+	 * A pipeline encoding on the calling thread with the bundled crop regions, for each output format.
+	 */
+	@State(Scope.Thread)
+	public static class Pipeline {
+		/**
+		 * The output format.
+		 */
+		@Param({ "PNG", "PNG_PALETTE", "JPEG" })
+		private ImageFormat format;
+
+		/**
+		 * The pipeline.
+		 */
+		private ImagePipeline pipeline;
+
+		@Setup
+		public void setup() throws IOException {
+			pipeline = new ImagePipeline(Corpus.loadSettings().getCropRegions(), 0, 0, format, 0.85f, 0);
+		}
+
+		@TearDown
+		public void tearDown() {
+			pipeline.close();
+		}
+	}
+}
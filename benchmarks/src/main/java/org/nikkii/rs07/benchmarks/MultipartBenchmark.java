@@ -0,0 +1,151 @@
+package org.nikkii.rs07.benchmarks;
+
+import org.nikkii.rs07.http.data.RequestData;
+import org.nikkii.rs07.http.multipart.MultipartBody;
+import org.nikkii.rs07.http.multipart.MultipartFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building and writing the multipart body of a screenshot upload, as sent by HttpMultipartPostRequest. The
+ * body is written to a sink which discards it, so only the body generation is measured.
+ *
+ * @author Nikki
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultipartBenchmark {
+
+	/**
+	 * The boundary between the parts, like the one of a request.
+	 */
+	private static final String BOUNDARY = "---------------------------HttpAPIFormBoundary-4242424242424242";
+
+	/**
+	 * The screenshot file.
+	 */
+	private File file;
+
+	/**
+	 * The contents of the screenshot file, as uploaded after encoding.
+	 */
+	private byte[] data;
+
+	@Setup
+	public void setup() throws IOException {
+		file = Corpus.screenshotFile(765, 503);
+		data = Files.readAllBytes(file.toPath());
+	}
+
+	@Benchmark
+	public long encodedToStream() throws IOException {
+		MultipartBody body = new MultipartBody(parameters(new MultipartFile("progress.png", data)), BOUNDARY);
+		NullOutputStream output = new NullOutputStream();
+
+		body.writeTo(output);
+
+		return output.count;
+	}
+
+	@Benchmark
+	public long fileToStream() throws IOException {
+		MultipartBody body = new MultipartBody(parameters(new MultipartFile("progress.png", file)), BOUNDARY);
+		NullOutputStream output = new NullOutputStream();
+
+		body.writeTo(output);
+
+		return output.count;
+	}
+
+	@Benchmark
+	public long fileToChannel() throws IOException {
+		NullChannel channel = new NullChannel();
+
+		try (MultipartBody body = new MultipartBody(parameters(new MultipartFile("progress.png", file)), BOUNDARY)) {
+			while (!body.writeTo(channel)) {
+				// The sink accepts everything, the loop is for partial writes
+			}
+		}
+
+		return channel.count;
+	}
+
+	/**
+	 * Build the parameters of an upload.
+	 *
+	 * @param image The screenshot.
+	 * @return The parameters.
+	 */
+	private static RequestData parameters(MultipartFile image) {
+		return new RequestData().put("displayName", "lynx_titan").put("image", image);
+	}
+
+	/**
+	 * A stream which counts and discards what is written to it.
+	 */
+	private static final class NullOutputStream extends OutputStream {
+		/**
+		 * The number of bytes written.
+		 */
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	/**
+	 * A channel which counts and discards what is written to it.
+	 */
+	private static final class NullChannel implements WritableByteChannel {
+		/**
+		 * The number of bytes written.
+		 */
+		private long count;
+
+		@Override
+		public int write(ByteBuffer src) {
+			int remaining = src.remaining();
+
+			src.position(src.limit());
+			count += remaining;
+
+			return remaining;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.nikkii.rs07.benchmarks;
+
+import org.nikkii.rs07.ProgressType;
+import org.nikkii.rs07.http.data.QueryString;
+import org.nikkii.rs07.http.data.RequestData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the URL encoding of update requests.
+ *
+ * @author Nikki
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestDataBenchmark {
+
+	/**
+	 * A level up update, with the fields the tracker sends.
+	 */
+	private RequestData update;
+
+	/**
+	 * The values of the update.
+	 */
+	private Map<String, Object> values;
+
+	@Setup
+	public void setup() {
+		update = new RequestData()
+			.put("type", ProgressType.LEVEL_UP)
+			.put("displayName", "Lynx Titan")
+			.put("time", 1420070400L)
+			.put("url", "https://i.example.com/u/2015/01/01/a1b2c3d4e5f6.png")
+			.put("key", "3f6c9a8e-51d2-4b7e-9a0c-7d2e1f4b8c65")
+			.put("skill", "Runecraft")
+			.put("level", 99);
+
+		values = update.asMap();
+	}
+
+	@Benchmark
+	public String toURLEncodedString() throws IOException {
+		return update.toURLEncodedString();
+	}
+
+	@Benchmark
+	public String implode() throws IOException {
+		return QueryString.implode(values);
+	}
+}
@@ -6,9 +6,9 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A class to store the web service auth tokens.
@@ -24,7 +24,7 @@ public class AuthStore {
 	private File dir;
 
 	/**
-	 * The auth map.
+	 * The auth map. Concurrent since updates for different display names are submitted in parallel.
 	 */
 	private final Map<String, String> auths;
 
@@ -35,7 +35,7 @@ public class AuthStore {
 	 */
 	public AuthStore(File dir) {
 		this.dir = dir;
-		this.auths = new HashMap<>();
+		this.auths = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -73,7 +73,7 @@ public class AuthStore {
 	 *
 	 * @throws IOException If an error occurs while writing the tokens.
 	 */
-	public void save() throws IOException {
+	public synchronized void save() throws IOException {
 		if (!dir.exists()) {
 			dir.mkdir();
 		}
@@ -0,0 +1,385 @@
+package org.nikkii.rs07;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.nikkii.rs07.util.NamedThreadFactory;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds the screenshots OSBuddy wrote while the tracker wasn't running.
+ *
+ * Every display name directory has a high-water mark: the modification time of the newest screenshot which was
+ * handled by the tracker, with every older one handled as well. When a directory starts being tracked it is scanned
+ * on a background thread, and only files modified at or after its mark are parsed. Files at exactly the mark are
+ * parsed again, the event index drops the duplicates. Directories are scanned in parallel, using the file attributes
+ * read while listing the directory, so a directory of tens of thousands of screenshots costs a single listing.
+ *
+ * A directory without a mark is scanned from the time the tracker first ran, so its history isn't submitted unless
+ * requested.
+ *
+ * The marks are stored in a small JSON file, which is rewritten whenever a mark advances.
+ *
+ * @author Nikki
+ */
+public class BackfillScanner implements AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(BackfillScanner.class.getName());
+
+	/**
+	 * What became of a screenshot which was handed to the tracker.
+	 */
+	public enum Result {
+		/**
+		 * The screenshot was a new event.
+		 */
+		NEW_EVENT,
+
+		/**
+		 * The screenshot isn't an event, or its event was seen before.
+		 */
+		SKIPPED,
+
+		/**
+		 * The screenshot is still being written, the settle detector handles it once it is complete.
+		 */
+		PENDING,
+
+		/**
+		 * The screenshot could not be read or its event could not be stored, the next scan tries it again.
+		 */
+		FAILED
+	}
+
+	/**
+	 * The tracker object.
+	 */
+	private final ProgressTracker tracker;
+
+	/**
+	 * The file the marks are stored in.
+	 */
+	private final File file;
+
+	/**
+	 * The Gson instance used to store the marks.
+	 */
+	private final Gson gson;
+
+	/**
+	 * The threads which scan directories.
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * The stored marks.
+	 */
+	private final State state;
+
+	/**
+	 * Whether directories without a mark are scanned from the beginning.
+	 */
+	private final boolean history;
+
+	/**
+	 * The directories which were scanned since the tracker started. Only their marks are advanced by new screenshots,
+	 * the others still have to be scanned from their old mark.
+	 */
+	private final Set<String> scanned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Construct a new scanner and load its marks.
+	 *
+	 * @param tracker The tracker object.
+	 * @param file The file the marks are stored in.
+	 * @param gson The Gson instance used to store the marks.
+	 * @param threads The number of directories scanned at once.
+	 * @param history Whether directories without a mark are scanned from the beginning.
+	 * @throws IOException If an error occurs while reading the marks.
+	 */
+	public BackfillScanner(ProgressTracker tracker, File file, Gson gson, int threads, boolean history) throws IOException {
+		this.tracker = tracker;
+		this.file = file;
+		this.gson = gson;
+		this.state = load(file, gson);
+		this.history = history;
+		this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+			new NamedThreadFactory("backfill"));
+		this.executor.allowCoreThreadTimeOut(true);
+
+		save();
+	}
+
+	/**
+	 * Scan a directory in the background, handing every screenshot newer than its mark to the tracker. The directory
+	 * should be watched first, so no screenshot falls between the scan and the watch.
+	 *
+	 * @param directory The display name directory.
+	 */
+	public void scan(final File directory) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scanDirectory(directory);
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Unable to scan " + directory.getAbsolutePath(), e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Advance a directory's mark after a screenshot was handed to the tracker.
+	 *
+	 * @param directory The display name directory.
+	 * @param file The screenshot.
+	 */
+	public void advance(File directory, File file) {
+		String key = directory.getAbsolutePath();
+
+		if (scanned.contains(key) && advance(key, file.lastModified())) {
+			save();
+		}
+	}
+
+	/**
+	 * Stop scanning.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Scan a directory on the calling thread.
+	 *
+	 * @param directory The display name directory.
+	 * @throws IOException If an error occurs while listing the directory.
+	 */
+	void scanDirectory(final File directory) throws IOException {
+		long start = System.nanoTime();
+		final String key = directory.getAbsolutePath();
+		final long mark = getMark(key);
+		final List<Candidate> candidates = new ArrayList<>();
+		final int[] total = new int[1];
+
+		Files.walkFileTree(directory.toPath(), EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+				if (attributes.isRegularFile()) {
+					total[0]++;
+
+					long modified = attributes.lastModifiedTime().toMillis();
+
+					if (modified >= mark) {
+						candidates.add(new Candidate(path.toFile(), modified));
+					}
+				}
+
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path path, IOException e) {
+				// The file was removed while listing
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		// Oldest first, so the mark only ever covers screenshots which were handled
+		Collections.sort(candidates);
+
+		int found = 0, failed = 0;
+		boolean handled = true;
+
+		for (Candidate candidate : candidates) {
+			Result result = handle(directory, candidate.file);
+
+			if (result == Result.NEW_EVENT) {
+				found++;
+			} else if (result == Result.FAILED) {
+				failed++;
+			}
+
+			// The mark stops before the first screenshot which wasn't handled, later ones are parsed again next time
+			handled &= result == Result.NEW_EVENT || result == Result.SKIPPED;
+
+			if (handled) {
+				advance(key, candidate.modified);
+			}
+		}
+
+		// New screenshots would advance the mark past the failed ones, so it stays put until the next scan
+		if (failed == 0) {
+			scanned.add(key);
+		} else {
+			logger.warning("Unable to backfill " + failed + " screenshots of " + directory.getName() + ", retrying them on the next start");
+		}
+
+		save();
+
+		logger.info(String.format("Backfilled %s: %d new events from %d of %d files in %.1f ms", directory.getName(),
+			found, candidates.size(), total[0], (System.nanoTime() - start) / 1e6));
+	}
+
+	/**
+	 * Hand a screenshot which may be new to the tracker.
+	 *
+	 * @param directory The display name directory.
+	 * @param file The screenshot.
+	 * @return What became of the screenshot.
+	 */
+	Result handle(File directory, File file) {
+		return tracker.backfillScreenshot(directory, file);
+	}
+
+	/**
+	 * Get a directory's mark.
+	 *
+	 * @param key The directory path.
+	 * @return The mark, as a modification time.
+	 */
+	private long getMark(String key) {
+		synchronized (state) {
+			Long mark = state.marks.get(key);
+
+			return mark != null ? mark : history ? 0 : state.since;
+		}
+	}
+
+	/**
+	 * Advance a directory's mark, if the time is newer.
+	 *
+	 * @param key The directory path.
+	 * @param modified The modification time of a screenshot which was handed over.
+	 * @return true if the mark advanced.
+	 */
+	private boolean advance(String key, long modified) {
+		synchronized (state) {
+			Long mark = state.marks.get(key);
+
+			if (mark != null && mark >= modified) {
+				return false;
+			}
+
+			state.marks.put(key, modified);
+			return true;
+		}
+	}
+
+	/**
+	 * Store the marks, replacing the file so a crash can't leave it half written.
+	 */
+	private void save() {
+		synchronized (state) {
+			File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+			try {
+				try (Writer writer = new FileWriter(temp)) {
+					gson.toJson(state, writer);
+				}
+
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				logger.warning("Unable to store backfill marks: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Load the marks.
+	 *
+	 * @param file The file the marks are stored in.
+	 * @param gson The Gson instance.
+	 * @return The marks.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	private static State load(File file, Gson gson) throws IOException {
+		State state = null;
+
+		if (file.exists()) {
+			try (Reader reader = new FileReader(file)) {
+				state = gson.fromJson(reader, State.class);
+			} catch (JsonParseException e) {
+				logger.warning("Ignoring broken backfill marks: " + e.getMessage());
+			}
+		}
+
+		if (state == null) {
+			state = new State();
+			state.since = System.currentTimeMillis();
+		}
+
+		if (state.marks == null) {
+			state.marks = new HashMap<>();
+		}
+
+		return state;
+	}
+
+	/**
+	 * The stored marks.
+	 */
+	private static final class State {
+		/**
+		 * The time the tracker first ran, the mark of directories which don't have one yet.
+		 */
+		private long since;
+
+		/**
+		 * The mark of each directory, keyed by path.
+		 */
+		private Map<String, Long> marks;
+	}
+
+	/**
+	 * A screenshot which may be new.
+	 */
+	private static final class Candidate implements Comparable<Candidate> {
+		/**
+		 * The screenshot.
+		 */
+		private final File file;
+
+		/**
+		 * The modification time.
+		 */
+		private final long modified;
+
+		public Candidate(File file, long modified) {
+			this.file = file;
+			this.modified = modified;
+		}
+
+		@Override
+		public int compareTo(Candidate other) {
+			return Long.compare(modified, other.modified);
+		}
+	}
+}
@@ -2,19 +2,16 @@ package org.nikkii.rs07;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
-import java.nio.file.Path;
 import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
-import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 /**
+ * Watches the screenshot root for new display name directories.
+ *
  * @author Nikki
  */
-public class DirectoryCreationWatcher implements Runnable {
+public class DirectoryCreationWatcher implements DirectoryListener {
 	private final ProgressTracker tracker;
 	private final File directory;
 
@@ -24,48 +21,25 @@ public class DirectoryCreationWatcher implements Runnable {
 	}
 
 	@Override
-	public void run() {
-		try {
-			WatchService watcher = FileSystems.getDefault().newWatchService();
-
-			Path path = directory.toPath();
-
-			path.register(watcher, ENTRY_CREATE);
-
-			for (; ; ) {
-				// wait for key to be signaled
-				WatchKey key;
-
-				try {
-					key = watcher.take();
-				} catch (InterruptedException e) {
-					break;
-				}
-
-				for (WatchEvent<?> event : key.pollEvents()) {
-					WatchEvent.Kind<?> kind = event.kind();
-
-					if (kind == OVERFLOW) {
-						continue;
-					}
-
-					WatchEvent<Path> ev = (WatchEvent<Path>) event;
-					Path filename = ev.context();
+	public void fileEvent(WatchEvent.Kind<?> kind, File file) throws IOException {
+		if (kind == ENTRY_CREATE && file.isDirectory()) {
+			tracker.trackScreenshots(file);
+		}
+	}
 
-					File created = new File(directory, filename.toString());
+	@Override
+	public void overflow() throws IOException {
+		// We may have missed a new directory, the engine ignores directories it is already watching.
+		File[] files = directory.listFiles();
 
-					if (created.isDirectory()) {
-						tracker.trackScreenshots(created);
-					}
-				}
+		if (files == null) {
+			return;
+		}
 
-				boolean valid = key.reset();
-				if (!valid) {
-					break;
-				}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				tracker.trackScreenshots(file);
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
 	}
 }
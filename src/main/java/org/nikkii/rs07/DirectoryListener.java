@@ -0,0 +1,28 @@
+package org.nikkii.rs07;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.WatchEvent;
+
+/**
+ * A listener which receives the file events of a directory registered with a {@link DirectoryWatchEngine}.
+ *
+ * @author Nikki
+ */
+public interface DirectoryListener {
+	/**
+	 * Called when a file inside the watched directory is created, modified or deleted.
+	 *
+	 * @param kind The event kind.
+	 * @param file The file the event is for.
+	 * @throws IOException If an error occurs while handling the event.
+	 */
+	public void fileEvent(WatchEvent.Kind<?> kind, File file) throws IOException;
+
+	/**
+	 * Called when the watch service dropped events for the directory.
+	 *
+	 * @throws IOException If an error occurs while handling the overflow.
+	 */
+	public void overflow() throws IOException;
+}
@@ -0,0 +1,218 @@
+package org.nikkii.rs07;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches any number of directories using a single {@link WatchService}, dispatching events by {@link WatchKey}.
+ *
+ * Every directory shares the same watch service (and therefore the same inotify instance on linux), and a single
+ * thread running this engine serves all of them.
+ *
+ * @author Nikki
+ */
+public class DirectoryWatchEngine implements Runnable, AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(DirectoryWatchEngine.class.getName());
+
+	/**
+	 * The shared watch service.
+	 */
+	private final WatchService watchService;
+
+	/**
+	 * The watched directories, keyed by their watch key.
+	 */
+	private final Map<WatchKey, WatchedDirectory> keys = new ConcurrentHashMap<>();
+
+	/**
+	 * The watch keys, keyed by the normalized directory path. Also used as the registration lock.
+	 */
+	private final Map<Path, WatchKey> directories = new HashMap<>();
+
+	/**
+	 * Construct a new watch engine.
+	 *
+	 * @throws IOException If the watch service could not be created.
+	 */
+	public DirectoryWatchEngine() throws IOException {
+		this.watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Register a directory with the engine.
+	 *
+	 * @param directory The directory to watch.
+	 * @param listener The listener to dispatch the directory's events to.
+	 * @param kinds The event kinds to watch for.
+	 * @return true if the directory was registered, false if it was already being watched.
+	 * @throws IOException If an error occurs while registering the directory.
+	 */
+	public boolean register(File directory, DirectoryListener listener, WatchEvent.Kind<?>... kinds) throws IOException {
+		Path path = directory.toPath().toAbsolutePath().normalize();
+
+		synchronized (directories) {
+			if (directories.containsKey(path)) {
+				return false;
+			}
+
+			WatchKey key = path.register(watchService, kinds);
+
+			keys.put(key, new WatchedDirectory(directory, listener));
+			directories.put(path, key);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Stop watching a directory.
+	 *
+	 * @param directory The directory.
+	 */
+	public void unregister(File directory) {
+		Path path = directory.toPath().toAbsolutePath().normalize();
+
+		synchronized (directories) {
+			WatchKey key = directories.remove(path);
+
+			if (key != null) {
+				keys.remove(key);
+				key.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Check if a directory is being watched.
+	 *
+	 * @param directory The directory.
+	 * @return If the directory is registered with this engine.
+	 */
+	public boolean isWatching(File directory) {
+		Path path = directory.toPath().toAbsolutePath().normalize();
+
+		synchronized (directories) {
+			return directories.containsKey(path);
+		}
+	}
+
+	/**
+	 * Get a snapshot of the watched directories.
+	 *
+	 * @return The watched directories.
+	 */
+	public List<File> getWatchedDirectories() {
+		List<File> list = new ArrayList<>();
+
+		for (WatchedDirectory dir : keys.values()) {
+			list.add(dir.directory);
+		}
+
+		return list;
+	}
+
+	@Override
+	public void run() {
+		for (; ; ) {
+			// wait for key to be signaled
+			WatchKey key;
+
+			try {
+				key = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				break;
+			}
+
+			WatchedDirectory dir = keys.get(key);
+
+			if (dir == null) {
+				key.cancel();
+				continue;
+			}
+
+			for (WatchEvent<?> event : key.pollEvents()) {
+				dispatch(dir, event);
+			}
+
+			boolean valid = key.reset();
+			if (!valid) {
+				logger.info("No longer watching " + dir.directory.getAbsolutePath());
+
+				unregister(dir.directory);
+			}
+		}
+	}
+
+	/**
+	 * Dispatch a single event to the directory's listener.
+	 *
+	 * A failing listener is logged and does not stop the engine, since the same thread serves every directory.
+	 *
+	 * @param dir The watched directory.
+	 * @param event The event.
+	 */
+	@SuppressWarnings("unchecked")
+	private void dispatch(WatchedDirectory dir, WatchEvent<?> event) {
+		WatchEvent.Kind<?> kind = event.kind();
+
+		try {
+			if (kind == OVERFLOW) {
+				dir.listener.overflow();
+				return;
+			}
+
+			WatchEvent<Path> ev = (WatchEvent<Path>) event;
+			Path filename = ev.context();
+
+			dir.listener.fileEvent(kind, new File(dir.directory, filename.toString()));
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Error while handling " + kind.name() + " in " + dir.directory.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Close the watch service, stopping the engine thread.
+	 *
+	 * @throws IOException If an error occurs while closing the watch service.
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	/**
+	 * A directory registered with the engine.
+	 */
+	private static final class WatchedDirectory {
+		/**
+		 * The directory.
+		 */
+		private final File directory;
+
+		/**
+		 * The listener for the directory's events.
+		 */
+		private final DirectoryListener listener;
+
+		public WatchedDirectory(File directory, DirectoryListener listener) {
+			this.directory = directory;
+			this.listener = listener;
+		}
+	}
+}
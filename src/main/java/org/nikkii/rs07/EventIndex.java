@@ -0,0 +1,421 @@
+package org.nikkii.rs07;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A bounded, persistent set of 64-bit event keys, used to make sure we don't submit duplicate events.
+ *
+ * Keys are stored in an open addressing table of primitive longs, and in a ring buffer which remembers the order
+ * they were added in. Once the index is full, or when keys get too old, the oldest keys are evicted.
+ *
+ * Every change is appended to a journal file so the index survives restarts. The journal is rewritten once it grows
+ * to twice the size of the index.
+ *
+ * @author Nikki
+ */
+public class EventIndex implements AutoCloseable {
+	/**
+	 * The key used to mark an empty table slot.
+	 */
+	private static final long EMPTY = 0;
+
+	/**
+	 * The time written to the journal when a key is removed.
+	 */
+	private static final long REMOVED = 0;
+
+	/**
+	 * The size of a journal record: the key and the time.
+	 */
+	private static final int RECORD_SIZE = 8 + 8;
+
+	/**
+	 * The journal file.
+	 */
+	private final File file;
+
+	/**
+	 * The maximum number of keys.
+	 */
+	private final int capacity;
+
+	/**
+	 * The maximum age of a key in milliseconds, or 0 to keep keys until the index is full.
+	 */
+	private final long maxAge;
+
+	/**
+	 * The table keys.
+	 */
+	private final long[] keys;
+
+	/**
+	 * The time each table key was added.
+	 */
+	private final long[] times;
+
+	/**
+	 * The keys in the order they were added.
+	 */
+	private final long[] ringKeys;
+
+	/**
+	 * The time each ring key was added.
+	 */
+	private final long[] ringTimes;
+
+	/**
+	 * The position of the oldest key in the ring.
+	 */
+	private int head;
+
+	/**
+	 * The number of keys in the ring.
+	 */
+	private int ringSize;
+
+	/**
+	 * The number of keys in the table.
+	 */
+	private int size;
+
+	/**
+	 * The number of records in the journal.
+	 */
+	private int records;
+
+	/**
+	 * The journal output.
+	 */
+	private DataOutputStream output;
+
+	/**
+	 * Construct a new index and load it from its journal.
+	 *
+	 * @param file The journal file.
+	 * @param capacity The maximum number of keys.
+	 * @param maxAge The maximum age of a key in milliseconds, or 0 to keep keys until the index is full.
+	 * @throws IOException If an error occurs while reading or opening the journal.
+	 * @throws IllegalArgumentException If the capacity isn't positive.
+	 */
+	public EventIndex(File file, int capacity, long maxAge) throws IOException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("The capacity must be positive, not " + capacity);
+		}
+
+		this.file = file;
+		this.capacity = capacity;
+		this.maxAge = maxAge;
+
+		int tableSize = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1) << 1;
+
+		this.keys = new long[tableSize];
+		this.times = new long[tableSize];
+		this.ringKeys = new long[capacity];
+		this.ringTimes = new long[capacity];
+
+		if (!load() || records > size * 2) {
+			compact();
+		} else {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		}
+	}
+
+	/**
+	 * Check if a key is in the index.
+	 *
+	 * @param key The key.
+	 * @return If the key is in the index.
+	 */
+	public synchronized boolean contains(long key) {
+		evictExpired(System.currentTimeMillis());
+
+		return indexOf(normalize(key)) != -1;
+	}
+
+	/**
+	 * Add a key to the index, evicting the oldest key if it is full.
+	 *
+	 * @param key The key.
+	 * @return true if the key was added, false if it was already in the index.
+	 * @throws IOException If an error occurs while writing to the journal.
+	 */
+	public synchronized boolean add(long key) throws IOException {
+		key = normalize(key);
+
+		long now = System.currentTimeMillis();
+
+		evictExpired(now);
+
+		if (indexOf(key) != -1) {
+			return false;
+		}
+
+		insert(key, now);
+		append(key, now);
+
+		return true;
+	}
+
+	/**
+	 * Remove a key from the index.
+	 *
+	 * @param key The key.
+	 * @throws IOException If an error occurs while writing to the journal.
+	 */
+	public synchronized void remove(long key) throws IOException {
+		key = normalize(key);
+
+		int index = indexOf(key);
+
+		if (index != -1) {
+			delete(index);
+			append(key, REMOVED);
+		}
+	}
+
+	/**
+	 * Get the number of keys in the index.
+	 *
+	 * @return The number of keys.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Close the journal.
+	 *
+	 * @throws IOException If an error occurs while closing the journal.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		output.close();
+	}
+
+	/**
+	 * Load the index from the journal.
+	 *
+	 * @return false if the journal ends with a partially written record.
+	 * @throws IOException If an error occurs while reading the journal.
+	 */
+	private boolean load() throws IOException {
+		if (!file.exists()) {
+			return true;
+		}
+
+		long length = file.length();
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			for (long i = length / RECORD_SIZE; i > 0; i--) {
+				long key = input.readLong();
+				long time = input.readLong();
+
+				records++;
+
+				int index = indexOf(key);
+
+				if (time == REMOVED) {
+					if (index != -1) {
+						delete(index);
+					}
+				} else if (index == -1) {
+					insert(key, time);
+				}
+			}
+		}
+
+		evictExpired(System.currentTimeMillis());
+
+		// Appending after a partial record would misalign every record after it, so the journal gets rewritten
+		return length % RECORD_SIZE == 0;
+	}
+
+	/**
+	 * Rewrite the journal with only the keys currently in the index.
+	 *
+	 * @throws IOException If an error occurs while writing the journal.
+	 */
+	private void compact() throws IOException {
+		if (output != null) {
+			output.close();
+		}
+
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+		records = 0;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			for (int i = 0; i < ringSize; i++) {
+				int pos = (head + i) % capacity;
+				int index = indexOf(ringKeys[pos]);
+
+				if (index != -1 && times[index] == ringTimes[pos]) {
+					out.writeLong(ringKeys[pos]);
+					out.writeLong(ringTimes[pos]);
+					records++;
+				}
+			}
+		}
+
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	/**
+	 * Append a record to the journal, compacting it if it grew too large.
+	 *
+	 * @param key The key.
+	 * @param time The time the key was added, or {@link #REMOVED}.
+	 * @throws IOException If an error occurs while writing the journal.
+	 */
+	private void append(long key, long time) throws IOException {
+		output.writeLong(key);
+		output.writeLong(time);
+		output.flush();
+
+		if (++records > capacity * 2) {
+			compact();
+		}
+	}
+
+	/**
+	 * Insert a key which isn't in the table, evicting the oldest key if the index is full.
+	 *
+	 * @param key The key.
+	 * @param time The time the key was added.
+	 */
+	private void insert(long key, long time) {
+		if (ringSize == capacity) {
+			evictOldest();
+		}
+
+		int pos = (head + ringSize++) % capacity;
+
+		ringKeys[pos] = key;
+		ringTimes[pos] = time;
+
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+
+		while (keys[index] != EMPTY) {
+			index = (index + 1) & mask;
+		}
+
+		keys[index] = key;
+		times[index] = time;
+		size++;
+	}
+
+	/**
+	 * Evict keys older than the maximum age.
+	 *
+	 * @param now The current time.
+	 */
+	private void evictExpired(long now) {
+		if (maxAge <= 0) {
+			return;
+		}
+
+		while (ringSize > 0 && ringTimes[head] < now - maxAge) {
+			evictOldest();
+		}
+	}
+
+	/**
+	 * Evict the oldest key in the ring. The key is only removed from the table if it wasn't removed and added again
+	 * since.
+	 */
+	private void evictOldest() {
+		int index = indexOf(ringKeys[head]);
+
+		if (index != -1 && times[index] == ringTimes[head]) {
+			delete(index);
+		}
+
+		head = (head + 1) % capacity;
+		ringSize--;
+	}
+
+	/**
+	 * Find the table index of a key.
+	 *
+	 * @param key The key.
+	 * @return The index, or -1 if the key isn't in the table.
+	 */
+	private int indexOf(long key) {
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+
+		while (keys[index] != EMPTY) {
+			if (keys[index] == key) {
+				return index;
+			}
+
+			index = (index + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Delete the key at a table index, shifting back the keys after it so lookups don't need tombstones.
+	 *
+	 * @param index The index.
+	 */
+	private void delete(int index) {
+		int mask = keys.length - 1;
+		int hole = index;
+		int next = (hole + 1) & mask;
+
+		while (keys[next] != EMPTY) {
+			int home = hash(keys[next]) & mask;
+
+			// Move the key into the hole unless its home slot lies cyclically between the hole and its position
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				times[hole] = times[next];
+				hole = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+
+		keys[hole] = EMPTY;
+		times[hole] = 0;
+		size--;
+	}
+
+	/**
+	 * Make sure a key can't collide with the empty slot marker.
+	 *
+	 * @param key The key.
+	 * @return The key to store.
+	 */
+	private static long normalize(long key) {
+		return key == EMPTY ? 1 : key;
+	}
+
+	/**
+	 * Spread the bits of a key into a table index.
+	 *
+	 * @param key The key.
+	 * @return The hash.
+	 */
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
@@ -0,0 +1,578 @@
+package org.nikkii.rs07;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.nikkii.rs07.event.EventRegistry;
+import org.nikkii.rs07.event.OSBuddyEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A durable, append-only journal of events waiting to be submitted.
+ *
+ * Events are written to the journal before they are submitted, and acknowledged once they were submitted
+ * successfully. Events which are still pending when the tracker starts are replayed.
+ *
+ * The journal is split into fixed size, memory mapped segment files. Once every record in a segment was acknowledged
+ * the segment is cleared and reused. Old segments which only hold a few pending records are compacted by copying
+ * those records to the active segment, so the journal stays small even if a few events keep failing. A copied record
+ * keeps its id, so a crash halfway through a compaction can't replay an event twice.
+ *
+ * Record layout: record length (int), state (byte), id (long), followed by the event as UTF-8 JSON. A length of 0
+ * marks the end of a segment.
+ *
+ * @author Nikki
+ */
+public class Outbox implements AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(Outbox.class.getName());
+
+	/**
+	 * The size of a segment file.
+	 */
+	private static final int SEGMENT_SIZE = 1 << 20;
+
+	/**
+	 * The size of a record header.
+	 */
+	private static final int HEADER_SIZE = 4 + 1 + 8;
+
+	/**
+	 * The number of segments with pending records after which old segments are compacted.
+	 */
+	private static final int COMPACT_THRESHOLD = 2;
+
+	/**
+	 * The fraction of a segment's records which may still be pending for it to be compacted.
+	 */
+	private static final int COMPACT_RATIO = 4;
+
+	/**
+	 * The state of a record which is waiting to be submitted.
+	 */
+	private static final byte PENDING = 1;
+
+	/**
+	 * The state of a record which was submitted or dropped.
+	 */
+	private static final byte ACKNOWLEDGED = 2;
+
+	/**
+	 * The directory containing the segment files.
+	 */
+	private final File directory;
+
+	/**
+	 * The Gson instance used to serialize events.
+	 */
+	private final Gson gson;
+
+	/**
+	 * The segments in use.
+	 */
+	private final List<Segment> segments = new ArrayList<>();
+
+	/**
+	 * Cleared segments which can be reused.
+	 */
+	private final Deque<Segment> free = new ArrayDeque<>();
+
+	/**
+	 * The location of every pending record, keyed by id.
+	 */
+	private final Map<Long, Location> pending = new HashMap<>();
+
+	/**
+	 * The ids of pending records which were not handed out by {@link #take()} yet, in order.
+	 */
+	private final Deque<Long> unsent = new ArrayDeque<>();
+
+	/**
+	 * The ids of the events handed out by {@link #take()}.
+	 */
+	private final Map<OSBuddyEvent, Long> ids = new IdentityHashMap<>();
+
+	/**
+	 * The segment new records are appended to.
+	 */
+	private Segment active;
+
+	/**
+	 * The id of the next record.
+	 */
+	private long nextId = 1;
+
+	/**
+	 * The number of segment files, used to name new segments.
+	 */
+	private int segmentCount;
+
+	/**
+	 * Open the outbox, loading the pending events of any existing segments.
+	 *
+	 * @param directory The directory containing the segment files.
+	 * @param gson The Gson instance used to serialize events.
+	 * @throws IOException If an error occurs while opening the segments.
+	 */
+	public Outbox(File directory, Gson gson) throws IOException {
+		this.directory = directory;
+		this.gson = gson;
+
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+
+		load();
+	}
+
+	/**
+	 * Append an event to the journal. The event can be retrieved with {@link #take()}.
+	 *
+	 * @param event The event.
+	 * @throws IOException If an error occurs while writing the event.
+	 */
+	public synchronized void append(OSBuddyEvent event) throws IOException {
+		long id = nextId++;
+
+		pending.put(id, write(id, encode(event).toString().getBytes(StandardCharsets.UTF_8)));
+		unsent.add(id);
+
+		notifyAll();
+	}
+
+	/**
+	 * Wait for the next unsent event.
+	 *
+	 * @return The event.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public synchronized OSBuddyEvent take() throws InterruptedException {
+		while (true) {
+			while (unsent.isEmpty()) {
+				wait();
+			}
+
+			long id = unsent.poll();
+			Location location = pending.get(id);
+
+			if (location == null) {
+				continue;
+			}
+
+			OSBuddyEvent event = read(location);
+
+			if (event == null) {
+				// Unreadable, there's nothing we can do with it
+				acknowledge(id, location);
+				continue;
+			}
+
+			ids.put(event, id);
+			return event;
+		}
+	}
+
+	/**
+	 * Acknowledge an event returned by {@link #take()}, removing it from the journal.
+	 *
+	 * @param event The event.
+	 * @throws IOException If an error occurs while writing to the journal.
+	 */
+	public synchronized void acknowledge(OSBuddyEvent event) throws IOException {
+		Long id = ids.remove(event);
+
+		if (id == null) {
+			return;
+		}
+
+		Location location = pending.get(id);
+
+		if (location != null) {
+			acknowledge(id, location);
+		}
+
+		if (segments.size() > COMPACT_THRESHOLD) {
+			compact();
+		}
+	}
+
+	/**
+	 * Release an event returned by {@link #take()} without acknowledging it. It stays in the journal, and will be
+	 * replayed the next time the outbox is opened.
+	 *
+	 * @param event The event.
+	 */
+	public synchronized void release(OSBuddyEvent event) {
+		ids.remove(event);
+	}
+
+	/**
+	 * Get the number of pending events.
+	 *
+	 * @return The number of events which were not acknowledged yet.
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Get the number of events waiting to be taken.
+	 *
+	 * @return The number of unsent events.
+	 */
+	public synchronized int getUnsentCount() {
+		return unsent.size();
+	}
+
+	/**
+	 * Move the pending records of old segments which were mostly acknowledged to the active segment, so the old
+	 * segments can be reused.
+	 *
+	 * @throws IOException If an error occurs while writing to the journal.
+	 */
+	public synchronized void compact() throws IOException {
+		for (Segment segment : new ArrayList<>(segments)) {
+			if (segment == active || segment.live * COMPACT_RATIO > segment.records) {
+				continue;
+			}
+
+			for (Map.Entry<Long, Location> entry : new ArrayList<>(pending.entrySet())) {
+				Location location = entry.getValue();
+
+				if (location.segment != segment) {
+					continue;
+				}
+
+				byte[] payload = new byte[location.segment.buffer.getInt(location.offset) - HEADER_SIZE];
+
+				readPayload(location, payload);
+
+				// The copy is written and synced before the original is acknowledged
+				Location copy = write(entry.getKey(), payload);
+
+				acknowledge(entry.getKey(), location);
+				pending.put(entry.getKey(), copy);
+			}
+		}
+	}
+
+	/**
+	 * Flush the segments to disk.
+	 */
+	@Override
+	public synchronized void close() {
+		for (Segment segment : segments) {
+			segment.buffer.force();
+		}
+	}
+
+	/**
+	 * Load the existing segments.
+	 *
+	 * @throws IOException If an error occurs while opening a segment.
+	 */
+	private void load() throws IOException {
+		File[] files = directory.listFiles();
+
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().startsWith("outbox-") && file.getName().endsWith(".journal")) {
+					segmentCount++;
+					scan(open(file));
+				}
+			}
+		}
+
+		List<Long> order = new ArrayList<>(pending.keySet());
+		Collections.sort(order);
+		unsent.addAll(order);
+
+		if (!pending.isEmpty()) {
+			logger.info("Replaying " + pending.size() + " pending events from the outbox.");
+		}
+	}
+
+	/**
+	 * Scan the records of a segment.
+	 *
+	 * @param segment The segment.
+	 */
+	private void scan(Segment segment) {
+		MappedByteBuffer buffer = segment.buffer;
+		int offset = 0;
+
+		while (offset + HEADER_SIZE <= SEGMENT_SIZE) {
+			int length = buffer.getInt(offset);
+
+			if (length < HEADER_SIZE || offset + length > SEGMENT_SIZE) {
+				break;
+			}
+
+			byte state = buffer.get(offset + 4);
+			long id = buffer.getLong(offset + 5);
+
+			nextId = Math.max(nextId, id + 1);
+			segment.records++;
+
+			if (state == PENDING) {
+				if (pending.containsKey(id)) {
+					// A compaction copied this record but didn't get to acknowledge the original
+					buffer.put(offset + 4, ACKNOWLEDGED);
+				} else {
+					pending.put(id, new Location(segment, offset));
+					segment.live++;
+				}
+			}
+
+			offset += length;
+		}
+
+		segment.position = offset;
+
+		if (segment.live == 0) {
+			clear(segment);
+		} else {
+			segments.add(segment);
+		}
+	}
+
+	/**
+	 * Write a record to the active segment, starting a new segment if it is full.
+	 *
+	 * @param id The record id.
+	 * @param payload The record payload.
+	 * @return The location of the record.
+	 * @throws IOException If an error occurs while opening a new segment.
+	 */
+	private Location write(long id, byte[] payload) throws IOException {
+		int length = HEADER_SIZE + payload.length;
+
+		if (length > SEGMENT_SIZE - 4) {
+			throw new IOException("Event is too large for the outbox: " + length + " bytes");
+		}
+
+		if (active == null || active.position + length > SEGMENT_SIZE - 4) {
+			active = free.isEmpty() ? open(new File(directory, "outbox-" + segmentCount++ + ".journal")) : free.poll();
+			segments.add(active);
+		}
+
+		int offset = active.position;
+		MappedByteBuffer buffer = active.buffer;
+
+		buffer.position(offset + HEADER_SIZE);
+		buffer.put(payload);
+		buffer.put(offset + 4, PENDING);
+		buffer.putLong(offset + 5, id);
+		// End marker, in case a torn record was left behind the end of a cleared segment
+		buffer.putInt(offset + length, 0);
+		buffer.putInt(offset, length);
+		buffer.force();
+
+		active.position += length;
+		active.records++;
+		active.live++;
+
+		return new Location(active, offset);
+	}
+
+	/**
+	 * Mark a record as acknowledged, clearing its segment if it has no pending records left.
+	 *
+	 * @param id The record id.
+	 * @param location The record location.
+	 */
+	private void acknowledge(long id, Location location) {
+		Segment segment = location.segment;
+
+		segment.buffer.put(location.offset + 4, ACKNOWLEDGED);
+		segment.buffer.force();
+
+		pending.remove(id);
+
+		if (--segment.live == 0) {
+			segments.remove(segment);
+
+			if (segment == active) {
+				active = null;
+			}
+
+			clear(segment);
+		}
+	}
+
+	/**
+	 * Clear a segment and add it to the free list.
+	 *
+	 * @param segment The segment.
+	 */
+	private void clear(Segment segment) {
+		MappedByteBuffer buffer = segment.buffer;
+
+		for (int i = 0; i < segment.position; i++) {
+			buffer.put(i, (byte) 0);
+		}
+
+		buffer.force();
+
+		segment.position = 0;
+		segment.records = 0;
+		free.add(segment);
+	}
+
+	/**
+	 * Read the event stored in a record.
+	 *
+	 * @param location The record location.
+	 * @return The event, or null if the record could not be decoded.
+	 */
+	private OSBuddyEvent read(Location location) {
+		byte[] payload = new byte[location.segment.buffer.getInt(location.offset) - HEADER_SIZE];
+
+		readPayload(location, payload);
+
+		try {
+			return decode(gson.fromJson(new String(payload, StandardCharsets.UTF_8), JsonObject.class));
+		} catch (RuntimeException e) {
+			// Malformed JSON, missing fields or an unknown type
+			logger.warning("Unable to decode outbox record: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Read the payload of a record.
+	 *
+	 * @param location The record location.
+	 * @param payload The array to read the payload into.
+	 */
+	private void readPayload(Location location, byte[] payload) {
+		MappedByteBuffer buffer = location.segment.buffer;
+
+		buffer.position(location.offset + HEADER_SIZE);
+		buffer.get(payload);
+	}
+
+	/**
+	 * Serialize an event.
+	 *
+	 * @param event The event.
+	 * @return The serialized event.
+	 */
+	private static JsonObject encode(OSBuddyEvent event) {
+		JsonObject object = new JsonObject();
+
+		object.addProperty("type", event.getType().name());
+		object.addProperty("displayName", event.getDisplayName());
+		object.addProperty("file", event.getScreenshotFile().getAbsolutePath());
+
+		for (Map.Entry<String, String> field : event.getFields().entrySet()) {
+			object.addProperty(field.getKey(), field.getValue());
+		}
+
+		return object;
+	}
+
+	/**
+	 * Deserialize an event.
+	 *
+	 * @param object The serialized event.
+	 * @return The event.
+	 */
+	private static OSBuddyEvent decode(JsonObject object) {
+		ProgressType type = ProgressType.register(object.get("type").getAsString());
+		String displayName = object.get("displayName").getAsString();
+		File file = new File(object.get("file").getAsString());
+
+		// Every other property is a field, in the order it was written
+		Map<String, String> fields = new LinkedHashMap<>();
+
+		for (Map.Entry<String, JsonElement> property : object.entrySet()) {
+			String name = property.getKey();
+
+			if (!name.equals("type") && !name.equals("displayName") && !name.equals("file")) {
+				fields.put(name, property.getValue().getAsString());
+			}
+		}
+
+		return EventRegistry.create(type, file, displayName, fields);
+	}
+
+	/**
+	 * Open and map a segment file.
+	 *
+	 * @param file The segment file.
+	 * @return The segment.
+	 * @throws IOException If an error occurs while mapping the file.
+	 */
+	private static Segment open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			// The mapping stays valid after the channel is closed
+			return new Segment(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE));
+		}
+	}
+
+	/**
+	 * A memory mapped segment file.
+	 */
+	private static final class Segment {
+		/**
+		 * The mapped file.
+		 */
+		private final MappedByteBuffer buffer;
+
+		/**
+		 * The position of the next record.
+		 */
+		private int position;
+
+		/**
+		 * The number of records.
+		 */
+		private int records;
+
+		/**
+		 * The number of pending records.
+		 */
+		private int live;
+
+		public Segment(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * The location of a record.
+	 */
+	private static final class Location {
+		/**
+		 * The segment containing the record.
+		 */
+		private final Segment segment;
+
+		/**
+		 * The offset of the record in the segment.
+		 */
+		private final int offset;
+
+		public Location(Segment segment, int offset) {
+			this.segment = segment;
+			this.offset = offset;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package org.nikkii.rs07;
+
+import org.nikkii.rs07.event.OSBuddyEvent;
+
+/**
+ * A thread which moves events from the outbox to the update queue as space becomes available.
+ *
+ * @author Nikki
+ */
+public class OutboxFeeder implements Runnable {
+	/**
+	 * The outbox to take events from.
+	 */
+	private final Outbox outbox;
+
+	/**
+	 * The worker to queue events with.
+	 */
+	private final UpdateQueueWorker worker;
+
+	public OutboxFeeder(Outbox outbox, UpdateQueueWorker worker) {
+		this.outbox = outbox;
+		this.worker = worker;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				OSBuddyEvent event = outbox.take();
+
+				while (!worker.queue(event)) {
+					// The queue is full, keep waiting. The event is safe in the outbox meanwhile.
+				}
+			}
+		} catch (InterruptedException e) {
+			// Shutting down
+		}
+	}
+}
@@ -1,37 +1,38 @@
 package org.nikkii.rs07;
 
 import com.google.gson.Gson;
-import org.nikkii.rs07.event.DuelVictoryEvent;
-import org.nikkii.rs07.event.LevelUpEvent;
+import com.google.gson.JsonParseException;
+import org.nikkii.rs07.event.EventClassifier;
+import org.nikkii.rs07.event.EventRule;
 import org.nikkii.rs07.event.OSBuddyEvent;
 import org.nikkii.rs07.event.ParseEventError;
-import org.nikkii.rs07.event.TreasureTrailEvent;
+import org.nikkii.rs07.event.RuleClassifier;
+import org.nikkii.rs07.http.AsyncHttpClient;
+import org.nikkii.rs07.http.EndpointException;
+import org.nikkii.rs07.http.EndpointGuard;
+import org.nikkii.rs07.http.HttpCallback;
+import org.nikkii.rs07.http.HttpConnectionManager;
 import org.nikkii.rs07.http.HttpPostRequest;
 import org.nikkii.rs07.http.HttpRequest;
+import org.nikkii.rs07.http.HttpResponse;
 import org.nikkii.rs07.http.data.RequestData;
+import org.nikkii.rs07.image.EncodedImage;
+import org.nikkii.rs07.image.ImagePipeline;
+import org.nikkii.rs07.metrics.Gauge;
+import org.nikkii.rs07.metrics.GaugeGroup;
+import org.nikkii.rs07.metrics.LatencyHistogram;
+import org.nikkii.rs07.metrics.MetricsRegistry;
 import org.nikkii.rs07.http.multipart.HttpMultipartPostRequest;
 import org.nikkii.rs07.http.multipart.MultipartFile;
 import org.nikkii.rs07.util.DesktopEntryBuilder;
+import org.nikkii.rs07.util.NamedThreadFactory;
+import org.nikkii.rs07.util.PngUtil;
+import org.nikkii.rs07.util.ShutdownLogManager;
 import org.nikkii.rs07.util.Util;
 import org.nikkii.rs07.util.Util.OperatingSystem;
 import org.nikkii.rs07.util.WinRegistry;
 
-import javax.imageio.ImageIO;
-import java.awt.AWTException;
-import java.awt.CheckboxMenuItem;
-import java.awt.Dimension;
-import java.awt.Image;
-import java.awt.MenuItem;
-import java.awt.PopupMenu;
-import java.awt.SystemTray;
-import java.awt.TrayIcon;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.awt.event.ItemEvent;
-import java.awt.event.ItemListener;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import javax.management.JMException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -39,14 +40,24 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.Writer;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 
 /**
  * A progress tracker which watches directories using java's nio watchservice.
@@ -55,63 +66,72 @@ import java.util.regex.Pattern;
  */
 public class ProgressTracker {
 
+	static {
+		// Keeps the shutdown hook's logging, this has to happen before the first logger is created
+		if (System.getProperty("java.util.logging.manager") == null) {
+			System.setProperty("java.util.logging.manager", ShutdownLogManager.class.getName());
+		}
+	}
+
 	private static final Logger logger = Logger.getLogger(ProgressTracker.class.getName());
 
 	private static final String APPLICATION_NAME = "RSLog";
 
 	public static void main(String[] args) throws IOException {
-		logger.info("Finding OSBuddy directory...");
+		boolean headless = false;
 
-		File home = new File(System.getProperty("user.home"));
-
-		File osbuddyRoot = new File(home, "OSBuddy");
+		for (String arg : args) {
+			if (arg.equals("--headless") || arg.equals("--daemon")) {
+				headless = true;
+			} else {
+				logger.warning("Unknown argument: " + arg);
+			}
+		}
 
-		if (!osbuddyRoot.exists()) {
-			throw new IOException("Unable to find OSBuddy folder!");
+		if (headless) {
+			// Image codecs still use AWT classes, this keeps them from looking for a display
+			System.setProperty("java.awt.headless", "true");
 		}
 
-		File watchDir = new File(osbuddyRoot, "screenshots");
+		final ProgressTracker tracker = new ProgressTracker();
 
-		ProgressTracker tracker = new ProgressTracker();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				tracker.shutdown();
+			}
+		}, "shutdown"));
+
+		if (!headless && !TrayMenu.isSupported()) {
+			logger.warning("No system tray available, running headless");
+			headless = true;
+		}
 
-		logger.info("Checking startup...");
-		tracker.checkStartup();
+		if (!headless) {
+			logger.info("Checking startup...");
+			tracker.checkStartup();
 
-		logger.info("Initializing tray icon...");
-		tracker.initializeTrayIcon();
+			logger.info("Initializing tray icon...");
+			new TrayMenu(tracker, tracker.userSettings).install();
+		}
 
 		logger.info("Starting watch service...");
-		tracker.track(watchDir);
-	}
 
-	/**
-	 * The level pattern.
-	 *
-	 * Example: Hunter Level (99)
-	 */
-	private static final Pattern LEVEL_PATTERN = Pattern.compile("^(.*?)\\sLevel\\s\\((\\d+)\\)$");
+		if (tracker.trackRoots() == 0) {
+			logger.severe("Unable to find any screenshot directory!");
+			System.exit(1);
+		}
 
-	/**
-	 * The Treasure Trail pattern.
-	 *
-	 * Example: Treasure Trail - Elite - <date>
-	 */
-	private static final Pattern TREASURE_TRAIL_PATTERN = Pattern.compile("^Treasure Trail - (Easy|Medium|Hard|Elite) - (.*?)$");
+		long rss = Util.getResidentMemory();
 
-	/**
-	 * The Duel Victory pattern.
-	 *
-	 * This is currently broken due to some weird characters in the duel victory names.
-	 */
-	private static final Pattern DUEL_VICTORY_PATTERN = Pattern.compile("^Victory against (.*?) - ([0-9\\._-]+)$");
+		logger.info("Started " + (headless ? "headless " : "") + "in " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms, using "
+			+ (rss >= 0 ? rss / 1024 / 1024 + " MB resident memory" : Runtime.getRuntime().totalMemory() / 1024 / 1024 + " MB heap"));
+	}
 
 	/**
-	 * A list of valid skills.
+	 * The number of recent events shown by the status server.
 	 */
-	private static final List<String> SKILLS = Arrays.asList(new String[]{
-		"Attack", "Strength", "Defence", "Ranged", "Prayer", "Magic", "Hitpoints", "Crafting", "Mining", "Smithing", "Fishing", "Cooking", "Firemaking", "Woodcutting", "Runecraft"
-		, "Agility", "Herblore", "Thieving", "Fletching", "Slayer", "Farming", "Construction", "Hunter"
-	});
+	private static final int RECENT_EVENTS = 50;
 
 	/**
 	 * The Gson instance.
@@ -133,18 +153,120 @@ public class ProgressTracker {
 	 */
 	private final ProgressTrackerUserSettings userSettings;
 
+	/**
+	 * The engine which watches every screenshot directory.
+	 */
+	private final DirectoryWatchEngine watchEngine;
+
+	/**
+	 * The index of previously parsed events, to make sure we don't parse duplicates.
+	 */
+	private final EventIndex parsedEvents;
+
+	/**
+	 * The circuit breaker and retry policy of the image endpoint.
+	 */
+	private final EndpointGuard imageEndpoint;
 
-	private final ExecutorService watchService = Executors.newCachedThreadPool();
+	/**
+	 * The circuit breaker and retry policy of the update endpoint.
+	 */
+	private final EndpointGuard updateEndpoint;
 
 	/**
-	 * The list of previously parsed events, to make sure we don't parse duplicates.
+	 * The journal of events waiting to be submitted.
 	 */
-	private final List<Integer> parsedEvents = new LinkedList<>();
+	private final Outbox outbox;
 
 	/**
 	 * The worker to submit our queue of updates.
 	 */
-	private final UpdateQueueWorker worker = new UpdateQueueWorker(this);
+	private final UpdateQueueWorker worker;
+
+	/**
+	 * The batcher which sends updates in batches, or null if batching is disabled.
+	 */
+	private final UpdateBatcher batcher;
+
+	/**
+	 * The client which keeps submissions in flight without a thread each, or null if submissions are blocking.
+	 */
+	private final AsyncHttpClient client;
+
+	/**
+	 * The pipeline which crops, scales and encodes screenshots before they are uploaded.
+	 */
+	private final ImagePipeline pipeline;
+
+	/**
+	 * The urls of previously uploaded screenshots, or null if screenshots are always uploaded.
+	 */
+	private final UploadCache uploadCache;
+
+	/**
+	 * The scanner which finds screenshots taken while the tracker wasn't running, or null if they are ignored.
+	 */
+	private final BackfillScanner backfill;
+
+	/**
+	 * The detector which waits for screenshots to be completely written.
+	 */
+	private final SettleDetector settleDetector;
+
+	/**
+	 * The classifiers found on the classpath, asked after the rules.
+	 */
+	private final List<EventClassifier> plugins = new ArrayList<>();
+
+	/**
+	 * The classifiers which turn screenshots into events, in the order they are asked.
+	 */
+	private final List<EventClassifier> classifiers;
+
+	/**
+	 * The classifiers of the screenshot roots which have rules of their own, keyed by root directory.
+	 */
+	private final Map<File, List<EventClassifier>> rootClassifiers = new ConcurrentHashMap<>();
+
+	/**
+	 * The counters, gauges and stage latencies of the event pipeline.
+	 */
+	private final MetricsRegistry metrics = new MetricsRegistry();
+
+	/**
+	 * The most recent events, shown by the status server.
+	 */
+	private final RecentEvents recentEvents = new RecentEvents(RECENT_EVENTS);
+
+	/**
+	 * The server which serves the status on localhost, or null if it is disabled.
+	 */
+	private final StatusServer statusServer;
+
+	/**
+	 * The scheduler which logs the statistics and writes the metrics file.
+	 */
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("tracker-scheduler"));
+
+	/**
+	 * The thread which moves events from the outbox to the update queue.
+	 */
+	private final Thread outboxFeeder;
+
+	/**
+	 * The thread which sends batches, or null if batching is disabled.
+	 */
+	private final Thread batcherThread;
+
+	/**
+	 * The metrics file.
+	 */
+	private final File metricsFile;
+
+	/**
+	 * Whether the tracker is shutting down.
+	 */
+	private final AtomicBoolean shutdown = new AtomicBoolean();
 
 	/**
 	 * Construct a new progress tracker.
@@ -152,9 +274,17 @@ public class ProgressTracker {
 	 * @throws IOException If an error occurs loading auth files or reading settings.
 	 */
 	public ProgressTracker() throws IOException {
-		try (Reader reader = new InputStreamReader(ProgressTracker.class.getResourceAsStream("/settings.json"))) {
-			this.settings = gson.fromJson(reader, ProgressTrackerSettings.class);
-		}
+		this(loadSettings());
+	}
+
+	/**
+	 * Construct a new progress tracker which uses other settings than the bundled ones, such as other service urls.
+	 *
+	 * @param settings The progress tracker settings.
+	 * @throws IOException If an error occurs loading auth files or reading the user settings.
+	 */
+	ProgressTracker(ProgressTrackerSettings settings) throws IOException {
+		this.settings = settings;
 
 		File rslogDirectory = new File(System.getProperty("user.home"), ".rslog");
 		File rslogSettings = new File(rslogDirectory, "settings.json");
@@ -169,294 +299,1253 @@ public class ProgressTracker {
 			saveUserSettings();
 		}
 
+		// Every submission thread and the batcher may hold a connection to the same host
+		HttpConnectionManager.setMaxIdleConnections(userSettings.getSubmissionThreads() + 2);
+		HttpConnectionManager.setTimeouts(userSettings.getConnectTimeout(), userSettings.getReadTimeout());
+		HttpConnectionManager.setUploadRate(userSettings.getUploadRateLimit() * 1024L);
+
+		for (EventClassifier classifier : ServiceLoader.load(EventClassifier.class)) {
+			logger.info("Using event classifier " + classifier.getClass().getName());
+			this.plugins.add(classifier);
+		}
+
+		this.classifiers = createClassifiers(Collections.<EventRule>emptyList());
+
 		this.authStore = AuthStore.load(rslogDirectory);
-		new Thread(worker).start();
+		this.parsedEvents = new EventIndex(new File(rslogDirectory, "events.idx"), userSettings.getDedupCapacity(), TimeUnit.DAYS.toMillis(userSettings.getDedupMaxAge()));
+		this.uploadCache = userSettings.getUploadCacheCapacity() > 0
+			? new UploadCache(new File(rslogDirectory, "uploads.idx"), userSettings.getUploadCacheCapacity()) : null;
+		this.imageEndpoint = createEndpointGuard("Image service");
+		this.updateEndpoint = createEndpointGuard("Update service");
+		this.outbox = new Outbox(new File(rslogDirectory, "outbox"), gson);
+		this.watchEngine = new DirectoryWatchEngine();
+		this.watchEngine.register(rslogDirectory, new SettingsWatcher(this, rslogSettings), ENTRY_CREATE, ENTRY_MODIFY);
+		this.worker = new UpdateQueueWorker(this, userSettings.getSubmissionThreads(), userSettings.getQueueCapacity(), userSettings.getQueueTimeout(), userSettings.getSubmitAttempts());
+		this.pipeline = new ImagePipeline(userSettings.isImageCrop() ? settings.getCropRegions() : null,
+			userSettings.getImageMaxWidth(), userSettings.getImageMaxHeight(), userSettings.getImageFormat(),
+			userSettings.getJpegQuality(), userSettings.getImageThreads());
+		this.settleDetector = new SettleDetector(this, metrics, userSettings.getSettleQuietPeriod(), userSettings.getSettleMaxWait());
+		this.backfill = userSettings.isBackfill() ? new BackfillScanner(this, new File(rslogDirectory, "backfill.json"), gson,
+			userSettings.getBackfillThreads(), userSettings.isBackfillHistory()) : null;
+
+		if (userSettings.isAsyncHttp() && AsyncHttpClient.supports(settings.getImageUrl()) && AsyncHttpClient.supports(settings.getUpdateUrl())) {
+			this.client = new AsyncHttpClient(userSettings.getMaxConnectionsPerHost());
+		} else {
+			this.client = null;
+		}
+
+		if (settings.getBatchUpdateUrl() != null && userSettings.getBatchSize() > 1) {
+			this.batcher = new UpdateBatcher(this, worker, updateEndpoint, settings.getBatchUpdateUrl(), gson,
+				userSettings.getBatchSize(), userSettings.getBatchDelay(), userSettings.getSubmitAttempts());
+		} else {
+			this.batcher = null;
+		}
+
+		if (userSettings.getStatisticsInterval() > 0) {
+			logStatistics(userSettings.getStatisticsInterval());
+		}
+
+		this.metricsFile = new File(rslogDirectory, "metrics.json");
+
+		registerMetrics();
+
+		this.statusServer = startStatusServer(userSettings.getStatusPort());
+
+		this.outboxFeeder = new Thread(new OutboxFeeder(outbox, worker), "outbox-feeder");
+		this.batcherThread = batcher != null ? new Thread(batcher, "update-batcher") : null;
+
+		new Thread(watchEngine, "watch-engine").start();
+		new Thread(settleDetector, "settle-detector").start();
+		outboxFeeder.start();
+
+		if (batcherThread != null) {
+			batcherThread.start();
+		}
+
+		if (client != null) {
+			new Thread(client, "http-client").start();
+		}
 	}
 
 	/**
-	 * Save the user settings to file.
-	 * @throws IOException If an error occurs while writing to the file.
+	 * Load the settings bundled with the tracker.
+	 *
+	 * @return The progress tracker settings.
+	 * @throws IOException If an error occurs reading the settings.
 	 */
-	private void saveUserSettings() throws IOException {
-		File settingsDirectory = new File(System.getProperty("user.home"), ".rslog");
-
-		File settingsFile =  new File(settingsDirectory, "settings.json");
-		try (Writer writer = new FileWriter(settingsFile)) {
-			gson.toJson(userSettings, writer);
+	private static ProgressTrackerSettings loadSettings() throws IOException {
+		try (Reader reader = new InputStreamReader(ProgressTracker.class.getResourceAsStream("/settings.json"))) {
+			return new Gson().fromJson(reader, ProgressTrackerSettings.class);
 		}
 	}
 
 	/**
-	 * Initialize the tray icon.
+	 * Log the submission and endpoint statistics every interval, as long as there is activity.
 	 *
-	 * @throws IOException If an error occurs reading the icon file.
+	 * @param interval The interval in seconds.
 	 */
-	private void initializeTrayIcon() throws IOException {
-		Image image = ImageIO.read(ProgressTracker.class.getResourceAsStream("/icon.png"));
+	private void logStatistics(long interval) {
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			private long lastRequests = -1;
 
-		Dimension size = SystemTray.getSystemTray().getTrayIconSize();
+			@Override
+			public void run() {
+				long requests = worker.getExecutor().getSubmitted() + imageEndpoint.getRequests() + imageEndpoint.getRejected()
+					+ updateEndpoint.getRequests() + updateEndpoint.getRejected();
 
-		image = image.getScaledInstance(size.width, size.height, BufferedImage.SCALE_SMOOTH);
+				if (requests != lastRequests) {
+					lastRequests = requests;
 
-		PopupMenu menu = new PopupMenu();
+					logger.info(worker.getExecutor().getStatistics());
+					logger.info(imageEndpoint.getStatistics());
+					logger.info(updateEndpoint.getStatistics());
 
-		final CheckboxMenuItem start = new CheckboxMenuItem("Start on system startup", userSettings.shouldStartOnStartup());
+					if (batcher != null) {
+						logger.info(batcher.getStatistics());
+					}
 
-		start.addItemListener(new ItemListener() {
-			@Override
-			public void itemStateChanged(ItemEvent e) {
-				userSettings.setStartOnStartup(start.getState());
+					logger.info(HttpConnectionManager.getStatistics());
 
-				try {
-					saveUserSettings();
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
+					if (client != null) {
+						logger.info(client.getStatistics());
+					}
 
-				checkStartup();
+					if (pipeline.getImages() > 0) {
+						logger.info(pipeline.getStatistics());
+					}
+
+					if (uploadCache != null) {
+						logger.info(uploadCache.getStatistics());
+					}
+				}
 			}
-		});
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Shut the tracker down, when the process exits. Only the first call does anything.
+	 *
+	 * New screenshots stop being watched first, then the events which are already queued get until the shutdown
+	 * timeout to be submitted. Whatever is still queued or in flight after that was never acknowledged, so it stays
+	 * in the outbox and is submitted on the next start, as are screenshots which hadn't settled yet, which the next
+	 * backfill finds again. Finally the journals are flushed and the metrics are written one last time.
+	 */
+	public void shutdown() {
+		if (!shutdown.compareAndSet(false, true)) {
+			return;
+		}
 
-		menu.add(start);
+		long start = System.nanoTime();
 
-		MenuItem exit = new MenuItem("Exit");
+		logger.info("Shutting down, " + worker.getQueueDepth() + " events queued");
 
-		exit.addActionListener(new ActionListener() {
-			@Override
-			public void actionPerformed(ActionEvent event) {
-				System.exit(1);
-			}
-		});
+		close(watchEngine, "watch engine");
+		close(settleDetector, "settle detector");
+		close(backfill, "backfill scanner");
+		outboxFeeder.interrupt();
+
+		if (!drain(userSettings.getShutdownTimeout())) {
+			logger.warning("Gave up waiting for " + worker.getQueueDepth() + " events to be submitted");
+		}
+
+		worker.getExecutor().shutdown();
+
+		if (batcherThread != null) {
+			batcherThread.interrupt();
+		}
 
-		menu.add(exit);
+		close(client, "HTTP client");
+		close(pipeline, "image pipeline");
+		scheduler.shutdownNow();
+
+		close(outbox, "outbox");
+		close(parsedEvents, "event index");
+		close(uploadCache, "upload cache");
 
 		try {
-			SystemTray.getSystemTray().add(new TrayIcon(image, "RSLog Tracker", menu));
-		} catch (AWTException e) {
-			e.printStackTrace();
+			metrics.writeTo(metricsFile, gson);
+		} catch (IOException e) {
+			logger.warning("Unable to write metrics: " + e.getMessage());
 		}
-	}
 
-	/**
-	 * Re-checks the start on startup option.
-	 */
-	private void checkStartup() {
 		try {
-			File jarFile = Util.getJarFile(ProgressTracker.class);
+			metrics.unregisterMBean();
+		} catch (JMException e) {
+			logger.warning("Unable to unregister the metrics MBean: " + e.getMessage());
+		}
 
-			logger.info("Launch location: " + jarFile.getAbsolutePath());
+		close(statusServer, "status server");
 
-			if (userSettings.shouldStartOnStartup()) {
-				verifyAutostart(jarFile, VerificationMode.INSERT);
-			} else {
-				verifyAutostart(jarFile, VerificationMode.REMOVE);
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		logger.info(String.format("Shut down in %d ms, %d events left in the outbox for the next start",
+			TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), outbox.getPendingCount()));
+
+		ShutdownLogManager.finish();
 	}
 
 	/**
-	 * Track a screenshot directory.
+	 * Wait for the update queue to be empty.
 	 *
-	 * @param dir The screenshot gallery directory.
-	 * @throws IOException If an error occurs while tracking file modifications.
+	 * @param timeout The time in milliseconds to wait at most.
+	 * @return true if the queue is empty, false if it wasn't in time.
 	 */
-	public void track(File dir) throws IOException {
-		logger.info("Watching " + dir.getAbsolutePath());
+	private boolean drain(long timeout) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
 
-		watchService.execute(new DirectoryCreationWatcher(this, dir));
+		try {
+			while (worker.getQueueDepth() > 0) {
+				if (System.nanoTime() - deadline >= 0) {
+					return false;
+				}
 
-		for (File file : dir.listFiles()) {
-			if (!file.isDirectory()) {
-				continue;
+				Thread.sleep(50);
 			}
-
-			trackScreenshots(file);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
 		}
+
+		return true;
 	}
 
 	/**
-	 * Track a display name's screenshot directory.
+	 * Close a component while shutting down, logging rather than throwing any error.
 	 *
-	 * @param dir The subdirectory to track.
+	 * @param closeable The component, or null if it is disabled.
+	 * @param name The component name.
 	 */
-	public void trackScreenshots(File dir) {
-		logger.info("Tracking screenshots for " + dir.getName());
+	private static void close(AutoCloseable closeable, String name) {
+		if (closeable == null) {
+			return;
+		}
 
-		watchService.execute(new ScreenshotWatcher(this, dir));
+		try {
+			closeable.close();
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Unable to close the " + name, e);
+		}
 	}
 
 	/**
-	 * Parse the file after it was modified, checking new events.
+	 * Start the status server, if it is enabled.
 	 *
-	 * @param directory The directory in which the screenshot was created.
-	 * @param file The file which was modified.
-	 * @throws IOException if an error occurs while reading or deserializing the file.
+	 * @param port The port to listen on, or 0 to not start it.
+	 * @return The status server, or null if it is disabled or could not be started.
 	 */
-	public void screenshotCreated(File directory, File file) throws IOException {
-		logger.info("Screenshot found for " + directory.getName() + ", file: " + file.getName());
+	private StatusServer startStatusServer(int port) {
+		if (port <= 0) {
+			return null;
+		}
 
-		OSBuddyEvent evt = parseEvent(directory.getName(), file);
+		try {
+			return new StatusServer(this, metrics, gson, port);
+		} catch (IOException e) {
+			logger.warning("Unable to start the status server on port " + port + ": " + e.getMessage());
+			return null;
+		}
+	}
 
-		if (evt == null || parsedEvents.contains(evt.hashCode())) {
-			return;
+	/**
+	 * Get the status served by the status server: the queue, watched directories, recent events and endpoints.
+	 *
+	 * @return The status, ready to be serialized.
+	 */
+	public Map<String, Object> getStatus() {
+		Map<String, Object> queue = new LinkedHashMap<>();
+		queue.put("depth", worker.getQueueDepth());
+		queue.put("remainingCapacity", worker.getRemainingCapacity());
+		queue.put("settling", settleDetector.getPending());
+		queue.put("outboxPending", outbox.getPendingCount());
+		queue.put("outboxUnsent", outbox.getUnsentCount());
+
+		List<String> directories = new ArrayList<>();
+
+		for (File directory : watchEngine.getWatchedDirectories()) {
+			directories.add(directory.getAbsolutePath());
 		}
 
-		parsedEvents.add(evt.hashCode());
+		Map<String, Object> endpoints = new LinkedHashMap<>();
+		endpoints.put("image", getEndpointStatus(imageEndpoint, "stage.upload"));
+		endpoints.put("update", getEndpointStatus(updateEndpoint, "stage.update"));
 
-		worker.queue(evt);
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("uptime", ManagementFactory.getRuntimeMXBean().getUptime());
+		status.put("queue", queue);
+		status.put("watchedDirectories", directories);
+		status.put("recentEvents", recentEvents.getEvents());
+		status.put("endpoints", endpoints);
+		status.put("httpStatusCodes", HttpConnectionManager.getStatusCounts());
+
+		return status;
 	}
 
 	/**
-	 * Submit a progress event to the web service.
+	 * Get the status of an endpoint.
 	 *
-	 * @param evt The event to submit.
+	 * @param guard The endpoint's guard.
+	 * @param histogram The name of the histogram its request latencies are recorded in.
+	 * @return The status.
 	 */
-	public void submitProgress(OSBuddyEvent evt) {
-		try {
-			RequestData data = new RequestData();
-
-			data.put("type", evt.getType())
-				.put("displayName", evt.getDisplayName())
-				.put("time", System.currentTimeMillis() / 1000L);
+	private Map<String, Object> getEndpointStatus(EndpointGuard guard, String histogram) {
+		LatencyHistogram.Snapshot latency = metrics.histogram(histogram).getSnapshot();
+
+		Map<String, Object> latencyMillis = new LinkedHashMap<>();
+		latencyMillis.put("count", latency.getCount());
+		latencyMillis.put("mean", latency.getMean() / 1000);
+		latencyMillis.put("p50", latency.getPercentile(50) / 1000.0);
+		latencyMillis.put("p99", latency.getPercentile(99) / 1000.0);
+		latencyMillis.put("max", latency.getMax() / 1000.0);
+
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("name", guard.getName());
+		status.put("circuit", guard.getState());
+		status.put("requests", guard.getRequests());
+		status.put("failures", guard.getFailures());
+		status.put("rejected", guard.getRejected());
+		status.put("opened", guard.getOpened());
+		status.put("latencyMillis", latencyMillis);
+
+		return status;
+	}
 
-			if (authStore.hasAuth(evt.getDisplayName())) {
-				data.put("key", authStore.getAuth(evt.getDisplayName()));
+	/**
+	 * Register the gauges of every component, then expose the metrics through JMX and write them to a file every
+	 * interval, as enabled in the user settings.
+	 */
+	private void registerMetrics() {
+		metrics.gauge("queue.depth", new Gauge() {
+			@Override
+			public long getValue() {
+				return worker.getQueueDepth();
 			}
-
-			if (evt.hasScreenshot()) {
-				data.put("url", uploadImage(evt.getDisplayName(), evt.getScreenshot()));
+		});
+		metrics.gauge("settle.pending", new Gauge() {
+			@Override
+			public long getValue() {
+				return settleDetector.getPending();
+			}
+		});
+		metrics.gauge("outbox.pending", new Gauge() {
+			@Override
+			public long getValue() {
+				return outbox.getPendingCount();
+			}
+		});
+		metrics.gauge("outbox.unsent", new Gauge() {
+			@Override
+			public long getValue() {
+				return outbox.getUnsentCount();
+			}
+		});
+		metrics.gauge("submissions.retries", new Gauge() {
+			@Override
+			public long getValue() {
+				return worker.getExecutor().getRetries();
+			}
+		});
+		metrics.gauge("dedup.size", new Gauge() {
+			@Override
+			public long getValue() {
+				return parsedEvents.size();
 			}
+		});
+		metrics.gauge("http.requests", new Gauge() {
+			@Override
+			public long getValue() {
+				return HttpConnectionManager.getRequests();
+			}
+		});
+		metrics.gauge("http.handshakes", new Gauge() {
+			@Override
+			public long getValue() {
+				return HttpConnectionManager.getHandshakes();
+			}
+		});
+		metrics.gauges("http.status.", new GaugeGroup() {
+			@Override
+			public Map<String, Long> getValues() {
+				Map<String, Long> values = new LinkedHashMap<>();
 
-			switch (evt.getType()) {
-			case LEVEL_UP:
-				LevelUpEvent levelUp = (LevelUpEvent) evt;
+				for (Map.Entry<Integer, Long> status : HttpConnectionManager.getStatusCounts().entrySet()) {
+					values.put(String.valueOf(status.getKey()), status.getValue());
+				}
 
-				data.put("skill", levelUp.getSkill())
-					.put("level", levelUp.getLevel());
-				logger.info("[" + evt.getDisplayName() + "] Skill Level - Skill : " + levelUp.getSkill() + ", Level: " + levelUp.getLevel());
-				break;
-			case TREASURE_TRAIL:
-				TreasureTrailEvent trail = (TreasureTrailEvent) evt;
+				return values;
+			}
+		});
+		metrics.gauges("endpoint.", new GaugeGroup() {
+			@Override
+			public Map<String, Long> getValues() {
+				Map<String, Long> values = new LinkedHashMap<>();
 
-				data.put("difficulty", trail.getDifficulty());
-				logger.info("[" + evt.getDisplayName() + "] Treasure Trail - Difficulty: " + trail.getDifficulty());
-				break;
-			case DUEL_VICTORY:
-				DuelVictoryEvent victory = (DuelVictoryEvent) evt;
+				values.put("image.rejected", imageEndpoint.getRejected());
+				values.put("image.opened", imageEndpoint.getOpened());
+				values.put("update.rejected", updateEndpoint.getRejected());
+				values.put("update.opened", updateEndpoint.getOpened());
 
-				data.put("opponent", victory.getOpponent());
-				logger.info("[" + evt.getDisplayName() + "] Duel Victory - Opponent: " + victory.getOpponent());
-				break;
+				return values;
 			}
+		});
+
+		if (batcher != null) {
+			metrics.gauge("batches.sent", new Gauge() {
+				@Override
+				public long getValue() {
+					return batcher.getBatches();
+				}
+			});
+		}
 
-			try (HttpPostRequest request = new HttpPostRequest(settings.getUpdateUrl())) {
-				request.setParameters(data);
+		if (client != null) {
+			metrics.gauge("http.inFlight", new Gauge() {
+				@Override
+				public long getValue() {
+					return client.getInFlight();
+				}
+			});
+			// The connections of blocking requests are pooled by the JDK and can't be counted, only these
+			metrics.gauge("http.connections", new Gauge() {
+				@Override
+				public long getValue() {
+					return client.getConnections();
+				}
+			});
+		}
 
-				String body = request.getResponseBody();
+		if (userSettings.isMetricsJmx()) {
+			try {
+				metrics.registerMBean("org.nikkii.rs07:type=Metrics");
+			} catch (JMException e) {
+				logger.warning("Unable to register the metrics MBean: " + e.getMessage());
+			}
+		}
 
-				if (!body.equals("ok")) {
-					body = body.trim();
+		long interval = userSettings.getMetricsInterval();
 
-					logger.info("Got auth token " + body);
+		if (interval <= 0) {
+			return;
+		}
 
-					authStore.setAuth(evt.getDisplayName(), body);
-					authStore.save();
-				} else {
-					logger.info("[" + evt.getDisplayName() + "] Update successfully pushed.");
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					metrics.writeTo(metricsFile, gson);
+				} catch (IOException e) {
+					logger.warning("Unable to write metrics: " + e.getMessage());
 				}
 			}
-		} catch (IOException e) {
-			System.out.println("[" + evt.getDisplayName() + "] An error occurred while pushing the update.");
-			e.printStackTrace();
-		}
+		}, interval, interval, TimeUnit.SECONDS);
 	}
 
 	/**
-	 * Parse an osbuddy gallery entry into an event.
+	 * Create an endpoint guard using the retry settings.
 	 *
-	 * @param displayName The character display name.
-	 * @param file The screenshot file.
-	 * @return The parsed event, or null if unable to find one.
-	 * @throws ParseEventError If an error occurs while parsing the event (invalid skill, etc)
+	 * @param name The endpoint name.
+	 * @return The endpoint guard.
+	 */
+	private EndpointGuard createEndpointGuard(String name) {
+		return new EndpointGuard(name, userSettings.getCircuitFailureThreshold(), userSettings.getCircuitOpenTime(),
+			userSettings.getRetryBaseDelay(), userSettings.getRetryMaxDelay());
+	}
+
+	/**
+	 * Save the user settings to file.
+	 * @throws IOException If an error occurs while writing to the file.
+	 */
+	void saveUserSettings() throws IOException {
+		File settingsDirectory = new File(System.getProperty("user.home"), ".rslog");
+
+		File settingsFile =  new File(settingsDirectory, "settings.json");
+		try (Writer writer = new FileWriter(settingsFile)) {
+			gson.toJson(userSettings, writer);
+		}
+	}
+
+	/**
+	 * Reload the user settings after the file was changed, applying the settings which can change while running.
+	 * Only the upload rate limit is applied, every other setting takes effect on the next start.
+	 */
+	public void reloadUserSettings() {
+		File settingsFile = new File(new File(System.getProperty("user.home"), ".rslog"), "settings.json");
+
+		ProgressTrackerUserSettings reloaded;
+
+		try (Reader reader = new FileReader(settingsFile)) {
+			reloaded = gson.fromJson(reader, ProgressTrackerUserSettings.class);
+		} catch (IOException | JsonParseException e) {
+			// The file may still be being written, the next change reloads it again
+			logger.warning("Unable to reload user settings: " + e.getMessage());
+			return;
+		}
+
+		if (reloaded != null && reloaded.getUploadRateLimit() != userSettings.getUploadRateLimit()) {
+			setUploadRateLimit(reloaded.getUploadRateLimit());
+		}
+	}
+
+	/**
+	 * Set the upload rate shared by every request.
+	 *
+	 * @param uploadRateLimit The rate in kilobytes per second, or 0 if unlimited.
 	 */
-	private OSBuddyEvent parseEvent(String displayName, File file) throws ParseEventError {
-		String screenshotName = file.getName().substring(0, file.getName().lastIndexOf('.'));
+	void setUploadRateLimit(int uploadRateLimit) {
+		userSettings.setUploadRateLimit(uploadRateLimit);
 
-		BufferedImage screenshot = null;
+		HttpConnectionManager.setUploadRate(uploadRateLimit * 1024L);
 
-		// Attempt to load the screenshot
+		logger.info("Upload rate limit: " + (uploadRateLimit > 0 ? uploadRateLimit + " KB/s" : "unlimited"));
+	}
 
+	/**
+	 * Re-checks the start on startup option.
+	 */
+	void checkStartup() {
 		try {
-			screenshot = ImageIO.read(file);
+			File jarFile = Util.getJarFile(ProgressTracker.class);
+
+			logger.info("Launch location: " + jarFile.getAbsolutePath());
+
+			if (userSettings.shouldStartOnStartup()) {
+				verifyAutostart(jarFile, VerificationMode.INSERT);
+			} else {
+				verifyAutostart(jarFile, VerificationMode.REMOVE);
+			}
 		} catch (Exception e) {
-			// Nothing to it.
 			e.printStackTrace();
 		}
+	}
+
+	/**
+	 * Track every screenshot root in the user settings, or OSBuddy's screenshot directory if there are none. Roots
+	 * which don't exist are skipped.
+	 *
+	 * @return The number of tracked roots.
+	 * @throws IOException If an error occurs while tracking file modifications.
+	 */
+	public int trackRoots() throws IOException {
+		List<ScreenshotRoot> roots = userSettings.getScreenshotRoots();
+
+		if (roots.isEmpty()) {
+			roots = Collections.singletonList(new ScreenshotRoot("OSBuddy", "~/OSBuddy/screenshots"));
+		}
+
+		int tracked = 0;
+
+		for (ScreenshotRoot root : roots) {
+			File directory = root.getDirectory();
+
+			if (directory == null || !directory.isDirectory()) {
+				logger.warning("Unable to find the screenshot directory of " + root.getName() + ", skipping it");
+				continue;
+			}
+
+			logger.info("Finding screenshots of " + root.getName());
+			track(directory, root.getEventRules());
+			tracked++;
+		}
+
+		return tracked;
+	}
+
+	/**
+	 * Track a screenshot directory, using the rules of the user settings.
+	 *
+	 * @param dir The screenshot gallery directory.
+	 * @throws IOException If an error occurs while tracking file modifications.
+	 */
+	public void track(File dir) throws IOException {
+		track(dir, Collections.<EventRule>emptyList());
+	}
+
+	/**
+	 * Track a screenshot directory.
+	 *
+	 * @param dir The screenshot gallery directory.
+	 * @param rules Rules which only apply to this directory, tried before every other rule.
+	 * @throws IOException If an error occurs while tracking file modifications.
+	 */
+	public void track(File dir, List<EventRule> rules) throws IOException {
+		logger.info("Watching " + dir.getAbsolutePath());
+
+		// Set before anything is watched, so every screenshot is classified with the root's rules
+		if (!rules.isEmpty()) {
+			rootClassifiers.put(dir.getAbsoluteFile(), createClassifiers(rules));
+		}
+
+		watchEngine.register(dir, new DirectoryCreationWatcher(this, dir), ENTRY_CREATE);
+
+		for (File file : dir.listFiles()) {
+			if (!file.isDirectory()) {
+				continue;
+			}
+
+			trackScreenshots(file);
+		}
+	}
+
+	/**
+	 * Track a display name's screenshot directory.
+	 *
+	 * @param dir The subdirectory to track.
+	 * @throws IOException If an error occurs while registering the directory.
+	 */
+	public void trackScreenshots(File dir) throws IOException {
+		if (watchEngine.register(dir, new ScreenshotWatcher(this, dir), ENTRY_CREATE, ENTRY_MODIFY)) {
+			logger.info("Tracking screenshots for " + dir.getName());
+
+			// Registered first, so a screenshot taken during the scan is seen by one or the other
+			if (backfill != null) {
+				backfill.scan(dir);
+			}
+		}
+	}
+
+	/**
+	 * Wait for a screenshot which was created or written to to settle, unless its name shows it isn't an event.
+	 *
+	 * @param directory The directory in which the screenshot was created.
+	 * @param file The file which was modified.
+	 */
+	public void screenshotChanged(File directory, File file) {
+		try {
+			if (parseEvent(directory, file) == null) {
+				return;
+			}
+		} catch (ParseEventError e) {
+			// Reported once the file has settled
+		}
+
+		if (settleDetector.watch(directory, file)) {
+			long modified = file.lastModified();
+
+			metrics.counter("events.detected").increment();
+
+			if (modified > 0) {
+				metrics.histogram("stage.detect").record(System.currentTimeMillis() - modified, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Parse a screenshot once it has been completely written, checking new events.
+	 *
+	 * @param directory The directory in which the screenshot was created.
+	 * @param file The screenshot.
+	 * @throws IOException if an error occurs while reading or deserializing the file.
+	 */
+	public void screenshotSettled(File directory, File file) throws IOException {
+		logger.info("Screenshot found for " + directory.getName() + ", file: " + file.getName());
+
+		processScreenshot(directory, file);
+
+		if (backfill != null) {
+			backfill.advance(directory, file);
+		}
+	}
+
+	/**
+	 * Parse a screenshot which was taken while the tracker wasn't running. Like a new screenshot, it is only read
+	 * if its name shows it is an event.
+	 *
+	 * @param directory The directory the screenshot is in.
+	 * @param file The screenshot.
+	 * @return What became of the screenshot.
+	 */
+	public BackfillScanner.Result backfillScreenshot(File directory, File file) {
+		try {
+			if (parseEvent(directory, file) == null) {
+				return BackfillScanner.Result.SKIPPED;
+			}
+		} catch (ParseEventError e) {
+			// Reported once the file was checked to be complete
+		}
+
+		try {
+			// Still being written, the settle detector takes it from here
+			if (!settleDetector.isSettled(file)) {
+				settleDetector.watch(directory, file);
+				return BackfillScanner.Result.PENDING;
+			}
+
+			return processScreenshot(directory, file) ? BackfillScanner.Result.NEW_EVENT : BackfillScanner.Result.SKIPPED;
+		} catch (ParseEventError e) {
+			logger.fine("Skipping " + file.getName() + ": " + e.getMessage());
+			return BackfillScanner.Result.SKIPPED;
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Unable to backfill " + file.getName(), e);
+			return BackfillScanner.Result.FAILED;
+		}
+	}
+
+	/**
+	 * Parse a screenshot and add its event to the outbox, unless it was seen before.
+	 *
+	 * @param directory The directory the screenshot is in.
+	 * @param file The screenshot.
+	 * @return true if the screenshot was a new event.
+	 * @throws IOException If an error occurs while parsing the screenshot or writing to the outbox.
+	 */
+	private boolean processScreenshot(File directory, File file) throws IOException {
+		long start = System.nanoTime();
+		OSBuddyEvent evt;
+
+		try {
+			evt = parseEvent(directory, file);
+		} catch (ParseEventError e) {
+			metrics.counter("failures.parse").increment();
+			throw e;
+		}
+
+		metrics.histogram("stage.parse").recordSince(start);
+
+		if (evt == null) {
+			return false;
+		}
+
+		start = System.nanoTime();
+
+		boolean added = parsedEvents.add(evt.getKey());
+
+		metrics.histogram("stage.dedup").recordSince(start);
+
+		if (!added) {
+			metrics.counter("events.duplicate").increment();
+			return false;
+		}
+
+		metrics.counter("events.parsed").increment();
+
+		try {
+			outbox.append(evt);
+		} catch (IOException e) {
+			// Allow the event to be picked up again
+			parsedEvents.remove(evt.getKey());
+			throw e;
+		}
+
+		recentEvents.add(evt);
+
+		return true;
+	}
+
+	/**
+	 * Drop an event for good, removing it from the outbox.
+	 *
+	 * @param evt The event.
+	 * @throws IOException If an error occurs while writing to the outbox.
+	 */
+	public void discardEvent(OSBuddyEvent evt) throws IOException {
+		metrics.counter("events.dropped").increment();
+		recentEvents.update(evt, RecentEvents.Status.DROPPED);
+		outbox.acknowledge(evt);
+	}
+
+	/**
+	 * Keep an event which could not be submitted in the outbox, to be replayed the next time the tracker starts.
+	 *
+	 * @param evt The event.
+	 */
+	public void deferEvent(OSBuddyEvent evt) {
+		metrics.counter("events.deferred").increment();
+		recentEvents.update(evt, RecentEvents.Status.DEFERRED);
+		outbox.release(evt);
+	}
+
+	/**
+	 * Check if submissions are asynchronous, in which case {@link #submitProgress(OSBuddyEvent, HttpCallback)} should
+	 * be used.
+	 *
+	 * @return If the async http client is used.
+	 */
+	public boolean isAsync() {
+		return client != null;
+	}
+
+	/**
+	 * Submit a progress event to the web service.
+	 *
+	 * The screenshot is always uploaded right away. If batching is enabled, the update itself is handed to the
+	 * batcher, which completes the event once its batch was sent.
+	 *
+	 * @param evt The event to submit.
+	 * @return true if the event was submitted, false if it is waiting in a batch.
+	 * @throws IOException If an error occurs while uploading the screenshot or pushing the update.
+	 */
+	public boolean submitProgress(OSBuddyEvent evt) throws IOException {
+		RequestData data = createUpdate(evt, uploadImage(evt));
+
+		if (batcher != null && batcher.isSupported()) {
+			batcher.add(evt, data);
+			return false;
+		}
+
+		postUpdate(evt, data);
+		return true;
+	}
+
+	/**
+	 * Submit a progress event to the web service without blocking, using the async http client.
+	 *
+	 * @param evt The event to submit.
+	 * @param callback The callback, completed with true if the event was submitted, or false if it is waiting in a
+	 * batch.
+	 * @throws IOException If the screenshot upload could not be started.
+	 */
+	public void submitProgress(final OSBuddyEvent evt, final HttpCallback<Boolean> callback) throws IOException {
+		final long start = System.nanoTime();
+		final String digest = getUploadDigest(evt);
+		String uploaded = digest != null ? uploadCache.get(digest) : null;
+
+		if (uploaded != null) {
+			metrics.counter("upload.cached").increment();
+			submitUpdate(evt, uploaded, callback);
+			return;
+		}
 
-		// Level up
+		boolean encode = needsEncoding(evt);
 
-		Matcher m = LEVEL_PATTERN.matcher(screenshotName);
+		imageEndpoint.acquire();
 
-		if (m.find()) {
-			String skill = m.group(1), level = m.group(2);
+		if (!encode) {
+			MultipartFile image;
 
-			if (!SKILLS.contains(skill)) {
-				throw new ParseEventError("Unknown skill " + skill);
+			try {
+				image = new MultipartFile("progress.png", evt.getScreenshotFile());
+			} catch (IOException e) {
+				// The screenshot is gone, the endpoint wasn't contacted
+				imageEndpoint.release();
+				throw e;
 			}
 
-			return new LevelUpEvent(file, displayName, screenshot, skill, Integer.parseInt(level));
+			submitProgress(evt, digest, image, start, callback);
+			return;
 		}
 
-		// Treasure Trail
+		pipeline.submit(evt, new HttpCallback<EncodedImage>() {
+			@Override
+			public void completed(EncodedImage image) {
+				try {
+					submitProgress(evt, digest, new MultipartFile(image.getFileName(), image.getData()), start, callback);
+				} catch (IOException e) {
+					callback.failed(e);
+				}
+			}
+
+			@Override
+			public void failed(IOException e) {
+				// The screenshot could not be encoded, the endpoint wasn't contacted
+				imageEndpoint.release();
+				callback.failed(e);
+			}
+		});
+	}
+
+	/**
+	 * Upload an event's screenshot and submit the event once it was uploaded, using the async http client. The image
+	 * endpoint's guard must have been acquired.
+	 *
+	 * @param evt The event to submit.
+	 * @param digest The screenshot digest to remember the uploaded url by, or null.
+	 * @param image The screenshot file or encoded image.
+	 * @param start The time the submission started, in nanoseconds.
+	 * @param callback The callback, completed with true if the event was submitted, or false if it is waiting in a
+	 * batch.
+	 * @throws IOException If the screenshot upload could not be started.
+	 */
+	private void submitProgress(final OSBuddyEvent evt, final String digest, final MultipartFile image, final long start,
+								final HttpCallback<Boolean> callback) throws IOException {
+		send(createImageRequest(evt, image), imageEndpoint, "upload", start, new HttpCallback<String>() {
+			@Override
+			public void completed(String url) {
+				metrics.counter("upload.images").increment();
+				metrics.counter("upload.bytes").add(Math.max(image.getLength(), 0));
+				rememberUpload(digest, url);
 
-		m = TREASURE_TRAIL_PATTERN.matcher(screenshotName);
+				try {
+					submitUpdate(evt, url, callback);
+				} catch (IOException e) {
+					callback.failed(e);
+				}
+			}
 
-		if (m.find()) {
-			String difficulty = m.group(1);
+			@Override
+			public void failed(IOException e) {
+				callback.failed(e);
+			}
+		});
+	}
 
-			String timestamp = m.group(2);
+	/**
+	 * Submit the update of an event whose screenshot was uploaded, using the async http client.
+	 *
+	 * @param evt The event to submit.
+	 * @param url The uploaded screenshot url.
+	 * @param callback The callback, completed with true if the event was submitted, or false if it is waiting in a
+	 * batch.
+	 * @throws IOException If the update could not be started.
+	 */
+	private void submitUpdate(final OSBuddyEvent evt, String url, final HttpCallback<Boolean> callback) throws IOException {
+		RequestData data = createUpdate(evt, url);
 
-			return new TreasureTrailEvent(file, displayName, screenshot, difficulty, timestamp);
+		if (batcher != null && batcher.isSupported()) {
+			batcher.add(evt, data);
+			callback.completed(false);
+			return;
 		}
 
-		// Duel victory
+		long start = System.nanoTime();
 
-		/*m = DUEL_VICTORY_PATTERN.matcher(screenshotName);
+		updateEndpoint.acquire();
 
-		if (m.find()) {
-			String opponent = m.group(1);
-			String timestamp = m.group(2);
+		HttpPostRequest request = new HttpPostRequest(settings.getUpdateUrl());
+		request.setParameters(data);
 
-			return new DuelVictoryEvent(entry, displayName, screenshot, opponent, timestamp);
-		}*/
+		send(request, updateEndpoint, "update", start, new HttpCallback<String>() {
+			@Override
+			public void completed(String body) {
+				try {
+					completeUpdate(evt, body);
+				} catch (IOException e) {
+					callback.failed(e);
+					return;
+				}
+
+				callback.completed(true);
+			}
+
+			@Override
+			public void failed(IOException e) {
+				callback.failed(e);
+			}
+		});
+	}
+
+	/**
+	 * Send a request to a guarded endpoint using the async http client. The guard must have been acquired.
+	 *
+	 * @param request The request.
+	 * @param guard The endpoint's guard.
+	 * @param stage The pipeline stage the request is timed as, "upload" or "update".
+	 * @param start The time the stage started, in nanoseconds.
+	 * @param callback The callback, completed with the response body.
+	 * @throws IOException If the request could not be started.
+	 */
+	private void send(HttpRequest request, final EndpointGuard guard, final String stage, final long start,
+					  final HttpCallback<String> callback) throws IOException {
+		try {
+			client.execute(request, new HttpCallback<HttpResponse>() {
+				@Override
+				public void completed(HttpResponse response) {
+					String body;
+
+					try {
+						body = response.getResponseBody();
+					} catch (IOException e) {
+						failed(e);
+						return;
+					}
+
+					guard.success();
+					metrics.histogram("stage." + stage).recordSince(start);
+					callback.completed(body);
+				}
+
+				@Override
+				public void failed(IOException e) {
+					metrics.counter("failures." + stage).increment();
+					callback.failed(guard.failure(e));
+				}
+			});
+		} catch (IOException e) {
+			metrics.counter("failures." + stage).increment();
+			guard.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Build an event's update.
+	 *
+	 * @param evt The event.
+	 * @param url The url of the uploaded screenshot.
+	 * @return The update data.
+	 */
+	private RequestData createUpdate(OSBuddyEvent evt, String url) {
+		RequestData data = new RequestData();
+
+		data.put("type", evt.getType())
+			.put("displayName", evt.getDisplayName())
+			.put("time", System.currentTimeMillis() / 1000L)
+			.put("url", url);
+
+		if (authStore.hasAuth(evt.getDisplayName())) {
+			data.put("key", authStore.getAuth(evt.getDisplayName()));
+		}
+
+		evt.addUpdateFields(data);
+		logger.info("[" + evt.getDisplayName() + "] " + evt.getDescription());
+
+		return data;
+	}
+
+	/**
+	 * Post a single update to the update service.
+	 *
+	 * @param evt The event.
+	 * @param data The update data.
+	 * @throws IOException If an error occurs while pushing the update.
+	 */
+	public void postUpdate(OSBuddyEvent evt, RequestData data) throws IOException {
+		long start = System.nanoTime();
+		String body;
+
+		updateEndpoint.acquire();
+
+		try (HttpPostRequest request = new HttpPostRequest(settings.getUpdateUrl())) {
+			request.setParameters(data);
+
+			body = request.getResponseBody();
+		} catch (IOException e) {
+			metrics.counter("failures.update").increment();
+			throw updateEndpoint.failure(e);
+		}
+
+		updateEndpoint.success();
+		metrics.histogram("stage.update").recordSince(start);
+
+		completeUpdate(evt, body);
+	}
+
+	/**
+	 * Handle the update service's response to an update, and remove the event from the outbox.
+	 *
+	 * @param evt The event.
+	 * @param body The response, either "ok" or a new auth token.
+	 * @throws IOException If an error occurs while saving the auth token or writing to the outbox.
+	 */
+	public void completeUpdate(OSBuddyEvent evt, String body) throws IOException {
+		if (!body.equals("ok")) {
+			body = body.trim();
+
+			logger.info("Got auth token " + body);
+
+			authStore.setAuth(evt.getDisplayName(), body);
+			authStore.save();
+		} else {
+			logger.info("[" + evt.getDisplayName() + "] Update successfully pushed.");
+		}
+
+		metrics.counter("events.submitted").increment();
+		recentEvents.update(evt, RecentEvents.Status.SUBMITTED);
+		outbox.acknowledge(evt);
+	}
+
+	/**
+	 * Give up on an update which could not be sent. The event is left in the outbox, unless the server rejected it.
+	 *
+	 * @param evt The event.
+	 * @param e The failure.
+	 */
+	public void failUpdate(OSBuddyEvent evt, IOException e) {
+		if (e instanceof EndpointException && !((EndpointException) e).isRetryable()) {
+			logger.warning("[" + evt.getDisplayName() + "] Update rejected, dropping event: " + e.getMessage());
+
+			try {
+				discardEvent(evt);
+			} catch (IOException ex) {
+				logger.log(Level.WARNING, "Unable to remove the event from the outbox", ex);
+			}
+			return;
+		}
+
+		logger.warning("[" + evt.getDisplayName() + "] Unable to push update: " + e.getMessage());
+
+		deferEvent(evt);
+	}
+
+	/**
+	 * Create the classifiers of a screenshot root.
+	 *
+	 * @param rootRules The rules which only apply to the root, tried before the user's and the bundled rules.
+	 * @return The classifiers, in the order they are asked.
+	 */
+	private List<EventClassifier> createClassifiers(List<EventRule> rootRules) {
+		List<EventRule> rules = new ArrayList<>(rootRules);
+		rules.addAll(userSettings.getEventRules());
+		rules.addAll(settings.getEventRules());
+
+		List<EventClassifier> classifiers = new ArrayList<>();
+		classifiers.add(new RuleClassifier(rules));
+		classifiers.addAll(plugins);
+
+		return classifiers;
+	}
+
+	/**
+	 * Parse an osbuddy gallery entry into an event, using the classifiers of its screenshot root.
+	 *
+	 * @param directory The display name directory.
+	 * @param file The screenshot file.
+	 * @return The parsed event, or null if unable to find one.
+	 * @throws ParseEventError If an error occurs while parsing the event (invalid skill, etc)
+	 */
+	private OSBuddyEvent parseEvent(File directory, File file) throws ParseEventError {
+		List<EventClassifier> classifiers = rootClassifiers.isEmpty() ? null
+			: rootClassifiers.get(directory.getAbsoluteFile().getParentFile());
+
+		if (classifiers == null) {
+			classifiers = this.classifiers;
+		}
+
+		for (EventClassifier classifier : classifiers) {
+			OSBuddyEvent evt = classifier.classify(directory.getName(), file);
+
+			if (evt != null) {
+				return evt;
+			}
+		}
 
 		return null;
 	}
 
 	/**
-	 * Upload an image to the image service.
+	 * Upload an event's screenshot to the image service.
 	 *
-	 * @param displayName The player display name.
-	 * @param image The image.
+	 * @param evt The event.
 	 * @return The uploaded URL.
 	 * @throws IOException If an error occurs while uploading.
 	 */
-	private String uploadImage(String displayName, BufferedImage image) throws IOException {
-		try (HttpRequest request = new HttpMultipartPostRequest(settings.getImageUrl())) {
-			ByteArrayOutputStream output = new ByteArrayOutputStream();
-			ImageIO.write(image, "PNG", output);
+	private String uploadImage(OSBuddyEvent evt) throws IOException {
+		long start = System.nanoTime();
+		String digest = getUploadDigest(evt);
+		String uploaded = digest != null ? uploadCache.get(digest) : null;
+
+		if (uploaded != null) {
+			metrics.counter("upload.cached").increment();
+			return uploaded;
+		}
 
-			RequestData data = new RequestData();
-			data.put("displayName", AuthStore.formatName(displayName));
-			data.put("image", new MultipartFile("progress.png", new ByteArrayInputStream(output.toByteArray())));
-			request.setParameters(data);
+		boolean encode = needsEncoding(evt);
+
+		imageEndpoint.acquire();
+
+		HttpRequest upload;
+		MultipartFile image;
+
+		try {
+			if (encode) {
+				EncodedImage encoded = encodeScreenshot(evt);
+				image = new MultipartFile(encoded.getFileName(), encoded.getData());
+			} else {
+				image = new MultipartFile("progress.png", evt.getScreenshotFile());
+			}
+
+			upload = createImageRequest(evt, image);
+		} catch (IOException e) {
+			// The screenshot is gone, the endpoint wasn't contacted
+			imageEndpoint.release();
+			throw e;
+		}
+
+		try (HttpRequest request = upload) {
+			String url = request.getResponseBody();
 
-			return request.getResponseBody();
+			imageEndpoint.success();
+			metrics.histogram("stage.upload").recordSince(start);
+			metrics.counter("upload.images").increment();
+			metrics.counter("upload.bytes").add(Math.max(image.getLength(), 0));
+			rememberUpload(digest, url);
+
+			return url;
+		} catch (IOException e) {
+			metrics.counter("failures.upload").increment();
+			throw imageEndpoint.failure(e);
 		}
 	}
 
+	/**
+	 * Check if an event's screenshot has to go through the image pipeline. Otherwise the PNG file is uploaded as-is.
+	 *
+	 * @param evt The event.
+	 * @return If the screenshot has to be encoded.
+	 * @throws IOException If the screenshot could not be read.
+	 */
+	private boolean needsEncoding(OSBuddyEvent evt) throws IOException {
+		return userSettings.getUploadMode() == UploadMode.REENCODE || !pipeline.isIdentity()
+			|| !PngUtil.isPng(evt.getScreenshotFile());
+	}
+
+	/**
+	 * Calculate the digest an event's screenshot is remembered by in the upload cache. The digest covers the image
+	 * settings as well, so changing them uploads the screenshot again.
+	 *
+	 * @param evt The event.
+	 * @return The digest, or null if the upload cache is disabled.
+	 * @throws IOException If the screenshot could not be read.
+	 */
+	private String getUploadDigest(OSBuddyEvent evt) throws IOException {
+		if (uploadCache == null) {
+			return null;
+		}
+
+		return UploadCache.digest(evt.getScreenshotFile(), needsEncoding(evt) ? pipeline.getSignature() : "original");
+	}
+
+	/**
+	 * Remember the url a screenshot was uploaded to.
+	 *
+	 * @param digest The screenshot digest, or null if the upload cache is disabled.
+	 * @param url The url.
+	 */
+	private void rememberUpload(String digest, String url) {
+		if (digest == null) {
+			return;
+		}
+
+		try {
+			uploadCache.put(digest, url);
+		} catch (IOException e) {
+			// The upload still succeeded, it will only be uploaded again if the event is resubmitted
+			logger.warning("Unable to remember uploaded screenshot: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Encode an event's screenshot on the image pipeline's threads, waiting for it to be done.
+	 *
+	 * @param evt The event.
+	 * @return The encoded image.
+	 * @throws IOException If the screenshot could not be read or encoded.
+	 */
+	private EncodedImage encodeScreenshot(OSBuddyEvent evt) throws IOException {
+		try {
+			return pipeline.submit(evt, null).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while encoding the screenshot");
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Create the request which uploads an event's screenshot.
+	 *
+	 * @param evt The event.
+	 * @param image The screenshot file or encoded image.
+	 * @return The upload request.
+	 */
+	private HttpRequest createImageRequest(OSBuddyEvent evt, MultipartFile image) {
+		RequestData data = new RequestData();
+		data.put("displayName", AuthStore.formatName(evt.getDisplayName()));
+		data.put("image", image);
+
+		HttpRequest request = new HttpMultipartPostRequest(settings.getImageUrl());
+		request.setParameters(data);
+
+		return request;
+	}
+
 	/**
 	 * If on windows or linux, verify that the registry entry is intact and pointing to the correct version.
 	 * @param file
@@ -1,5 +1,12 @@
 package org.nikkii.rs07;
 
+import org.nikkii.rs07.event.EventRule;
+import org.nikkii.rs07.image.CropRegion;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Contains basic tracker settings.
  *
@@ -16,6 +23,21 @@ public class ProgressTrackerSettings {
 	 */
 	private String imageUrl;
 
+	/**
+	 * The batch update endpoint, or null if the server doesn't accept batches.
+	 */
+	private String batchUpdateUrl;
+
+	/**
+	 * The region of the screenshot which shows each type of event.
+	 */
+	private Map<ProgressType, CropRegion> cropRegions;
+
+	/**
+	 * The rules which recognize events by their screenshot names.
+	 */
+	private List<EventRule> eventRules;
+
 	/**
 	 * Get the update service url.
 	 *
@@ -33,4 +55,31 @@ public class ProgressTrackerSettings {
 	public String getImageUrl() {
 		return imageUrl;
 	}
+
+	/**
+	 * Get the batch update url.
+	 *
+	 * @return The batch update url, or null if updates can't be batched.
+	 */
+	public String getBatchUpdateUrl() {
+		return batchUpdateUrl;
+	}
+
+	/**
+	 * Get the region of the screenshot which shows each type of event.
+	 *
+	 * @return The crop regions, or null if none are known.
+	 */
+	public Map<ProgressType, CropRegion> getCropRegions() {
+		return cropRegions;
+	}
+
+	/**
+	 * Get the rules which recognize events by their screenshot names.
+	 *
+	 * @return The event rules.
+	 */
+	public List<EventRule> getEventRules() {
+		return eventRules != null ? eventRules : Collections.<EventRule>emptyList();
+	}
 }
@@ -1,5 +1,12 @@
 package org.nikkii.rs07;
 
+import org.nikkii.rs07.event.EventRule;
+import org.nikkii.rs07.image.ImageFormat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Contains basic user tracker settings.
  *
@@ -11,6 +18,192 @@ public class ProgressTrackerUserSettings {
 	 */
 	private boolean startOnStartup;
 
+	/**
+	 * The maximum number of events waiting to be submitted.
+	 */
+	private int queueCapacity = 256;
+
+	/**
+	 * The time in milliseconds the outbox feeder waits for space in a full queue before waiting again, or 0 to wait
+	 * without a timeout. Events are never dropped, they stay in the outbox until there is space.
+	 */
+	private long queueTimeout = 5000;
+
+	/**
+	 * The number of events to submit at once.
+	 */
+	private int submissionThreads = 4;
+
+	/**
+	 * The interval in seconds between submission statistics log lines, or 0 to disable them.
+	 */
+	private long statisticsInterval = 300;
+
+	/**
+	 * How screenshots are uploaded. Streaming uploads the file as written by OSBuddy without decoding it.
+	 */
+	private UploadMode uploadMode = UploadMode.STREAM;
+
+	/**
+	 * The maximum number of events remembered to detect duplicates.
+	 */
+	private int dedupCapacity = 100000;
+
+	/**
+	 * The number of days events are remembered to detect duplicates, or 0 to remember them until the index is full.
+	 */
+	private long dedupMaxAge;
+
+	/**
+	 * The number of attempts to submit an event before it is left in the outbox until the next start.
+	 */
+	private int submitAttempts = 10;
+
+	/**
+	 * The delay in milliseconds before the first retry of a failed request.
+	 */
+	private long retryBaseDelay = 1000;
+
+	/**
+	 * The maximum delay in milliseconds between retries.
+	 */
+	private long retryMaxDelay = 300000;
+
+	/**
+	 * The number of consecutive failures after which requests to an endpoint are stopped.
+	 */
+	private int circuitFailureThreshold = 5;
+
+	/**
+	 * The time in milliseconds requests to a failing endpoint are stopped for before a probe request is sent.
+	 */
+	private long circuitOpenTime = 30000;
+
+	/**
+	 * The maximum number of updates sent in one batch, or 1 to send every update on its own.
+	 */
+	private int batchSize = 50;
+
+	/**
+	 * The time in milliseconds to wait for more updates before a batch is sent.
+	 */
+	private long batchDelay = 250;
+
+	/**
+	 * The time in milliseconds to wait for a connection to the web service.
+	 */
+	private int connectTimeout = 10000;
+
+	/**
+	 * The time in milliseconds to wait for the web service to respond.
+	 */
+	private int readTimeout = 30000;
+
+	/**
+	 * Whether submissions use the non-blocking http client, which keeps many uploads in flight without a thread each.
+	 */
+	private boolean asyncHttp = true;
+
+	/**
+	 * The maximum number of connections the non-blocking http client opens to each host.
+	 */
+	private int maxConnectionsPerHost = 16;
+
+	/**
+	 * The upload rate shared by every request in kilobytes per second, or 0 if unlimited.
+	 */
+	private int uploadRateLimit;
+
+	/**
+	 * The maximum number of uploaded screenshots remembered so they aren't uploaded again, or 0 to always upload.
+	 */
+	private int uploadCacheCapacity = 10000;
+
+	/**
+	 * Whether screenshots are cropped to the region which shows the event.
+	 */
+	private boolean imageCrop;
+
+	/**
+	 * The maximum width of uploaded screenshots, or 0 if unlimited.
+	 */
+	private int imageMaxWidth;
+
+	/**
+	 * The maximum height of uploaded screenshots, or 0 if unlimited.
+	 */
+	private int imageMaxHeight;
+
+	/**
+	 * The format screenshots are encoded to when they have to be transformed or re-encoded.
+	 */
+	private ImageFormat imageFormat = ImageFormat.PNG;
+
+	/**
+	 * The JPEG quality, from 0 to 1.
+	 */
+	private float jpegQuality = 0.85f;
+
+	/**
+	 * The number of screenshots encoded at once.
+	 */
+	private int imageThreads = 2;
+
+	/**
+	 * Whether screenshots taken while the tracker wasn't running are found when it starts.
+	 */
+	private boolean backfill = true;
+
+	/**
+	 * Whether screenshots taken before the tracker first ran are backfilled too.
+	 */
+	private boolean backfillHistory;
+
+	/**
+	 * The number of directories scanned for missed screenshots at once.
+	 */
+	private int backfillThreads = 2;
+
+	/**
+	 * The time in milliseconds a screenshot has to stay unchanged before it is parsed.
+	 */
+	private long settleQuietPeriod = 200;
+
+	/**
+	 * The time in milliseconds after which a screenshot which is still being written is ignored.
+	 */
+	private long settleMaxWait = 60000;
+
+	/**
+	 * Additional rules which recognize events by their screenshot names, tried before the bundled rules.
+	 */
+	private List<EventRule> eventRules = new ArrayList<>();
+
+	/**
+	 * The interval in seconds between writes of the metrics file, or 0 to disable it.
+	 */
+	private long metricsInterval = 60;
+
+	/**
+	 * Whether the metrics are exposed through JMX.
+	 */
+	private boolean metricsJmx = true;
+
+	/**
+	 * The localhost port of the status server, or 0 to disable it.
+	 */
+	private int statusPort;
+
+	/**
+	 * The time in milliseconds to wait for queued events to be submitted when shutting down.
+	 */
+	private long shutdownTimeout = 10000;
+
+	/**
+	 * The screenshot directories of every client install to watch. OSBuddy's own is watched if there are none.
+	 */
+	private List<ScreenshotRoot> screenshotRoots = new ArrayList<>();
+
 	/**
 	 * Sets the start on startup flag.
 	 * @param startOnStartup The start on startup flag.
@@ -26,4 +219,308 @@ public class ProgressTrackerUserSettings {
 	public boolean shouldStartOnStartup() {
 		return startOnStartup;
 	}
+
+	/**
+	 * Gets the maximum number of queued events.
+	 * @return The queue capacity.
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Gets the time to wait for space in a full queue.
+	 * @return The queue timeout, in milliseconds.
+	 */
+	public long getQueueTimeout() {
+		return queueTimeout;
+	}
+
+	/**
+	 * Gets the number of events to submit at once.
+	 * @return The submission thread count.
+	 */
+	public int getSubmissionThreads() {
+		return submissionThreads;
+	}
+
+	/**
+	 * Gets the interval between submission statistics log lines.
+	 * @return The interval in seconds, or 0 if disabled.
+	 */
+	public long getStatisticsInterval() {
+		return statisticsInterval;
+	}
+
+	/**
+	 * Gets the screenshot upload mode.
+	 * @return The upload mode.
+	 */
+	public UploadMode getUploadMode() {
+		return uploadMode;
+	}
+
+	/**
+	 * Gets the maximum number of events remembered to detect duplicates.
+	 * @return The duplicate index capacity.
+	 */
+	public int getDedupCapacity() {
+		return dedupCapacity;
+	}
+
+	/**
+	 * Gets the number of days events are remembered to detect duplicates.
+	 * @return The maximum age in days, or 0 if events are only evicted when the index is full.
+	 */
+	public long getDedupMaxAge() {
+		return dedupMaxAge;
+	}
+
+	/**
+	 * Gets the number of attempts to submit an event.
+	 * @return The submit attempts.
+	 */
+	public int getSubmitAttempts() {
+		return submitAttempts;
+	}
+
+	/**
+	 * Gets the delay before the first retry of a failed request.
+	 * @return The delay in milliseconds.
+	 */
+	public long getRetryBaseDelay() {
+		return retryBaseDelay;
+	}
+
+	/**
+	 * Gets the maximum delay between retries.
+	 * @return The delay in milliseconds.
+	 */
+	public long getRetryMaxDelay() {
+		return retryMaxDelay;
+	}
+
+	/**
+	 * Gets the number of consecutive failures after which requests to an endpoint are stopped.
+	 * @return The failure threshold.
+	 */
+	public int getCircuitFailureThreshold() {
+		return circuitFailureThreshold;
+	}
+
+	/**
+	 * Gets the time requests to a failing endpoint are stopped for.
+	 * @return The time in milliseconds.
+	 */
+	public long getCircuitOpenTime() {
+		return circuitOpenTime;
+	}
+
+	/**
+	 * Gets the maximum number of updates sent in one batch.
+	 * @return The batch size, or 1 if batching is disabled.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Gets the time to wait for more updates before a batch is sent.
+	 * @return The delay in milliseconds.
+	 */
+	public long getBatchDelay() {
+		return batchDelay;
+	}
+
+	/**
+	 * Gets the time to wait for a connection to the web service.
+	 * @return The connect timeout in milliseconds.
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Gets the time to wait for the web service to respond.
+	 * @return The read timeout in milliseconds.
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Gets whether submissions use the non-blocking http client.
+	 * @return The async http flag.
+	 */
+	public boolean isAsyncHttp() {
+		return asyncHttp;
+	}
+
+	/**
+	 * Gets the maximum number of connections the non-blocking http client opens to each host.
+	 * @return The connection limit.
+	 */
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * Sets the upload rate shared by every request.
+	 * @param uploadRateLimit The rate in kilobytes per second, or 0 if unlimited.
+	 */
+	public void setUploadRateLimit(int uploadRateLimit) {
+		this.uploadRateLimit = uploadRateLimit;
+	}
+
+	/**
+	 * Gets the upload rate shared by every request.
+	 * @return The rate in kilobytes per second, or 0 if unlimited.
+	 */
+	public int getUploadRateLimit() {
+		return uploadRateLimit;
+	}
+
+	/**
+	 * Gets the maximum number of uploaded screenshots remembered.
+	 * @return The upload cache capacity, or 0 if disabled.
+	 */
+	public int getUploadCacheCapacity() {
+		return uploadCacheCapacity;
+	}
+
+	/**
+	 * Gets whether screenshots are cropped to the region which shows the event.
+	 * @return The crop flag.
+	 */
+	public boolean isImageCrop() {
+		return imageCrop;
+	}
+
+	/**
+	 * Gets the maximum width of uploaded screenshots.
+	 * @return The width in pixels, or 0 if unlimited.
+	 */
+	public int getImageMaxWidth() {
+		return imageMaxWidth;
+	}
+
+	/**
+	 * Gets the maximum height of uploaded screenshots.
+	 * @return The height in pixels, or 0 if unlimited.
+	 */
+	public int getImageMaxHeight() {
+		return imageMaxHeight;
+	}
+
+	/**
+	 * Gets the format screenshots are encoded to.
+	 * @return The image format.
+	 */
+	public ImageFormat getImageFormat() {
+		return imageFormat;
+	}
+
+	/**
+	 * Gets the JPEG quality.
+	 * @return The quality, from 0 to 1.
+	 */
+	public float getJpegQuality() {
+		return jpegQuality;
+	}
+
+	/**
+	 * Gets the number of screenshots encoded at once.
+	 * @return The encoder thread count.
+	 */
+	public int getImageThreads() {
+		return imageThreads;
+	}
+
+	/**
+	 * Gets whether missed screenshots are found on startup.
+	 * @return The backfill flag.
+	 */
+	public boolean isBackfill() {
+		return backfill;
+	}
+
+	/**
+	 * Gets whether screenshots taken before the tracker first ran are backfilled.
+	 * @return The backfill history flag.
+	 */
+	public boolean isBackfillHistory() {
+		return backfillHistory;
+	}
+
+	/**
+	 * Gets the number of directories scanned for missed screenshots at once.
+	 * @return The backfill thread count.
+	 */
+	public int getBackfillThreads() {
+		return backfillThreads;
+	}
+
+	/**
+	 * Gets the time a screenshot has to stay unchanged before it is parsed.
+	 * @return The quiet period in milliseconds.
+	 */
+	public long getSettleQuietPeriod() {
+		return settleQuietPeriod;
+	}
+
+	/**
+	 * Gets the time after which a screenshot which is still being written is ignored.
+	 * @return The maximum wait in milliseconds.
+	 */
+	public long getSettleMaxWait() {
+		return settleMaxWait;
+	}
+
+	/**
+	 * Gets the additional rules which recognize events by their screenshot names.
+	 * @return The event rules.
+	 */
+	public List<EventRule> getEventRules() {
+		return eventRules != null ? eventRules : Collections.<EventRule>emptyList();
+	}
+
+	/**
+	 * Gets the interval between writes of the metrics file.
+	 * @return The interval in seconds, or 0 if disabled.
+	 */
+	public long getMetricsInterval() {
+		return metricsInterval;
+	}
+
+	/**
+	 * Gets whether the metrics are exposed through JMX.
+	 * @return true if the metrics MBean is registered.
+	 */
+	public boolean isMetricsJmx() {
+		return metricsJmx;
+	}
+
+	/**
+	 * Gets the localhost port of the status server.
+	 * @return The port, or 0 if the status server is disabled.
+	 */
+	public int getStatusPort() {
+		return statusPort;
+	}
+
+	/**
+	 * Gets the time to wait for queued events to be submitted when shutting down.
+	 * @return The time in milliseconds.
+	 */
+	public long getShutdownTimeout() {
+		return shutdownTimeout;
+	}
+
+	/**
+	 * Gets the screenshot directories to watch.
+	 * @return The screenshot roots, empty to watch OSBuddy's screenshot directory.
+	 */
+	public List<ScreenshotRoot> getScreenshotRoots() {
+		return screenshotRoots != null ? screenshotRoots : Collections.<ScreenshotRoot>emptyList();
+	}
 }
@@ -1,12 +1,132 @@
 package org.nikkii.rs07;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
- * An enum containing OSBuddy Event Types.
+ * An OSBuddy Event Type.
+ *
+ * The built in types are constants, others are registered by name when an event rule or classifier which produces
+ * them is loaded. There is only one type of each name, so types are compared by identity like enum constants. They
+ * are ordered, stored and sent by name.
  *
  * @author Nikki
  */
-public enum ProgressType {
-	LEVEL_UP,
-	DUEL_VICTORY,
-	TREASURE_TRAIL
+@JsonAdapter(ProgressType.Adapter.class)
+public final class ProgressType implements Comparable<ProgressType> {
+
+	/**
+	 * The registered types, keyed by name.
+	 */
+	private static final ConcurrentMap<String, ProgressType> types = new ConcurrentHashMap<>();
+
+	public static final ProgressType LEVEL_UP = register("LEVEL_UP");
+	public static final ProgressType DUEL_VICTORY = register("DUEL_VICTORY");
+	public static final ProgressType TREASURE_TRAIL = register("TREASURE_TRAIL");
+
+	/**
+	 * The type name.
+	 */
+	private final String name;
+
+	private ProgressType(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Get the type name.
+	 *
+	 * @return The name.
+	 */
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public int compareTo(ProgressType other) {
+		return name.compareTo(other.name);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Register a type, or get the type registered with the same name.
+	 *
+	 * @param name The type name.
+	 * @return The type.
+	 */
+	public static ProgressType register(String name) {
+		if (name == null || name.isEmpty()) {
+			throw new IllegalArgumentException("Type name is empty");
+		}
+
+		ProgressType type = types.get(name);
+
+		if (type == null) {
+			ProgressType existing = types.putIfAbsent(name, type = new ProgressType(name));
+
+			if (existing != null) {
+				type = existing;
+			}
+		}
+
+		return type;
+	}
+
+	/**
+	 * Get a registered type.
+	 *
+	 * @param name The type name.
+	 * @return The type.
+	 * @throws IllegalArgumentException If no type is registered with the name.
+	 */
+	public static ProgressType valueOf(String name) {
+		ProgressType type = types.get(name);
+
+		if (type == null) {
+			throw new IllegalArgumentException("Unknown event type " + name);
+		}
+
+		return type;
+	}
+
+	/**
+	 * Get every registered type.
+	 *
+	 * @return The types.
+	 */
+	public static Collection<ProgressType> values() {
+		return Collections.unmodifiableCollection(new ArrayList<>(types.values()));
+	}
+
+	/**
+	 * Reads and writes types by name, registering the types it reads.
+	 */
+	public static final class Adapter extends TypeAdapter<ProgressType> {
+		@Override
+		public void write(JsonWriter out, ProgressType type) throws IOException {
+			if (type == null) {
+				out.nullValue();
+			} else {
+				out.value(type.name);
+			}
+		}
+
+		@Override
+		public ProgressType read(JsonReader in) throws IOException {
+			return register(in.nextString());
+		}
+	}
 }
@@ -0,0 +1,168 @@
+package org.nikkii.rs07;
+
+import org.nikkii.rs07.event.OSBuddyEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the most recent events and what became of them, for the status server.
+ *
+ * @author Nikki
+ */
+public class RecentEvents {
+
+	/**
+	 * What became of an event.
+	 */
+	public enum Status {
+		/**
+		 * Waiting in the outbox or being submitted.
+		 */
+		QUEUED,
+
+		/**
+		 * Submitted to the update service.
+		 */
+		SUBMITTED,
+
+		/**
+		 * Left in the outbox until the next start.
+		 */
+		DEFERRED,
+
+		/**
+		 * Dropped for good.
+		 */
+		DROPPED
+	}
+
+	/**
+	 * The events, keyed by event key, oldest first.
+	 */
+	private final Map<Long, Entry> events;
+
+	/**
+	 * Construct a new list of recent events.
+	 *
+	 * @param capacity The number of events to remember.
+	 */
+	public RecentEvents(final int capacity) {
+		this.events = new LinkedHashMap<Long, Entry>() {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, RecentEvents.Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Remember a new event.
+	 *
+	 * @param event The event.
+	 */
+	public synchronized void add(OSBuddyEvent event) {
+		events.put(event.getKey(), new Entry(event));
+	}
+
+	/**
+	 * Update the status of an event, if it is still remembered.
+	 *
+	 * @param event The event.
+	 * @param status The new status.
+	 */
+	public synchronized void update(OSBuddyEvent event, Status status) {
+		Entry entry = events.get(event.getKey());
+
+		if (entry != null) {
+			entry.status = status;
+			entry.updated = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Get the remembered events.
+	 *
+	 * @return A copy of the events, newest first.
+	 */
+	public synchronized List<Entry> getEvents() {
+		List<Entry> list = new ArrayList<>(events.size());
+
+		for (Entry entry : events.values()) {
+			list.add(entry.copy());
+		}
+
+		Collections.reverse(list);
+
+		return list;
+	}
+
+	/**
+	 * A remembered event.
+	 */
+	public static final class Entry {
+		/**
+		 * The time the event was found.
+		 */
+		private final long time;
+
+		/**
+		 * The display name.
+		 */
+		private final String displayName;
+
+		/**
+		 * The event type.
+		 */
+		private final String type;
+
+		/**
+		 * The event description.
+		 */
+		private final String description;
+
+		/**
+		 * The screenshot file name.
+		 */
+		private final String file;
+
+		/**
+		 * What became of the event.
+		 */
+		private Status status = Status.QUEUED;
+
+		/**
+		 * The time the status last changed.
+		 */
+		private long updated;
+
+		public Entry(OSBuddyEvent event) {
+			this(System.currentTimeMillis(), event.getDisplayName(), event.getType().name(), event.getDescription(),
+				event.getScreenshotFile().getName());
+		}
+
+		private Entry(long time, String displayName, String type, String description, String file) {
+			this.time = time;
+			this.displayName = displayName;
+			this.type = type;
+			this.description = description;
+			this.file = file;
+			this.updated = time;
+		}
+
+		/**
+		 * Copy the entry, so it can be read without holding the lock.
+		 *
+		 * @return The copy.
+		 */
+		private Entry copy() {
+			Entry copy = new Entry(time, displayName, type, description, file);
+			copy.status = status;
+			copy.updated = updated;
+			return copy;
+		}
+	}
+}
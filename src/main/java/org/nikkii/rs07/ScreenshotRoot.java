@@ -0,0 +1,76 @@
+package org.nikkii.rs07;
+
+import org.nikkii.rs07.event.EventRule;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A screenshot directory of one client install, as read from the user settings.
+ *
+ * Like OSBuddy's own screenshot directory, it contains a directory per display name. Every root is watched by the
+ * same engine, so one tracker serves any number of installs.
+ *
+ * @author Nikki
+ */
+public class ScreenshotRoot {
+	/**
+	 * The name shown in the log, such as the client or sandbox name, or null.
+	 */
+	private String name;
+
+	/**
+	 * The directory path. A leading ~ stands for the user's home directory.
+	 */
+	private String directory;
+
+	/**
+	 * Rules which only apply to this root's screenshots, tried before every other rule.
+	 */
+	private List<EventRule> eventRules;
+
+	public ScreenshotRoot() {
+
+	}
+
+	public ScreenshotRoot(String name, String directory) {
+		this.name = name;
+		this.directory = directory;
+	}
+
+	/**
+	 * Get the name shown in the log.
+	 *
+	 * @return The name, or the directory path if the root has no name.
+	 */
+	public String getName() {
+		return name != null ? name : directory;
+	}
+
+	/**
+	 * Get the directory, with a leading ~ replaced by the user's home directory.
+	 *
+	 * @return The directory, or null if the root has none.
+	 */
+	public File getDirectory() {
+		if (directory == null) {
+			return null;
+		}
+
+		if (directory.equals("~") || directory.startsWith("~/") || directory.startsWith("~" + File.separator)) {
+			return new File(System.getProperty("user.home"), directory.substring(1));
+		}
+
+		return new File(directory);
+	}
+
+	/**
+	 * Get the rules which only apply to this root.
+	 *
+	 * @return The event rules.
+	 */
+	public List<EventRule> getEventRules() {
+		return eventRules != null ? eventRules : Collections.<EventRule>emptyList();
+	}
+}
@@ -0,0 +1,35 @@
+package org.nikkii.rs07;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.WatchEvent;
+
+/**
+ * Watches the rslog directory, reloading the user settings when the settings file is changed.
+ *
+ * @author Nikki
+ */
+public class SettingsWatcher implements DirectoryListener {
+	private final ProgressTracker tracker;
+	private final File settingsFile;
+
+	public SettingsWatcher(ProgressTracker tracker, File settingsFile) {
+		this.tracker = tracker;
+		this.settingsFile = settingsFile;
+	}
+
+	@Override
+	public void fileEvent(WatchEvent.Kind<?> kind, File file) throws IOException {
+		if (file.equals(settingsFile) && file.exists()) {
+			tracker.reloadUserSettings();
+		}
+	}
+
+	@Override
+	public void overflow() throws IOException {
+		// We may have missed a change, reloading unchanged settings does no harm.
+		if (settingsFile.exists()) {
+			tracker.reloadUserSettings();
+		}
+	}
+}
@@ -0,0 +1,422 @@
+package org.nikkii.rs07;
+
+import org.nikkii.rs07.event.ParseEventError;
+import org.nikkii.rs07.metrics.Counter;
+import org.nikkii.rs07.metrics.LatencyHistogram;
+import org.nikkii.rs07.metrics.MetricsRegistry;
+import org.nikkii.rs07.util.PngUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Waits for screenshots to be completely written before they are parsed.
+ *
+ * Every change to a file pushes its check back by the quiet period, so a file which is being written is looked at
+ * once the writes stop, not on every write. The check is cheap: a PNG file is complete once it ends with the IEND
+ * chunk, which is read from the end of the file. Any other file is complete once its size and modification time stayed
+ * the same for a quiet period. A file which doesn't settle within the maximum wait is given up on.
+ *
+ * Pending files are kept in a hashed timer wheel run by a single thread, so thousands of them cost no more than a
+ * list entry each. The wheel turns one slot per tick, and each slot holds the files due at that tick, or at the same
+ * slot in a later turn.
+ *
+ * @author Nikki
+ */
+public class SettleDetector implements Runnable, AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(SettleDetector.class.getName());
+
+	/**
+	 * The time between ticks, in milliseconds.
+	 */
+	private static final long TICK = 20;
+
+	/**
+	 * The number of slots in the wheel, a power of two. One turn takes about ten seconds.
+	 */
+	private static final int WHEEL_SIZE = 512;
+
+	/**
+	 * The tracker object.
+	 */
+	private final ProgressTracker tracker;
+
+	/**
+	 * The time in milliseconds a file has to stay unchanged.
+	 */
+	private final long quietPeriod;
+
+	/**
+	 * The time in milliseconds after which a file which didn't settle is given up on.
+	 */
+	private final long maxWait;
+
+	/**
+	 * The time from the first change of a file to it being settled.
+	 */
+	private final LatencyHistogram settleTimes;
+
+	/**
+	 * The number of files which were given up on.
+	 */
+	private final Counter abandoned;
+
+	/**
+	 * The first pending file of each slot.
+	 */
+	private final Pending[] wheel = new Pending[WHEEL_SIZE];
+
+	/**
+	 * The pending files, keyed by file.
+	 */
+	private final Map<File, Pending> pending = new HashMap<>();
+
+	/**
+	 * The time the wheel started turning, in nanoseconds.
+	 */
+	private final long start = System.nanoTime();
+
+	/**
+	 * The number of ticks the wheel has turned.
+	 */
+	private long ticks;
+
+	/**
+	 * Whether the detector was closed.
+	 */
+	private boolean closed;
+
+	/**
+	 * Construct a new settle detector.
+	 *
+	 * @param tracker The tracker object.
+	 * @param metrics The registry the settle times are recorded in.
+	 * @param quietPeriod The time in milliseconds a file has to stay unchanged.
+	 * @param maxWait The time in milliseconds after which a file which didn't settle is given up on.
+	 */
+	public SettleDetector(ProgressTracker tracker, MetricsRegistry metrics, long quietPeriod, long maxWait) {
+		this.tracker = tracker;
+		this.settleTimes = metrics.histogram("stage.settle");
+		this.abandoned = metrics.counter("failures.settle");
+		this.quietPeriod = quietPeriod;
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Check a file once it stopped changing, pushing the check back if it is already pending.
+	 *
+	 * @param directory The directory the file is in.
+	 * @param file The file.
+	 * @return true if the file wasn't pending yet.
+	 */
+	public synchronized boolean watch(File directory, File file) {
+		if (closed) {
+			return false;
+		}
+
+		long now = currentTick();
+		long due = now + toTicks(quietPeriod);
+		Pending entry = pending.get(file);
+
+		if (entry != null) {
+			// Moved when its slot comes up, rather than searched for now
+			entry.due = due;
+			return false;
+		}
+
+		entry = new Pending(directory, file, now, due);
+		pending.put(file, entry);
+		schedule(entry);
+
+		return true;
+	}
+
+	/**
+	 * Check if a file is complete, without waiting. Only a PNG file can be seen to be complete at once, any other file
+	 * has to be watched until its size and modification time stop changing.
+	 *
+	 * @param file The file.
+	 * @return true if the file is a complete PNG file.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	public boolean isSettled(File file) throws IOException {
+		return PngUtil.isComplete(file);
+	}
+
+	/**
+	 * Get the number of files waiting to settle.
+	 *
+	 * @return The number of pending files.
+	 */
+	public synchronized int getPending() {
+		return pending.size();
+	}
+
+	@Override
+	public void run() {
+		List<Pending> due = new ArrayList<>();
+
+		while (true) {
+			synchronized (this) {
+				try {
+					long wait;
+
+					while (!closed && (wait = tickTime(ticks + 1) - System.nanoTime()) > 0) {
+						TimeUnit.NANOSECONDS.timedWait(this, wait);
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				if (closed) {
+					return;
+				}
+
+				ticks++;
+				expire(due);
+			}
+
+			for (Pending entry : due) {
+				check(entry);
+			}
+
+			due.clear();
+		}
+	}
+
+	/**
+	 * Stop checking files. Pending files are dropped, they are found again by the backfill scanner.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		pending.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Take the files which are due from the current slot.
+	 *
+	 * @param due The list the due files are added to.
+	 */
+	private void expire(List<Pending> due) {
+		int slot = (int) (ticks & (WHEEL_SIZE - 1));
+		Pending entry = wheel[slot], previous = null;
+
+		while (entry != null) {
+			Pending next = entry.next;
+
+			if (entry.slotTick <= ticks) {
+				// Unlink, then either check it or move it to the slot of its new due tick
+				if (previous == null) {
+					wheel[slot] = next;
+				} else {
+					previous.next = next;
+				}
+
+				entry.next = null;
+
+				if (entry.due <= ticks) {
+					due.add(entry);
+				} else {
+					schedule(entry);
+				}
+			} else {
+				previous = entry;
+			}
+
+			entry = next;
+		}
+	}
+
+	/**
+	 * Check a file which is due, on the wheel thread.
+	 *
+	 * @param entry The pending file.
+	 */
+	private void check(Pending entry) {
+		File file = entry.file;
+		boolean settled = false;
+		String failure = null;
+
+		try {
+			if (!file.exists()) {
+				failure = "it was removed";
+			} else if (PngUtil.isComplete(file)) {
+				settled = true;
+			} else {
+				long length = file.length(), modified = file.lastModified();
+
+				if (length > 0 && length == entry.length && modified == entry.modified && !PngUtil.isPng(file)) {
+					settled = true;
+				} else {
+					entry.length = length;
+					entry.modified = modified;
+				}
+			}
+		} catch (IOException e) {
+			// Most likely locked while being written, try again later
+			logger.fine("Unable to check " + file + ": " + e);
+		}
+
+		synchronized (this) {
+			if (closed || pending.get(file) != entry) {
+				return;
+			}
+
+			if (entry.due > ticks) {
+				// Changed while it was being checked
+				schedule(entry);
+				return;
+			}
+
+			if (!settled && failure == null && (ticks - entry.created) * TICK >= maxWait) {
+				failure = "it didn't settle within " + maxWait + " ms";
+			}
+
+			if (!settled && failure == null) {
+				entry.due = ticks + toTicks(quietPeriod);
+				schedule(entry);
+				return;
+			}
+
+			pending.remove(file);
+		}
+
+		if (failure != null) {
+			abandoned.increment();
+			logger.warning("Ignoring screenshot " + file.getName() + ", " + failure);
+			return;
+		}
+
+		settleTimes.recordSince(entry.seen);
+
+		try {
+			settled(entry.directory, file);
+		} catch (ParseEventError e) {
+			logger.warning("Unable to parse " + file.getName() + ": " + e.getMessage());
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Unable to handle screenshot " + file.getName(), e);
+		}
+	}
+
+	/**
+	 * Hand a file which settled to the tracker.
+	 *
+	 * @param directory The directory the file is in.
+	 * @param file The file.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	void settled(File directory, File file) throws IOException {
+		tracker.screenshotSettled(directory, file);
+	}
+
+	/**
+	 * Add a pending file to the slot of its due tick.
+	 *
+	 * @param entry The pending file.
+	 */
+	private void schedule(Pending entry) {
+		// Never in the slot being expired, which was taken before the tick advanced
+		long tick = Math.max(entry.due, ticks + 1);
+		int slot = (int) (tick & (WHEEL_SIZE - 1));
+
+		entry.slotTick = tick;
+		entry.next = wheel[slot];
+		wheel[slot] = entry;
+	}
+
+	/**
+	 * Get the tick the wheel should be at now.
+	 *
+	 * @return The current tick.
+	 */
+	private long currentTick() {
+		return Math.max(ticks, (System.nanoTime() - start) / TimeUnit.MILLISECONDS.toNanos(TICK));
+	}
+
+	/**
+	 * Get the time a tick is due.
+	 *
+	 * @param tick The tick.
+	 * @return The time in nanoseconds.
+	 */
+	private long tickTime(long tick) {
+		return start + tick * TimeUnit.MILLISECONDS.toNanos(TICK);
+	}
+
+	/**
+	 * Convert a time to a number of ticks, rounding up.
+	 *
+	 * @param millis The time in milliseconds.
+	 * @return The number of ticks, at least one.
+	 */
+	private static long toTicks(long millis) {
+		return Math.max(1, (millis + TICK - 1) / TICK);
+	}
+
+	/**
+	 * A file waiting to settle.
+	 */
+	private static final class Pending {
+		/**
+		 * The directory the file is in.
+		 */
+		private final File directory;
+
+		/**
+		 * The file.
+		 */
+		private final File file;
+
+		/**
+		 * The tick the file was first seen.
+		 */
+		private final long created;
+
+		/**
+		 * The time the file was first seen, in nanoseconds.
+		 */
+		private final long seen = System.nanoTime();
+
+		/**
+		 * The tick the file is due to be checked.
+		 */
+		private long due;
+
+		/**
+		 * The tick of the slot the file is in.
+		 */
+		private long slotTick;
+
+		/**
+		 * The size of the file at the last check, or -1.
+		 */
+		private long length = -1;
+
+		/**
+		 * The modification time of the file at the last check.
+		 */
+		private long modified;
+
+		/**
+		 * The next pending file in the same slot.
+		 */
+		private Pending next;
+
+		public Pending(File directory, File file, long created, long due) {
+			this.directory = directory;
+			this.file = file;
+			this.created = created;
+			this.due = due;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package org.nikkii.rs07;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.nikkii.rs07.metrics.MetricsRegistry;
+import org.nikkii.rs07.util.NamedThreadFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the tracker's status on localhost, for trackers which run without a tray icon.
+ *
+ * /status returns the queue, watched directories, recent events and endpoint statistics as JSON, and /metrics returns
+ * every metric in the Prometheus text format. The server is bound to the loopback address only, and answers requests
+ * on a single thread, so a scraper can't slow down the tracker.
+ *
+ * @author Nikki
+ */
+public class StatusServer implements AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(StatusServer.class.getName());
+
+	/**
+	 * The content type of the Prometheus text format.
+	 */
+	private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * The tracker object.
+	 */
+	private final ProgressTracker tracker;
+
+	/**
+	 * The metrics registry.
+	 */
+	private final MetricsRegistry metrics;
+
+	/**
+	 * The Gson instance.
+	 */
+	private final Gson gson;
+
+	/**
+	 * The HTTP server.
+	 */
+	private final HttpServer server;
+
+	/**
+	 * The thread which answers requests.
+	 */
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("status-server"));
+
+	/**
+	 * Construct and start a new status server.
+	 *
+	 * @param tracker The tracker object.
+	 * @param metrics The metrics registry.
+	 * @param gson The Gson instance.
+	 * @param port The port to listen on.
+	 * @throws IOException If the port could not be bound.
+	 */
+	public StatusServer(ProgressTracker tracker, MetricsRegistry metrics, Gson gson, int port) throws IOException {
+		this.tracker = tracker;
+		this.metrics = metrics;
+		this.gson = gson;
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					respond(exchange);
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Unable to serve " + exchange.getRequestURI(), e);
+					send(exchange, 500, "text/plain; charset=utf-8", "Internal error\n");
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+
+		server.setExecutor(executor);
+		server.start();
+
+		logger.info("Serving status on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/status");
+	}
+
+	/**
+	 * Get the address the server listens on.
+	 *
+	 * @return The address.
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/**
+	 * Stop the server, letting requests which are being answered finish for up to a second.
+	 */
+	@Override
+	public void close() {
+		server.stop(1);
+		executor.shutdown();
+	}
+
+	/**
+	 * Answer a request.
+	 *
+	 * @param exchange The exchange.
+	 * @throws IOException If an error occurs while sending the response.
+	 */
+	private void respond(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+
+		if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+			exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+			send(exchange, 405, "text/plain; charset=utf-8", "Method not allowed\n");
+		} else if (path.equals("/status")) {
+			send(exchange, 200, "application/json; charset=utf-8", gson.toJson(tracker.getStatus()));
+		} else if (path.equals("/metrics")) {
+			StringBuilder body = new StringBuilder(4096);
+			metrics.writePrometheus(body, "rslog_");
+
+			send(exchange, 200, PROMETHEUS_CONTENT_TYPE, body.toString());
+		} else {
+			send(exchange, 404, "text/plain; charset=utf-8", "Not found, try /status or /metrics\n");
+		}
+	}
+
+	/**
+	 * Send a response.
+	 *
+	 * @param exchange The exchange.
+	 * @param status The status code.
+	 * @param contentType The content type.
+	 * @param body The body.
+	 * @throws IOException If an error occurs while sending the response.
+	 */
+	private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		boolean head = exchange.getRequestMethod().equals("HEAD");
+
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.getResponseHeaders().set("Cache-Control", "no-store");
+		exchange.sendResponseHeaders(status, head ? -1 : bytes.length);
+
+		if (!head) {
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(bytes);
+			}
+		}
+	}
+}
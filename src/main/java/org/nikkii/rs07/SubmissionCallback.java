@@ -0,0 +1,24 @@
+package org.nikkii.rs07;
+
+/**
+ * Finishes an event which a {@link SubmissionHandler} processes asynchronously.
+ *
+ * Exactly one of the methods must be called, once. Until then, the rest of the event's lane waits.
+ *
+ * @author Nikki
+ */
+public interface SubmissionCallback {
+	/**
+	 * Finish the event.
+	 *
+	 * @param delay The delay in milliseconds before the event should be retried, or a negative value if it is done.
+	 */
+	public void done(long delay);
+
+	/**
+	 * Drop the event after it failed.
+	 *
+	 * @param e The failure.
+	 */
+	public void failed(Exception e);
+}
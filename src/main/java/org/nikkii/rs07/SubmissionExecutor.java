@@ -0,0 +1,354 @@
+package org.nikkii.rs07;
+
+import org.nikkii.rs07.event.OSBuddyEvent;
+import org.nikkii.rs07.util.NamedThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs event submissions on a fixed pool of threads.
+ *
+ * Events are grouped into lanes by display name. A lane runs one event at a time in the order they were submitted,
+ * while different lanes run in parallel. Retries are scheduled without holding a pool thread, and the rest of the
+ * lane waits behind the event being retried. Likewise, an event which the handler processes asynchronously holds its
+ * lane but not a thread until it is done.
+ *
+ * @author Nikki
+ */
+public class SubmissionExecutor {
+
+	private static final Logger logger = Logger.getLogger(SubmissionExecutor.class.getName());
+
+	/**
+	 * The number of events a lane may run before giving its thread to another lane.
+	 */
+	static final int LANE_BATCH = 16;
+
+	/**
+	 * The handler which processes the events.
+	 */
+	private final SubmissionHandler handler;
+
+	/**
+	 * The number of threads in the pool.
+	 */
+	private final int threads;
+
+	/**
+	 * The pool which runs the lanes.
+	 */
+	private final ExecutorService pool;
+
+	/**
+	 * The scheduler used to resume lanes which are waiting to retry an event.
+	 */
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * The active lanes, keyed by display name. Also guards the lanes' task queues.
+	 */
+	private final Map<String, Lane> lanes = new HashMap<>();
+
+	/**
+	 * The time this executor was created, used to calculate throughput.
+	 */
+	private final long startTime = System.nanoTime();
+
+	/**
+	 * The number of submitted events.
+	 */
+	private final AtomicLong submitted = new AtomicLong();
+
+	/**
+	 * The number of events which were processed successfully.
+	 */
+	private final AtomicLong completed = new AtomicLong();
+
+	/**
+	 * The number of events which were dropped after failing.
+	 */
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * The number of scheduled retries.
+	 */
+	private final AtomicLong retries = new AtomicLong();
+
+	/**
+	 * The total time spent inside the handler, in nanoseconds.
+	 */
+	private final AtomicLong busyTime = new AtomicLong();
+
+	/**
+	 * The total time from submission to completion of finished events, in nanoseconds.
+	 */
+	private final AtomicLong latency = new AtomicLong();
+
+	/**
+	 * Construct a new submission executor.
+	 *
+	 * @param handler The handler which processes the events.
+	 * @param threads The number of events to process at once.
+	 */
+	public SubmissionExecutor(SubmissionHandler handler, int threads) {
+		this.handler = handler;
+		this.threads = threads;
+		this.pool = Executors.newFixedThreadPool(threads, new NamedThreadFactory("submission"));
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("submission-scheduler"));
+	}
+
+	/**
+	 * Submit an event to its display name's lane.
+	 *
+	 * @param event The event.
+	 */
+	public void submit(OSBuddyEvent event) {
+		Lane start = null;
+
+		synchronized (lanes) {
+			Lane lane = lanes.get(event.getDisplayName());
+
+			if (lane == null) {
+				lanes.put(event.getDisplayName(), start = lane = new Lane(event.getDisplayName()));
+			}
+
+			lane.tasks.add(new Task(event));
+		}
+
+		submitted.incrementAndGet();
+
+		if (start != null) {
+			pool.execute(start);
+		}
+	}
+
+	/**
+	 * Get a summary of the throughput statistics.
+	 *
+	 * Utilization close to 100% means the pool is the bottleneck and more threads would help.
+	 *
+	 * @return The statistics summary.
+	 */
+	public String getStatistics() {
+		double elapsed = (System.nanoTime() - startTime) / 1e9;
+		long done = completed.get();
+
+		return String.format("Submissions: %d submitted, %d completed (%.2f/s), %d failed, %d retries, %d lanes active, "
+				+ "avg latency %d ms, avg processing %d ms, utilization %.1f%% of %d threads",
+			submitted.get(), done, done / elapsed, failed.get(), retries.get(), getActiveLanes(),
+			done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(latency.get() / done),
+			done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(busyTime.get() / (done + failed.get() + retries.get())),
+			busyTime.get() / 1e7 / elapsed / threads, threads);
+	}
+
+	/**
+	 * Get the number of submitted events.
+	 *
+	 * @return The submitted count.
+	 */
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	/**
+	 * Get the number of events which were processed successfully.
+	 *
+	 * @return The completed count.
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * Get the number of events which were dropped after failing.
+	 *
+	 * @return The failed count.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Get the number of scheduled retries.
+	 *
+	 * @return The retry count.
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * Get the number of display names with events waiting or running.
+	 *
+	 * @return The active lane count.
+	 */
+	public int getActiveLanes() {
+		synchronized (lanes) {
+			return lanes.size();
+		}
+	}
+
+	/**
+	 * Stop accepting work and shut down the threads.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+		pool.shutdown();
+	}
+
+	/**
+	 * A queued event.
+	 */
+	private static final class Task {
+		/**
+		 * The event.
+		 */
+		private final OSBuddyEvent event;
+
+		/**
+		 * The time the event was submitted.
+		 */
+		private final long submitTime = System.nanoTime();
+
+		/**
+		 * The number of previous attempts.
+		 */
+		private int attempt;
+
+		public Task(OSBuddyEvent event) {
+			this.event = event;
+		}
+	}
+
+	/**
+	 * The ordered events of a single display name.
+	 */
+	private final class Lane implements Runnable {
+		/**
+		 * The lane key.
+		 */
+		private final String key;
+
+		/**
+		 * The waiting events, guarded by {@link #lanes}.
+		 */
+		private final Deque<Task> tasks = new ArrayDeque<>();
+
+		/**
+		 * Puts the lane back on the pool once a retry delay has passed.
+		 */
+		private final Runnable resume = new Runnable() {
+			@Override
+			public void run() {
+				pool.execute(Lane.this);
+			}
+		};
+
+		public Lane(String key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < LANE_BATCH; i++) {
+				final Task task;
+
+				synchronized (lanes) {
+					task = tasks.peek();
+
+					if (task == null) {
+						lanes.remove(key);
+						return;
+					}
+				}
+
+				long start = System.nanoTime();
+				long delay;
+
+				try {
+					delay = handler.process(task.event, task.attempt, new SubmissionCallback() {
+						@Override
+						public void done(long delay) {
+							if (finish(task, delay)) {
+								pool.execute(Lane.this);
+							}
+						}
+
+						@Override
+						public void failed(Exception e) {
+							fail(task, e);
+							pool.execute(Lane.this);
+						}
+					});
+				} catch (Exception e) {
+					fail(task, e);
+					continue;
+				} finally {
+					busyTime.addAndGet(System.nanoTime() - start);
+				}
+
+				// The lane is resumed by the callback
+				if (delay == SubmissionHandler.PENDING) {
+					return;
+				}
+
+				if (!finish(task, delay)) {
+					return;
+				}
+			}
+
+			// Let the other lanes have a turn
+			pool.execute(this);
+		}
+
+		/**
+		 * Finish an attempt of the lane's first task.
+		 *
+		 * @param task The task.
+		 * @param delay The delay before the task should be retried, or a negative value if it is done.
+		 * @return true if the lane can go on with its next task, false if a retry was scheduled.
+		 */
+		private boolean finish(Task task, long delay) {
+			if (delay >= 0) {
+				task.attempt++;
+				retries.incrementAndGet();
+				scheduler.schedule(resume, delay, TimeUnit.MILLISECONDS);
+				return false;
+			}
+
+			synchronized (lanes) {
+				tasks.poll();
+			}
+
+			completed.incrementAndGet();
+			latency.addAndGet(System.nanoTime() - task.submitTime);
+			return true;
+		}
+
+		/**
+		 * Drop the lane's first task after it failed.
+		 *
+		 * @param task The task.
+		 * @param e The failure.
+		 */
+		private void fail(Task task, Exception e) {
+			logger.log(Level.WARNING, "[" + key + "] An error occurred while pushing the update.", e);
+
+			synchronized (lanes) {
+				tasks.poll();
+			}
+
+			failed.incrementAndGet();
+		}
+	}
+}
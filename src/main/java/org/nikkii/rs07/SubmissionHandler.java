@@ -0,0 +1,27 @@
+package org.nikkii.rs07;
+
+import org.nikkii.rs07.event.OSBuddyEvent;
+
+/**
+ * Processes the events run by a {@link SubmissionExecutor}.
+ *
+ * @author Nikki
+ */
+public interface SubmissionHandler {
+	/**
+	 * Returned by {@link #process(OSBuddyEvent, int, SubmissionCallback)} when the event will finish asynchronously.
+	 */
+	public static final long PENDING = Long.MIN_VALUE;
+
+	/**
+	 * Process an event.
+	 *
+	 * @param event The event.
+	 * @param attempt The number of previous attempts for this event.
+	 * @param callback The callback to finish the event with, if it is processed asynchronously.
+	 * @return The delay in milliseconds before the event should be retried, {@link #PENDING} if the callback will be
+	 * called once the event is done, or another negative value if it is done.
+	 * @throws Exception If the event failed and should be dropped.
+	 */
+	public long process(OSBuddyEvent event, int attempt, SubmissionCallback callback) throws Exception;
+}
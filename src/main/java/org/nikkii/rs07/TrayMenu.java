@@ -0,0 +1,143 @@
+package org.nikkii.rs07;
+
+import javax.imageio.ImageIO;
+import java.awt.AWTException;
+import java.awt.CheckboxMenuItem;
+import java.awt.Dimension;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Menu;
+import java.awt.MenuItem;
+import java.awt.PopupMenu;
+import java.awt.SystemTray;
+import java.awt.TrayIcon;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * The tray icon and its menu.
+ *
+ * Everything which touches AWT outside of the image pipeline lives here, so a headless tracker never loads the
+ * toolkit, the system tray or the icon.
+ *
+ * @author Nikki
+ */
+public class TrayMenu {
+
+	/**
+	 * The upload rate limits offered in the menu, in kilobytes per second.
+	 */
+	private static final int[] UPLOAD_RATE_LIMITS = { 0, 128, 256, 512, 1024, 2048 };
+
+	/**
+	 * The tracker object.
+	 */
+	private final ProgressTracker tracker;
+
+	/**
+	 * The progress tracker user settings.
+	 */
+	private final ProgressTrackerUserSettings userSettings;
+
+	/**
+	 * Construct a new tray menu.
+	 *
+	 * @param tracker The tracker object.
+	 * @param userSettings The user settings the menu shows and changes.
+	 */
+	public TrayMenu(ProgressTracker tracker, ProgressTrackerUserSettings userSettings) {
+		this.tracker = tracker;
+		this.userSettings = userSettings;
+	}
+
+	/**
+	 * Check whether a tray icon can be shown, which it can't on headless JVMs or desktops without a tray.
+	 *
+	 * @return true if the system tray is available.
+	 */
+	public static boolean isSupported() {
+		return !GraphicsEnvironment.isHeadless() && SystemTray.isSupported();
+	}
+
+	/**
+	 * Add the tray icon to the system tray.
+	 *
+	 * @throws IOException If an error occurs reading the icon file.
+	 */
+	public void install() throws IOException {
+		Image image = ImageIO.read(TrayMenu.class.getResourceAsStream("/icon.png"));
+
+		Dimension size = SystemTray.getSystemTray().getTrayIconSize();
+
+		image = image.getScaledInstance(size.width, size.height, BufferedImage.SCALE_SMOOTH);
+
+		PopupMenu menu = new PopupMenu();
+
+		final CheckboxMenuItem start = new CheckboxMenuItem("Start on system startup", userSettings.shouldStartOnStartup());
+
+		start.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				userSettings.setStartOnStartup(start.getState());
+
+				try {
+					tracker.saveUserSettings();
+				} catch (IOException e1) {
+					e1.printStackTrace();
+				}
+
+				tracker.checkStartup();
+			}
+		});
+
+		menu.add(start);
+
+		final Menu uploadLimit = new Menu("Upload limit");
+
+		for (final int limit : UPLOAD_RATE_LIMITS) {
+			final CheckboxMenuItem item = new CheckboxMenuItem(limit > 0 ? limit + " KB/s" : "Unlimited", limit == userSettings.getUploadRateLimit());
+
+			item.addItemListener(new ItemListener() {
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					for (int i = 0; i < uploadLimit.getItemCount(); i++) {
+						((CheckboxMenuItem) uploadLimit.getItem(i)).setState(uploadLimit.getItem(i) == item);
+					}
+
+					tracker.setUploadRateLimit(limit);
+
+					try {
+						tracker.saveUserSettings();
+					} catch (IOException e1) {
+						e1.printStackTrace();
+					}
+				}
+			});
+
+			uploadLimit.add(item);
+		}
+
+		menu.add(uploadLimit);
+
+		MenuItem exit = new MenuItem("Exit");
+
+		exit.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent event) {
+				System.exit(0);
+			}
+		});
+
+		menu.add(exit);
+
+		try {
+			SystemTray.getSystemTray().add(new TrayIcon(image, "RSLog Tracker", menu));
+		} catch (AWTException e) {
+			e.printStackTrace();
+		}
+	}
+}
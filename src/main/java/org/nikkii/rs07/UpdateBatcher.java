@@ -0,0 +1,411 @@
+package org.nikkii.rs07;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.nikkii.rs07.event.OSBuddyEvent;
+import org.nikkii.rs07.http.CircuitOpenException;
+import org.nikkii.rs07.http.EndpointException;
+import org.nikkii.rs07.http.EndpointGuard;
+import org.nikkii.rs07.http.HttpJsonPostRequest;
+import org.nikkii.rs07.http.HttpStatusException;
+import org.nikkii.rs07.http.data.RequestData;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A thread which coalesces updates into batches, posting each batch to the batch update endpoint as one JSON array.
+ *
+ * A batch is sent once it holds the maximum number of updates, or the batch delay has passed since its first update
+ * was added. The endpoint responds with a JSON array holding the response for each update, in the same order.
+ *
+ * If the endpoint doesn't exist, batching is turned off and the updates are posted one by one.
+ *
+ * Each update keeps its space in the {@link UpdateQueueWorker}'s queue until it was sent or given up on, so the
+ * batcher is bounded by the queue capacity.
+ *
+ * @author Nikki
+ */
+public class UpdateBatcher implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(UpdateBatcher.class.getName());
+
+	/**
+	 * The type of a batch response.
+	 */
+	private static final Type RESPONSE_TYPE = new TypeToken<List<String>>() {}.getType();
+
+	/**
+	 * The tracker object.
+	 */
+	private final ProgressTracker tracker;
+
+	/**
+	 * The worker which queued the updates.
+	 */
+	private final UpdateQueueWorker worker;
+
+	/**
+	 * The guard of the update endpoint.
+	 */
+	private final EndpointGuard guard;
+
+	/**
+	 * The batch update url.
+	 */
+	private final String url;
+
+	/**
+	 * The Gson instance used to build batches.
+	 */
+	private final Gson gson;
+
+	/**
+	 * The maximum number of updates in a batch.
+	 */
+	private final int batchSize;
+
+	/**
+	 * The time in milliseconds to wait for a batch to fill up.
+	 */
+	private final long batchDelay;
+
+	/**
+	 * The number of attempts to send an update before it is left in the outbox until the next start.
+	 */
+	private final int submitAttempts;
+
+	/**
+	 * The updates waiting to be sent.
+	 */
+	private final BlockingQueue<PendingUpdate> queue = new LinkedBlockingQueue<>();
+
+	/**
+	 * Whether the server supports batches.
+	 */
+	private volatile boolean supported = true;
+
+	/**
+	 * The number of batch requests.
+	 */
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * The number of updates sent in batches.
+	 */
+	private final AtomicLong batchedUpdates = new AtomicLong();
+
+	/**
+	 * The number of updates posted one by one after batching was turned off.
+	 */
+	private final AtomicLong singleUpdates = new AtomicLong();
+
+	/**
+	 * Construct a new update batcher.
+	 *
+	 * @param tracker The tracker object.
+	 * @param worker The worker which queued the updates.
+	 * @param guard The guard of the update endpoint.
+	 * @param url The batch update url.
+	 * @param gson The Gson instance used to build batches.
+	 * @param batchSize The maximum number of updates in a batch.
+	 * @param batchDelay The time in milliseconds to wait for a batch to fill up.
+	 * @param submitAttempts The number of attempts to send an update.
+	 */
+	public UpdateBatcher(ProgressTracker tracker, UpdateQueueWorker worker, EndpointGuard guard, String url, Gson gson,
+						 int batchSize, long batchDelay, int submitAttempts) {
+		this.tracker = tracker;
+		this.worker = worker;
+		this.guard = guard;
+		this.url = url;
+		this.gson = gson;
+		this.batchSize = batchSize;
+		this.batchDelay = batchDelay;
+		this.submitAttempts = submitAttempts;
+	}
+
+	/**
+	 * Check if the server supports batches.
+	 *
+	 * @return If updates should be added to this batcher.
+	 */
+	public boolean isSupported() {
+		return supported;
+	}
+
+	/**
+	 * Add an update to the next batch.
+	 *
+	 * @param event The event.
+	 * @param data The update data.
+	 */
+	public void add(OSBuddyEvent event, RequestData data) {
+		queue.add(new PendingUpdate(event, data));
+	}
+
+	/**
+	 * Get the number of batch requests.
+	 *
+	 * @return The batch count.
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * Get the number of updates sent in batches.
+	 *
+	 * @return The batched update count.
+	 */
+	public long getBatchedUpdates() {
+		return batchedUpdates.get();
+	}
+
+	/**
+	 * Get the number of updates posted one by one after batching was turned off.
+	 *
+	 * @return The single update count.
+	 */
+	public long getSingleUpdates() {
+		return singleUpdates.get();
+	}
+
+	/**
+	 * Get a summary of the batch statistics.
+	 *
+	 * @return The statistics summary.
+	 */
+	public String getStatistics() {
+		long count = batches.get(), updates = batchedUpdates.get();
+
+		return String.format("Batches: %s, %d batches, %d updates (%.1f per batch), %d posted singly, %d waiting",
+			supported ? "enabled" : "unsupported", count, updates, count == 0 ? 0.0 : (double) updates / count,
+			singleUpdates.get(), queue.size());
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				List<PendingUpdate> batch = new ArrayList<>(batchSize);
+
+				batch.add(queue.take());
+
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchDelay);
+
+				while (batch.size() < batchSize) {
+					PendingUpdate update = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+					if (update == null) {
+						break;
+					}
+
+					batch.add(update);
+				}
+
+				send(batch);
+			}
+		} catch (InterruptedException e) {
+			// Shutting down
+		}
+	}
+
+	/**
+	 * Send a batch, retrying it for as long as the failures are retryable.
+	 *
+	 * @param batch The batch.
+	 * @throws InterruptedException If interrupted while waiting to retry.
+	 */
+	private void send(List<PendingUpdate> batch) throws InterruptedException {
+		for (int attempt = 0; supported; attempt++) {
+			try {
+				List<String> responses = post(batch);
+
+				batches.incrementAndGet();
+				batchedUpdates.addAndGet(batch.size());
+
+				for (int i = 0; i < batch.size(); i++) {
+					complete(batch.get(i), responses.get(i));
+				}
+
+				return;
+			} catch (EndpointException e) {
+				if (isUnsupported(e)) {
+					logger.info("The server doesn't support batch updates, posting updates one by one.");
+					supported = false;
+					break;
+				}
+
+				// The server may only reject some of the updates, post them one by one so only those are dropped
+				if (!e.isRetryable()) {
+					logger.info("Batch of " + batch.size() + " updates rejected: " + e.getMessage() + ", posting the updates one by one.");
+					break;
+				}
+
+				// Batches wait for as long as the circuit is open, other failures are retried a limited number of times
+				if (!(e instanceof CircuitOpenException || attempt + 1 < submitAttempts)) {
+					fail(batch, e);
+					return;
+				}
+
+				long delay = e.getRetryDelay(attempt);
+
+				logger.info("Batch of " + batch.size() + " updates failed: " + e.getMessage() + ", retrying in " + delay + " ms.");
+				Thread.sleep(delay);
+			} catch (IOException e) {
+				fail(batch, e);
+				return;
+			}
+		}
+
+		for (PendingUpdate update : batch) {
+			sendSingle(update);
+		}
+	}
+
+	/**
+	 * Post a single update, retrying it for as long as the failures are retryable.
+	 *
+	 * @param update The update.
+	 * @throws InterruptedException If interrupted while waiting to retry.
+	 */
+	private void sendSingle(PendingUpdate update) throws InterruptedException {
+		for (int attempt = 0; ; attempt++) {
+			try {
+				tracker.postUpdate(update.event, update.data);
+				singleUpdates.incrementAndGet();
+				worker.release();
+				return;
+			} catch (EndpointException e) {
+				if (!e.isRetryable() || !(e instanceof CircuitOpenException || attempt + 1 < submitAttempts)) {
+					fail(Collections.singletonList(update), e);
+					return;
+				}
+
+				Thread.sleep(e.getRetryDelay(attempt));
+			} catch (IOException e) {
+				fail(Collections.singletonList(update), e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Complete an update which was sent, freeing its space in the queue.
+	 *
+	 * @param update The update.
+	 * @param response The response to the update.
+	 */
+	private void complete(PendingUpdate update, String response) {
+		try {
+			tracker.completeUpdate(update.event, response);
+		} catch (IOException e) {
+			tracker.failUpdate(update.event, e);
+		} finally {
+			worker.release();
+		}
+	}
+
+	/**
+	 * Give up on updates which could not be sent, freeing their space in the queue.
+	 *
+	 * @param updates The updates.
+	 * @param e The failure.
+	 */
+	private void fail(List<PendingUpdate> updates, IOException e) {
+		for (PendingUpdate update : updates) {
+			try {
+				tracker.failUpdate(update.event, e);
+			} finally {
+				worker.release();
+			}
+		}
+	}
+
+	/**
+	 * Post a batch to the batch update endpoint.
+	 *
+	 * @param batch The batch.
+	 * @return The response for each update.
+	 * @throws IOException If an error occurs while posting the batch.
+	 */
+	private List<String> post(List<PendingUpdate> batch) throws IOException {
+		List<Map<String, Object>> body = new ArrayList<>(batch.size());
+
+		for (PendingUpdate update : batch) {
+			body.add(update.data.asMap());
+		}
+
+		String response;
+
+		guard.acquire();
+
+		try (HttpJsonPostRequest request = new HttpJsonPostRequest(url, gson.toJson(body))) {
+			response = request.getResponseBody();
+		} catch (IOException e) {
+			throw guard.failure(e);
+		}
+
+		guard.success();
+
+		List<String> responses;
+
+		try {
+			responses = gson.fromJson(response, RESPONSE_TYPE);
+		} catch (JsonParseException e) {
+			throw new IOException("Invalid batch response: " + e.getMessage());
+		}
+
+		if (responses == null || responses.size() != batch.size()) {
+			throw new IOException("Batch response holds " + (responses == null ? 0 : responses.size()) + " responses for " + batch.size() + " updates");
+		}
+
+		return responses;
+	}
+
+	/**
+	 * Check if a failure means the server doesn't have a batch endpoint.
+	 *
+	 * @param e The failure.
+	 * @return If batching should be turned off.
+	 */
+	private static boolean isUnsupported(EndpointException e) {
+		if (!(e.getCause() instanceof HttpStatusException)) {
+			return false;
+		}
+
+		int code = ((HttpStatusException) e.getCause()).getStatusCode();
+
+		return code == 404 || code == 405 || code == 501;
+	}
+
+	/**
+	 * An update waiting to be sent.
+	 */
+	private static final class PendingUpdate {
+		/**
+		 * The event.
+		 */
+		private final OSBuddyEvent event;
+
+		/**
+		 * The update data.
+		 */
+		private final RequestData data;
+
+		public PendingUpdate(OSBuddyEvent event, RequestData data) {
+			this.event = event;
+			this.data = data;
+		}
+	}
+}
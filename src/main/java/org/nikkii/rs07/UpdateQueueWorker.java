@@ -1,73 +1,225 @@
 package org.nikkii.rs07;
 
 import org.nikkii.rs07.event.OSBuddyEvent;
+import org.nikkii.rs07.http.CircuitOpenException;
+import org.nikkii.rs07.http.EndpointException;
+import org.nikkii.rs07.http.HttpCallback;
 
-import javax.imageio.ImageIO;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 /**
- * A thread which submits progress events/waits for screenshots to be valid.
+ * Submits progress events.
+ *
+ * The queue is bounded, callers of {@link #queue(OSBuddyEvent)} block for a limited time when it is full. Events are
+ * run by a {@link SubmissionExecutor}, so events for the same display name are submitted in order while different
+ * display names are submitted in parallel.
  *
  * @author Nikki
  */
-public class UpdateQueueWorker implements Runnable {
+public class UpdateQueueWorker implements SubmissionHandler {
+
+	private static final Logger logger = Logger.getLogger(UpdateQueueWorker.class.getName());
+
 	/**
 	 * The tracker object.
 	 */
 	private final ProgressTracker tracker;
 
 	/**
-	 * The Linked Queue for events.
+	 * The executor which runs the submissions.
+	 */
+	private final SubmissionExecutor executor;
+
+	/**
+	 * The number of events which can still be queued.
+	 */
+	private final Semaphore capacity;
+
+	/**
+	 * The maximum number of queued events.
 	 */
-	private final Queue<OSBuddyEvent> queue = new LinkedList<>();
+	private final int maximumCapacity;
 
-	public UpdateQueueWorker(ProgressTracker tracker) {
+	/**
+	 * The time in milliseconds to wait for space in the queue, or 0 to wait until there is space.
+	 */
+	private final long offerTimeout;
+
+	/**
+	 * The number of attempts to submit an event before it is left in the outbox until the next start.
+	 */
+	private final int submitAttempts;
+
+	/**
+	 * Construct a new worker.
+	 *
+	 * @param tracker The tracker object.
+	 * @param threads The number of events to submit at once.
+	 * @param capacity The maximum number of queued events.
+	 * @param offerTimeout The time in milliseconds to wait for space in the queue, or 0 to wait until there is space.
+	 * @param submitAttempts The number of attempts to submit an event.
+	 */
+	public UpdateQueueWorker(ProgressTracker tracker, int threads, int capacity, long offerTimeout, int submitAttempts) {
 		this.tracker = tracker;
+		this.executor = new SubmissionExecutor(this, threads);
+		this.capacity = new Semaphore(capacity);
+		this.maximumCapacity = capacity;
+		this.offerTimeout = offerTimeout;
+		this.submitAttempts = submitAttempts;
 	}
 
 	/**
-	 * Queue an event for submission.
+	 * Queue an event for submission, waiting for space if the queue is full.
 	 *
 	 * @param event The event to submit.
+	 * @return true if the event was queued, false if the queue stayed full.
+	 * @throws InterruptedException If interrupted while waiting for space.
 	 */
-	public void queue(OSBuddyEvent event) {
-		synchronized (queue) {
-			queue.add(event);
+	public boolean queue(OSBuddyEvent event) throws InterruptedException {
+		if (offerTimeout <= 0) {
+			capacity.acquire();
+		} else if (!capacity.tryAcquire(offerTimeout, TimeUnit.MILLISECONDS)) {
+			return false;
 		}
+
+		executor.submit(event);
+		return true;
+	}
+
+	/**
+	 * Get the number of events waiting to be submitted or being submitted.
+	 *
+	 * @return The queue depth.
+	 */
+	public int getQueueDepth() {
+		return maximumCapacity - capacity.availablePermits();
+	}
+
+	/**
+	 * Get the number of events which can be queued before callers have to wait.
+	 *
+	 * @return The remaining capacity.
+	 */
+	public int getRemainingCapacity() {
+		return capacity.availablePermits();
+	}
+
+	/**
+	 * Get the submission executor.
+	 *
+	 * @return The executor.
+	 */
+	public SubmissionExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Free the queue space of an event which was handed to the {@link UpdateBatcher}, once it was sent or given up on.
+	 */
+	public void release() {
+		capacity.release();
 	}
 
 	@Override
-	public void run() {
-		while (true) {
-			synchronized (queue) {
-				if (!queue.isEmpty()) {
-					for (Iterator<OSBuddyEvent> it$ = queue.iterator(); it$.hasNext(); ) {
-						OSBuddyEvent event = it$.next();
-
-						if (!event.hasScreenshot()) {
-							try {
-								event.setScreenshot(ImageIO.read(event.getScreenshotFile()));
-							} catch (Exception e) {
-								// Unable to load, let it go and add again.
-								System.out.println("Unable to get screenshot from " + event.getScreenshotFile());
-								e.printStackTrace();
-							}
+	public long process(final OSBuddyEvent event, final int attempt, final SubmissionCallback callback) throws Exception {
+		// Events are only queued once their screenshot has settled, but it may have been removed since
+		if (!event.getScreenshotFile().isFile()) {
+			logger.warning("Screenshot " + event.getScreenshotFile() + " no longer exists, dropping event.");
+
+			try {
+				tracker.discardEvent(event);
+			} finally {
+				release();
+			}
+			return -1;
+		}
+
+		if (tracker.isAsync()) {
+			try {
+				tracker.submitProgress(event, new HttpCallback<Boolean>() {
+					@Override
+					public void completed(Boolean submitted) {
+						if (submitted) {
+							release();
 						}
 
-						if (event.hasScreenshot()) {
-							it$.remove();
-							tracker.submitProgress(event);
+						callback.done(-1);
+					}
+
+					@Override
+					public void failed(IOException e) {
+						long delay;
+
+						try {
+							delay = retryDelay(event, attempt, e);
+						} catch (Exception ex) {
+							callback.failed(ex);
+							return;
 						}
+
+						callback.done(delay);
 					}
+				});
+			} catch (Exception e) {
+				return retryDelay(event, attempt, e);
+			}
+
+			return PENDING;
+		}
+
+		boolean submitted;
+
+		try {
+			submitted = tracker.submitProgress(event);
+		} catch (Exception e) {
+			return retryDelay(event, attempt, e);
+		}
+
+		// A batched event keeps its space until the batcher sent it
+		if (submitted) {
+			release();
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Decide what to do with an event which could not be submitted.
+	 *
+	 * @param event The event.
+	 * @param attempt The number of previous attempts.
+	 * @param e The failure.
+	 * @return The delay before the event should be retried.
+	 * @throws Exception The failure, if the event is given up on.
+	 */
+	private long retryDelay(OSBuddyEvent event, int attempt, Exception e) throws Exception {
+		if (e instanceof EndpointException) {
+			EndpointException failure = (EndpointException) e;
+
+			// The server rejected the event, it would be rejected again every time it was replayed from the outbox
+			if (!failure.isRetryable()) {
+				try {
+					tracker.discardEvent(event);
+				} finally {
+					release();
 				}
+				throw e;
 			}
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				break;
+
+			// Events wait for as long as the circuit is open, other failures are retried a limited number of times
+			if (failure instanceof CircuitOpenException || attempt + 1 < submitAttempts) {
+				long delay = failure.getRetryDelay(attempt);
+
+				logger.info("[" + event.getDisplayName() + "] " + e.getMessage() + ", retrying in " + delay + " ms.");
+				return delay;
 			}
 		}
+
+		tracker.deferEvent(event);
+		release();
+		throw e;
 	}
 }
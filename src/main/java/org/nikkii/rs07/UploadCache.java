@@ -0,0 +1,302 @@
+package org.nikkii.rs07;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, persistent map of image digests to the url the image service returned for them, so a screenshot which
+ * was uploaded before (for example when an event is retried or resubmitted after a restart) isn't uploaded again.
+ *
+ * Digests are kept in least recently used order, and the least recently used digest is evicted once the cache is full.
+ *
+ * Like the {@link EventIndex}, every change is appended to a journal file which is rewritten once it grows to twice the
+ * size of the cache.
+ *
+ * @author Nikki
+ */
+public class UploadCache implements AutoCloseable {
+	/**
+	 * The journal record of an uploaded image.
+	 */
+	private static final byte PUT = 1;
+
+	/**
+	 * The journal record of a cache hit, which makes the digest the most recently used.
+	 */
+	private static final byte HIT = 2;
+
+	/**
+	 * The size of the buffer files are digested through.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The journal file.
+	 */
+	private final File file;
+
+	/**
+	 * The maximum number of digests.
+	 */
+	private final int capacity;
+
+	/**
+	 * The urls, keyed by digest in least recently used order.
+	 */
+	private final LinkedHashMap<String, String> urls;
+
+	/**
+	 * The number of records in the journal.
+	 */
+	private int records;
+
+	/**
+	 * The number of lookups which found a url.
+	 */
+	private long hits;
+
+	/**
+	 * The number of lookups which didn't.
+	 */
+	private long misses;
+
+	/**
+	 * The journal output.
+	 */
+	private DataOutputStream output;
+
+	/**
+	 * Construct a new cache and load it from its journal.
+	 *
+	 * @param file The journal file.
+	 * @param capacity The maximum number of digests.
+	 * @throws IOException If an error occurs while reading or opening the journal.
+	 */
+	public UploadCache(File file, final int capacity) throws IOException {
+		this.file = file;
+		this.capacity = capacity;
+		this.urls = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > capacity;
+			}
+		};
+
+		// A journal with a broken record is rewritten, records appended after it could not be read back
+		if (!load() || records > urls.size() * 2) {
+			compact();
+		} else {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		}
+	}
+
+	/**
+	 * Find the url an image was uploaded to.
+	 *
+	 * @param digest The image digest.
+	 * @return The url, or null if the image wasn't uploaded before.
+	 * @throws IOException If an error occurs while writing to the journal.
+	 */
+	public synchronized String get(String digest) throws IOException {
+		String url = urls.get(digest);
+
+		if (url == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		append(HIT, digest, null);
+
+		return url;
+	}
+
+	/**
+	 * Remember the url an image was uploaded to, evicting the least recently used digest if the cache is full.
+	 *
+	 * @param digest The image digest.
+	 * @param url The url.
+	 * @throws IOException If an error occurs while writing to the journal.
+	 */
+	public synchronized void put(String digest, String url) throws IOException {
+		if (url.equals(urls.put(digest, url))) {
+			return;
+		}
+
+		append(PUT, digest, url);
+	}
+
+	/**
+	 * Get the number of digests in the cache.
+	 *
+	 * @return The number of digests.
+	 */
+	public synchronized int size() {
+		return urls.size();
+	}
+
+	/**
+	 * Get a summary of the cache statistics.
+	 *
+	 * @return The statistics summary.
+	 */
+	public synchronized String getStatistics() {
+		return String.format("Upload cache: %d images, %d hits, %d misses", urls.size(), hits, misses);
+	}
+
+	/**
+	 * Close the journal.
+	 *
+	 * @throws IOException If an error occurs while closing the journal.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		output.close();
+	}
+
+	/**
+	 * Calculate the digest of a screenshot file, as uploaded with the given image settings.
+	 *
+	 * @param file The screenshot file.
+	 * @param variant A description of the settings the image is transformed with before uploading.
+	 * @return The hex encoded SHA-256 digest.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	public static String digest(File file, String variant) throws IOException {
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		try (InputStream input = new FileInputStream(file)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+
+			while ((read = input.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+
+		digest.update((byte) 0);
+		digest.update(variant.getBytes(StandardCharsets.UTF_8));
+
+		return String.format("%064x", new BigInteger(1, digest.digest()));
+	}
+
+	/**
+	 * Load the cache from the journal.
+	 *
+	 * @return false if the journal ends with a broken record.
+	 * @throws IOException If an error occurs while reading the journal.
+	 */
+	private boolean load() throws IOException {
+		if (!file.exists()) {
+			return true;
+		}
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			while (true) {
+				int type = input.read();
+				String digest, url = null;
+
+				if (type == -1) {
+					return true;
+				}
+
+				if (type != PUT && type != HIT) {
+					// Garbage, most likely from a crash while writing, nothing after it can be trusted
+					return false;
+				}
+
+				try {
+					digest = input.readUTF();
+
+					if (type == PUT) {
+						url = input.readUTF();
+					}
+				} catch (EOFException e) {
+					// A partially written record at the end is ignored
+					return false;
+				}
+
+				records++;
+
+				if (type == PUT) {
+					urls.put(digest, url);
+				} else {
+					urls.get(digest);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rewrite the journal with only the digests currently in the cache, in least recently used order.
+	 *
+	 * @throws IOException If an error occurs while writing the journal.
+	 */
+	private void compact() throws IOException {
+		if (output != null) {
+			output.close();
+		}
+
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+		records = 0;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			for (Map.Entry<String, String> entry : urls.entrySet()) {
+				out.writeByte(PUT);
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue());
+				records++;
+			}
+		}
+
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	/**
+	 * Append a record to the journal, compacting it if it grew too large.
+	 *
+	 * @param type The record type.
+	 * @param digest The image digest.
+	 * @param url The url, or null for a hit.
+	 * @throws IOException If an error occurs while writing the journal.
+	 */
+	private void append(byte type, String digest, String url) throws IOException {
+		output.writeByte(type);
+		output.writeUTF(digest);
+
+		if (url != null) {
+			output.writeUTF(url);
+		}
+
+		output.flush();
+
+		if (++records > capacity * 2) {
+			compact();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package org.nikkii.rs07;
+
+/**
+ * The ways a screenshot can be uploaded to the image service.
+ *
+ * @author Nikki
+ */
+public enum UploadMode {
+	/**
+	 * Stream the PNG file written by OSBuddy as-is, without decoding it.
+	 */
+	STREAM,
+
+	/**
+	 * Decode the screenshot and re-encode it as PNG before uploading.
+	 */
+	REENCODE
+}
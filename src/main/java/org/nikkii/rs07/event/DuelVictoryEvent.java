@@ -1,20 +1,30 @@
 package org.nikkii.rs07.event;
 
 import org.nikkii.rs07.ProgressType;
+import org.nikkii.rs07.http.data.RequestData;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.Objects;
+import java.util.Map;
 
 /**
  * @author Nikki
  */
 public class DuelVictoryEvent extends OSBuddyEvent {
+	/**
+	 * Creates duel victory events from the fields of an event rule.
+	 */
+	public static final EventFactory FACTORY = new EventFactory() {
+		@Override
+		public OSBuddyEvent create(File file, String displayName, Map<String, String> fields) {
+			return new DuelVictoryEvent(file, displayName, fields.get("opponent"), fields.get("timestamp"));
+		}
+	};
+
 	private final String opponent;
 	private final String timestamp;
 
-	public DuelVictoryEvent(File screenshotFile, String displayName, BufferedImage screenshot, String opponent, String timestamp) {
-		super(screenshotFile, ProgressType.DUEL_VICTORY, displayName, screenshot);
+	public DuelVictoryEvent(File screenshotFile, String displayName, String opponent, String timestamp) {
+		super(screenshotFile, ProgressType.DUEL_VICTORY, displayName, fields("opponent", opponent, "timestamp", timestamp));
 		this.opponent = opponent;
 		this.timestamp = timestamp;
 	}
@@ -23,8 +33,17 @@ public class DuelVictoryEvent extends OSBuddyEvent {
 		return opponent;
 	}
 
+	public String getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public void addUpdateFields(RequestData data) {
+		data.put("opponent", opponent);
+	}
+
 	@Override
-	public int hashCode() {
-		return Objects.hash(type, displayName, opponent, timestamp);
+	public String getDescription() {
+		return "Duel Victory - Opponent: " + opponent;
 	}
 }
@@ -0,0 +1,186 @@
+package org.nikkii.rs07.event;
+
+/**
+ * Parses duel victory screenshot names, such as "Victory against Zezima - 2016-01-01_12-00-00".
+ *
+ * OSBuddy writes the opponent's name as the game client displays it, which puts non-breaking spaces between the
+ * words of a name, and the separators around it aren't always plain spaces either. Instead of a pattern, the name is
+ * scanned once from both ends: the timestamp is the trailing run of digits, dots, underscores and hyphens, and the
+ * opponent is everything between the prefix and the dash before the timestamp.
+ *
+ * The opponent's name is normalized the way the game client standardizes names:
+ * <ul>
+ *     <li>Non-breaking spaces, other space characters, underscores and hyphens are spaces.</li>
+ *     <li>Runs of spaces are collapsed, and leading and trailing spaces removed.</li>
+ *     <li>Markup tags, such as the icons of ironman accounts, are removed.</li>
+ *     <li>Every other character which can't be part of a name, such as zero width spaces, is removed.</li>
+ * </ul>
+ *
+ * A name which doesn't match is rejected without allocating anything.
+ *
+ * @author Nikki
+ */
+public class DuelVictoryParser implements NameParser {
+
+	/**
+	 * The start of every duel victory screenshot name.
+	 */
+	private static final String PREFIX = "Victory against";
+
+	/**
+	 * The buffer opponent names are normalized in, per thread.
+	 */
+	private static final ThreadLocal<char[]> buffer = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[32];
+		}
+	};
+
+	@Override
+	public String[] parse(String name, int end) {
+		int start = PREFIX.length();
+
+		if (end <= start || !name.startsWith(PREFIX) || !isSpace(name.charAt(start))) {
+			return null;
+		}
+
+		// The timestamp runs back from the end
+		int timestamp = end;
+
+		while (timestamp > start && isTimestamp(name.charAt(timestamp - 1))) {
+			timestamp--;
+		}
+
+		if (timestamp == end) {
+			return null;
+		}
+
+		// Followed by at least one space, a dash and at least one space before it
+		int separator = skipSpaces(name, start, timestamp);
+
+		if (separator == timestamp || separator == start || !isDash(name.charAt(separator - 1))) {
+			return null;
+		}
+
+		int opponentEnd = skipSpaces(name, start, separator - 1);
+
+		if (opponentEnd == separator - 1) {
+			return null;
+		}
+
+		String opponent = normalize(name, start, opponentEnd);
+
+		if (opponent == null) {
+			return null;
+		}
+
+		return new String[]{opponent, name.substring(timestamp, end)};
+	}
+
+	/**
+	 * Normalize a player name the way the game client does.
+	 *
+	 * @param name The text the name is in.
+	 * @param start The start of the name.
+	 * @param end The end of the name.
+	 * @return The normalized name, or null if nothing is left of it.
+	 */
+	public static String normalize(CharSequence name, int start, int end) {
+		char[] chars = buffer.get();
+
+		if (chars.length < end - start) {
+			buffer.set(chars = new char[end - start]);
+		}
+
+		int length = 0;
+		boolean space = false;
+
+		for (int i = start; i < end; i++) {
+			char c = name.charAt(i);
+
+			if (c == '<') {
+				// Skip the tag, or keep the rest if it isn't closed
+				int close = i + 1;
+
+				while (close < end && name.charAt(close) != '>') {
+					close++;
+				}
+
+				if (close < end) {
+					i = close;
+					continue;
+				}
+			}
+
+			if (isSpace(c) || c == '_' || isDash(c)) {
+				space = length > 0;
+			} else if (c > ' ' && c < 0x7f) {
+				if (space) {
+					chars[length++] = ' ';
+					space = false;
+				}
+
+				chars[length++] = c;
+			}
+		}
+
+		return length > 0 ? new String(chars, 0, length) : null;
+	}
+
+	/**
+	 * Move back over spaces and invisible characters.
+	 *
+	 * @param name The name.
+	 * @param start The position not to move past.
+	 * @param position The position to move back from.
+	 * @return The position of the first space, or the given position if it isn't preceded by one.
+	 */
+	private static int skipSpaces(String name, int start, int position) {
+		while (position > start && (isSpace(name.charAt(position - 1)) || isInvisible(name.charAt(position - 1)))) {
+			position--;
+		}
+
+		return position;
+	}
+
+	/**
+	 * Check if a character is a space, including non-breaking spaces.
+	 *
+	 * @param c The character.
+	 * @return If the character is a space.
+	 */
+	private static boolean isSpace(char c) {
+		return c == ' ' || Character.isWhitespace(c) || (c > 0x7f && Character.isSpaceChar(c));
+	}
+
+	/**
+	 * Check if a character is invisible, such as a zero width space or a direction mark.
+	 *
+	 * @param c The character.
+	 * @return If the character is invisible.
+	 */
+	private static boolean isInvisible(char c) {
+		return c > 0x7f && Character.getType(c) == Character.FORMAT;
+	}
+
+	/**
+	 * Check if a character is a hyphen or dash.
+	 *
+	 * @param c The character.
+	 * @return If the character is a dash.
+	 */
+	private static boolean isDash(char c) {
+		return c == '-' || (c > 0x7f && Character.getType(c) == Character.DASH_PUNCTUATION);
+	}
+
+	/**
+	 * Check if a character can be part of a timestamp.
+	 *
+	 * @param c The character.
+	 * @return If the character is a digit, dot, underscore or hyphen.
+	 */
+	private static boolean isTimestamp(char c) {
+		return (c >= '0' && c <= '9') || c == '.' || c == '_' || c == '-';
+	}
+}
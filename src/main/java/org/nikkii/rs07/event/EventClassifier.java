@@ -0,0 +1,30 @@
+package org.nikkii.rs07.event;
+
+import java.io.File;
+
+/**
+ * Turns screenshot files into events.
+ *
+ * The tracker asks the {@link RuleClassifier} built from the event rules in its settings first, then every
+ * classifier found with {@link java.util.ServiceLoader}, so a jar on the class path which lists an implementation in
+ * {@code META-INF/services/org.nikkii.rs07.event.EventClassifier} can add event types of its own. Such a classifier
+ * registers its types with {@link org.nikkii.rs07.ProgressType#register(String)}, and should register an
+ * {@link EventFactory} with the {@link EventRegistry} if its events are not plain {@link OSBuddyEvent}s, so they can
+ * be read back from the outbox.
+ *
+ * Classifiers are called from several threads at once.
+ *
+ * @author Nikki
+ */
+public interface EventClassifier {
+
+	/**
+	 * Classify a screenshot by its file name.
+	 *
+	 * @param displayName The character display name.
+	 * @param file The screenshot file.
+	 * @return The event, or null if the screenshot isn't one this classifier knows.
+	 * @throws ParseEventError If the screenshot looks like a known event, but is invalid (unknown skill, etc).
+	 */
+	OSBuddyEvent classify(String displayName, File file) throws ParseEventError;
+}
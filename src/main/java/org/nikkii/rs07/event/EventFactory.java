@@ -0,0 +1,23 @@
+package org.nikkii.rs07.event;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Creates the events of one type from the fields an {@link EventRule} took from a file name.
+ *
+ * @author Nikki
+ */
+public interface EventFactory {
+
+	/**
+	 * Create an event.
+	 *
+	 * @param file The screenshot file.
+	 * @param displayName The character display name.
+	 * @param fields The event fields, keyed by name.
+	 * @return The event.
+	 * @throws ParseEventError If the fields don't make a valid event.
+	 */
+	OSBuddyEvent create(File file, String displayName, Map<String, String> fields) throws ParseEventError;
+}
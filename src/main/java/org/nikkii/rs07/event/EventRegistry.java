@@ -0,0 +1,63 @@
+package org.nikkii.rs07.event;
+
+import org.nikkii.rs07.ProgressType;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the {@link EventFactory} of each event type which has its own event class. Events of other types are
+ * created as plain {@link OSBuddyEvent}s carrying their fields.
+ *
+ * @author Nikki
+ */
+public class EventRegistry {
+
+	/**
+	 * The factories, keyed by type.
+	 */
+	private static final ConcurrentMap<ProgressType, EventFactory> factories = new ConcurrentHashMap<>();
+
+	static {
+		register(ProgressType.LEVEL_UP, LevelUpEvent.FACTORY);
+		register(ProgressType.TREASURE_TRAIL, TreasureTrailEvent.FACTORY);
+		register(ProgressType.DUEL_VICTORY, DuelVictoryEvent.FACTORY);
+	}
+
+	private EventRegistry() {
+
+	}
+
+	/**
+	 * Register the factory of an event type, replacing its current factory.
+	 *
+	 * @param type The event type.
+	 * @param factory The factory.
+	 */
+	public static void register(ProgressType type, EventFactory factory) {
+		factories.put(type, factory);
+	}
+
+	/**
+	 * Create an event.
+	 *
+	 * @param type The event type.
+	 * @param file The screenshot file.
+	 * @param displayName The character display name.
+	 * @param fields The event fields, keyed by name.
+	 * @return The event.
+	 * @throws ParseEventError If the fields don't make a valid event.
+	 */
+	public static OSBuddyEvent create(ProgressType type, File file, String displayName, Map<String, String> fields) throws ParseEventError {
+		EventFactory factory = factories.get(type);
+
+		if (factory == null) {
+			return new OSBuddyEvent(file, type, displayName, new LinkedHashMap<>(fields));
+		}
+
+		return factory.create(file, displayName, fields);
+	}
+}
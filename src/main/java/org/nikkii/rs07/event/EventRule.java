@@ -0,0 +1,111 @@
+package org.nikkii.rs07.event;
+
+import org.nikkii.rs07.ProgressType;
+
+/**
+ * A rule which recognizes one type of event by its screenshot file name, as read from the settings.
+ *
+ * The pattern is matched against the file name without its extension, and its groups become the event fields, in
+ * order. Names a pattern can't describe well are parsed by a {@link NameParser} instead. Every rule should have a
+ * prefix which the name starts with, or a marker which the name contains, so names without it are never matched
+ * against its pattern. A rule without either is tried on every screenshot.
+ *
+ * @author Nikki
+ */
+public class EventRule {
+	/**
+	 * The event type, registered when the rule is read.
+	 */
+	private ProgressType type;
+
+	/**
+	 * The text every matching name starts with, or null.
+	 */
+	private String prefix;
+
+	/**
+	 * The text every matching name contains, or null.
+	 */
+	private String marker;
+
+	/**
+	 * The pattern of matching names.
+	 */
+	private String pattern;
+
+	/**
+	 * The class name of the parser used instead of a pattern, or null.
+	 */
+	private String parser;
+
+	/**
+	 * The field name of each pattern group or parsed value.
+	 */
+	private String[] fields;
+
+	public EventRule() {
+
+	}
+
+	public EventRule(ProgressType type, String prefix, String marker, String pattern, String... fields) {
+		this.type = type;
+		this.prefix = prefix;
+		this.marker = marker;
+		this.pattern = pattern;
+		this.fields = fields;
+	}
+
+	/**
+	 * Get the event type.
+	 *
+	 * @return The event type.
+	 */
+	public ProgressType getType() {
+		return type;
+	}
+
+	/**
+	 * Get the text every matching name starts with.
+	 *
+	 * @return The prefix, or null.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Get the text every matching name contains.
+	 *
+	 * @return The marker, or null.
+	 */
+	public String getMarker() {
+		return marker;
+	}
+
+	/**
+	 * Get the pattern of matching names.
+	 *
+	 * @return The pattern.
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * Get the class name of the parser used instead of a pattern.
+	 *
+	 * @return The parser class name, or null.
+	 */
+	public String getParser() {
+		return parser;
+	}
+
+	/**
+	 * Get the field name of each pattern group or parsed value.
+	 *
+	 * @return The field names.
+	 */
+	public String[] getFields() {
+		return fields;
+	}
+}
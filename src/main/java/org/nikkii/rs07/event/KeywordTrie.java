@@ -0,0 +1,253 @@
+package org.nikkii.rs07.event;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+/**
+ * Finds which of a set of keywords occur in a text in a single pass, using the Aho-Corasick automaton: a trie of the
+ * keywords in which every node links to the node of its longest suffix, so a mismatch never moves back in the text.
+ *
+ * Each keyword belongs to one of at most 64 rules, and either has to start the text or may occur anywhere in it.
+ * Matching reports the rules whose keywords were found as a bit mask, without allocating.
+ *
+ * The transitions of ASCII characters are resolved ahead of time, so scanning an ASCII name costs one array lookup
+ * per character. Other characters follow the suffix links.
+ *
+ * @author Nikki
+ */
+final class KeywordTrie {
+	/**
+	 * The maximum number of rules.
+	 */
+	public static final int MAX_RULES = 64;
+
+	/**
+	 * The number of characters whose transitions are resolved ahead of time.
+	 */
+	private static final int ASCII = 128;
+
+	/**
+	 * The root node, the empty string.
+	 */
+	private final Node root = new Node(0);
+
+	/**
+	 * The length of the longest keyword which has to start the text.
+	 */
+	private int maxPrefixLength;
+
+	/**
+	 * Whether there are keywords which may occur anywhere.
+	 */
+	private boolean markers;
+
+	/**
+	 * Add a keyword. Every keyword has to be added before the trie is built.
+	 *
+	 * @param keyword The keyword.
+	 * @param prefix Whether the keyword has to start the text.
+	 * @param rule The rule the keyword belongs to.
+	 */
+	public void add(String keyword, boolean prefix, int rule) {
+		if (keyword.isEmpty()) {
+			throw new IllegalArgumentException("Empty keyword");
+		}
+
+		if (rule < 0 || rule >= MAX_RULES) {
+			throw new IllegalArgumentException("Too many rules, at most " + MAX_RULES + " are supported");
+		}
+
+		Node node = root;
+
+		for (int i = 0; i < keyword.length(); i++) {
+			node = node.addChild(keyword.charAt(i));
+		}
+
+		if (prefix) {
+			node.prefixRules |= 1L << rule;
+			maxPrefixLength = Math.max(maxPrefixLength, keyword.length());
+		} else {
+			node.markerRules |= 1L << rule;
+			markers = true;
+		}
+	}
+
+	/**
+	 * Link every node to the node of its longest proper suffix and resolve its ASCII transitions, breadth first so
+	 * the suffix is always done first.
+	 */
+	public void build() {
+		Queue<Node> queue = new ArrayDeque<>();
+
+		root.fail = root;
+		queue.add(root);
+
+		while (!queue.isEmpty()) {
+			Node node = queue.poll();
+
+			for (int i = 0; i < node.size; i++) {
+				Node child = node.children[i];
+
+				child.fail = node == root ? root : step(node.fail, node.keys[i]);
+				// Finding a keyword also finds every marker it ends with
+				child.markerRules |= child.fail.markerRules;
+
+				queue.add(child);
+			}
+
+			node.ascii = new Node[ASCII];
+
+			for (char c = 0; c < ASCII; c++) {
+				Node child = node.getChild(c);
+
+				node.ascii[c] = child != null ? child : node == root ? root : node.fail.ascii[c];
+			}
+		}
+	}
+
+	/**
+	 * Find the rules whose keywords occur in the start of a text.
+	 *
+	 * @param text The text.
+	 * @param end The end of the part of the text to search.
+	 * @return The rule mask.
+	 */
+	public long match(CharSequence text, int end) {
+		long rules = 0;
+		Node node = root;
+
+		for (int i = 0; i < end; i++) {
+			if (!markers && i >= maxPrefixLength) {
+				break;
+			}
+
+			char c = text.charAt(i);
+
+			node = c < ASCII ? node.ascii[c] : step(node, c);
+			rules |= node.markerRules;
+
+			// Only a node as deep as the text read so far holds keywords which start the text
+			if (node.depth == i + 1) {
+				rules |= node.prefixRules;
+			}
+		}
+
+		return rules;
+	}
+
+	/**
+	 * Follow a character from a node, falling back to shorter suffixes until one can be extended.
+	 *
+	 * @param node The node.
+	 * @param c The character.
+	 * @return The next node.
+	 */
+	private Node step(Node node, char c) {
+		while (true) {
+			Node next = node.getChild(c);
+
+			if (next != null) {
+				return next;
+			}
+
+			if (node == root) {
+				return root;
+			}
+
+			node = node.fail;
+		}
+	}
+
+	/**
+	 * A trie node.
+	 */
+	private static final class Node {
+		/**
+		 * The length of the string this node represents.
+		 */
+		private final int depth;
+
+		/**
+		 * The characters of the children, sorted.
+		 */
+		private char[] keys = new char[0];
+
+		/**
+		 * The children, in the order of their characters.
+		 */
+		private Node[] children = new Node[0];
+
+		/**
+		 * The number of children.
+		 */
+		private int size;
+
+		/**
+		 * The node of the longest proper suffix.
+		 */
+		private Node fail;
+
+		/**
+		 * The next node for each ASCII character.
+		 */
+		private Node[] ascii;
+
+		/**
+		 * The rules of the keywords which start the text and end at this node.
+		 */
+		private long prefixRules;
+
+		/**
+		 * The rules of the keywords which end at this node or at one of its suffixes.
+		 */
+		private long markerRules;
+
+		public Node(int depth) {
+			this.depth = depth;
+		}
+
+		/**
+		 * Get a child.
+		 *
+		 * @param c The character.
+		 * @return The child, or null.
+		 */
+		public Node getChild(char c) {
+			int index = Arrays.binarySearch(keys, 0, size, c);
+
+			return index >= 0 ? children[index] : null;
+		}
+
+		/**
+		 * Get a child, adding it if it doesn't exist.
+		 *
+		 * @param c The character.
+		 * @return The child.
+		 */
+		public Node addChild(char c) {
+			int index = Arrays.binarySearch(keys, 0, size, c);
+
+			if (index >= 0) {
+				return children[index];
+			}
+
+			index = -index - 1;
+
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size + 4);
+				children = Arrays.copyOf(children, size + 4);
+			}
+
+			System.arraycopy(keys, index, keys, index + 1, size - index);
+			System.arraycopy(children, index, children, index + 1, size - index);
+
+			Node child = new Node(depth + 1);
+			keys[index] = c;
+			children[index] = child;
+			size++;
+
+			return child;
+		}
+	}
+}
@@ -1,20 +1,50 @@
 package org.nikkii.rs07.event;
 
 import org.nikkii.rs07.ProgressType;
+import org.nikkii.rs07.http.data.RequestData;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.Objects;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Nikki
  */
 public class LevelUpEvent extends OSBuddyEvent {
+	/**
+	 * Creates level up events from the fields of an event rule, checking the skill name.
+	 */
+	public static final EventFactory FACTORY = new EventFactory() {
+		@Override
+		public OSBuddyEvent create(File file, String displayName, Map<String, String> fields) {
+			String skill = fields.get("skill"), level = fields.get("level");
+
+			if (!SKILLS.contains(skill)) {
+				throw new ParseEventError("Unknown skill " + skill);
+			}
+
+			try {
+				return new LevelUpEvent(file, displayName, skill, Integer.parseInt(level));
+			} catch (NumberFormatException e) {
+				throw new ParseEventError("Invalid level " + level);
+			}
+		}
+	};
+
+	/**
+	 * A list of valid skills.
+	 */
+	private static final List<String> SKILLS = Arrays.asList(new String[]{
+		"Attack", "Strength", "Defence", "Ranged", "Prayer", "Magic", "Hitpoints", "Crafting", "Mining", "Smithing", "Fishing", "Cooking", "Firemaking", "Woodcutting", "Runecraft"
+		, "Agility", "Herblore", "Thieving", "Fletching", "Slayer", "Farming", "Construction", "Hunter"
+	});
+
 	private final String skill;
 	private final int level;
 
-	public LevelUpEvent(File screenshotFile, String displayName, BufferedImage screenshot, String skill, int level) {
-		super(screenshotFile, ProgressType.LEVEL_UP, displayName, screenshot);
+	public LevelUpEvent(File screenshotFile, String displayName, String skill, int level) {
+		super(screenshotFile, ProgressType.LEVEL_UP, displayName, fields("skill", skill, "level", String.valueOf(level)));
 		this.skill = skill;
 		this.level = level;
 	}
@@ -28,7 +58,13 @@ public class LevelUpEvent extends OSBuddyEvent {
 	}
 
 	@Override
-	public int hashCode() {
-		return Objects.hash(type, displayName, skill, level);
+	public void addUpdateFields(RequestData data) {
+		data.put("skill", skill)
+			.put("level", level);
+	}
+
+	@Override
+	public String getDescription() {
+		return "Skill Level - Skill : " + skill + ", Level: " + level;
 	}
 }
@@ -0,0 +1,22 @@
+package org.nikkii.rs07.event;
+
+/**
+ * Parses screenshot file names for an {@link EventRule}, for names which a pattern can't describe well. A rule names
+ * its parser's class instead of a pattern, and the class is created once, with its no argument constructor, when the
+ * rules are compiled.
+ *
+ * Parsers are called from several threads at once.
+ *
+ * @author Nikki
+ */
+public interface NameParser {
+
+	/**
+	 * Parse a file name.
+	 *
+	 * @param name The file name.
+	 * @param end The end of the name, without its extension.
+	 * @return The value of each of the rule's fields, in order, or null if the name doesn't match.
+	 */
+	String[] parse(String name, int end);
+}
@@ -1,26 +1,38 @@
 package org.nikkii.rs07.event;
 
 import org.nikkii.rs07.ProgressType;
-import org.nikkii.rs07.util.Optional;
+import org.nikkii.rs07.http.data.RequestData;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
+ * An event parsed from a screenshot's file name. Only the file is referenced, the screenshot is read when it is
+ * uploaded.
+ *
+ * Besides its type and display name, an event has named fields taken from the file name. Events of types without
+ * their own class are instances of this class, and send every field with their update.
+ *
  * @author Nikki
  */
 public class OSBuddyEvent {
 	protected final File screenshotFile;
 	protected final ProgressType type;
 	protected final String displayName;
-	protected Optional<BufferedImage> screenshot;
+	protected final Map<String, String> fields;
 
-	public OSBuddyEvent(File screenshotFile, ProgressType type, String displayName, BufferedImage screenshot) {
+	public OSBuddyEvent(File screenshotFile, ProgressType type, String displayName, Map<String, String> fields) {
 		this.screenshotFile = screenshotFile;
 		this.type = type;
 		this.displayName = displayName;
-		this.screenshot = Optional.ofNullable(screenshot);
+		this.fields = Collections.unmodifiableMap(fields);
 	}
 
 	public ProgressType getType() {
@@ -31,21 +43,92 @@ public class OSBuddyEvent {
 		return displayName;
 	}
 
-	public BufferedImage getScreenshot() {
-		return screenshot.get();
+	/**
+	 * Get the fields which identify this event, in addition to the type and display name, in the order they appear
+	 * in the file name.
+	 *
+	 * @return The fields, keyed by name.
+	 */
+	public Map<String, String> getFields() {
+		return fields;
 	}
 
-	public boolean hasScreenshot() {
-		return screenshot.isPresent();
+	/**
+	 * Add the event's fields to its update.
+	 *
+	 * @param data The update data.
+	 */
+	public void addUpdateFields(RequestData data) {
+		for (Map.Entry<String, String> field : fields.entrySet()) {
+			data.put(field.getKey(), field.getValue());
+		}
 	}
 
-	public void setScreenshot(BufferedImage screenshot) {
-		this.screenshot = Optional.ofNullable(screenshot);
+	/**
+	 * Describe the event for the log.
+	 *
+	 * @return The description.
+	 */
+	public String getDescription() {
+		return type + " - " + fields;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(type, displayName);
+		return Objects.hash(type, displayName, fields);
+	}
+
+	/**
+	 * Get a 64-bit digest of the identifying fields and screenshot file name, used to detect duplicate events.
+	 *
+	 * @return The event key.
+	 */
+	public long getKey() {
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		update(digest, type.name());
+		update(digest, displayName);
+
+		for (String field : fields.values()) {
+			update(digest, field);
+		}
+
+		update(digest, screenshotFile.getName());
+
+		return ByteBuffer.wrap(digest.digest()).getLong();
+	}
+
+	/**
+	 * Build a field map.
+	 *
+	 * @param namesAndValues The field names, each followed by its value.
+	 * @return The fields, in order.
+	 */
+	protected static Map<String, String> fields(String... namesAndValues) {
+		Map<String, String> fields = new LinkedHashMap<>();
+
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			fields.put(namesAndValues[i], namesAndValues[i + 1]);
+		}
+
+		return fields;
+	}
+
+	/**
+	 * Add a field to a digest, followed by a separator so adjacent fields can't run into each other.
+	 *
+	 * @param digest The digest.
+	 * @param field The field.
+	 */
+	private static void update(MessageDigest digest, String field) {
+		digest.update(field.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
 	}
 
 	public File getScreenshotFile() {
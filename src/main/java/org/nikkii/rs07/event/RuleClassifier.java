@@ -0,0 +1,223 @@
+package org.nikkii.rs07.event;
+
+import org.nikkii.rs07.ProgressType;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Classifies screenshots with a table of {@link EventRule}s.
+ *
+ * The prefixes and markers of every rule are compiled into one {@link KeywordTrie}, so a file name is scanned once to
+ * find the rules which could match it, however many rules there are. Only those rules' patterns or parsers are tried,
+ * in the order of the rules, and the first which matches creates the event. Most screenshots aren't events and are
+ * rejected by the scan alone.
+ *
+ * @author Nikki
+ */
+public class RuleClassifier implements EventClassifier {
+
+	/**
+	 * The field names which can't be used by rules, since events are stored and sent with them.
+	 */
+	private static final Set<String> RESERVED_FIELDS = new HashSet<>(Arrays.asList("type", "displayName", "file", "time", "url", "key"));
+
+	/**
+	 * The compiled rules.
+	 */
+	private final CompiledRule[] rules;
+
+	/**
+	 * The trie of rule prefixes and markers.
+	 */
+	private final KeywordTrie trie = new KeywordTrie();
+
+	/**
+	 * The rules without a prefix or marker, which are tried on every name.
+	 */
+	private final long unconditional;
+
+	/**
+	 * Compile a list of rules.
+	 *
+	 * @param rules The rules, in the order they are tried.
+	 * @throws IllegalArgumentException If a rule is invalid.
+	 */
+	public RuleClassifier(List<EventRule> rules) {
+		if (rules.size() > KeywordTrie.MAX_RULES) {
+			throw new IllegalArgumentException("Too many event rules, at most " + KeywordTrie.MAX_RULES + " are supported");
+		}
+
+		this.rules = new CompiledRule[rules.size()];
+
+		long unconditional = 0;
+
+		for (int i = 0; i < rules.size(); i++) {
+			EventRule rule = rules.get(i);
+
+			this.rules[i] = compile(rule);
+
+			if (rule.getPrefix() != null) {
+				trie.add(rule.getPrefix(), true, i);
+			}
+
+			if (rule.getMarker() != null) {
+				trie.add(rule.getMarker(), false, i);
+			}
+
+			if (rule.getPrefix() == null && rule.getMarker() == null) {
+				unconditional |= 1L << i;
+			}
+		}
+
+		this.unconditional = unconditional;
+
+		trie.build();
+	}
+
+	@Override
+	public OSBuddyEvent classify(String displayName, File file) throws ParseEventError {
+		String name = file.getName();
+		int end = name.lastIndexOf('.');
+
+		if (end == -1) {
+			return null;
+		}
+
+		long candidates = trie.match(name, end) | unconditional;
+
+		while (candidates != 0) {
+			CompiledRule rule = rules[Long.numberOfTrailingZeros(candidates)];
+			candidates &= candidates - 1;
+
+			Map<String, String> fields = rule.match(name, end);
+
+			if (fields != null) {
+				return EventRegistry.create(rule.type, file, displayName, fields);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Check and compile a rule.
+	 *
+	 * @param rule The rule.
+	 * @return The compiled rule.
+	 * @throws IllegalArgumentException If the rule is invalid.
+	 */
+	private static CompiledRule compile(EventRule rule) {
+		if (rule.getType() == null || (rule.getPattern() == null) == (rule.getParser() == null)) {
+			throw new IllegalArgumentException("Event rule without a type, or without exactly one of a pattern and a parser");
+		}
+
+		String[] fields = rule.getFields() != null ? rule.getFields() : new String[0];
+
+		for (String field : fields) {
+			if (RESERVED_FIELDS.contains(field)) {
+				throw new IllegalArgumentException("The field name " + field + " of " + rule.getType() + " is reserved");
+			}
+		}
+
+		if (rule.getParser() != null) {
+			try {
+				Class<? extends NameParser> type = Class.forName(rule.getParser()).asSubclass(NameParser.class);
+				NameParser parser = type.getDeclaredConstructor().newInstance();
+
+				return new CompiledRule(rule.getType(), null, parser, fields);
+			} catch (ReflectiveOperationException | ClassCastException e) {
+				throw new IllegalArgumentException("Unable to create the parser for " + rule.getType() + ": " + e, e);
+			}
+		}
+
+		Pattern pattern;
+
+		try {
+			pattern = Pattern.compile(rule.getPattern());
+		} catch (PatternSyntaxException e) {
+			throw new IllegalArgumentException("Invalid pattern for " + rule.getType() + ": " + e.getMessage(), e);
+		}
+
+		if (fields.length > pattern.matcher("").groupCount()) {
+			throw new IllegalArgumentException("The pattern for " + rule.getType() + " has fewer groups than fields");
+		}
+
+		return new CompiledRule(rule.getType(), pattern, null, fields);
+	}
+
+	/**
+	 * A rule ready to be matched.
+	 */
+	private static final class CompiledRule {
+		/**
+		 * The event type.
+		 */
+		private final ProgressType type;
+
+		/**
+		 * The pattern of matching names, or null if the rule has a parser.
+		 */
+		private final Pattern pattern;
+
+		/**
+		 * The parser of matching names, or null if the rule has a pattern.
+		 */
+		private final NameParser parser;
+
+		/**
+		 * The field name of each pattern group or parsed value.
+		 */
+		private final String[] fields;
+
+		public CompiledRule(ProgressType type, Pattern pattern, NameParser parser, String[] fields) {
+			this.type = type;
+			this.pattern = pattern;
+			this.parser = parser;
+			this.fields = fields;
+		}
+
+		/**
+		 * Match a name.
+		 *
+		 * @param name The file name.
+		 * @param end The end of the name, without its extension.
+		 * @return The event fields, or null if the name doesn't match.
+		 */
+		public Map<String, String> match(String name, int end) {
+			Map<String, String> values = new LinkedHashMap<>();
+
+			if (parser != null) {
+				String[] parsed = parser.parse(name, end);
+
+				if (parsed == null) {
+					return null;
+				}
+
+				for (int i = 0; i < fields.length && i < parsed.length; i++) {
+					values.put(fields[i], parsed[i]);
+				}
+			} else {
+				Matcher m = pattern.matcher(name).region(0, end);
+
+				if (!m.find()) {
+					return null;
+				}
+
+				for (int i = 0; i < fields.length; i++) {
+					values.put(fields[i], m.group(i + 1));
+				}
+			}
+
+			return values;
+		}
+	}
+}
@@ -1,20 +1,30 @@
 package org.nikkii.rs07.event;
 
 import org.nikkii.rs07.ProgressType;
+import org.nikkii.rs07.http.data.RequestData;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.Objects;
+import java.util.Map;
 
 /**
  * @author Nikki
  */
 public class TreasureTrailEvent extends OSBuddyEvent {
+	/**
+	 * Creates treasure trail events from the fields of an event rule.
+	 */
+	public static final EventFactory FACTORY = new EventFactory() {
+		@Override
+		public OSBuddyEvent create(File file, String displayName, Map<String, String> fields) {
+			return new TreasureTrailEvent(file, displayName, fields.get("difficulty"), fields.get("completionDate"));
+		}
+	};
+
 	private final String difficulty;
 	private final String completionDate;
 
-	public TreasureTrailEvent(File screenshotFile, String displayName, BufferedImage screenshot, String difficulty, String completionDate) {
-		super(screenshotFile, ProgressType.TREASURE_TRAIL, displayName, screenshot);
+	public TreasureTrailEvent(File screenshotFile, String displayName, String difficulty, String completionDate) {
+		super(screenshotFile, ProgressType.TREASURE_TRAIL, displayName, fields("difficulty", difficulty, "completionDate", completionDate));
 		this.difficulty = difficulty;
 		this.completionDate = completionDate;
 	}
@@ -28,7 +38,12 @@ public class TreasureTrailEvent extends OSBuddyEvent {
 	}
 
 	@Override
-	public int hashCode() {
-		return Objects.hash(type, displayName, difficulty, completionDate);
+	public void addUpdateFields(RequestData data) {
+		data.put("difficulty", difficulty);
+	}
+
+	@Override
+	public String getDescription() {
+		return "Treasure Trail - Difficulty: " + difficulty;
 	}
 }
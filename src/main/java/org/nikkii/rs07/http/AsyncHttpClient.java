@@ -0,0 +1,1099 @@
+package org.nikkii.rs07.http;
+
+import org.nikkii.rs07.util.NamedThreadFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking HTTP/1.1 client which runs any number of requests on a single selector thread.
+ *
+ * Any {@link HttpRequest} can be executed: the request is encoded on the calling thread, then written and its response
+ * read by the event loop. A {@link StreamingBody} such as a multipart upload is not encoded up front, its files are
+ * transferred straight to the socket instead. Uploads take their bytes from the shared upload {@link TokenBucket}; a
+ * connection which runs out of tokens stops writing until enough tokens are available again. Once the response has
+ * been read, it completes the request's {@link HttpFuture} and is handed to its callback. Connections are kept alive
+ * and reused, and at most a fixed number of connections are opened to each host; further requests wait for one.
+ *
+ * Callbacks are run on the client's own callback thread, so they may block without stalling the event loop. The
+ * thread is stopped once the event loop stopped and every pending callback ran.
+ *
+ * Only plain http urls are supported, https requests have to be made with {@link HttpRequest} directly.
+ *
+ * @author Nikki
+ */
+public class AsyncHttpClient implements Runnable, AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(AsyncHttpClient.class.getName());
+
+	/**
+	 * The charset of the request line and headers.
+	 */
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	/**
+	 * The time in milliseconds an idle connection is kept open.
+	 */
+	private static final long IDLE_TIMEOUT = 15000;
+
+	/**
+	 * The maximum time in milliseconds the event loop waits before checking timeouts.
+	 */
+	private static final long SELECT_TIMEOUT = 250;
+
+	/**
+	 * The size of each connection's read buffer.
+	 */
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * The maximum number of bytes written to a rate limited connection at once.
+	 */
+	private static final int WRITE_QUANTUM = 64 * 1024;
+
+	/**
+	 * The selector.
+	 */
+	private final Selector selector;
+
+	/**
+	 * The maximum number of connections to each host.
+	 */
+	private final int maxConnectionsPerHost;
+
+	/**
+	 * The executor which runs callbacks.
+	 */
+	private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("http-callback"));
+
+	/**
+	 * The requests which the event loop hasn't picked up yet.
+	 */
+	private final Queue<Exchange> submitted = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The hosts, keyed by host and port. Only used by the event loop.
+	 */
+	private final Map<String, Host> hosts = new HashMap<>();
+
+	/**
+	 * The connections waiting for upload tokens. Only used by the event loop.
+	 */
+	private final List<Connection> throttled = new ArrayList<>();
+
+	/**
+	 * Whether the client is running.
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * The number of executed requests.
+	 */
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * The number of connections opened.
+	 */
+	private final AtomicLong opened = new AtomicLong();
+
+	/**
+	 * The number of requests sent on a kept alive connection.
+	 */
+	private final AtomicLong reused = new AtomicLong();
+
+	/**
+	 * The number of failed requests.
+	 */
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * The number of requests waiting for or receiving a response.
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/**
+	 * The number of open connections.
+	 */
+	private final AtomicInteger connections = new AtomicInteger();
+
+	/**
+	 * Construct a new client. The client does nothing until {@link #run()} is called on a thread of its own.
+	 *
+	 * @param maxConnectionsPerHost The maximum number of connections to each host
+	 * @throws IOException If the selector could not be opened
+	 */
+	public AsyncHttpClient(int maxConnectionsPerHost) throws IOException {
+		this.selector = Selector.open();
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	/**
+	 * Execute a request asynchronously.
+	 *
+	 * @param request The request
+	 * @param callback The callback to notify once the response was received, or null
+	 * @return The future response. Error status codes are returned as responses, not failures.
+	 * @throws IOException If the request could not be encoded, or the client is closed
+	 */
+	public HttpFuture<HttpResponse> execute(HttpRequest request, HttpCallback<HttpResponse> callback) throws IOException {
+		// Checked first, encoding the request opens its files
+		if (!running) {
+			throw new IOException("The client is closed");
+		}
+
+		Exchange exchange = new Exchange(request, new HttpFuture<>(callback));
+
+		requests.incrementAndGet();
+		inFlight.incrementAndGet();
+
+		submitted.add(exchange);
+
+		// The event loop may have stopped and failed the submitted requests before this one was added
+		if (!running && submitted.remove(exchange)) {
+			inFlight.decrementAndGet();
+			exchange.close();
+			throw new IOException("The client is closed");
+		}
+
+		selector.wakeup();
+
+		return exchange.future;
+	}
+
+	/**
+	 * Check if a url can be requested by this client.
+	 *
+	 * @param url The url
+	 * @return If the url uses plain http
+	 */
+	public static boolean supports(String url) {
+		return url != null && url.regionMatches(true, 0, "http://", 0, 7);
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select(getSelectTimeout());
+
+				Exchange exchange;
+
+				while ((exchange = submitted.poll()) != null) {
+					getHost(exchange.address).waiting.add(exchange);
+				}
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+
+					handle((Connection) key.attachment(), key);
+				}
+
+				resumeThrottled();
+
+				long now = System.currentTimeMillis();
+
+				for (Host host : hosts.values()) {
+					checkTimeouts(host, now);
+					dispatch(host);
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			logger.log(Level.SEVERE, "HTTP event loop failed", e);
+		} finally {
+			running = false;
+			shutdown();
+		}
+	}
+
+	/**
+	 * Stop the event loop, failing every request which didn't complete yet.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Get a summary of the client statistics.
+	 *
+	 * @return The statistics summary
+	 */
+	public String getStatistics() {
+		return String.format("Async HTTP: %d requests, %d in flight, %d failed, %d connections opened, %d reused, %d open",
+			requests.get(), inFlight.get(), failures.get(), opened.get(), reused.get(), connections.get());
+	}
+
+	/**
+	 * Get the number of executed requests.
+	 *
+	 * @return The request count
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Get the number of requests waiting for or receiving a response.
+	 *
+	 * @return The in flight count
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Get the number of open connections, busy or idle.
+	 *
+	 * @return The open connection count
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * Get the number of connections opened.
+	 *
+	 * @return The opened count
+	 */
+	public long getOpened() {
+		return opened.get();
+	}
+
+	/**
+	 * Get the number of requests sent on a kept alive connection.
+	 *
+	 * @return The reused count
+	 */
+	public long getReused() {
+		return reused.get();
+	}
+
+	/**
+	 * Get the host of an address, creating it if needed.
+	 *
+	 * @param address The address
+	 * @return The host
+	 */
+	private Host getHost(InetSocketAddress address) {
+		String key = address.getHostString() + ":" + address.getPort();
+		Host host = hosts.get(key);
+
+		if (host == null) {
+			hosts.put(key, host = new Host(address));
+		}
+
+		return host;
+	}
+
+	/**
+	 * Start as many of a host's waiting requests as its connections allow.
+	 *
+	 * @param host The host
+	 */
+	private void dispatch(Host host) {
+		while (!host.waiting.isEmpty()) {
+			Connection connection = host.idle.pollLast();
+
+			if (connection != null) {
+				reused.incrementAndGet();
+				connection.start(host.waiting.poll(), true);
+				continue;
+			}
+
+			if (host.connections.size() >= maxConnectionsPerHost) {
+				return;
+			}
+
+			Exchange exchange = host.waiting.poll();
+
+			try {
+				connection = open(host);
+			} catch (IOException e) {
+				fail(exchange, e);
+				continue;
+			}
+
+			connection.start(exchange, false);
+		}
+	}
+
+	/**
+	 * Open a new connection to a host.
+	 *
+	 * @param host The host
+	 * @return The connection
+	 * @throws IOException If the host could not be resolved, or the connection could not be started
+	 */
+	private Connection open(Host host) throws IOException {
+		if (host.resolved == null) {
+			// Looked up once per host rather than per request, and again after a connect failed
+			InetSocketAddress resolved = new InetSocketAddress(host.address.getHostString(), host.address.getPort());
+
+			if (resolved.isUnresolved()) {
+				throw new UnknownHostException(host.address.getHostString());
+			}
+
+			host.resolved = resolved;
+		}
+
+		SocketChannel channel = SocketChannel.open();
+
+		try {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+			boolean connected = channel.connect(host.resolved);
+
+			Connection connection = new Connection(host, channel, !connected);
+			connection.key = channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, connection);
+
+			host.connections.add(connection);
+			opened.incrementAndGet();
+			connections.incrementAndGet();
+
+			return connection;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Handle a ready connection.
+	 *
+	 * @param connection The connection
+	 * @param key The connection's selection key
+	 */
+	private void handle(Connection connection, SelectionKey key) {
+		try {
+			if (!key.isValid()) {
+				return;
+			}
+
+			if (key.isConnectable()) {
+				if (!connection.channel.finishConnect()) {
+					return;
+				}
+
+				connection.connecting = false;
+				connection.deadline = deadline(HttpConnectionManager.getReadTimeout());
+				key.interestOps(SelectionKey.OP_WRITE);
+			} else if (key.isWritable()) {
+				write(connection);
+			} else if (key.isReadable()) {
+				read(connection);
+			}
+		} catch (IOException e) {
+			if (connection.exchange != null && connection.reused && !connection.parser.hasReceived()) {
+				// The server closed the kept alive connection before it got the request, try a new one
+				retry(connection);
+			} else {
+				close(connection, e);
+			}
+		}
+	}
+
+	/**
+	 * Write as much of a connection's request as the socket and the upload limits allow.
+	 *
+	 * @param connection The connection
+	 * @throws IOException If an error occurs while writing the request
+	 */
+	private void write(Connection connection) throws IOException {
+		Exchange exchange = connection.exchange;
+		TokenBucket shared = HttpConnectionManager.getUploadBucket();
+		WritableByteChannel channel = connection.channel;
+		long granted = 0;
+
+		if (shared.isLimited() || exchange.limiter != null) {
+			granted = shared.take(WRITE_QUANTUM);
+
+			if (exchange.limiter != null) {
+				long own = exchange.limiter.take(granted);
+				shared.refund(granted - own);
+				granted = own;
+			}
+
+			if (granted == 0) {
+				throttle(connection);
+				return;
+			}
+
+			connection.limited.allow(granted);
+			channel = connection.limited;
+		}
+
+		if (exchange.output.hasRemaining()) {
+			channel.write(exchange.output);
+		}
+
+		boolean sent = !exchange.output.hasRemaining() && (exchange.body == null || exchange.body.writeTo(channel));
+
+		if (granted > 0) {
+			long unused = connection.limited.allow(0);
+
+			shared.refund(unused);
+
+			if (exchange.limiter != null) {
+				exchange.limiter.refund(unused);
+			}
+		}
+
+		if (sent) {
+			connection.key.interestOps(SelectionKey.OP_READ);
+		}
+
+		connection.deadline = deadline(HttpConnectionManager.getReadTimeout());
+	}
+
+	/**
+	 * Stop writing to a connection until its upload limits have tokens for it again.
+	 *
+	 * @param connection The connection
+	 */
+	private void throttle(Connection connection) {
+		long delay = HttpConnectionManager.getUploadBucket().getDelay(WRITE_QUANTUM);
+
+		if (connection.exchange.limiter != null) {
+			delay = Math.max(delay, connection.exchange.limiter.getDelay(WRITE_QUANTUM));
+		}
+
+		connection.resumeAt = System.nanoTime() + Math.max(delay, 1);
+		connection.key.interestOps(0);
+		throttled.add(connection);
+	}
+
+	/**
+	 * Start writing to the throttled connections whose tokens are due.
+	 */
+	private void resumeThrottled() {
+		if (throttled.isEmpty()) {
+			return;
+		}
+
+		long now = System.nanoTime();
+
+		for (Iterator<Connection> it = throttled.iterator(); it.hasNext(); ) {
+			Connection connection = it.next();
+
+			if (now - connection.resumeAt >= 0) {
+				it.remove();
+				connection.resumeAt = 0;
+
+				if (connection.key.isValid()) {
+					connection.key.interestOps(SelectionKey.OP_WRITE);
+					connection.deadline = deadline(HttpConnectionManager.getReadTimeout());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the time to wait for events, which is shortened when a throttled connection can soon write again.
+	 *
+	 * @return The timeout in milliseconds
+	 */
+	private long getSelectTimeout() {
+		long timeout = SELECT_TIMEOUT;
+		long now = System.nanoTime();
+
+		for (Connection connection : throttled) {
+			timeout = Math.min(timeout, TimeUnit.NANOSECONDS.toMillis(connection.resumeAt - now + 999999));
+		}
+
+		// A timeout of 0 would wait forever
+		return Math.max(timeout, 1);
+	}
+
+	/**
+	 * Read from a connection.
+	 *
+	 * @param connection The connection
+	 * @throws IOException If an error occurs while reading or parsing the response
+	 */
+	private void read(Connection connection) throws IOException {
+		ByteBuffer buffer = connection.buffer;
+
+		buffer.clear();
+
+		int read = connection.channel.read(buffer);
+
+		if (connection.exchange == null) {
+			// An idle connection was closed by the server, or sent something it shouldn't have
+			close(connection, null);
+			return;
+		}
+
+		if (read == -1) {
+			if (connection.parser.finish()) {
+				complete(connection, false);
+			} else {
+				throw new EOFException("Connection closed before the response was complete");
+			}
+			return;
+		}
+
+		buffer.flip();
+
+		connection.deadline = deadline(HttpConnectionManager.getReadTimeout());
+
+		if (connection.parser.feed(buffer)) {
+			complete(connection, connection.parser.isKeepAlive());
+		}
+	}
+
+	/**
+	 * Complete a connection's exchange.
+	 *
+	 * @param connection The connection
+	 * @param keepAlive Whether the connection can be reused
+	 */
+	private void complete(Connection connection, boolean keepAlive) {
+		Exchange exchange = connection.exchange;
+		HttpResponse response = connection.parser.toResponse(exchange.url);
+
+		HttpConnectionManager.countStatus(response.getStatusCode());
+
+		connection.exchange = null;
+		connection.parser = null;
+
+		if (keepAlive) {
+			// Keep reading so we notice when the server closes the connection
+			connection.key.interestOps(SelectionKey.OP_READ);
+			connection.idleSince = System.currentTimeMillis();
+			connection.host.idle.add(connection);
+		} else {
+			close(connection, null);
+		}
+
+		deliver(exchange, response);
+	}
+
+	/**
+	 * Close a connection whose kept alive socket went stale, and queue its request again.
+	 *
+	 * @param connection The connection
+	 */
+	private void retry(Connection connection) {
+		Exchange exchange = connection.exchange;
+
+		connection.exchange = null;
+		close(connection, null);
+
+		try {
+			exchange.rewind();
+		} catch (IOException e) {
+			fail(exchange, e);
+			return;
+		}
+
+		connection.host.waiting.addFirst(exchange);
+	}
+
+	/**
+	 * Fail requests and close connections which took too long, and close connections which were idle for too long.
+	 *
+	 * @param host The host
+	 * @param now The current time
+	 */
+	private void checkTimeouts(Host host, long now) {
+		if (host.connections.isEmpty()) {
+			return;
+		}
+
+		for (Connection connection : new ArrayList<>(host.connections)) {
+			if (connection.exchange != null) {
+				if (connection.resumeAt == 0 && now > connection.deadline) {
+					close(connection, new SocketTimeoutException(connection.connecting ? "Connect timed out" : "Read timed out"));
+				}
+			} else if (now - connection.idleSince > IDLE_TIMEOUT) {
+				close(connection, null);
+			}
+		}
+	}
+
+	/**
+	 * Calculate the time at which an operation times out.
+	 *
+	 * @param timeout The timeout in milliseconds, or 0 to wait forever
+	 * @return The deadline
+	 */
+	private static long deadline(int timeout) {
+		return timeout <= 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+	}
+
+	/**
+	 * Close a connection, failing its request if it has one.
+	 *
+	 * @param connection The connection
+	 * @param cause The failure, or null if the connection has no request
+	 */
+	private void close(Connection connection, IOException cause) {
+		connection.key.cancel();
+
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			// Ignored
+		}
+
+		if (connection.host.connections.remove(connection)) {
+			connections.decrementAndGet();
+		}
+
+		connection.host.idle.remove(connection);
+		throttled.remove(connection);
+
+		if (connection.connecting && cause != null) {
+			// The host may have moved to another address
+			connection.host.resolved = null;
+		}
+
+		if (connection.exchange != null) {
+			fail(connection.exchange, cause != null ? cause : new IOException("Connection closed"));
+			connection.exchange = null;
+		}
+	}
+
+	/**
+	 * Close every connection and fail every request, once the event loop stopped, then stop the callback thread
+	 * after it ran the remaining callbacks.
+	 */
+	private void shutdown() {
+		IOException closed = new IOException("The client is closed");
+
+		for (Host host : hosts.values()) {
+			for (Connection connection : new ArrayList<>(host.connections)) {
+				close(connection, closed);
+			}
+
+			for (Exchange exchange : host.waiting) {
+				fail(exchange, closed);
+			}
+
+			host.waiting.clear();
+		}
+
+		Exchange exchange;
+
+		while ((exchange = submitted.poll()) != null) {
+			fail(exchange, closed);
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// Ignored
+		}
+
+		callbackExecutor.shutdown();
+	}
+
+	/**
+	 * Hand a response to the request's callback.
+	 *
+	 * @param exchange The request
+	 * @param response The response
+	 */
+	private void deliver(final Exchange exchange, final HttpResponse response) {
+		inFlight.decrementAndGet();
+		exchange.close();
+
+		callbackExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					exchange.future.completed(response);
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Error in callback for " + exchange.url, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Hand a failure to the request's callback.
+	 *
+	 * @param exchange The request
+	 * @param cause The failure
+	 */
+	private void fail(final Exchange exchange, final IOException cause) {
+		inFlight.decrementAndGet();
+		failures.incrementAndGet();
+		exchange.close();
+
+		callbackExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					exchange.future.failed(cause);
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Error in callback for " + exchange.url, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * An encoded request and its future response.
+	 */
+	private static final class Exchange {
+		/**
+		 * The request url.
+		 */
+		private final String url;
+
+		/**
+		 * The request method.
+		 */
+		private final String method;
+
+		/**
+		 * The unresolved address of the host.
+		 */
+		private final InetSocketAddress address;
+
+		/**
+		 * The encoded request line and headers, followed by the body unless it is streamed.
+		 */
+		private final ByteBuffer output;
+
+		/**
+		 * The streamed body, or null.
+		 */
+		private final StreamingBody body;
+
+		/**
+		 * The request's own upload limit, or null.
+		 */
+		private final TokenBucket limiter;
+
+		/**
+		 * The future response.
+		 */
+		private final HttpFuture<HttpResponse> future;
+
+		/**
+		 * Encode a request.
+		 *
+		 * @param request The request
+		 * @param future The future response
+		 * @throws IOException If the request could not be encoded
+		 */
+		public Exchange(HttpRequest request, HttpFuture<HttpResponse> future) throws IOException {
+			request.prepare();
+
+			this.url = request.getUrl();
+			this.method = request.getMethod();
+			this.future = future;
+
+			if (!supports(url)) {
+				throw new IOException("Only http urls can be requested asynchronously: " + url);
+			}
+
+			URL parsed = new URL(url);
+			int port = parsed.getPort() == -1 ? parsed.getDefaultPort() : parsed.getPort();
+
+			// Resolved by the event loop once per host, so a slow lookup doesn't block every caller
+			this.address = InetSocketAddress.createUnresolved(parsed.getHost(), port);
+
+			String contentType = request.getContentType();
+			ByteArrayOutputStream body = null;
+
+			this.body = contentType == null ? null : request.getStreamingBody();
+			this.limiter = contentType == null ? null : request.getRateLimiter();
+
+			if (contentType != null && this.body == null) {
+				body = new ByteArrayOutputStream();
+				request.writeBody(body);
+			}
+
+			StringBuilder head = new StringBuilder();
+
+			head.append(method).append(' ').append(parsed.getFile().isEmpty() ? "/" : parsed.getFile()).append(" HTTP/1.1\r\n");
+			head.append("Host: ").append(parsed.getHost());
+
+			if (parsed.getPort() != -1) {
+				head.append(':').append(port);
+			}
+
+			head.append("\r\n");
+
+			if (request.getUserAgent() != null) {
+				head.append("User-Agent: ").append(request.getUserAgent()).append("\r\n");
+			}
+
+			for (Map.Entry<String, List<Object>> e : request.getHeaders().entrySet()) {
+				for (Object o : e.getValue()) {
+					head.append(e.getKey()).append(": ").append(o).append("\r\n");
+				}
+			}
+
+			if (contentType != null) {
+				head.append("Content-Type: ").append(contentType).append("\r\n");
+				head.append("Content-Length: ").append(this.body != null ? this.body.getLength() : body.size()).append("\r\n");
+			}
+
+			head.append("\r\n");
+
+			byte[] headBytes = head.toString().getBytes(ISO_8859_1);
+
+			this.output = ByteBuffer.allocate(headBytes.length + (body == null ? 0 : body.size()));
+			output.put(headBytes);
+
+			if (body != null) {
+				output.put(body.toByteArray());
+			}
+
+			output.flip();
+		}
+
+		/**
+		 * Prepare to send the request again.
+		 *
+		 * @throws IOException If the body can't be rewound
+		 */
+		public void rewind() throws IOException {
+			output.rewind();
+
+			if (body != null) {
+				body.reset();
+			}
+		}
+
+		/**
+		 * Release the files held by the body.
+		 */
+		public void close() {
+			if (body != null) {
+				try {
+					body.close();
+				} catch (IOException e) {
+					// Ignored
+				}
+			}
+		}
+	}
+
+	/**
+	 * The connections and waiting requests of a single host.
+	 */
+	private static final class Host {
+		/**
+		 * The unresolved host address.
+		 */
+		private final InetSocketAddress address;
+
+		/**
+		 * The resolved host address, or null until a connection is opened. Only used by the event loop.
+		 */
+		private InetSocketAddress resolved;
+
+		/**
+		 * The requests waiting for a connection.
+		 */
+		private final Deque<Exchange> waiting = new ArrayDeque<>();
+
+		/**
+		 * The idle connections, most recently used last.
+		 */
+		private final Deque<Connection> idle = new ArrayDeque<>();
+
+		/**
+		 * Every open connection.
+		 */
+		private final Set<Connection> connections = new HashSet<>();
+
+		public Host(InetSocketAddress address) {
+			this.address = address;
+		}
+	}
+
+	/**
+	 * A connection to a host.
+	 */
+	private static final class Connection {
+		/**
+		 * The host.
+		 */
+		private final Host host;
+
+		/**
+		 * The channel.
+		 */
+		private final SocketChannel channel;
+
+		/**
+		 * The read buffer.
+		 */
+		private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		/**
+		 * The selection key.
+		 */
+		private SelectionKey key;
+
+		/**
+		 * Whether the connection is still being established.
+		 */
+		private boolean connecting;
+
+		/**
+		 * The current request, or null if idle.
+		 */
+		private Exchange exchange;
+
+		/**
+		 * The parser of the current response.
+		 */
+		private ResponseParser parser;
+
+		/**
+		 * Whether the current request was sent on a kept alive connection.
+		 */
+		private boolean reused;
+
+		/**
+		 * The time at which the current request times out.
+		 */
+		private long deadline;
+
+		/**
+		 * The time the connection became idle.
+		 */
+		private long idleSince;
+
+		/**
+		 * The time in nanoseconds the connection may write again, or 0 if it isn't waiting for upload tokens.
+		 */
+		private long resumeAt;
+
+		/**
+		 * The channel which writes the granted number of bytes to a rate limited connection.
+		 */
+		private final LimitedChannel limited;
+
+		public Connection(Host host, SocketChannel channel, boolean connecting) {
+			this.host = host;
+			this.channel = channel;
+			this.connecting = connecting;
+			this.limited = new LimitedChannel(channel);
+		}
+
+		/**
+		 * Start sending a request.
+		 *
+		 * @param exchange The request
+		 * @param reused Whether the connection was kept alive from a previous request
+		 */
+		public void start(Exchange exchange, boolean reused) {
+			this.exchange = exchange;
+			this.parser = new ResponseParser(exchange.method);
+			this.reused = reused;
+
+			if (connecting) {
+				deadline = deadline(HttpConnectionManager.getConnectTimeout());
+			} else {
+				deadline = deadline(HttpConnectionManager.getReadTimeout());
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	/**
+	 * A channel which writes at most a granted number of bytes to a socket.
+	 */
+	private static final class LimitedChannel implements WritableByteChannel {
+		/**
+		 * The socket.
+		 */
+		private final SocketChannel channel;
+
+		/**
+		 * The number of bytes which may still be written.
+		 */
+		private long allowance;
+
+		public LimitedChannel(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Set the number of bytes which may be written.
+		 *
+		 * @param allowance The number of bytes
+		 * @return The number of bytes which were left of the previous allowance
+		 */
+		public long allow(long allowance) {
+			long left = this.allowance;
+			this.allowance = allowance;
+			return left;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			if (allowance <= 0) {
+				return 0;
+			}
+
+			int limit = src.limit();
+
+			if (src.remaining() > allowance) {
+				src.limit(src.position() + (int) allowance);
+			}
+
+			try {
+				int written = channel.write(src);
+				allowance -= written;
+				return written;
+			} finally {
+				src.limit(limit);
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
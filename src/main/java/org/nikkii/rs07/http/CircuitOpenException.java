@@ -0,0 +1,22 @@
+package org.nikkii.rs07.http;
+
+/**
+ * An exception thrown instead of making a request when an endpoint's circuit breaker is open.
+ *
+ * @author Nikki
+ */
+public class CircuitOpenException extends EndpointException {
+	/**
+	 * The serialization version.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Construct a new circuit open exception.
+	 *
+	 * @param guard The guard of the endpoint
+	 */
+	public CircuitOpenException(EndpointGuard guard) {
+		super(guard, guard.getName() + " is unavailable, not sending request", null, true);
+	}
+}
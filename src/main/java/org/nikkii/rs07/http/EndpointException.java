@@ -0,0 +1,58 @@
+package org.nikkii.rs07.http;
+
+import java.io.IOException;
+
+/**
+ * An exception thrown when a request to an endpoint protected by an {@link EndpointGuard} fails.
+ *
+ * @author Nikki
+ */
+public class EndpointException extends IOException {
+	/**
+	 * The serialization version.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The guard of the endpoint which failed.
+	 */
+	private final EndpointGuard guard;
+
+	/**
+	 * Whether the request may succeed when it is retried.
+	 */
+	private final boolean retryable;
+
+	/**
+	 * Construct a new endpoint exception.
+	 *
+	 * @param guard The guard of the endpoint which failed
+	 * @param message The exception message
+	 * @param cause The failure, or null
+	 * @param retryable Whether the request may succeed when it is retried
+	 */
+	public EndpointException(EndpointGuard guard, String message, Throwable cause, boolean retryable) {
+		super(message, cause);
+		this.guard = guard;
+		this.retryable = retryable;
+	}
+
+	/**
+	 * Check if the request may succeed when it is retried.
+	 *
+	 * @return If the request can be retried
+	 */
+	public boolean isRetryable() {
+		return retryable;
+	}
+
+	/**
+	 * Get the time to wait before retrying the request.
+	 *
+	 * @param attempt The number of previous attempts
+	 * @return The delay in milliseconds
+	 */
+	public long getRetryDelay(int attempt) {
+		return guard.getRetryDelay(attempt);
+	}
+}
@@ -0,0 +1,325 @@
+package org.nikkii.rs07.http;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Protects an endpoint with a circuit breaker, and calculates retry delays using exponential backoff with jitter.
+ *
+ * After a number of consecutive failures the circuit opens and requests are rejected without dialing the endpoint.
+ * Once the open time has passed, a single probe request is let through. If it succeeds the circuit closes again,
+ * otherwise it stays open for twice as long.
+ *
+ * Usage: call {@link #acquire()} before a request, followed by {@link #success()} or {@link #failure(IOException)}, or
+ * {@link #release()} if the request was never sent.
+ *
+ * @author Nikki
+ */
+public class EndpointGuard {
+
+	private static final Logger logger = Logger.getLogger(EndpointGuard.class.getName());
+
+	/**
+	 * The circuit breaker states.
+	 */
+	public enum State {
+		/**
+		 * Requests are let through.
+		 */
+		CLOSED,
+
+		/**
+		 * The endpoint is assumed to be down, requests are rejected.
+		 */
+		OPEN,
+
+		/**
+		 * A single probe request is let through to check if the endpoint recovered.
+		 */
+		HALF_OPEN
+	}
+
+	/**
+	 * The endpoint name, used in log messages.
+	 */
+	private final String name;
+
+	/**
+	 * The number of consecutive failures which opens the circuit.
+	 */
+	private final int failureThreshold;
+
+	/**
+	 * The time the circuit stays open after it first opens, in milliseconds.
+	 */
+	private final long openTime;
+
+	/**
+	 * The delay before the first retry, in milliseconds.
+	 */
+	private final long baseDelay;
+
+	/**
+	 * The maximum retry delay and open time, in milliseconds.
+	 */
+	private final long maxDelay;
+
+	/**
+	 * The circuit state.
+	 */
+	private State state = State.CLOSED;
+
+	/**
+	 * The number of consecutive failures.
+	 */
+	private int consecutiveFailures;
+
+	/**
+	 * The time the circuit stays open for the next time it opens.
+	 */
+	private long currentOpenTime;
+
+	/**
+	 * The time at which an open circuit lets a probe through.
+	 */
+	private long openUntil;
+
+	/**
+	 * Whether a probe request is in flight.
+	 */
+	private boolean probing;
+
+	/**
+	 * The number of requests which were let through.
+	 */
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * The number of failed requests.
+	 */
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * The number of requests rejected by the open circuit.
+	 */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * The number of times the circuit opened.
+	 */
+	private final AtomicLong opened = new AtomicLong();
+
+	/**
+	 * Construct a new endpoint guard.
+	 *
+	 * @param name The endpoint name, used in log messages
+	 * @param failureThreshold The number of consecutive failures which opens the circuit
+	 * @param openTime The time the circuit stays open after it first opens, in milliseconds
+	 * @param baseDelay The delay before the first retry, in milliseconds
+	 * @param maxDelay The maximum retry delay and open time, in milliseconds
+	 */
+	public EndpointGuard(String name, int failureThreshold, long openTime, long baseDelay, long maxDelay) {
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.currentOpenTime = openTime;
+	}
+
+	/**
+	 * Check if a request may be made.
+	 *
+	 * @throws CircuitOpenException If the circuit is open, or a probe is already in flight.
+	 */
+	public synchronized void acquire() throws CircuitOpenException {
+		if (state == State.OPEN) {
+			if (now() < openUntil) {
+				rejected.incrementAndGet();
+				throw new CircuitOpenException(this);
+			}
+
+			logger.info(name + " circuit half-open, sending a probe request.");
+			state = State.HALF_OPEN;
+			probing = false;
+		}
+
+		if (state == State.HALF_OPEN) {
+			if (probing) {
+				rejected.incrementAndGet();
+				throw new CircuitOpenException(this);
+			}
+
+			probing = true;
+		}
+
+		requests.incrementAndGet();
+	}
+
+	/**
+	 * Record a successful request.
+	 */
+	public synchronized void success() {
+		if (state != State.CLOSED) {
+			logger.info(name + " recovered, circuit closed.");
+		}
+
+		close();
+	}
+
+	/**
+	 * Release a request which was acquired but never sent.
+	 */
+	public synchronized void release() {
+		probing = false;
+	}
+
+	/**
+	 * Record a failed request.
+	 *
+	 * Only failures which may be caused by the endpoint being unavailable count towards opening the circuit. A client
+	 * error means the endpoint is up, and the request would fail again if it was retried.
+	 *
+	 * @param cause The failure
+	 * @return The exception to throw
+	 */
+	public synchronized EndpointException failure(IOException cause) {
+		boolean retryable = !(cause instanceof HttpStatusException) || ((HttpStatusException) cause).isRetryable();
+
+		failures.incrementAndGet();
+
+		if (!retryable) {
+			close();
+		} else if (state == State.HALF_OPEN) {
+			currentOpenTime = Math.min(currentOpenTime * 2, maxDelay);
+			open();
+		} else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+			open();
+		}
+
+		return new EndpointException(this, name + " request failed: " + cause.getMessage(), cause, retryable);
+	}
+
+	/**
+	 * Get the time to wait before retrying a request.
+	 *
+	 * The delay doubles with every attempt, and is randomized between half and all of that so retries from
+	 * different events don't line up. While the circuit is open the delay lasts at least until the probe.
+	 *
+	 * @param attempt The number of previous attempts
+	 * @return The delay in milliseconds
+	 */
+	public long getRetryDelay(int attempt) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		long backoff = Math.min(maxDelay, baseDelay << Math.min(attempt, 30));
+		long delay = backoff / 2 + random.nextLong(backoff / 2 + 1);
+
+		synchronized (this) {
+			if (state != State.CLOSED) {
+				long remaining = Math.max(openUntil - now(), 0);
+
+				delay = Math.max(delay, remaining + random.nextLong(baseDelay + 1));
+			}
+		}
+
+		return delay;
+	}
+
+	/**
+	 * Get the current time, which tests replace to control the open time.
+	 *
+	 * @return The current time in milliseconds
+	 */
+	long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Open the circuit.
+	 */
+	private void open() {
+		state = State.OPEN;
+		probing = false;
+		openUntil = now() + currentOpenTime;
+		opened.incrementAndGet();
+
+		logger.warning(name + " is failing, circuit open for " + currentOpenTime + " ms (" + rejected.get() + " requests rejected so far).");
+	}
+
+	/**
+	 * Close the circuit.
+	 */
+	private void close() {
+		state = State.CLOSED;
+		probing = false;
+		consecutiveFailures = 0;
+		currentOpenTime = openTime;
+	}
+
+	/**
+	 * Get a summary of the circuit state and request statistics.
+	 *
+	 * @return The statistics summary
+	 */
+	public String getStatistics() {
+		return String.format("%s: circuit %s, %d requests, %d failed, %d rejected, opened %d times",
+			name, getState(), requests.get(), failures.get(), rejected.get(), opened.get());
+	}
+
+	/**
+	 * Get the endpoint name.
+	 *
+	 * @return The name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the circuit state.
+	 *
+	 * @return The state
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Get the number of requests which were let through.
+	 *
+	 * @return The request count
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Get the number of failed requests.
+	 *
+	 * @return The failure count
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Get the number of requests rejected by the open circuit.
+	 *
+	 * @return The rejected count
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Get the number of times the circuit opened.
+	 *
+	 * @return The opened count
+	 */
+	public long getOpened() {
+		return opened.get();
+	}
+}
@@ -0,0 +1,26 @@
+package org.nikkii.rs07.http;
+
+import java.io.IOException;
+
+/**
+ * Receives the result of an asynchronous request.
+ *
+ * Exactly one of the methods is called, once.
+ *
+ * @author Nikki
+ */
+public interface HttpCallback<T> {
+	/**
+	 * Called when the request completed.
+	 *
+	 * @param result The result
+	 */
+	public void completed(T result);
+
+	/**
+	 * Called when the request failed.
+	 *
+	 * @param e The failure
+	 */
+	public void failed(IOException e);
+}
@@ -0,0 +1,366 @@
+package org.nikkii.rs07.http;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Manages the connections used by {@link HttpRequest}s.
+ *
+ * HttpURLConnection keeps idle keep-alive connections in a cache of its own, but a connection only goes back into it
+ * once its response body has been read to the end and closed. Calling {@link HttpURLConnection#disconnect()} closes
+ * the socket instead. Requests release their connection through this class, which drains what is left of the
+ * response and only falls back to disconnecting when the connection can't be reused.
+ *
+ * Every connection also gets the configured connect and read timeouts, which the {@link AsyncHttpClient} uses as
+ * well. HTTPS connections share a single socket factory which counts the sockets (and therefore TLS handshakes) it
+ * creates.
+ *
+ * Every upload, blocking or not, also takes its bytes from a single {@link TokenBucket}, so concurrent uploads share
+ * one upload rate limit.
+ *
+ * @author Nikki
+ */
+public final class HttpConnectionManager {
+
+	/**
+	 * The maximum number of bytes drained from an unread response. Larger responses are cheaper to disconnect.
+	 */
+	private static final int MAX_DRAIN = 64 * 1024;
+
+	/**
+	 * The connect timeout in milliseconds.
+	 */
+	private static volatile int connectTimeout = 10000;
+
+	/**
+	 * The read timeout in milliseconds.
+	 */
+	private static volatile int readTimeout = 30000;
+
+	/**
+	 * The socket factory shared by every HTTPS connection. The keep-alive cache only hands out connections which
+	 * were opened with the same factory, so this must be a single instance.
+	 */
+	private static volatile CountingSocketFactory socketFactory;
+
+	/**
+	 * The bucket shared by every upload.
+	 */
+	private static final TokenBucket uploadBucket = new TokenBucket(0);
+
+	/**
+	 * The number of connections opened by requests.
+	 */
+	private static final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * The number of connections released to the keep-alive cache.
+	 */
+	private static final AtomicLong released = new AtomicLong();
+
+	/**
+	 * The number of connections which were disconnected.
+	 */
+	private static final AtomicLong discarded = new AtomicLong();
+
+	/**
+	 * The number of HTTPS sockets created.
+	 */
+	private static final AtomicLong handshakes = new AtomicLong();
+
+	/**
+	 * The number of responses with each status code, from 100 to 599.
+	 */
+	private static final AtomicLongArray statusCodes = new AtomicLongArray(600);
+
+	private HttpConnectionManager() {
+
+	}
+
+	/**
+	 * Set the timeouts of new connections.
+	 *
+	 * @param connect The connect timeout in milliseconds, or 0 to wait forever
+	 * @param read The read timeout in milliseconds, or 0 to wait forever
+	 */
+	public static void setTimeouts(int connect, int read) {
+		connectTimeout = connect;
+		readTimeout = read;
+	}
+
+	/**
+	 * Get the connect timeout.
+	 *
+	 * @return The timeout in milliseconds, or 0 to wait forever
+	 */
+	static int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Get the read timeout.
+	 *
+	 * @return The timeout in milliseconds, or 0 to wait forever
+	 */
+	static int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Set the upload rate shared by every request. Uploads in progress are slowed down or sped up as well.
+	 *
+	 * @param bytesPerSecond The rate in bytes per second, or 0 if unlimited
+	 */
+	public static void setUploadRate(long bytesPerSecond) {
+		uploadBucket.setRate(bytesPerSecond);
+	}
+
+	/**
+	 * Get the bucket shared by every upload.
+	 *
+	 * @return The upload bucket
+	 */
+	public static TokenBucket getUploadBucket() {
+		return uploadBucket;
+	}
+
+	/**
+	 * Set the maximum number of idle connections kept per host. This only has an effect before the first connection
+	 * is opened, and doesn't override a value set on the command line.
+	 *
+	 * @param maxConnections The maximum number of idle connections per host
+	 */
+	public static void setMaxIdleConnections(int maxConnections) {
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", Integer.toString(maxConnections));
+		}
+	}
+
+	/**
+	 * Configure a newly opened connection.
+	 *
+	 * @param connection The connection
+	 */
+	static void configure(HttpURLConnection connection) {
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+
+		if (connection instanceof HttpsURLConnection) {
+			((HttpsURLConnection) connection).setSSLSocketFactory(getSocketFactory());
+		}
+
+		requests.incrementAndGet();
+	}
+
+	/**
+	 * Release a connection after a request.
+	 *
+	 * @param connection The connection
+	 * @param response The response stream which was opened, or null if the response wasn't read
+	 * @param consumed Whether the response was read to the end and closed
+	 */
+	static void release(HttpURLConnection connection, InputStream response, boolean consumed) {
+		if (consumed || (response != null && drain(response))) {
+			released.incrementAndGet();
+		} else {
+			connection.disconnect();
+			discarded.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Read a response stream to the end and close it, which hands the connection back to the keep-alive cache.
+	 *
+	 * @param input The response stream
+	 * @return true if the stream was drained, false if it was too long or failed
+	 */
+	static boolean drain(InputStream input) {
+		try (InputStream in = input) {
+			byte[] buffer = new byte[4096];
+			int total = 0, read;
+
+			while ((read = in.read(buffer)) != -1) {
+				total += read;
+
+				if (total > MAX_DRAIN) {
+					return false;
+				}
+			}
+
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Get the shared HTTPS socket factory.
+	 *
+	 * @return The socket factory
+	 */
+	private static SSLSocketFactory getSocketFactory() {
+		CountingSocketFactory factory = socketFactory;
+
+		if (factory == null) {
+			synchronized (HttpConnectionManager.class) {
+				if (socketFactory == null) {
+					socketFactory = new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+				}
+
+				factory = socketFactory;
+			}
+		}
+
+		return factory;
+	}
+
+	/**
+	 * Get a summary of the connection statistics.
+	 *
+	 * @return The statistics summary
+	 */
+	public static String getStatistics() {
+		return String.format("HTTP connections: %d requests, %d released for reuse, %d discarded, %d TLS handshakes",
+			requests.get(), released.get(), discarded.get(), handshakes.get());
+	}
+
+	/**
+	 * Count a response, blocking or not.
+	 *
+	 * @param statusCode The response status code
+	 */
+	static void countStatus(int statusCode) {
+		if (statusCode >= 100 && statusCode < statusCodes.length()) {
+			statusCodes.incrementAndGet(statusCode);
+		}
+	}
+
+	/**
+	 * Get the number of responses with each status code received so far.
+	 *
+	 * @return The counts, keyed by status code
+	 */
+	public static Map<Integer, Long> getStatusCounts() {
+		Map<Integer, Long> counts = new TreeMap<>();
+
+		for (int i = 100; i < statusCodes.length(); i++) {
+			long count = statusCodes.get(i);
+
+			if (count > 0) {
+				counts.put(i, count);
+			}
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Get the number of connections opened by requests, whether they were new or reused.
+	 *
+	 * @return The request count
+	 */
+	public static long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Get the number of connections released to the keep-alive cache.
+	 *
+	 * @return The released count
+	 */
+	public static long getReleased() {
+		return released.get();
+	}
+
+	/**
+	 * Get the number of connections which were disconnected instead of reused.
+	 *
+	 * @return The discarded count
+	 */
+	public static long getDiscarded() {
+		return discarded.get();
+	}
+
+	/**
+	 * Get the number of HTTPS sockets created. Every other HTTPS request reused a connection.
+	 *
+	 * @return The handshake count
+	 */
+	public static long getHandshakes() {
+		return handshakes.get();
+	}
+
+	/**
+	 * An SSL socket factory which counts the sockets it creates.
+	 */
+	private static final class CountingSocketFactory extends SSLSocketFactory {
+		/**
+		 * The wrapped factory.
+		 */
+		private final SSLSocketFactory factory;
+
+		public CountingSocketFactory(SSLSocketFactory factory) {
+			this.factory = factory;
+		}
+
+		/**
+		 * Count a socket which was created.
+		 *
+		 * @param socket The socket
+		 * @return The socket
+		 */
+		private static Socket count(Socket socket) {
+			handshakes.incrementAndGet();
+			return socket;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return factory.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return factory.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return count(factory.createSocket());
+		}
+
+		@Override
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+			return count(factory.createSocket(socket, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return count(factory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			return count(factory.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return count(factory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			return count(factory.createSocket(address, port, localAddress, localPort));
+		}
+	}
+}
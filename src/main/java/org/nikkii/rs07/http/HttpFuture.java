@@ -0,0 +1,124 @@
+package org.nikkii.rs07.http;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of an asynchronous request.
+ *
+ * The future is completed before its callback is called, so callers can either block on it or be notified.
+ *
+ * @author Nikki
+ */
+public class HttpFuture<T> implements Future<T>, HttpCallback<T> {
+	/**
+	 * Released once the request is done.
+	 */
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	/**
+	 * The callback to notify, or null.
+	 */
+	private final HttpCallback<T> callback;
+
+	/**
+	 * The result.
+	 */
+	private volatile T result;
+
+	/**
+	 * The failure.
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Construct a new future.
+	 *
+	 * @param callback The callback to notify once the request is done, or null
+	 */
+	public HttpFuture(HttpCallback<T> callback) {
+		this.callback = callback;
+	}
+
+	@Override
+	public void completed(T result) {
+		if (done.getCount() == 0) {
+			return;
+		}
+
+		this.result = result;
+		done.countDown();
+
+		if (callback != null) {
+			callback.completed(result);
+		}
+	}
+
+	@Override
+	public void failed(IOException e) {
+		if (done.getCount() == 0) {
+			return;
+		}
+
+		this.failure = e;
+		done.countDown();
+
+		if (callback != null) {
+			callback.failed(e);
+		}
+	}
+
+	/**
+	 * Requests can't be cancelled once they were queued.
+	 *
+	 * @param mayInterruptIfRunning Ignored
+	 * @return false
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+
+		return getResult();
+	}
+
+	/**
+	 * Get the result of a completed request.
+	 *
+	 * @return The result
+	 * @throws ExecutionException If the request failed
+	 */
+	private T getResult() throws ExecutionException {
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+
+		return result;
+	}
+}
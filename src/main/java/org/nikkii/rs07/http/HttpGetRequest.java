@@ -19,7 +19,7 @@ public class HttpGetRequest extends HttpRequest {
 	}
 
 	@Override
-	public void execute() throws IOException {
+	protected void prepare() throws IOException {
 		// GET only needs to add headers and possibly a query string
 		if (!parameters.isEmpty()) {
 			String newUrl = url.toString();
@@ -35,6 +35,5 @@ public class HttpGetRequest extends HttpRequest {
 
 			url = newUrl;
 		}
-		openConnection();
 	}
 }
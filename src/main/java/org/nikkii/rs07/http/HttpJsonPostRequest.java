@@ -0,0 +1,65 @@
+package org.nikkii.rs07.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * An HttpRequest for a POST request with a JSON body
+ *
+ * @author Nikki
+ */
+public class HttpJsonPostRequest extends HttpRequest {
+	/**
+	 * The charset of the request body
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The encoded request body
+	 */
+	private byte[] encoded;
+
+	/**
+	 * The JSON request body
+	 */
+	private String body;
+
+	public HttpJsonPostRequest(String url, String body) {
+		super(url);
+		this.body = body;
+	}
+
+	@Override
+	public String getMethod() {
+		return "POST";
+	}
+
+	@Override
+	protected String getContentType() {
+		return "application/json; charset=UTF-8";
+	}
+
+	@Override
+	protected long getContentLength() {
+		return getEncodedBody().length;
+	}
+
+	@Override
+	protected void writeBody(OutputStream output) throws IOException {
+		output.write(getEncodedBody());
+	}
+
+	/**
+	 * Get the encoded request body
+	 *
+	 * @return The body bytes
+	 */
+	private byte[] getEncodedBody() {
+		if (encoded == null) {
+			encoded = body.getBytes(UTF_8);
+		}
+
+		return encoded;
+	}
+}
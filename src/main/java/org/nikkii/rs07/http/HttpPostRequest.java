@@ -1,8 +1,8 @@
 package org.nikkii.rs07.http;
 
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 
 /**
  * An HttpRequest for a POST request (using form-urlencoded)
@@ -10,20 +10,51 @@ import java.io.OutputStream;
  * @author Nikki
  */
 public class HttpPostRequest extends HttpRequest {
+	/**
+	 * The charset of the request body
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The encoded request body
+	 */
+	private byte[] encoded;
 
 	public HttpPostRequest(String url) {
 		super(url);
 	}
 
 	@Override
-	public void execute() throws IOException {
-		openConnection();
+	public String getMethod() {
+		return "POST";
+	}
 
-		connection.setDoOutput(true);
-		connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+	@Override
+	protected String getContentType() {
+		return "application/x-www-form-urlencoded";
+	}
 
-		try (OutputStream output = new BufferedOutputStream(openOutputStream())) {
-			output.write(parameters.toURLEncodedString().getBytes("UTF-8"));
+	@Override
+	protected long getContentLength() throws IOException {
+		return getEncodedBody().length;
+	}
+
+	@Override
+	protected void writeBody(OutputStream output) throws IOException {
+		output.write(getEncodedBody());
+	}
+
+	/**
+	 * Get the encoded request body
+	 *
+	 * @return The body bytes
+	 * @throws IOException If the parameters can't be encoded
+	 */
+	private byte[] getEncodedBody() throws IOException {
+		if (encoded == null) {
+			encoded = parameters.toURLEncodedString().getBytes(UTF_8);
 		}
+
+		return encoded;
 	}
 }
@@ -2,6 +2,7 @@ package org.nikkii.rs07.http;
 
 import org.nikkii.rs07.http.data.RequestData;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -20,13 +21,19 @@ import java.util.Map;
  * @author Nikki
  */
 public abstract class HttpRequest implements AutoCloseable {
+	/**
+	 * The chunk size used when the length of the body isn't known up front
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
 	/**
 	 * The URL String. We aren't using URL objects just so it's easier to manipulate in GET requests, though it'd be a good idea to allow a URL constructor.
 	 */
 	protected String url;
 
 	/**
-	 * The maximum output in bytes/second, used by the TokenBucket
+	 * The maximum output in bytes/second, used by the TokenBucket. Every request is also limited by the shared rate set
+	 * with {@link HttpConnectionManager#setUploadRate(long)}.
 	 */
 	private final int rateLimit;
 
@@ -40,6 +47,16 @@ public abstract class HttpRequest implements AutoCloseable {
 	 */
 	protected HttpURLConnection connection;
 
+	/**
+	 * The response stream, once it has been opened
+	 */
+	private InputStream responseStream;
+
+	/**
+	 * Whether the response has been read to the end and closed, leaving the connection ready for reuse
+	 */
+	private boolean consumed;
+
 	/**
 	 * A map of header elements. This could be done with guava if we wanted to add another dependency...
 	 */
@@ -94,7 +111,87 @@ public abstract class HttpRequest implements AutoCloseable {
 	 *
 	 * @throws IOException If an error occurred while executing
 	 */
-	public abstract void execute() throws IOException;
+	public void execute() throws IOException {
+		prepare();
+		openConnection();
+
+		String contentType = getContentType();
+
+		if (contentType != null) {
+			long length = getContentLength();
+
+			// Stream the body instead of letting the connection buffer all of it
+			if (length >= 0) {
+				connection.setFixedLengthStreamingMode(length);
+			} else {
+				connection.setChunkedStreamingMode(CHUNK_SIZE);
+			}
+
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", contentType);
+
+			try (OutputStream output = new BufferedOutputStream(openOutputStream())) {
+				writeBody(output);
+			}
+		}
+	}
+
+	/**
+	 * Prepare the request before it is sent, for example to add the parameters to the url
+	 *
+	 * @throws IOException If an error occurred while preparing the request
+	 */
+	protected void prepare() throws IOException {
+
+	}
+
+	/**
+	 * Get the HTTP request method
+	 *
+	 * @return The request method
+	 */
+	public String getMethod() {
+		return "GET";
+	}
+
+	/**
+	 * Get the content type of the request body
+	 *
+	 * @return The content type, or null if the request has no body
+	 */
+	protected String getContentType() {
+		return null;
+	}
+
+	/**
+	 * Get the length of the request body
+	 *
+	 * @return The length in bytes, or -1 if the body is sent in chunks
+	 * @throws IOException If the body can't be encoded
+	 */
+	protected long getContentLength() throws IOException {
+		return -1;
+	}
+
+	/**
+	 * Get the request body as a {@link StreamingBody}, which lets the {@link AsyncHttpClient} send it without
+	 * encoding it in memory first
+	 *
+	 * @return The body, or null if it has to be written with {@link #writeBody(OutputStream)}
+	 */
+	protected StreamingBody getStreamingBody() {
+		return null;
+	}
+
+	/**
+	 * Write the request body. Only called if the request has a content type.
+	 *
+	 * @param output The stream to write the body to
+	 * @throws IOException If an error occurred while writing the body
+	 */
+	protected void writeBody(OutputStream output) throws IOException {
+
+	}
 
 	/**
 	 * Opens the connection and sets the uesr agent, headers, etc.
@@ -104,6 +201,8 @@ public abstract class HttpRequest implements AutoCloseable {
 	protected void openConnection() throws IOException {
 		connection = (HttpURLConnection) new URL(url).openConnection();
 
+		HttpConnectionManager.configure(connection);
+
 		if (userAgent != null) {
 			connection.setRequestProperty("User-Agent", userAgent);
 		}
@@ -120,7 +219,7 @@ public abstract class HttpRequest implements AutoCloseable {
 	/**
 	 * Open an OutputStream to the URLConnection
 	 *
-	 * @return A normal OutputStream if not limited, or a TokenBucket one if it is.
+	 * @return A TokenBucket OutputStream limited by the shared upload rate, and by this request's own one if it has one.
 	 * @throws IOException If an error occurs while opening the output
 	 */
 	protected OutputStream openOutputStream() throws IOException {
@@ -129,9 +228,54 @@ public abstract class HttpRequest implements AutoCloseable {
 		}
 		OutputStream output = connection.getOutputStream();
 
+		// The shared limit can be set while the upload is running, so it is always applied
+		output = new TokenBucketOutputStream(output, HttpConnectionManager.getUploadBucket());
+
+		TokenBucket bucket = getRateLimiter();
+
+		if (bucket != null) {
+			output = new TokenBucketOutputStream(output, bucket);
+		}
+
 		return output;
 	}
 
+	/**
+	 * Get the bucket which limits this request's own upload rate
+	 *
+	 * @return The bucket, or null if only the shared limit applies
+	 */
+	protected TokenBucket getRateLimiter() {
+		return rateLimit > 0 ? new TokenBucket(rateLimit) : null;
+	}
+
+	/**
+	 * Get the request url
+	 *
+	 * @return The url
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Get the request headers
+	 *
+	 * @return The headers, keyed by name
+	 */
+	protected Map<String, List<Object>> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Get the HTTP user agent
+	 *
+	 * @return The user agent, or null if not set
+	 */
+	protected String getUserAgent() {
+		return userAgent;
+	}
+
 	/**
 	 * Get the connection object. This is useless except when called after execute or getResponse*
 	 *
@@ -160,7 +304,7 @@ public abstract class HttpRequest implements AutoCloseable {
 	 */
 	public InputStream getResponseStream() throws IOException {
 		checkConnection();
-		return connection.getInputStream();
+		return responseStream = connection.getInputStream();
 	}
 
 	/**
@@ -169,14 +313,26 @@ public abstract class HttpRequest implements AutoCloseable {
 	 * TODO: Do we want to make sure there's no ending \n?
 	 *
 	 * @return The response string
+	 * @throws HttpStatusException If the server responded with an error status code.
 	 * @throws IOException If an error occurred while executing the request.
 	 */
 	public String getResponseBody() throws IOException {
 		checkConnection();
 
+		int code = connection.getResponseCode();
+		HttpConnectionManager.countStatus(code);
+
+		if (code >= 400) {
+			// The error body has to be read for the connection to be reused
+			InputStream error = connection.getErrorStream();
+			consumed = error == null || HttpConnectionManager.drain(error);
+
+			throw new HttpStatusException(url, code);
+		}
+
 		StringBuilder builder = new StringBuilder();
 
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(getResponseStream()))) {
 			char[] buf = new char[1024];
 			int read;
 			while ((read = reader.read(buf, 0, buf.length)) > -1) {
@@ -184,6 +340,8 @@ public abstract class HttpRequest implements AutoCloseable {
 			}
 		}
 
+		consumed = true;
+
 		return builder.toString();
 	}
 
@@ -252,10 +410,13 @@ public abstract class HttpRequest implements AutoCloseable {
 	}
 
 	/**
-	 * Close the connection (used in AutoCloseable)
+	 * Release the connection (used in AutoCloseable). The connection is kept alive for the next request if its
+	 * response can be read to the end, otherwise it is disconnected.
 	 */
 	@Override
 	public void close() {
-		connection.disconnect();
+		if (connection != null) {
+			HttpConnectionManager.release(connection, responseStream, consumed);
+		}
 	}
 }
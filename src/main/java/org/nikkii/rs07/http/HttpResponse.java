@@ -0,0 +1,106 @@
+package org.nikkii.rs07.http;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A response received by the {@link AsyncHttpClient}.
+ *
+ * @author Nikki
+ */
+public class HttpResponse {
+	/**
+	 * The charset used to decode response bodies.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The request url.
+	 */
+	private final String url;
+
+	/**
+	 * The status code.
+	 */
+	private final int statusCode;
+
+	/**
+	 * The response headers, keyed by lower case name.
+	 */
+	private final Map<String, List<String>> headers;
+
+	/**
+	 * The response body.
+	 */
+	private final byte[] body;
+
+	/**
+	 * Construct a new response.
+	 *
+	 * @param url The request url
+	 * @param statusCode The status code
+	 * @param headers The response headers, keyed by lower case name
+	 * @param body The response body
+	 */
+	public HttpResponse(String url, int statusCode, Map<String, List<String>> headers, byte[] body) {
+		this.url = url;
+		this.statusCode = statusCode;
+		this.headers = headers;
+		this.body = body;
+	}
+
+	/**
+	 * Get the status code.
+	 *
+	 * @return The status code
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Get the first value of a header.
+	 *
+	 * @param name The header name
+	 * @return The header value, or null if not present
+	 */
+	public String getHeader(String name) {
+		List<String> values = headers.get(name.toLowerCase());
+
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	/**
+	 * Get the response headers.
+	 *
+	 * @return The headers, keyed by lower case name
+	 */
+	public Map<String, List<String>> getHeaders() {
+		return Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * Get the raw response body, whatever the status code.
+	 *
+	 * @return The body
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * Get the response body as a string, the same way {@link HttpRequest#getResponseBody()} does.
+	 *
+	 * @return The response string
+	 * @throws HttpStatusException If the server responded with an error status code
+	 */
+	public String getResponseBody() throws HttpStatusException {
+		if (statusCode >= 400) {
+			throw new HttpStatusException(url, statusCode);
+		}
+
+		return new String(body, UTF_8);
+	}
+}
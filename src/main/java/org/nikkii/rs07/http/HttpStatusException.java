@@ -0,0 +1,49 @@
+package org.nikkii.rs07.http;
+
+import java.io.IOException;
+
+/**
+ * An exception thrown when a server responds with an error status code.
+ *
+ * @author Nikki
+ */
+public class HttpStatusException extends IOException {
+	/**
+	 * The serialization version.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The response status code.
+	 */
+	private final int statusCode;
+
+	/**
+	 * Construct a new status exception.
+	 *
+	 * @param url The request url
+	 * @param statusCode The response status code
+	 */
+	public HttpStatusException(String url, int statusCode) {
+		super("Server returned HTTP response code: " + statusCode + " for URL: " + url);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * Get the response status code.
+	 *
+	 * @return The status code
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Check if the request may succeed when it is retried. Client errors won't, except for timeouts and rate limits.
+	 *
+	 * @return If the request can be retried
+	 */
+	public boolean isRetryable() {
+		return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+	}
+}
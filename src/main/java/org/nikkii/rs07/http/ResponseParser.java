@@ -0,0 +1,383 @@
+package org.nikkii.rs07.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An incremental HTTP/1.1 response parser, fed with whatever bytes the {@link AsyncHttpClient} read from a socket.
+ *
+ * Supports bodies delimited by Content-Length, chunked transfer encoding, or the end of the connection.
+ *
+ * @author Nikki
+ */
+class ResponseParser {
+	/**
+	 * The charset of the status line and headers.
+	 */
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	/**
+	 * The maximum size of the status line and headers.
+	 */
+	private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+	/**
+	 * The parser states.
+	 */
+	private enum State {
+		HEAD, BODY_LENGTH, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER, BODY_EOF, DONE
+	}
+
+	/**
+	 * Whether the request was a HEAD request, which never has a response body.
+	 */
+	private final boolean head;
+
+	/**
+	 * The unparsed bytes.
+	 */
+	private byte[] buffer = new byte[8192];
+
+	/**
+	 * The number of unparsed bytes.
+	 */
+	private int length;
+
+	/**
+	 * The parser state.
+	 */
+	private State state = State.HEAD;
+
+	/**
+	 * Whether any bytes were received.
+	 */
+	private boolean received;
+
+	/**
+	 * The status code.
+	 */
+	private int statusCode;
+
+	/**
+	 * The response headers, keyed by lower case name.
+	 */
+	private Map<String, List<String>> headers = new HashMap<>();
+
+	/**
+	 * Whether the connection can be reused after this response.
+	 */
+	private boolean keepAlive;
+
+	/**
+	 * The number of body bytes left in the current body or chunk.
+	 */
+	private long remaining;
+
+	/**
+	 * The response body.
+	 */
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+	/**
+	 * Construct a new parser.
+	 *
+	 * @param method The request method
+	 */
+	public ResponseParser(String method) {
+		this.head = method.equals("HEAD");
+	}
+
+	/**
+	 * Parse the bytes read from the socket.
+	 *
+	 * @param input The bytes, ready to be read
+	 * @return true if the response is complete
+	 * @throws IOException If the response is malformed
+	 */
+	public boolean feed(ByteBuffer input) throws IOException {
+		int count = input.remaining();
+
+		if (count > 0) {
+			received = true;
+		}
+
+		if (length + count > buffer.length) {
+			byte[] grown = new byte[Math.max(buffer.length * 2, length + count)];
+			System.arraycopy(buffer, 0, grown, 0, length);
+			buffer = grown;
+		}
+
+		input.get(buffer, length, count);
+		length += count;
+
+		int pos = parse();
+
+		System.arraycopy(buffer, pos, buffer, 0, length - pos);
+		length -= pos;
+
+		if (state == State.DONE && length > 0) {
+			// The server sent more than one response, which we never asked for
+			keepAlive = false;
+		}
+
+		return state == State.DONE;
+	}
+
+	/**
+	 * Handle the server closing the connection.
+	 *
+	 * @return true if the connection end completed the response
+	 */
+	public boolean finish() {
+		if (state == State.BODY_EOF) {
+			state = State.DONE;
+		}
+
+		return state == State.DONE;
+	}
+
+	/**
+	 * Check if any bytes were received.
+	 *
+	 * @return If the server started responding
+	 */
+	public boolean hasReceived() {
+		return received;
+	}
+
+	/**
+	 * Check if the connection can be reused after the response.
+	 *
+	 * @return If the connection can be kept alive
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Build the parsed response.
+	 *
+	 * @param url The request url
+	 * @return The response
+	 */
+	public HttpResponse toResponse(String url) {
+		return new HttpResponse(url, statusCode, headers, body.toByteArray());
+	}
+
+	/**
+	 * Parse as much of the buffer as possible.
+	 *
+	 * @return The position of the first unparsed byte
+	 * @throws IOException If the response is malformed
+	 */
+	private int parse() throws IOException {
+		int pos = 0;
+
+		while (state != State.DONE) {
+			switch (state) {
+			case HEAD:
+				int end = indexOf(pos, "\r\n\r\n");
+
+				if (end == -1) {
+					if (length - pos > MAX_HEAD_SIZE) {
+						throw new IOException("Response headers too large");
+					}
+					return pos;
+				}
+
+				parseHead(new String(buffer, pos, end - pos, ISO_8859_1));
+				pos = end + 4;
+				break;
+			case BODY_LENGTH:
+			case CHUNK_DATA:
+				int take = (int) Math.min(remaining, length - pos);
+
+				body.write(buffer, pos, take);
+				pos += take;
+				remaining -= take;
+
+				if (remaining > 0) {
+					return pos;
+				}
+
+				state = state == State.BODY_LENGTH ? State.DONE : State.CHUNK_END;
+				break;
+			case CHUNK_SIZE:
+				int lineEnd = indexOf(pos, "\r\n");
+
+				if (lineEnd == -1) {
+					return pos;
+				}
+
+				String line = new String(buffer, pos, lineEnd - pos, ISO_8859_1);
+				int extension = line.indexOf(';');
+
+				try {
+					remaining = Long.parseLong((extension == -1 ? line : line.substring(0, extension)).trim(), 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid chunk size: " + line);
+				}
+
+				if (remaining < 0) {
+					throw new IOException("Invalid chunk size: " + line);
+				}
+
+				pos = lineEnd + 2;
+				state = remaining == 0 ? State.TRAILER : State.CHUNK_DATA;
+				break;
+			case CHUNK_END:
+				if (length - pos < 2) {
+					return pos;
+				}
+
+				if (buffer[pos] != '\r' || buffer[pos + 1] != '\n') {
+					throw new IOException("Missing chunk terminator");
+				}
+
+				pos += 2;
+				state = State.CHUNK_SIZE;
+				break;
+			case TRAILER:
+				int trailerEnd = indexOf(pos, "\r\n");
+
+				if (trailerEnd == -1) {
+					return pos;
+				}
+
+				// Trailer headers are ignored, an empty line ends the response
+				if (trailerEnd == pos) {
+					state = State.DONE;
+				}
+
+				pos = trailerEnd + 2;
+				break;
+			case BODY_EOF:
+				body.write(buffer, pos, length - pos);
+				return length;
+			default:
+				return pos;
+			}
+		}
+
+		return pos;
+	}
+
+	/**
+	 * Parse the status line and headers, and work out how the body is delimited.
+	 *
+	 * @param head The status line and headers
+	 * @throws IOException If the status line is malformed
+	 */
+	private void parseHead(String head) throws IOException {
+		String[] lines = head.split("\r\n");
+		String[] status = lines[0].split(" ", 3);
+
+		if (status.length < 2 || !status[0].startsWith("HTTP/1.")) {
+			throw new IOException("Invalid status line: " + lines[0]);
+		}
+
+		try {
+			statusCode = Integer.parseInt(status[1]);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid status line: " + lines[0]);
+		}
+
+		headers = new HashMap<>();
+
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+
+			if (colon <= 0) {
+				continue;
+			}
+
+			String name = lines[i].substring(0, colon).trim().toLowerCase();
+			List<String> values = headers.get(name);
+
+			if (values == null) {
+				headers.put(name, values = new ArrayList<>(1));
+			}
+
+			values.add(lines[i].substring(colon + 1).trim());
+		}
+
+		if (statusCode / 100 == 1) {
+			// An interim response, the real one follows
+			return;
+		}
+
+		String connection = getHeader("connection");
+
+		if (status[0].equals("HTTP/1.0")) {
+			keepAlive = connection != null && connection.equalsIgnoreCase("keep-alive");
+		} else {
+			keepAlive = connection == null || !connection.equalsIgnoreCase("close");
+		}
+
+		String transferEncoding = getHeader("transfer-encoding");
+		String contentLength = getHeader("content-length");
+
+		if (this.head || statusCode == 204 || statusCode == 304) {
+			state = State.DONE;
+		} else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+			state = State.CHUNK_SIZE;
+		} else if (contentLength != null) {
+			try {
+				remaining = Long.parseLong(contentLength);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid content length: " + contentLength);
+			}
+
+			if (remaining < 0) {
+				throw new IOException("Invalid content length: " + contentLength);
+			}
+
+			state = remaining == 0 ? State.DONE : State.BODY_LENGTH;
+		} else {
+			state = State.BODY_EOF;
+			keepAlive = false;
+		}
+	}
+
+	/**
+	 * Get the first value of a parsed header.
+	 *
+	 * @param name The lower case header name
+	 * @return The value, or null
+	 */
+	private String getHeader(String name) {
+		List<String> values = headers.get(name);
+
+		return values == null ? null : values.get(0);
+	}
+
+	/**
+	 * Find a delimiter in the unparsed bytes.
+	 *
+	 * @param from The position to search from
+	 * @param delimiter The ASCII delimiter
+	 * @return The position of the delimiter, or -1
+	 */
+	private int indexOf(int from, String delimiter) {
+		int last = length - delimiter.length();
+
+		outer:
+		for (int i = from; i <= last; i++) {
+			for (int j = 0; j < delimiter.length(); j++) {
+				if (buffer[i + j] != delimiter.charAt(j)) {
+					continue outer;
+				}
+			}
+
+			return i;
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,36 @@
+package org.nikkii.rs07.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A request body of a known length which can be written to a non-blocking channel a piece at a time, without holding
+ * it in memory.
+ *
+ * @author Nikki
+ */
+public interface StreamingBody extends Closeable {
+	/**
+	 * Get the length of the body.
+	 *
+	 * @return The length in bytes
+	 */
+	public long getLength();
+
+	/**
+	 * Write as much of the rest of the body as the channel accepts.
+	 *
+	 * @param channel The channel
+	 * @return true once the whole body was written
+	 * @throws IOException If an error occurs while writing
+	 */
+	public boolean writeTo(WritableByteChannel channel) throws IOException;
+
+	/**
+	 * Start writing the body from the beginning again.
+	 *
+	 * @throws IOException If the body can't be rewound
+	 */
+	public void reset() throws IOException;
+}
@@ -0,0 +1,188 @@
+package org.nikkii.rs07.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket which limits the number of bytes sent per second.
+ *
+ * Tokens are added at the configured rate, up to a quarter second's worth, so a burst of uploads can only briefly
+ * exceed the rate. Each byte sent takes a token. A bucket can be shared by any number of concurrent uploads, which
+ * then share its rate, and the rate can be changed while they are running.
+ *
+ * @author Nikki
+ */
+public class TokenBucket {
+	/**
+	 * The smallest burst size, so a low rate still sends reasonably sized packets.
+	 */
+	private static final long MIN_BURST = 1024;
+
+	/**
+	 * The rate in bytes per second, or 0 if unlimited.
+	 */
+	private long rate;
+
+	/**
+	 * The maximum number of tokens.
+	 */
+	private long capacity;
+
+	/**
+	 * The available tokens.
+	 */
+	private long tokens;
+
+	/**
+	 * The time the tokens were last refilled at, in nanoseconds.
+	 */
+	private long refilled = System.nanoTime();
+
+	/**
+	 * Construct a new token bucket.
+	 *
+	 * @param rate The rate in bytes per second, or 0 if unlimited
+	 */
+	public TokenBucket(long rate) {
+		setRate(rate);
+		this.tokens = capacity;
+	}
+
+	/**
+	 * Set the rate, which applies to uploads in progress as well.
+	 *
+	 * @param rate The rate in bytes per second, or 0 if unlimited
+	 */
+	public synchronized void setRate(long rate) {
+		refill();
+
+		this.rate = Math.max(rate, 0);
+		this.capacity = Math.max(this.rate / 4, MIN_BURST);
+		this.tokens = Math.min(tokens, capacity);
+
+		notifyAll();
+	}
+
+	/**
+	 * Get the rate.
+	 *
+	 * @return The rate in bytes per second, or 0 if unlimited
+	 */
+	public synchronized long getRate() {
+		return rate;
+	}
+
+	/**
+	 * Check if the bucket limits anything.
+	 *
+	 * @return If a rate is set
+	 */
+	public synchronized boolean isLimited() {
+		return rate > 0;
+	}
+
+	/**
+	 * Get the largest number of bytes which can be taken at once.
+	 *
+	 * @return The burst size in bytes
+	 */
+	public synchronized long getBurstSize() {
+		return capacity;
+	}
+
+	/**
+	 * Take as many tokens as are available, without waiting.
+	 *
+	 * @param max The maximum number of tokens to take
+	 * @return The number of tokens taken, which may be 0
+	 */
+	public synchronized long take(long max) {
+		if (rate == 0) {
+			return max;
+		}
+
+		refill();
+
+		long taken = Math.min(max, tokens);
+
+		tokens -= taken;
+
+		return taken;
+	}
+
+	/**
+	 * Take tokens, waiting until they are available.
+	 *
+	 * @param count The number of tokens, which is capped to the burst size
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public synchronized void acquire(long count) throws InterruptedException {
+		while (rate > 0) {
+			refill();
+
+			long needed = Math.min(count, capacity);
+
+			if (tokens >= needed) {
+				tokens -= needed;
+				return;
+			}
+
+			long wait = getDelay(needed);
+
+			TimeUnit.NANOSECONDS.timedWait(this, Math.max(wait, 1000));
+		}
+	}
+
+	/**
+	 * Return tokens which were taken but not used.
+	 *
+	 * @param count The number of tokens
+	 */
+	public synchronized void refund(long count) {
+		if (rate > 0 && count > 0) {
+			tokens = Math.min(tokens + count, capacity);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Get the time until tokens are available.
+	 *
+	 * @param count The number of tokens, which is capped to the burst size
+	 * @return The delay in nanoseconds, or 0 if they are available now
+	 */
+	public synchronized long getDelay(long count) {
+		if (rate == 0) {
+			return 0;
+		}
+
+		refill();
+
+		long missing = Math.min(count, capacity) - tokens;
+
+		return missing <= 0 ? 0 : (missing * TimeUnit.SECONDS.toNanos(1) + rate - 1) / rate;
+	}
+
+	/**
+	 * Add the tokens earned since the last refill.
+	 */
+	private void refill() {
+		long now = System.nanoTime();
+		long elapsed = now - refilled;
+
+		if (rate == 0) {
+			refilled = now;
+			return;
+		}
+
+		double earned = (double) elapsed * rate / TimeUnit.SECONDS.toNanos(1);
+
+		if (earned >= capacity - tokens) {
+			tokens = capacity;
+			refilled = now;
+		} else if (earned >= 1) {
+			tokens += (long) earned;
+			// Only advance by the time the earned tokens took, so fractions of a token aren't lost
+			refilled += (long) ((long) earned * (double) TimeUnit.SECONDS.toNanos(1) / rate);
+		}
+	}
+}
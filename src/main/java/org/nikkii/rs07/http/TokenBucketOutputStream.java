@@ -0,0 +1,71 @@
+package org.nikkii.rs07.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream which takes a token from a {@link TokenBucket} for every byte written, blocking while the bucket is
+ * empty. Writes go straight through while the bucket is unlimited.
+ *
+ * @author Nikki
+ */
+public class TokenBucketOutputStream extends FilterOutputStream {
+	/**
+	 * The bucket to take tokens from.
+	 */
+	private final TokenBucket bucket;
+
+	/**
+	 * Construct a new rate limited stream.
+	 *
+	 * @param output The stream to write to
+	 * @param bucket The bucket to take tokens from
+	 */
+	public TokenBucketOutputStream(OutputStream output, TokenBucket bucket) {
+		super(output);
+		this.bucket = bucket;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		acquire(1);
+		out.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		// Without a limit there are no tokens to take turns for, so the write isn't split up
+		if (!bucket.isLimited()) {
+			out.write(b, off, len);
+			return;
+		}
+
+		while (len > 0) {
+			// Write at most one burst at a time, so concurrent uploads take turns
+			int count = (int) Math.min(len, bucket.getBurstSize());
+
+			acquire(count);
+			out.write(b, off, count);
+
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Wait for tokens.
+	 *
+	 * @param count The number of tokens
+	 * @throws InterruptedIOException If interrupted while waiting
+	 */
+	private void acquire(int count) throws InterruptedIOException {
+		try {
+			bucket.acquire(count);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for upload bandwidth");
+		}
+	}
+}
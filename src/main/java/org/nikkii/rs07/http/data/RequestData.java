@@ -1,6 +1,7 @@
 package org.nikkii.rs07.http.data;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -48,6 +49,15 @@ public class RequestData {
 		return data.entrySet();
 	}
 
+	/**
+	 * Get a read only view of the data map
+	 *
+	 * @return The data map
+	 */
+	public Map<String, Object> asMap() {
+		return Collections.unmodifiableMap(data);
+	}
+
 	/**
 	 * Transform this data into a URLEncoded string
 	 *
@@ -2,36 +2,35 @@ package org.nikkii.rs07.http.multipart;
 
 
 import org.nikkii.rs07.http.HttpRequest;
+import org.nikkii.rs07.http.StreamingBody;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.net.URLConnection;
-import java.util.Map;
 import java.util.Random;
 
 /**
  * An HttpRequest for multipart/form-data requests
  *
+ * The body is streamed with its exact length when every file's length is known, or in chunks otherwise, so uploads
+ * use the same amount of memory whatever the size of the files.
+ *
  * @author Nikki
  */
 public class HttpMultipartPostRequest extends HttpRequest {
 	/**
-	 * Standard CLRF line ending
+	 * Boundary start token
 	 */
-	private static final char[] CLRF = new char[]{'\r', '\n'};
+	private static final String BOUNDARY_START = "---------------------------HttpAPIFormBoundary";
 
 	/**
-	 * Double CLRF line ending
+	 * The boundary between the parts of this request
 	 */
-	private static final char[] DOUBLE_CLRF = new char[]{'\r', '\n', '\r', '\n'};
+	private final String boundary = BOUNDARY_START + new Random().nextLong();
 
 	/**
-	 * Boundary start token
+	 * The encoded body, created once the parameters are final
 	 */
-	private static final String BOUNDARY_START = "---------------------------HttpAPIFormBoundary";
+	private MultipartBody body;
 
 	/**
 	 * Construct a new Multipart POST request
@@ -43,74 +42,40 @@ public class HttpMultipartPostRequest extends HttpRequest {
 	}
 
 	@Override
-	public void execute() throws IOException {
-		String boundary = BOUNDARY_START + new Random().nextLong();
-
-		// Open the connection and set the correct header
-		openConnection();
-		connection.setDoOutput(true);
-		connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-
-		boundary = "--" + boundary;
-
-		OutputStream os = openOutputStream();
-
-		try (Writer writer = new OutputStreamWriter(os)) {
-			for (Map.Entry<String, Object> entry : parameters.entrySet()) {
-				// Write the start of our request
-				writer.write(boundary);
-				writer.write(CLRF);
-				writer.write("Content-Disposition: form-data; name=\"" + entry.getKey() + "\"");
-
-				Object object = entry.getValue();
-
-				// Check if it's a file
-				if (object instanceof MultipartFile) {
-					MultipartFile file = (MultipartFile) object;
-
-					writer.write("; filename=\"" + file.getName() + "\"");
-					writer.write(CLRF);
-
-					// Get the mime type
-					String type = URLConnection.guessContentTypeFromName(file.getName());
-					if (type == null) {
-						type = "application/octet-stream";
-					}
+	public String getMethod() {
+		return "POST";
+	}
 
-					// Write the mime type
-					writer.write("Content-Type: ");
-					writer.write(type);
-					writer.write(DOUBLE_CLRF);
+	@Override
+	protected String getContentType() {
+		return "multipart/form-data; boundary=" + boundary;
+	}
 
-					writer.flush();
+	@Override
+	protected long getContentLength() {
+		return getBody().getLength();
+	}
 
-					try (InputStream input = file.getInputStream()) {
-						byte[] buffer = new byte[1024];
-						while (true) {
-							int read = input.read(buffer, 0, buffer.length);
-							if (read == -1) {
-								break;
-							}
-							os.write(buffer, 0, read);
-						}
-						os.flush();
-					}
-				} else {
-					// Write a newline before the content
-					writer.write(DOUBLE_CLRF);
-					// Write the data
-					writer.write(entry.getValue().toString());
-				}
+	@Override
+	protected StreamingBody getStreamingBody() {
+		return getBody().getLength() == -1 ? null : getBody();
+	}
 
-				writer.write(CLRF);
-			}
+	@Override
+	protected void writeBody(OutputStream output) throws IOException {
+		getBody().writeTo(output);
+	}
 
-			// Set the final boundary
-			boundary = boundary + "--";
-			// Write a boundary to let the server know the previous content area is finished
-			writer.write(boundary);
-			// Write a final newline
-			writer.write(CLRF);
+	/**
+	 * Get the encoded body
+	 *
+	 * @return The body
+	 */
+	private MultipartBody getBody() {
+		if (body == null) {
+			body = new MultipartBody(parameters, boundary);
 		}
+
+		return body;
 	}
 }
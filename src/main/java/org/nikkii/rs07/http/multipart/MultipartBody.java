@@ -0,0 +1,318 @@
+package org.nikkii.rs07.http.multipart;
+
+import org.nikkii.rs07.http.StreamingBody;
+import org.nikkii.rs07.http.data.RequestData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An encoded multipart/form-data body.
+ *
+ * The part headers and fields are encoded up front, files are only referenced, so the length of the body is known
+ * before it is sent (as long as every file's length is known) and a file is never held in memory. Files are copied
+ * through a reusable buffer when writing to a stream, or transferred straight from their channel when writing to a
+ * socket channel.
+ *
+ * @author Nikki
+ */
+public class MultipartBody implements StreamingBody {
+	/**
+	 * The charset of the part headers and fields.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The size of the copy buffers.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The copy buffer of each thread writing to a stream.
+	 */
+	private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	/**
+	 * The body segments, either encoded bytes or a {@link MultipartFile}.
+	 */
+	private final List<Object> segments = new ArrayList<>();
+
+	/**
+	 * The body length, or -1 if unknown.
+	 */
+	private final long length;
+
+	/**
+	 * The segment being written to a channel.
+	 */
+	private int segment;
+
+	/**
+	 * The position in the file segment being written to a channel.
+	 */
+	private long position;
+
+	/**
+	 * The bytes of the current segment which haven't been written to the channel yet.
+	 */
+	private ByteBuffer pending;
+
+	/**
+	 * Encode a body.
+	 *
+	 * @param parameters The fields and files
+	 * @param boundary The boundary between the parts, without the leading dashes
+	 */
+	public MultipartBody(RequestData parameters, String boundary) {
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		long length = 0;
+		boolean known = true;
+
+		for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+			StringBuilder head = new StringBuilder();
+
+			head.append("--").append(boundary).append("\r\n");
+			head.append("Content-Disposition: form-data; name=\"").append(entry.getKey()).append('"');
+
+			Object object = entry.getValue();
+
+			if (object instanceof MultipartFile) {
+				MultipartFile file = (MultipartFile) object;
+
+				// Get the mime type
+				String type = URLConnection.guessContentTypeFromName(file.getName());
+				if (type == null) {
+					type = "application/octet-stream";
+				}
+
+				head.append("; filename=\"").append(file.getName()).append("\"\r\n");
+				head.append("Content-Type: ").append(type).append("\r\n\r\n");
+
+				write(text, head);
+				length += flush(text);
+
+				segments.add(file);
+
+				if (file.getLength() == -1) {
+					known = false;
+				} else {
+					length += file.getLength();
+				}
+
+				write(text, "\r\n");
+			} else {
+				head.append("\r\n\r\n").append(object).append("\r\n");
+
+				write(text, head);
+			}
+		}
+
+		// A final boundary lets the server know the previous content area is finished
+		write(text, "--" + boundary + "--\r\n");
+
+		length += flush(text);
+
+		this.length = known ? length : -1;
+	}
+
+	@Override
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Write the body to a stream, closing the files afterwards.
+	 *
+	 * @param output The stream
+	 * @throws IOException If an error occurs while reading a file or writing the body, or a file no longer has its length
+	 */
+	public void writeTo(OutputStream output) throws IOException {
+		byte[] buffer = BUFFER.get();
+
+		try {
+			for (Object segment : segments) {
+				if (segment instanceof byte[]) {
+					output.write((byte[]) segment);
+					continue;
+				}
+
+				MultipartFile file = (MultipartFile) segment;
+				InputStream input = file.getInputStream();
+				long copied = 0;
+				int read;
+
+				while ((read = input.read(buffer, 0, buffer.length)) != -1) {
+					output.write(buffer, 0, read);
+					copied += read;
+				}
+
+				// The length was sent up front, a file which changed since would leave the body malformed
+				if (file.getLength() != -1 && copied != file.getLength()) {
+					throw new IOException(file.getName() + " is " + copied + " bytes instead of " + file.getLength());
+				}
+			}
+		} finally {
+			close();
+		}
+	}
+
+	@Override
+	public boolean writeTo(WritableByteChannel channel) throws IOException {
+		while (segment < segments.size()) {
+			Object current = segments.get(segment);
+
+			if (current instanceof byte[]) {
+				if (pending == null) {
+					pending = ByteBuffer.wrap((byte[]) current);
+				}
+
+				channel.write(pending);
+
+				if (pending.hasRemaining()) {
+					return false;
+				}
+
+				pending = null;
+			} else if (!writeFile((MultipartFile) current, channel)) {
+				return false;
+			}
+
+			segment++;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Write as much of a file segment as the channel accepts.
+	 *
+	 * @param file The file
+	 * @param channel The channel
+	 * @return true once the whole file was written
+	 * @throws IOException If an error occurs while reading the file or writing to the channel, or the file was truncated
+	 */
+	private boolean writeFile(MultipartFile file, WritableByteChannel channel) throws IOException {
+		FileChannel source = file.getChannel();
+
+		if (source != null) {
+			while (position < file.getLength()) {
+				long written = source.transferTo(position, file.getLength() - position, channel);
+
+				if (written <= 0) {
+					// A file which was truncated since would never finish
+					if (position >= source.size()) {
+						throw new IOException(file.getName() + " is " + source.size() + " bytes instead of " + file.getLength());
+					}
+
+					return false;
+				}
+
+				position += written;
+			}
+
+			position = 0;
+			return true;
+		}
+
+		while (true) {
+			if (pending == null) {
+				pending = ByteBuffer.allocate(BUFFER_SIZE);
+				pending.flip();
+			}
+
+			if (!pending.hasRemaining()) {
+				int read = file.getInputStream().read(pending.array(), 0, pending.capacity());
+
+				if (read == -1) {
+					pending = null;
+					return true;
+				}
+
+				pending.clear();
+				pending.limit(read);
+			}
+
+			channel.write(pending);
+
+			if (pending.hasRemaining()) {
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public void reset() throws IOException {
+		for (Object current : segments) {
+			if (current instanceof MultipartFile && ((MultipartFile) current).getFile() == null) {
+				InputStream input = ((MultipartFile) current).getInputStream();
+
+				if (!input.markSupported()) {
+					throw new IOException("Unable to rewind " + ((MultipartFile) current).getName());
+				}
+
+				input.reset();
+			}
+		}
+
+		segment = 0;
+		position = 0;
+		pending = null;
+	}
+
+	/**
+	 * Close the files.
+	 *
+	 * @throws IOException If an error occurs while closing a file
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Object current : segments) {
+			if (current instanceof MultipartFile) {
+				((MultipartFile) current).close();
+			}
+		}
+	}
+
+	/**
+	 * Encode text into the pending bytes.
+	 *
+	 * @param text The pending bytes
+	 * @param value The text
+	 */
+	private static void write(ByteArrayOutputStream text, CharSequence value) {
+		byte[] bytes = value.toString().getBytes(UTF_8);
+		text.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Add the pending bytes as a segment.
+	 *
+	 * @param text The pending bytes
+	 * @return The number of bytes added
+	 */
+	private long flush(ByteArrayOutputStream text) {
+		int size = text.size();
+
+		if (size > 0) {
+			segments.add(text.toByteArray());
+			text.reset();
+		}
+
+		return size;
+	}
+}
@@ -1,9 +1,12 @@
 package org.nikkii.rs07.http.multipart;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 /**
  * A Multipart Form File
@@ -18,10 +21,25 @@ public class MultipartFile {
 	private String name;
 
 	/**
-	 * The input stream to pull data from
+	 * The file the data comes from, or null
+	 */
+	private File file;
+
+	/**
+	 * The input stream to pull data from, opened when it is first read if the data comes from a file
 	 */
 	private InputStream inputStream;
 
+	/**
+	 * The file channel, if the data comes from a file and was opened
+	 */
+	private FileChannel channel;
+
+	/**
+	 * The data length, or -1 if unknown
+	 */
+	private long length = -1;
+
 	/**
 	 * Construct a new file object from an existing File instance
 	 *
@@ -29,7 +47,36 @@ public class MultipartFile {
 	 * @throws IOException If an error occurred opening the file for read
 	 */
 	public MultipartFile(File file) throws IOException {
-		this(file.getName(), new FileInputStream(file));
+		this(file.getName(), file);
+	}
+
+	/**
+	 * Construct a new file object from an existing File instance, uploaded under a different name
+	 * Note: The file is only opened once the body is written, so a request which fails before that holds no handle.
+	 *
+	 * @param name The file name
+	 * @param file The file to use
+	 * @throws IOException If the file doesn't exist
+	 */
+	public MultipartFile(String name, File file) throws IOException {
+		if (!file.isFile()) {
+			throw new FileNotFoundException(file.getPath());
+		}
+
+		this.name = name;
+		this.file = file;
+		this.length = file.length();
+	}
+
+	/**
+	 * Construct a new file object from a name and data
+	 *
+	 * @param name The file name
+	 * @param data The file data
+	 */
+	public MultipartFile(String name, byte[] data) {
+		this(name, new ByteArrayInputStream(data));
+		this.length = data.length;
 	}
 
 	/**
@@ -54,11 +101,81 @@ public class MultipartFile {
 	}
 
 	/**
-	 * Get the data InputStream
+	 * Get the file the data comes from
+	 *
+	 * @return The file, or null if the data doesn't come from a file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Get the data InputStream, opening the file if it isn't open yet
 	 *
 	 * @return The InputStream
+	 * @throws IOException If an error occurred opening the file for read
 	 */
-	public InputStream getInputStream() {
+	public InputStream getInputStream() throws IOException {
+		if (inputStream == null && file != null) {
+			open();
+		}
+
 		return inputStream;
 	}
+
+	/**
+	 * Get the file channel, which allows the data to be transferred without copying it through the heap, opening the
+	 * file if it isn't open yet
+	 *
+	 * @return The channel, or null if the data doesn't come from a file
+	 * @throws IOException If an error occurred opening the file for read
+	 */
+	public FileChannel getChannel() throws IOException {
+		if (channel == null && file != null) {
+			open();
+		}
+
+		return channel;
+	}
+
+	/**
+	 * Close the data InputStream. A file is opened again if it is read again.
+	 *
+	 * @throws IOException If an error occurred closing the stream
+	 */
+	public void close() throws IOException {
+		if (inputStream == null) {
+			return;
+		}
+
+		try {
+			inputStream.close();
+		} finally {
+			if (file != null) {
+				inputStream = null;
+				channel = null;
+			}
+		}
+	}
+
+	/**
+	 * Get the data length
+	 *
+	 * @return The length in bytes, or -1 if unknown
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Open the file
+	 *
+	 * @throws IOException If an error occurred opening the file for read
+	 */
+	private void open() throws IOException {
+		FileInputStream input = new FileInputStream(file);
+
+		this.inputStream = input;
+		this.channel = input.getChannel();
+	}
 }
@@ -0,0 +1,100 @@
+package org.nikkii.rs07.image;
+
+import java.awt.Rectangle;
+
+/**
+ * A region of a screenshot, positioned relative to one of its corners or its center so it is found in screenshots of
+ * any size.
+ *
+ * @author Nikki
+ */
+public class CropRegion {
+	/**
+	 * The points of a screenshot a region can be positioned from.
+	 */
+	public enum Anchor {
+		TOP_LEFT, TOP_RIGHT, BOTTOM_LEFT, BOTTOM_RIGHT, CENTER
+	}
+
+	/**
+	 * The point the region is positioned from.
+	 */
+	private Anchor anchor = Anchor.TOP_LEFT;
+
+	/**
+	 * The horizontal offset from the anchor, towards the center of the screenshot.
+	 */
+	private int x;
+
+	/**
+	 * The vertical offset from the anchor, towards the center of the screenshot.
+	 */
+	private int y;
+
+	/**
+	 * The region width.
+	 */
+	private int width;
+
+	/**
+	 * The region height.
+	 */
+	private int height;
+
+	public CropRegion() {
+
+	}
+
+	public CropRegion(Anchor anchor, int x, int y, int width, int height) {
+		this.anchor = anchor;
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Find the region in a screenshot.
+	 *
+	 * @param imageWidth The screenshot width.
+	 * @param imageHeight The screenshot height.
+	 * @return The region, or null if it doesn't fit in the screenshot.
+	 */
+	public Rectangle locate(int imageWidth, int imageHeight) {
+		int left, top;
+
+		switch (anchor) {
+		case TOP_RIGHT:
+			left = imageWidth - x - width;
+			top = y;
+			break;
+		case BOTTOM_LEFT:
+			left = x;
+			top = imageHeight - y - height;
+			break;
+		case BOTTOM_RIGHT:
+			left = imageWidth - x - width;
+			top = imageHeight - y - height;
+			break;
+		case CENTER:
+			left = (imageWidth - width) / 2 + x;
+			top = (imageHeight - height) / 2 + y;
+			break;
+		default:
+			left = x;
+			top = y;
+			break;
+		}
+
+		if (width <= 0 || height <= 0 || left < 0 || top < 0 || left + width > imageWidth || top + height > imageHeight) {
+			return null;
+		}
+
+		return new Rectangle(left, top, width, height);
+	}
+
+	@Override
+	public String toString() {
+		return anchor + "+" + x + "+" + y + " " + width + "x" + height;
+	}
+}
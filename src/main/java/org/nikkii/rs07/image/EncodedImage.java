@@ -0,0 +1,86 @@
+package org.nikkii.rs07.image;
+
+/**
+ * A screenshot which went through the {@link ImagePipeline}, ready to be uploaded.
+ *
+ * @author Nikki
+ */
+public class EncodedImage {
+	/**
+	 * The file name to upload the image as.
+	 */
+	private final String fileName;
+
+	/**
+	 * The encoded image.
+	 */
+	private final byte[] data;
+
+	/**
+	 * The image width.
+	 */
+	private final int width;
+
+	/**
+	 * The image height.
+	 */
+	private final int height;
+
+	/**
+	 * The time in nanoseconds it took to decode, transform and encode the image.
+	 */
+	private final long time;
+
+	public EncodedImage(String fileName, byte[] data, int width, int height, long time) {
+		this.fileName = fileName;
+		this.data = data;
+		this.width = width;
+		this.height = height;
+		this.time = time;
+	}
+
+	/**
+	 * Get the file name to upload the image as.
+	 *
+	 * @return The file name.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Get the encoded image.
+	 *
+	 * @return The image bytes.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Get the image width.
+	 *
+	 * @return The width in pixels.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the image height.
+	 *
+	 * @return The height in pixels.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the time it took to process the image.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public long getTime() {
+		return time;
+	}
+}
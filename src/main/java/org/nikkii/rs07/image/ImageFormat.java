@@ -0,0 +1,56 @@
+package org.nikkii.rs07.image;
+
+/**
+ * The formats screenshots can be encoded to before uploading.
+ *
+ * @author Nikki
+ */
+public enum ImageFormat {
+	/**
+	 * Lossless true color PNG.
+	 */
+	PNG("png", "png"),
+
+	/**
+	 * PNG with a palette of at most 256 colors. Lossless if the screenshot has no more colors than that.
+	 */
+	PNG_PALETTE("png", "png"),
+
+	/**
+	 * Lossy JPEG, using the configured quality.
+	 */
+	JPEG("jpg", "jpeg");
+
+	/**
+	 * The file name extension.
+	 */
+	private final String extension;
+
+	/**
+	 * The ImageIO format name.
+	 */
+	private final String formatName;
+
+	ImageFormat(String extension, String formatName) {
+		this.extension = extension;
+		this.formatName = formatName;
+	}
+
+	/**
+	 * Get the file name extension.
+	 *
+	 * @return The extension, without a dot.
+	 */
+	public String getExtension() {
+		return extension;
+	}
+
+	/**
+	 * Get the ImageIO format name.
+	 *
+	 * @return The format name.
+	 */
+	public String getFormatName() {
+		return formatName;
+	}
+}
@@ -0,0 +1,419 @@
+package org.nikkii.rs07.image;
+
+import org.nikkii.rs07.ProgressType;
+import org.nikkii.rs07.event.OSBuddyEvent;
+import org.nikkii.rs07.http.HttpCallback;
+import org.nikkii.rs07.http.HttpFuture;
+import org.nikkii.rs07.util.NamedThreadFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepares screenshots for uploading: crops them to the region which shows the event, scales them down and encodes
+ * them in a smaller format.
+ *
+ * Screenshots are decoded and encoded on a fixed number of encoder threads, so a burst of events can't use every
+ * core. The number of screenshots waiting for a thread is bounded by the submission queue.
+ *
+ * @author Nikki
+ */
+public class ImagePipeline implements AutoCloseable {
+	/**
+	 * The crop region of each event type, empty if screenshots aren't cropped.
+	 */
+	private final Map<ProgressType, CropRegion> cropRegions;
+
+	/**
+	 * The maximum image width, or 0 if unlimited.
+	 */
+	private final int maxWidth;
+
+	/**
+	 * The maximum image height, or 0 if unlimited.
+	 */
+	private final int maxHeight;
+
+	/**
+	 * The output format.
+	 */
+	private final ImageFormat format;
+
+	/**
+	 * The JPEG quality, from 0 to 1.
+	 */
+	private final float jpegQuality;
+
+	/**
+	 * The encoder threads, or null if images are only encoded on the calling thread.
+	 */
+	private final ExecutorService encoders;
+
+	/**
+	 * The number of images encoded.
+	 */
+	private final AtomicLong images = new AtomicLong();
+
+	/**
+	 * The total size of the screenshot files.
+	 */
+	private final AtomicLong inputBytes = new AtomicLong();
+
+	/**
+	 * The total size of the encoded images.
+	 */
+	private final AtomicLong outputBytes = new AtomicLong();
+
+	/**
+	 * The total time spent processing images, in nanoseconds.
+	 */
+	private final AtomicLong time = new AtomicLong();
+
+	/**
+	 * Construct a new pipeline.
+	 *
+	 * @param cropRegions The crop region of each event type, or null to upload the whole screenshot.
+	 * @param maxWidth The maximum image width, or 0 if unlimited.
+	 * @param maxHeight The maximum image height, or 0 if unlimited.
+	 * @param format The output format.
+	 * @param jpegQuality The JPEG quality, from 0 to 1.
+	 * @param threads The number of encoder threads, or 0 to only encode on the calling thread.
+	 */
+	public ImagePipeline(Map<ProgressType, CropRegion> cropRegions, int maxWidth, int maxHeight, ImageFormat format,
+						 float jpegQuality, int threads) {
+		this.cropRegions = cropRegions == null || cropRegions.isEmpty()
+			? Collections.<ProgressType, CropRegion>emptyMap() : new TreeMap<>(cropRegions);
+		this.maxWidth = Math.max(maxWidth, 0);
+		this.maxHeight = Math.max(maxHeight, 0);
+		this.format = format;
+		this.jpegQuality = Math.max(0, Math.min(jpegQuality, 1));
+		this.encoders = threads > 0 ? Executors.newFixedThreadPool(threads, new NamedThreadFactory("image-encoder")) : null;
+	}
+
+	/**
+	 * Check if the pipeline leaves screenshots as they are, so a PNG file can be uploaded without decoding it.
+	 *
+	 * @return If nothing is cropped, scaled or converted.
+	 */
+	public boolean isIdentity() {
+		return cropRegions.isEmpty() && maxWidth == 0 && maxHeight == 0 && format == ImageFormat.PNG;
+	}
+
+	/**
+	 * Describe the transformations, so images encoded with different settings can be told apart.
+	 *
+	 * @return The pipeline settings.
+	 */
+	public String getSignature() {
+		StringBuilder signature = new StringBuilder(format.name());
+
+		if (format == ImageFormat.JPEG) {
+			signature.append(" quality=").append(jpegQuality);
+		}
+
+		if (maxWidth > 0 || maxHeight > 0) {
+			signature.append(" max=").append(maxWidth).append('x').append(maxHeight);
+		}
+
+		if (!cropRegions.isEmpty()) {
+			signature.append(" crop=").append(cropRegions);
+		}
+
+		return signature.toString();
+	}
+
+	/**
+	 * Process an event's screenshot on an encoder thread.
+	 *
+	 * @param event The event.
+	 * @param callback The callback to notify once the image was encoded, or null.
+	 * @return The future image.
+	 */
+	public HttpFuture<EncodedImage> submit(final OSBuddyEvent event, HttpCallback<EncodedImage> callback) {
+		final HttpFuture<EncodedImage> future = new HttpFuture<>(callback);
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				EncodedImage image;
+
+				try {
+					image = process(event);
+				} catch (IOException e) {
+					future.failed(e);
+					return;
+				} catch (RuntimeException e) {
+					future.failed(new IOException("Unable to encode " + event.getScreenshotFile().getName(), e));
+					return;
+				}
+
+				future.completed(image);
+			}
+		};
+
+		if (encoders == null) {
+			task.run();
+			return future;
+		}
+
+		try {
+			encoders.execute(task);
+		} catch (RejectedExecutionException e) {
+			future.failed(new IOException("The image pipeline is closed"));
+		}
+
+		return future;
+	}
+
+	/**
+	 * Process an event's screenshot on the calling thread, decoding the file.
+	 *
+	 * @param event The event.
+	 * @return The encoded image.
+	 * @throws IOException If the screenshot could not be decoded or encoded.
+	 */
+	public EncodedImage process(OSBuddyEvent event) throws IOException {
+		long start = System.nanoTime();
+
+		File file = event.getScreenshotFile();
+		BufferedImage image = ImageIO.read(file);
+
+		if (image == null) {
+			throw new IOException("Unable to decode " + file.getName());
+		}
+
+		inputBytes.addAndGet(file.length());
+
+		return encode(image, event.getType(), start);
+	}
+
+	/**
+	 * Process a decoded screenshot on the calling thread.
+	 *
+	 * @param image The screenshot.
+	 * @param type The type of the event the screenshot shows.
+	 * @return The encoded image.
+	 * @throws IOException If the image could not be encoded.
+	 */
+	public EncodedImage encode(BufferedImage image, ProgressType type) throws IOException {
+		return encode(image, type, System.nanoTime());
+	}
+
+	/**
+	 * Crop, scale and encode a screenshot.
+	 *
+	 * @param image The screenshot.
+	 * @param type The type of the event the screenshot shows.
+	 * @param start The time processing started, in nanoseconds.
+	 * @return The encoded image.
+	 * @throws IOException If the image could not be encoded.
+	 */
+	private EncodedImage encode(BufferedImage image, ProgressType type, long start) throws IOException {
+		image = scale(crop(image, type));
+
+		if (format == ImageFormat.PNG_PALETTE) {
+			image = PaletteQuantizer.quantize(image);
+		} else if (format == ImageFormat.JPEG && image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+			// The JPEG writer only handles plain RGB images properly
+			image = convert(image, BufferedImage.TYPE_INT_RGB);
+		}
+
+		byte[] data = write(image);
+		long elapsed = System.nanoTime() - start;
+
+		images.incrementAndGet();
+		outputBytes.addAndGet(data.length);
+		time.addAndGet(elapsed);
+
+		return new EncodedImage("progress." + format.getExtension(), data, image.getWidth(), image.getHeight(), elapsed);
+	}
+
+	/**
+	 * Crop a screenshot to the region which shows its event.
+	 *
+	 * @param image The screenshot.
+	 * @param type The event type, or null if unknown.
+	 * @return The region, or the whole screenshot if it has no region or the region doesn't fit.
+	 */
+	private BufferedImage crop(BufferedImage image, ProgressType type) {
+		CropRegion region = type != null ? cropRegions.get(type) : null;
+
+		if (region == null) {
+			return image;
+		}
+
+		Rectangle bounds = region.locate(image.getWidth(), image.getHeight());
+
+		return bounds == null ? image : image.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height);
+	}
+
+	/**
+	 * Scale an image down to fit the maximum size, halving it at a time so bilinear filtering doesn't skip pixels.
+	 *
+	 * @param image The image.
+	 * @return The scaled image, or the same image if it already fits.
+	 */
+	private BufferedImage scale(BufferedImage image) {
+		double ratio = 1;
+
+		if (maxWidth > 0) {
+			ratio = Math.min(ratio, (double) maxWidth / image.getWidth());
+		}
+
+		if (maxHeight > 0) {
+			ratio = Math.min(ratio, (double) maxHeight / image.getHeight());
+		}
+
+		if (ratio >= 1) {
+			return image;
+		}
+
+		int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+		int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+		int type = image.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+		int width = image.getWidth(), height = image.getHeight();
+
+		do {
+			width = Math.max(width / 2, targetWidth);
+			height = Math.max(height / 2, targetHeight);
+
+			BufferedImage scaled = new BufferedImage(width, height, type);
+			Graphics2D graphics = scaled.createGraphics();
+
+			try {
+				graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				graphics.drawImage(image, 0, 0, width, height, null);
+			} finally {
+				graphics.dispose();
+			}
+
+			image = scaled;
+		} while (width != targetWidth || height != targetHeight);
+
+		return image;
+	}
+
+	/**
+	 * Copy an image into another image type.
+	 *
+	 * @param image The image.
+	 * @param type The BufferedImage type.
+	 * @return The copy.
+	 */
+	private static BufferedImage convert(BufferedImage image, int type) {
+		BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), type);
+		Graphics2D graphics = converted.createGraphics();
+
+		try {
+			graphics.drawImage(image, 0, 0, null);
+		} finally {
+			graphics.dispose();
+		}
+
+		return converted;
+	}
+
+	/**
+	 * Encode an image in the output format. The image is written through a memory cache, ImageIO would otherwise
+	 * write it to a temporary file first.
+	 *
+	 * @param image The image.
+	 * @return The encoded image.
+	 * @throws IOException If the image could not be encoded.
+	 */
+	private byte[] write(BufferedImage image) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format.getFormatName());
+
+		if (!writers.hasNext()) {
+			throw new IOException("No image writer for " + format);
+		}
+
+		ImageWriter writer = writers.next();
+		ByteArrayOutputStream output = new ByteArrayOutputStream(64 * 1024);
+
+		try (ImageOutputStream stream = new MemoryCacheImageOutputStream(output)) {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+
+			if (format == ImageFormat.JPEG) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(jpegQuality);
+			}
+
+			writer.setOutput(stream);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+
+		return output.toByteArray();
+	}
+
+	/**
+	 * Get a summary of the pipeline statistics.
+	 *
+	 * @return The statistics summary.
+	 */
+	public String getStatistics() {
+		long count = images.get(), in = inputBytes.get(), out = outputBytes.get();
+
+		return String.format("Images: %d encoded as %s, %d KB read, %d KB encoded (%.0f%%), %.1f ms per image",
+			count, format, in / 1024, out / 1024, in == 0 ? 100.0 : 100.0 * out / in,
+			count == 0 ? 0.0 : time.get() / 1e6 / count);
+	}
+
+	/**
+	 * Get the number of images encoded.
+	 *
+	 * @return The image count.
+	 */
+	public long getImages() {
+		return images.get();
+	}
+
+	/**
+	 * Get the total size of the encoded images.
+	 *
+	 * @return The size in bytes.
+	 */
+	public long getOutputBytes() {
+		return outputBytes.get();
+	}
+
+	/**
+	 * Stop the encoder threads once the submitted images are done.
+	 */
+	@Override
+	public void close() {
+		if (encoders != null) {
+			encoders.shutdown();
+
+			try {
+				encoders.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,349 @@
+package org.nikkii.rs07.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reduces an image to a palette of at most 256 colors, so it can be written as a palette PNG.
+ *
+ * Images which already have 256 colors or less keep their exact colors. Others are reduced with the median cut
+ * algorithm on a 15 bit color histogram, without dithering, since dithering noise compresses badly.
+ *
+ * Transparency is not preserved; screenshots are opaque.
+ *
+ * @author Nikki
+ */
+final class PaletteQuantizer {
+	/**
+	 * The maximum number of palette entries.
+	 */
+	private static final int MAX_COLORS = 256;
+
+	/**
+	 * The number of histogram buckets, one per 15 bit color.
+	 */
+	private static final int BUCKETS = 1 << 15;
+
+	private PaletteQuantizer() {
+
+	}
+
+	/**
+	 * Reduce an image to a palette.
+	 *
+	 * @param image The image.
+	 * @return An indexed image.
+	 */
+	public static BufferedImage quantize(BufferedImage image) {
+		int width = image.getWidth(), height = image.getHeight();
+		int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+		int[] palette = exactPalette(pixels);
+		byte[] indices = new byte[pixels.length];
+
+		if (palette != null) {
+			// Sorted, so every pixel can be found with a binary search
+			for (int i = 0; i < pixels.length; i++) {
+				indices[i] = (byte) Arrays.binarySearch(palette, pixels[i] & 0xffffff);
+			}
+		} else {
+			int[] lookup = new int[BUCKETS];
+			palette = medianCut(pixels, lookup);
+
+			for (int i = 0; i < pixels.length; i++) {
+				indices[i] = (byte) lookup[bucket(pixels[i])];
+			}
+		}
+
+		byte[] r = new byte[palette.length], g = new byte[palette.length], b = new byte[palette.length];
+
+		for (int i = 0; i < palette.length; i++) {
+			r[i] = (byte) (palette[i] >> 16);
+			g[i] = (byte) (palette[i] >> 8);
+			b[i] = (byte) palette[i];
+		}
+
+		BufferedImage indexed = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED,
+			new IndexColorModel(8, palette.length, r, g, b));
+
+		byte[] data = ((DataBufferByte) indexed.getRaster().getDataBuffer()).getData();
+		System.arraycopy(indices, 0, data, 0, indices.length);
+
+		return indexed;
+	}
+
+	/**
+	 * Collect the colors of an image, if it has few enough for a palette.
+	 *
+	 * @param pixels The ARGB pixels.
+	 * @return The sorted RGB colors, or null if there are more than fit in a palette.
+	 */
+	private static int[] exactPalette(int[] pixels) {
+		int[] colors = new int[MAX_COLORS];
+		int count = 0, last = -1;
+
+		for (int pixel : pixels) {
+			int rgb = pixel & 0xffffff;
+
+			// Runs of the same color are very common, skip the search for them
+			if (rgb == last) {
+				continue;
+			}
+
+			last = rgb;
+
+			int index = Arrays.binarySearch(colors, 0, count, rgb);
+
+			if (index >= 0) {
+				continue;
+			}
+
+			if (count == MAX_COLORS) {
+				return null;
+			}
+
+			index = -index - 1;
+			System.arraycopy(colors, index, colors, index + 1, count - index);
+			colors[index] = rgb;
+			count++;
+		}
+
+		return Arrays.copyOf(colors, Math.max(count, 1));
+	}
+
+	/**
+	 * Build a palette with the median cut algorithm.
+	 *
+	 * @param pixels The ARGB pixels.
+	 * @param lookup Filled with the palette index of each histogram bucket.
+	 * @return The RGB palette.
+	 */
+	private static int[] medianCut(int[] pixels, int[] lookup) {
+		int[] counts = new int[BUCKETS];
+		long[] sums = new long[BUCKETS * 3];
+
+		for (int pixel : pixels) {
+			int bucket = bucket(pixel);
+
+			counts[bucket]++;
+			sums[bucket * 3] += (pixel >> 16) & 0xff;
+			sums[bucket * 3 + 1] += (pixel >> 8) & 0xff;
+			sums[bucket * 3 + 2] += pixel & 0xff;
+		}
+
+		List<Box> boxes = new ArrayList<>(MAX_COLORS);
+		boxes.add(new Box(counts, 0, 31, 0, 31, 0, 31).shrink());
+
+		while (boxes.size() < MAX_COLORS) {
+			Box largest = null;
+
+			for (Box box : boxes) {
+				if (box.isSplittable() && (largest == null || box.population > largest.population)) {
+					largest = box;
+				}
+			}
+
+			if (largest == null) {
+				break;
+			}
+
+			boxes.add(largest.split());
+		}
+
+		int[] palette = new int[boxes.size()];
+
+		for (int i = 0; i < boxes.size(); i++) {
+			palette[i] = boxes.get(i).average(sums, lookup, i);
+		}
+
+		return palette;
+	}
+
+	/**
+	 * Get the histogram bucket of a pixel.
+	 *
+	 * @param pixel The ARGB pixel.
+	 * @return The 15 bit color.
+	 */
+	private static int bucket(int pixel) {
+		return ((pixel >> 9) & 0x7c00) | ((pixel >> 6) & 0x3e0) | ((pixel >> 3) & 0x1f);
+	}
+
+	/**
+	 * A box of histogram buckets, which becomes one palette entry.
+	 */
+	private static final class Box {
+		/**
+		 * The histogram.
+		 */
+		private final int[] counts;
+
+		/**
+		 * The inclusive bounds of the box, per channel.
+		 */
+		private int r0, r1, g0, g1, b0, b1;
+
+		/**
+		 * The number of pixels in the box.
+		 */
+		private long population;
+
+		public Box(int[] counts, int r0, int r1, int g0, int g1, int b0, int b1) {
+			this.counts = counts;
+			this.r0 = r0;
+			this.r1 = r1;
+			this.g0 = g0;
+			this.g1 = g1;
+			this.b0 = b0;
+			this.b1 = b1;
+		}
+
+		/**
+		 * Shrink the box to the buckets which hold pixels, and count them.
+		 *
+		 * @return This box.
+		 */
+		public Box shrink() {
+			int nr0 = 31, nr1 = 0, ng0 = 31, ng1 = 0, nb0 = 31, nb1 = 0;
+			population = 0;
+
+			for (int r = r0; r <= r1; r++) {
+				for (int g = g0; g <= g1; g++) {
+					for (int b = b0; b <= b1; b++) {
+						int count = counts[(r << 10) | (g << 5) | b];
+
+						if (count == 0) {
+							continue;
+						}
+
+						population += count;
+						nr0 = Math.min(nr0, r);
+						nr1 = Math.max(nr1, r);
+						ng0 = Math.min(ng0, g);
+						ng1 = Math.max(ng1, g);
+						nb0 = Math.min(nb0, b);
+						nb1 = Math.max(nb1, b);
+					}
+				}
+			}
+
+			if (population > 0) {
+				r0 = nr0;
+				r1 = nr1;
+				g0 = ng0;
+				g1 = ng1;
+				b0 = nb0;
+				b1 = nb1;
+			}
+
+			return this;
+		}
+
+		/**
+		 * Check if the box holds more than one bucket.
+		 *
+		 * @return If the box can be split.
+		 */
+		public boolean isSplittable() {
+			return r0 != r1 || g0 != g1 || b0 != b1;
+		}
+
+		/**
+		 * Split the box at the median of its longest side.
+		 *
+		 * @return The upper half, this box becomes the lower half.
+		 */
+		public Box split() {
+			int lengthR = r1 - r0, lengthG = g1 - g0, lengthB = b1 - b0;
+			int channel = lengthR >= lengthG && lengthR >= lengthB ? 0 : lengthG >= lengthB ? 1 : 2;
+
+			int lo = channel == 0 ? r0 : channel == 1 ? g0 : b0;
+			int hi = channel == 0 ? r1 : channel == 1 ? g1 : b1;
+
+			// Find the plane at which half of the pixels are below
+			long below = 0;
+			int cut = lo;
+
+			for (int plane = lo; plane < hi; plane++) {
+				below += countPlane(channel, plane);
+				cut = plane;
+
+				if (below * 2 >= population) {
+					break;
+				}
+			}
+
+			Box upper = new Box(counts, r0, r1, g0, g1, b0, b1);
+
+			if (channel == 0) {
+				r1 = cut;
+				upper.r0 = cut + 1;
+			} else if (channel == 1) {
+				g1 = cut;
+				upper.g0 = cut + 1;
+			} else {
+				b1 = cut;
+				upper.b0 = cut + 1;
+			}
+
+			shrink();
+			return upper.shrink();
+		}
+
+		/**
+		 * Count the pixels in one plane of the box.
+		 *
+		 * @param channel The channel the plane is perpendicular to.
+		 * @param plane The plane.
+		 * @return The pixel count.
+		 */
+		private long countPlane(int channel, int plane) {
+			long total = 0;
+
+			for (int r = channel == 0 ? plane : r0; r <= (channel == 0 ? plane : r1); r++) {
+				for (int g = channel == 1 ? plane : g0; g <= (channel == 1 ? plane : g1); g++) {
+					for (int b = channel == 2 ? plane : b0; b <= (channel == 2 ? plane : b1); b++) {
+						total += counts[(r << 10) | (g << 5) | b];
+					}
+				}
+			}
+
+			return total;
+		}
+
+		/**
+		 * Calculate the average color of the pixels in the box, and map its buckets to a palette entry.
+		 *
+		 * @param sums The channel sums of each bucket.
+		 * @param lookup The palette index of each bucket.
+		 * @param index The palette index of this box.
+		 * @return The RGB color.
+		 */
+		public int average(long[] sums, int[] lookup, int index) {
+			long r = 0, g = 0, b = 0;
+
+			for (int cr = r0; cr <= r1; cr++) {
+				for (int cg = g0; cg <= g1; cg++) {
+					for (int cb = b0; cb <= b1; cb++) {
+						int bucket = (cr << 10) | (cg << 5) | cb;
+
+						lookup[bucket] = index;
+						r += sums[bucket * 3];
+						g += sums[bucket * 3 + 1];
+						b += sums[bucket * 3 + 2];
+					}
+				}
+			}
+
+			if (population == 0) {
+				return 0;
+			}
+
+			return (int) (r / population) << 16 | (int) (g / population) << 8 | (int) (b / population);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package org.nikkii.rs07.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count which only goes up.
+ *
+ * @author Nikki
+ */
+public class Counter {
+
+	/**
+	 * The count.
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Add one to the count.
+	 */
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Add to the count.
+	 *
+	 * @param amount The amount to add.
+	 */
+	public void add(long amount) {
+		count.addAndGet(amount);
+	}
+
+	/**
+	 * Get the count.
+	 *
+	 * @return The count.
+	 */
+	public long get() {
+		return count.get();
+	}
+}
@@ -0,0 +1,16 @@
+package org.nikkii.rs07.metrics;
+
+/**
+ * A value which is read when the metrics are, such as the depth of a queue.
+ *
+ * @author Nikki
+ */
+public interface Gauge {
+
+	/**
+	 * Get the current value.
+	 *
+	 * @return The value.
+	 */
+	public long getValue();
+}
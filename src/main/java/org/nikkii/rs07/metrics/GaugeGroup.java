@@ -0,0 +1,18 @@
+package org.nikkii.rs07.metrics;
+
+import java.util.Map;
+
+/**
+ * Gauges whose names are only known when they are read, such as the count of each HTTP status code seen so far.
+ *
+ * @author Nikki
+ */
+public interface GaugeGroup {
+
+	/**
+	 * Get the current values.
+	 *
+	 * @return The values, keyed by name within the group.
+	 */
+	public Map<String, Long> getValues();
+}
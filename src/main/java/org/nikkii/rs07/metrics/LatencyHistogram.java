@@ -0,0 +1,236 @@
+package org.nikkii.rs07.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in microseconds, which can be recorded into from any number of threads without locking.
+ *
+ * Like HdrHistogram, the buckets are log-linear: every power of two is split into 32 buckets of equal width, so a
+ * value is off by at most about 3% whatever its magnitude, and latencies from a microsecond to a few days fit in
+ * about a thousand counters. Recording a value is a few atomic increments.
+ *
+ * @author Nikki
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The number of bits of a value which pick the bucket within its power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * The number of buckets each power of two is split into.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The largest value which can be recorded, larger values are recorded as this. About 25 days.
+	 */
+	static final long MAX_VALUE = (1L << 41) - 1;
+
+	/**
+	 * The count of each bucket.
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+
+	/**
+	 * The number of recorded values.
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * The sum of the recorded values.
+	 */
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * The largest recorded value.
+	 */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record the time since an operation started.
+	 *
+	 * @param start The time the operation started, from {@link System#nanoTime()}.
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record a latency.
+	 *
+	 * @param duration The latency.
+	 * @param unit The unit of the latency.
+	 */
+	public void record(long duration, TimeUnit unit) {
+		long value = Math.min(Math.max(unit.toMicros(duration), 0), MAX_VALUE);
+
+		buckets.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long current;
+
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of recorded values.
+	 *
+	 * @return The count.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Take a snapshot of the histogram, to read its percentiles. Values recorded while the snapshot is taken may or
+	 * may not be included.
+	 *
+	 * @return The snapshot.
+	 */
+	public Snapshot getSnapshot() {
+		long[] counts = new long[buckets.length()];
+
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+		}
+
+		return new Snapshot(counts, count.get(), sum.get(), max.get());
+	}
+
+	/**
+	 * Get the bucket of a value.
+	 *
+	 * @param value The value.
+	 * @return The bucket index.
+	 */
+	static int indexOf(long value) {
+		// Values below twice the bucket count have buckets of their own, above that the low bits are dropped
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	/**
+	 * Get the largest value which falls in a bucket.
+	 *
+	 * @param index The bucket index.
+	 * @return The value.
+	 */
+	static long highestValue(int index) {
+		if (index < SUB_BUCKETS * 2) {
+			return index;
+		}
+
+		int shift = (index >> SUB_BUCKET_BITS) - 1;
+
+		return ((long) (index - (shift << SUB_BUCKET_BITS)) << shift) + (1L << shift) - 1;
+	}
+
+	/**
+	 * The values of a histogram at one point in time.
+	 */
+	public static final class Snapshot {
+		/**
+		 * The count of each bucket.
+		 */
+		private final long[] counts;
+
+		/**
+		 * The number of values.
+		 */
+		private final long count;
+
+		/**
+		 * The sum of the values.
+		 */
+		private final long sum;
+
+		/**
+		 * The largest value.
+		 */
+		private final long max;
+
+		private Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * Get the number of values.
+		 *
+		 * @return The count.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Get the sum of the values.
+		 *
+		 * @return The sum in microseconds.
+		 */
+		public long getSum() {
+			return sum;
+		}
+
+		/**
+		 * Get the mean value.
+		 *
+		 * @return The mean in microseconds, or 0 if nothing was recorded.
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * Get the largest value.
+		 *
+		 * @return The value in microseconds.
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Get the value below which a percentage of the values fall.
+		 *
+		 * @param percentile The percentage, from 0 to 100.
+		 * @return The value in microseconds, or 0 if nothing was recorded.
+		 */
+		public long getPercentile(double percentile) {
+			long total = 0;
+
+			for (long bucket : counts) {
+				total += bucket;
+			}
+
+			if (total == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+			long seen = 0;
+
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+
+				if (seen >= rank) {
+					return Math.min(highestValue(i), max);
+				}
+			}
+
+			return max;
+		}
+	}
+}
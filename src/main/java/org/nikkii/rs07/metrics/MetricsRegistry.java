@@ -0,0 +1,384 @@
+package org.nikkii.rs07.metrics;
+
+import com.google.gson.Gson;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the counters, gauges and latency histograms of the tracker, by name.
+ *
+ * Metrics are created on first use and live as long as the registry. Recording is lock-free; reading builds a
+ * snapshot, so it is only done by whoever looks at the metrics. The registry is exposed through JMX as a single MBean
+ * whose attributes are the metric values, and can be written to a JSON file.
+ *
+ * @author Nikki
+ */
+public class MetricsRegistry implements DynamicMBean {
+
+	/**
+	 * The percentiles reported for each histogram.
+	 */
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	/**
+	 * The names the percentiles are reported as.
+	 */
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	/**
+	 * The percentiles as Prometheus quantile labels.
+	 */
+	private static final String[] QUANTILE_LABELS = { "0.5", "0.9", "0.99", "0.999" };
+
+	/**
+	 * The counters, keyed by name.
+	 */
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * The gauges, keyed by name.
+	 */
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+	/**
+	 * The gauge groups, keyed by the prefix of their gauge names.
+	 */
+	private final ConcurrentMap<String, GaugeGroup> groups = new ConcurrentHashMap<>();
+
+	/**
+	 * The histograms, keyed by name.
+	 */
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+	/**
+	 * The name the registry was registered under with JMX, or null.
+	 */
+	private ObjectName objectName;
+
+	/**
+	 * Get a counter, creating it if it doesn't exist yet.
+	 *
+	 * @param name The counter name.
+	 * @return The counter.
+	 */
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+
+		if (counter == null) {
+			Counter existing = counters.putIfAbsent(name, counter = new Counter());
+
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+
+		return counter;
+	}
+
+	/**
+	 * Get a latency histogram, creating it if it doesn't exist yet.
+	 *
+	 * @param name The histogram name.
+	 * @return The histogram.
+	 */
+	public LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = histograms.get(name);
+
+		if (histogram == null) {
+			LatencyHistogram existing = histograms.putIfAbsent(name, histogram = new LatencyHistogram());
+
+			if (existing != null) {
+				histogram = existing;
+			}
+		}
+
+		return histogram;
+	}
+
+	/**
+	 * Register a gauge, replacing any gauge of the same name.
+	 *
+	 * @param name The gauge name.
+	 * @param gauge The gauge.
+	 */
+	public void gauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Register a group of gauges, named by a prefix followed by their name within the group.
+	 *
+	 * @param prefix The prefix of the gauge names, including any separator.
+	 * @param group The gauges.
+	 */
+	public void gauges(String prefix, GaugeGroup group) {
+		groups.put(prefix, group);
+	}
+
+	/**
+	 * Get every metric value, with the counters and gauges by name, and the histograms as their count, mean,
+	 * percentiles and maximum in microseconds, named after the histogram followed by .count, .mean, .p50 and so on.
+	 *
+	 * @return The values, sorted by name.
+	 */
+	public Map<String, Number> getValues() {
+		Map<String, Number> values = new TreeMap<>();
+
+		values.putAll(getCounterValues());
+		values.putAll(getGaugeValues());
+
+		for (Map.Entry<String, Map<String, Number>> histogram : getHistogramValues().entrySet()) {
+			for (Map.Entry<String, Number> value : histogram.getValue().entrySet()) {
+				values.put(histogram.getKey() + "." + value.getKey(), value.getValue());
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Write the metrics to a JSON file, replacing the file so a reader never sees it half written.
+	 *
+	 * @param file The file.
+	 * @param gson The Gson instance.
+	 * @throws IOException If an error occurs while writing the file.
+	 */
+	public void writeTo(File file, Gson gson) throws IOException {
+		Map<String, Object> snapshot = new LinkedHashMap<>();
+
+		snapshot.put("time", System.currentTimeMillis());
+		snapshot.put("counters", getCounterValues());
+		snapshot.put("gauges", getGaugeValues());
+		snapshot.put("histograms", getHistogramValues());
+
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+		try (Writer writer = new FileWriter(temp)) {
+			gson.toJson(snapshot, writer);
+		}
+
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Write the metrics in the Prometheus text format. Counters get a _total suffix, and histograms are written as
+	 * summaries in seconds.
+	 *
+	 * @param out The output.
+	 * @param prefix The prefix of every metric name, such as "rslog_".
+	 * @throws IOException If an error occurs while writing.
+	 */
+	public void writePrometheus(Appendable out, String prefix) throws IOException {
+		for (Map.Entry<String, Number> counter : getCounterValues().entrySet()) {
+			String name = prometheusName(prefix, counter.getKey()) + "_total";
+
+			out.append("# TYPE ").append(name).append(" counter\n");
+			out.append(name).append(' ').append(String.valueOf(counter.getValue())).append('\n');
+		}
+
+		for (Map.Entry<String, Number> gauge : getGaugeValues().entrySet()) {
+			String name = prometheusName(prefix, gauge.getKey());
+
+			out.append("# TYPE ").append(name).append(" gauge\n");
+			out.append(name).append(' ').append(String.valueOf(gauge.getValue())).append('\n');
+		}
+
+		for (Map.Entry<String, LatencyHistogram> histogram : new TreeMap<>(histograms).entrySet()) {
+			LatencyHistogram.Snapshot snapshot = histogram.getValue().getSnapshot();
+			String name = prometheusName(prefix, histogram.getKey()) + "_seconds";
+
+			out.append("# TYPE ").append(name).append(" summary\n");
+
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				out.append(name).append("{quantile=\"").append(QUANTILE_LABELS[i]).append("\"} ")
+					.append(String.valueOf(snapshot.getPercentile(PERCENTILES[i]) / 1e6)).append('\n');
+			}
+
+			out.append(name).append("_sum ").append(String.valueOf(snapshot.getSum() / 1e6)).append('\n');
+			out.append(name).append("_count ").append(String.valueOf(snapshot.getCount())).append('\n');
+		}
+	}
+
+	/**
+	 * Register the registry with the platform MBean server.
+	 *
+	 * @param name The object name, such as "org.nikkii.rs07:type=Metrics".
+	 * @throws JMException If the name is invalid or already registered.
+	 */
+	public synchronized void registerMBean(String name) throws JMException {
+		objectName = ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name)).getObjectName();
+	}
+
+	/**
+	 * Unregister the registry from the platform MBean server, if it was registered.
+	 *
+	 * @throws JMException If the registry could not be unregistered.
+	 */
+	public synchronized void unregisterMBean() throws JMException {
+		if (objectName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Number value = getValues().get(attribute);
+
+		if (value == null) {
+			throw new AttributeNotFoundException("No metric named " + attribute);
+		}
+
+		return value;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Number> values = getValues();
+		AttributeList list = new AttributeList();
+
+		for (String attribute : attributes) {
+			if (values.containsKey(attribute)) {
+				list.add(new Attribute(attribute, values.get(attribute)));
+			}
+		}
+
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+		throw new MBeanException(new UnsupportedOperationException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		// Gauge groups and new metrics add attributes over time, so the info is built from the current values
+		Map<String, Number> values = getValues();
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+		int i = 0;
+
+		for (Map.Entry<String, Number> value : values.entrySet()) {
+			attributes[i++] = new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(), value.getKey(),
+				true, false, false);
+		}
+
+		return new MBeanInfo(getClass().getName(), "RSLog tracker metrics", attributes, null,
+			new MBeanOperationInfo[0], null);
+	}
+
+	/**
+	 * Turn a metric name into a valid Prometheus metric name.
+	 *
+	 * @param prefix The prefix.
+	 * @param name The metric name.
+	 * @return The Prometheus name, with every character which isn't a letter, digit or underscore replaced.
+	 */
+	private static String prometheusName(String prefix, String name) {
+		StringBuilder builder = new StringBuilder(prefix.length() + name.length());
+
+		builder.append(prefix);
+
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+
+			builder.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ? c : '_');
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Get the counter values.
+	 *
+	 * @return The values, sorted by name.
+	 */
+	private Map<String, Number> getCounterValues() {
+		Map<String, Number> values = new TreeMap<>();
+
+		for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+			values.put(counter.getKey(), counter.getValue().get());
+		}
+
+		return values;
+	}
+
+	/**
+	 * Get the gauge values, including those of the gauge groups.
+	 *
+	 * @return The values, sorted by name.
+	 */
+	private Map<String, Number> getGaugeValues() {
+		Map<String, Number> values = new TreeMap<>();
+
+		for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+			values.put(gauge.getKey(), gauge.getValue().getValue());
+		}
+
+		for (Map.Entry<String, GaugeGroup> group : groups.entrySet()) {
+			for (Map.Entry<String, Long> gauge : group.getValue().getValues().entrySet()) {
+				values.put(group.getKey() + gauge.getKey(), gauge.getValue());
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Get the count, mean, percentiles and maximum of each histogram.
+	 *
+	 * @return The values of each histogram, sorted by histogram name.
+	 */
+	private Map<String, Map<String, Number>> getHistogramValues() {
+		Map<String, Map<String, Number>> values = new TreeMap<>();
+
+		for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+			LatencyHistogram.Snapshot snapshot = histogram.getValue().getSnapshot();
+			Map<String, Number> summary = new LinkedHashMap<>();
+
+			summary.put("count", snapshot.getCount());
+			summary.put("mean", Math.round(snapshot.getMean()));
+
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				summary.put(PERCENTILE_NAMES[i], snapshot.getPercentile(PERCENTILES[i]));
+			}
+
+			summary.put("max", snapshot.getMax());
+
+			values.put(histogram.getKey(), summary);
+		}
+
+		return values;
+	}
+}
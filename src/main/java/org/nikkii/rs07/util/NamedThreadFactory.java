@@ -0,0 +1,35 @@
+package org.nikkii.rs07.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread factory which gives its threads a numbered name.
+ *
+ * @author Nikki
+ */
+public class NamedThreadFactory implements ThreadFactory {
+	/**
+	 * The thread name prefix.
+	 */
+	private final String name;
+
+	/**
+	 * The thread counter.
+	 */
+	private final AtomicInteger counter = new AtomicInteger();
+
+	/**
+	 * Construct a new thread factory.
+	 *
+	 * @param name The thread name prefix.
+	 */
+	public NamedThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		return new Thread(runnable, name + "-" + counter.incrementAndGet());
+	}
+}
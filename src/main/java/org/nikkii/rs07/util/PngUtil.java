@@ -0,0 +1,71 @@
+package org.nikkii.rs07.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Contains cheap checks on PNG files which don't require decoding them.
+ *
+ * @author Nikki
+ */
+public class PngUtil {
+	/**
+	 * The PNG file signature.
+	 */
+	private static final byte[] SIGNATURE = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+	/**
+	 * The IEND chunk which ends every PNG file: zero length, type and CRC.
+	 */
+	private static final byte[] IEND = new byte[]{0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xae, 0x42, 0x60, (byte) 0x82};
+
+	/**
+	 * Check if a file starts with the PNG signature.
+	 *
+	 * @param file The file.
+	 * @return If the file is a PNG file.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	public static boolean isPng(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			return raf.length() >= SIGNATURE.length && matches(raf, 0, SIGNATURE);
+		}
+	}
+
+	/**
+	 * Check if a PNG file has been completely written, by reading the signature and the trailing IEND chunk.
+	 *
+	 * @param file The file.
+	 * @return If the file is a complete PNG file.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	public static boolean isComplete(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			long length = raf.length();
+
+			return length >= SIGNATURE.length + IEND.length
+				&& matches(raf, 0, SIGNATURE)
+				&& matches(raf, length - IEND.length, IEND);
+		}
+	}
+
+	/**
+	 * Check if the bytes at a position of a file match.
+	 *
+	 * @param raf The file.
+	 * @param position The position to read from.
+	 * @param expected The expected bytes.
+	 * @return If the bytes match.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	private static boolean matches(RandomAccessFile raf, long position, byte[] expected) throws IOException {
+		byte[] bytes = new byte[expected.length];
+
+		raf.seek(position);
+		raf.readFully(bytes);
+
+		return Arrays.equals(bytes, expected);
+	}
+}
@@ -0,0 +1,49 @@
+package org.nikkii.rs07.util;
+
+import java.util.logging.LogManager;
+
+/**
+ * A log manager which keeps logging while the application shuts down.
+ *
+ * The default log manager resets itself, closing every handler, from its own shutdown hook. Shutdown hooks run in
+ * parallel, so anything logged by another hook is usually lost. This one ignores that reset until
+ * {@link #resetFinally()} is called once the application is done.
+ *
+ * It is installed by setting the java.util.logging.manager system property before the first logger is created.
+ *
+ * @author Nikki
+ */
+public class ShutdownLogManager extends LogManager {
+
+	/**
+	 * Whether the application finished shutting down.
+	 */
+	private volatile boolean finished;
+
+	@Override
+	public void reset() {
+		if (finished) {
+			super.reset();
+		}
+	}
+
+	/**
+	 * Reset the log manager, flushing and closing the handlers, once nothing is left to log.
+	 */
+	public void resetFinally() {
+		finished = true;
+		super.reset();
+	}
+
+	/**
+	 * Reset the log manager if it is a shutdown log manager, which it isn't if a logger was created before it was
+	 * installed.
+	 */
+	public static void finish() {
+		LogManager manager = LogManager.getLogManager();
+
+		if (manager instanceof ShutdownLogManager) {
+			((ShutdownLogManager) manager).resetFinally();
+		}
+	}
+}
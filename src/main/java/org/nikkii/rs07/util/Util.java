@@ -1,6 +1,10 @@
 package org.nikkii.rs07.util;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
  * Contains basic platform and jar utils.
@@ -70,6 +74,31 @@ public class Util {
 		return null;
 	}
 
+	/**
+	 * Get the resident memory of this process, which is only known on Linux
+	 *
+	 * @return
+	 * 		The resident set size in bytes, or -1 if it is unknown
+	 */
+	public static long getResidentMemory() {
+		if (SYSTEM != OperatingSystem.LINUX) {
+			return -1;
+		}
+
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+				if (line.startsWith("VmRSS:")) {
+					// Such as "VmRSS:	   52340 kB"
+					return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// Not mounted or an unexpected format
+		}
+
+		return -1;
+	}
+
 	/**
 	 * Get the jar running from as a File object
 	 *
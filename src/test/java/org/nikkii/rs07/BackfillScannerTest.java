@@ -0,0 +1,210 @@
+package org.nikkii.rs07;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the high-water marks of the backfill scanner, with the tracker replaced by fixed results.
+ *
+ * @author Nikki
+ */
+public class BackfillScannerTest {
+
+	/**
+	 * The modification time of the first screenshot, files are a second apart.
+	 */
+	private static final long BASE_TIME = 1450000000000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Gson gson = new Gson();
+
+	@Test
+	public void markStopsAtTheFirstPendingFile() throws IOException {
+		File marks = folder.newFile("backfill.json");
+		File directory = screenshots("a", "b", "c", "d");
+
+		FakeScanner scanner = new FakeScanner(marks);
+		scanner.results.put("a", BackfillScanner.Result.NEW_EVENT);
+		scanner.results.put("b", BackfillScanner.Result.SKIPPED);
+		scanner.results.put("c", BackfillScanner.Result.PENDING);
+		scanner.results.put("d", BackfillScanner.Result.NEW_EVENT);
+		scanner.scanDirectory(directory);
+		scanner.close();
+
+		assertEquals(Arrays.asList("a", "b", "c", "d"), scanner.handled);
+		assertEquals(time(1), mark(marks, directory));
+
+		// The file at the mark is read again, the event index drops its duplicate
+		FakeScanner next = new FakeScanner(marks);
+		next.scanDirectory(directory);
+		next.close();
+
+		assertEquals(Arrays.asList("b", "c", "d"), next.handled);
+		assertEquals(time(3), mark(marks, directory));
+	}
+
+	@Test
+	public void markStopsAtTheFirstFailedFile() throws IOException {
+		File marks = folder.newFile("backfill.json");
+		File directory = screenshots("a", "b", "c");
+
+		FakeScanner scanner = new FakeScanner(marks);
+		scanner.results.put("b", BackfillScanner.Result.FAILED);
+		scanner.scanDirectory(directory);
+
+		assertEquals(time(0), mark(marks, directory));
+
+		// A failed scan doesn't let new screenshots move the mark past the failed file
+		scanner.advance(directory, new File(directory, "c"));
+		scanner.close();
+
+		assertEquals(time(0), mark(marks, directory));
+	}
+
+	@Test
+	public void liveScreenshotsOnlyAdvanceScannedDirectories() throws IOException {
+		File marks = folder.newFile("backfill.json");
+		File directory = screenshots("a", "b");
+		File later = screenshot(directory, "later", 5);
+
+		FakeScanner scanner = new FakeScanner(marks);
+
+		// Not scanned yet, the mark is left for the scan to advance
+		scanner.advance(directory, later);
+		assertEquals(-1, mark(marks, directory));
+
+		scanner.results.put("later", BackfillScanner.Result.PENDING);
+		scanner.scanDirectory(directory);
+
+		assertEquals(time(1), mark(marks, directory));
+
+		// The pending screenshot settled and was handed to the tracker
+		scanner.advance(directory, later);
+		scanner.close();
+
+		assertEquals(time(5), mark(marks, directory));
+	}
+
+	@Test
+	public void markNeverMovesBack() throws IOException {
+		File marks = folder.newFile("backfill.json");
+		File directory = screenshots("a", "b", "c");
+
+		FakeScanner scanner = new FakeScanner(marks);
+		scanner.scanDirectory(directory);
+		scanner.advance(directory, new File(directory, "a"));
+		scanner.close();
+
+		assertEquals(time(2), mark(marks, directory));
+	}
+
+	@Test
+	public void historyIsOnlyScannedWhenRequested() throws IOException {
+		File directory = screenshots("old");
+		File recent = screenshot(directory, "recent", 0);
+
+		assertTrue(recent.setLastModified(System.currentTimeMillis() + 60000));
+
+		FakeScanner scanner = new FakeScanner(folder.newFile("backfill.json"), false);
+		scanner.scanDirectory(directory);
+		scanner.close();
+
+		assertEquals(Arrays.asList("recent"), scanner.handled);
+
+		FakeScanner history = new FakeScanner(folder.newFile("history.json"), true);
+		history.scanDirectory(directory);
+		history.close();
+
+		assertEquals(Arrays.asList("old", "recent"), history.handled);
+	}
+
+	/**
+	 * Create a display name directory of screenshots, a second apart in the given order.
+	 *
+	 * @param names The file names.
+	 * @return The directory.
+	 */
+	private File screenshots(String... names) throws IOException {
+		File directory = folder.newFolder();
+
+		for (int i = 0; i < names.length; i++) {
+			screenshot(directory, names[i], i);
+		}
+
+		return directory;
+	}
+
+	private File screenshot(File directory, String name, int index) throws IOException {
+		File file = new File(directory, name);
+
+		assertTrue(file.createNewFile() && file.setLastModified(time(index)));
+
+		return file;
+	}
+
+	private static long time(int index) {
+		return BASE_TIME + index * 1000L;
+	}
+
+	/**
+	 * Read a directory's mark from the stored marks.
+	 *
+	 * @param marks The file the marks are stored in.
+	 * @param directory The directory.
+	 * @return The mark, or -1 if the directory has none.
+	 */
+	private static long mark(File marks, File directory) throws IOException {
+		try (Reader reader = new FileReader(marks)) {
+			JsonObject state = new JsonParser().parse(reader).getAsJsonObject();
+			JsonElement mark = state.getAsJsonObject("marks").get(directory.getAbsolutePath());
+
+			return mark != null ? mark.getAsLong() : -1;
+		}
+	}
+
+	/**
+	 * A scanner which records the screenshots it hands over, and answers with a fixed result for each.
+	 */
+	private class FakeScanner extends BackfillScanner {
+		private final Map<String, Result> results = new HashMap<>();
+
+		private final List<String> handled = new ArrayList<>();
+
+		public FakeScanner(File file) throws IOException {
+			this(file, true);
+		}
+
+		public FakeScanner(File file, boolean history) throws IOException {
+			super(null, file, gson, 1, history);
+		}
+
+		@Override
+		Result handle(File directory, File file) {
+			handled.add(file.getName());
+
+			Result result = results.get(file.getName());
+
+			return result != null ? result : Result.SKIPPED;
+		}
+	}
+}
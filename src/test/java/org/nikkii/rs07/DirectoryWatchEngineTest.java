@@ -0,0 +1,197 @@
+package org.nikkii.rs07;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.WatchEvent;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests dispatching the events of several directories watched by a single engine to their own listeners.
+ *
+ * @author Nikki
+ */
+public class DirectoryWatchEngineTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private DirectoryWatchEngine engine;
+
+	private Thread thread;
+
+	@Before
+	public void startEngine() throws IOException {
+		engine = new DirectoryWatchEngine();
+		thread = new Thread(engine, "watch-engine");
+		thread.start();
+	}
+
+	@After
+	public void stopEngine() throws Exception {
+		engine.close();
+		thread.join(5000);
+	}
+
+	@Test
+	public void eachListenerOnlyReceivesItsOwnEvents() throws Exception {
+		File alice = folder.newFolder("Alice");
+		File bob = folder.newFolder("Bob");
+		RecordingListener aliceListener = new RecordingListener();
+		RecordingListener bobListener = new RecordingListener();
+
+		assertTrue(engine.register(alice, aliceListener, ENTRY_CREATE));
+		assertTrue(engine.register(bob, bobListener, ENTRY_CREATE));
+
+		Set<File> aliceFiles = new HashSet<>(), bobFiles = new HashSet<>();
+
+		for (int i = 0; i < 10; i++) {
+			aliceFiles.add(create(alice, "Attack Level (" + i + ").png"));
+			bobFiles.add(create(bob, "Magic Level (" + i + ").png"));
+		}
+
+		assertEquals(aliceFiles, aliceListener.take(aliceFiles.size()));
+		assertEquals(bobFiles, bobListener.take(bobFiles.size()));
+
+		assertNull(aliceListener.files.poll(200, TimeUnit.MILLISECONDS));
+		assertNull(bobListener.files.poll(0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void directoryIsOnlyRegisteredOnce() throws IOException {
+		File alice = folder.newFolder("Alice");
+
+		assertFalse(engine.isWatching(alice));
+		assertTrue(engine.register(alice, new RecordingListener(), ENTRY_CREATE));
+		assertFalse(engine.register(new File(alice, "../Alice"), new RecordingListener(), ENTRY_CREATE));
+		assertTrue(engine.isWatching(alice));
+		assertEquals(1, engine.getWatchedDirectories().size());
+	}
+
+	@Test
+	public void unregisteredDirectoryIsNoLongerWatched() throws Exception {
+		File alice = folder.newFolder("Alice");
+		File bob = folder.newFolder("Bob");
+		RecordingListener aliceListener = new RecordingListener();
+		RecordingListener bobListener = new RecordingListener();
+
+		engine.register(alice, aliceListener, ENTRY_CREATE);
+		engine.register(bob, bobListener, ENTRY_CREATE);
+		engine.unregister(alice);
+
+		assertFalse(engine.isWatching(alice));
+
+		create(alice, "a.png");
+		File file = create(bob, "b.png");
+
+		assertEquals(file, bobListener.files.poll(5, TimeUnit.SECONDS));
+		assertNull(aliceListener.files.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void failingListenerDoesNotStopTheEngine() throws Exception {
+		File alice = folder.newFolder("Alice");
+		File bob = folder.newFolder("Bob");
+		RecordingListener bobListener = new RecordingListener();
+
+		engine.register(alice, new RecordingListener() {
+			@Override
+			public void fileEvent(WatchEvent.Kind<?> kind, File file) throws IOException {
+				throw new IOException("Unable to handle " + file.getName());
+			}
+		}, ENTRY_CREATE);
+		engine.register(bob, bobListener, ENTRY_CREATE);
+
+		create(alice, "a.png");
+		Thread.sleep(100);
+		File file = create(bob, "b.png");
+
+		assertEquals(file, bobListener.files.poll(5, TimeUnit.SECONDS));
+		assertTrue(thread.isAlive());
+	}
+
+	@Test
+	public void removedDirectoryIsUnregistered() throws Exception {
+		File alice = folder.newFolder("Alice");
+
+		engine.register(alice, new RecordingListener(), ENTRY_CREATE);
+		assertTrue(alice.delete());
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+		while (engine.isWatching(alice) && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertFalse(engine.isWatching(alice));
+	}
+
+	@Test
+	public void closingStopsTheThread() throws Exception {
+		engine.close();
+		thread.join(5000);
+
+		assertFalse(thread.isAlive());
+	}
+
+	private static File create(File directory, String name) throws IOException {
+		File file = new File(directory, name);
+
+		assertTrue(file.createNewFile());
+
+		return file;
+	}
+
+	/**
+	 * Records the files of the events it receives.
+	 */
+	private static class RecordingListener implements DirectoryListener {
+		private final BlockingQueue<File> files = new LinkedBlockingQueue<>();
+
+		@Override
+		public void fileEvent(WatchEvent.Kind<?> kind, File file) throws IOException {
+			assertEquals(ENTRY_CREATE, kind);
+			files.add(file);
+		}
+
+		@Override
+		public void overflow() {
+			throw new AssertionError("Events overflowed");
+		}
+
+		/**
+		 * Wait for a number of events.
+		 *
+		 * @param count The number of events.
+		 * @return The files of the events.
+		 */
+		private Set<File> take(int count) throws InterruptedException {
+			Set<File> taken = new HashSet<>();
+
+			for (int i = 0; i < count; i++) {
+				File file = files.poll(5, TimeUnit.SECONDS);
+
+				assertNotNull(file);
+				taken.add(file);
+			}
+
+			return taken;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.nikkii.rs07;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the event index and the recovery of its journal.
+ *
+ * @author Nikki
+ */
+public class EventIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void keysSurviveReload() throws IOException {
+		File file = folder.newFile("events.idx");
+
+		try (EventIndex index = new EventIndex(file, 100, 0)) {
+			assertTrue(index.add(1));
+			assertTrue(index.add(2));
+			assertFalse(index.add(2));
+			index.remove(1);
+		}
+
+		try (EventIndex index = new EventIndex(file, 100, 0)) {
+			assertFalse(index.contains(1));
+			assertTrue(index.contains(2));
+			assertEquals(1, index.size());
+		}
+	}
+
+	@Test
+	public void tornRecordIsDiscarded() throws IOException {
+		File file = folder.newFile("events.idx");
+
+		try (EventIndex index = new EventIndex(file, 100, 0)) {
+			index.add(1);
+			index.add(2);
+		}
+
+		// A crash halfway through writing the third record
+		try (OutputStream output = new FileOutputStream(file, true)) {
+			output.write(new byte[] { 1, 2, 3, 4, 5 });
+		}
+
+		try (EventIndex index = new EventIndex(file, 100, 0)) {
+			assertEquals(2, index.size());
+			index.add(3);
+			index.add(4);
+		}
+
+		assertEquals(0, file.length() % 16);
+
+		try (EventIndex index = new EventIndex(file, 100, 0)) {
+			assertEquals(4, index.size());
+
+			for (long key = 1; key <= 4; key++) {
+				assertTrue("key " + key, index.contains(key));
+			}
+		}
+	}
+
+	@Test
+	public void oldestKeysAreEvictedWhenFull() throws IOException {
+		File file = folder.newFile("events.idx");
+
+		try (EventIndex index = new EventIndex(file, 2, 0)) {
+			index.add(1);
+			index.add(2);
+			index.add(3);
+
+			assertFalse(index.contains(1));
+			assertTrue(index.contains(2));
+			assertTrue(index.contains(3));
+		}
+
+		try (EventIndex index = new EventIndex(file, 2, 0)) {
+			assertEquals(2, index.size());
+			assertFalse(index.contains(1));
+		}
+	}
+
+	@Test
+	public void zeroKeyIsStored() throws IOException {
+		try (EventIndex index = new EventIndex(folder.newFile("events.idx"), 10, 0)) {
+			assertTrue(index.add(0));
+			assertTrue(index.contains(0));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void capacityMustBePositive() throws IOException {
+		new EventIndex(folder.newFile("events.idx"), 0, 0);
+	}
+}
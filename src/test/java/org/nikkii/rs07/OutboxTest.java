@@ -0,0 +1,109 @@
+package org.nikkii.rs07;
+
+import com.google.gson.Gson;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nikkii.rs07.event.LevelUpEvent;
+import org.nikkii.rs07.event.OSBuddyEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the outbox journal: replaying pending events after a restart, and compacting segments.
+ *
+ * @author Nikki
+ */
+public class OutboxTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Gson gson = new Gson();
+
+	@Test
+	public void pendingEventsAreReplayedInOrder() throws IOException, InterruptedException {
+		File directory = folder.newFolder("outbox");
+
+		try (Outbox outbox = new Outbox(directory, gson)) {
+			outbox.append(event("Alice", 2));
+			outbox.append(event("Bob", 3));
+			outbox.append(event("Carol", 4));
+
+			outbox.acknowledge(outbox.take());
+			// Released events stay in the journal
+			outbox.release(outbox.take());
+		}
+
+		try (Outbox outbox = new Outbox(directory, gson)) {
+			assertEquals(2, outbox.getPendingCount());
+			assertEquals(2, outbox.getUnsentCount());
+
+			LevelUpEvent bob = (LevelUpEvent) outbox.take();
+			LevelUpEvent carol = (LevelUpEvent) outbox.take();
+
+			assertEquals("Bob", bob.getDisplayName());
+			assertEquals(3, bob.getLevel());
+			assertEquals("Carol", carol.getDisplayName());
+			assertEquals(event("Carol", 4).getKey(), carol.getKey());
+		}
+	}
+
+	@Test
+	public void compactionKeepsEveryPendingEventOnce() throws IOException, InterruptedException {
+		File directory = folder.newFolder("outbox");
+		Set<String> kept = new HashSet<>();
+
+		try (Outbox outbox = new Outbox(directory, gson)) {
+			// About 100 KB each, so the events are spread over several segments
+			List<OSBuddyEvent> events = new ArrayList<>();
+
+			for (int i = 0; i < 40; i++) {
+				OSBuddyEvent event = event(name(i), 2);
+				outbox.append(event);
+				events.add(outbox.take());
+			}
+
+			for (int i = 0; i < events.size(); i++) {
+				if (i % 10 == 3) {
+					kept.add(events.get(i).getDisplayName());
+					outbox.release(events.get(i));
+				} else {
+					outbox.acknowledge(events.get(i));
+				}
+			}
+
+			assertEquals(kept.size(), outbox.getPendingCount());
+		}
+
+		try (Outbox outbox = new Outbox(directory, gson)) {
+			assertEquals(kept.size(), outbox.getPendingCount());
+
+			Set<String> replayed = new HashSet<>();
+
+			for (int i = 0; i < kept.size(); i++) {
+				replayed.add(outbox.take().getDisplayName());
+			}
+
+			assertEquals(kept, replayed);
+		}
+	}
+
+	private static String name(int i) {
+		char[] padding = new char[100 * 1024];
+		Arrays.fill(padding, 'x');
+		return i + new String(padding);
+	}
+
+	private static LevelUpEvent event(String displayName, int level) {
+		return new LevelUpEvent(new File("Attack Level (" + level + ").png"), displayName, "Attack", level);
+	}
+}
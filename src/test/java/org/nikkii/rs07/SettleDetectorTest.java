@@ -0,0 +1,278 @@
+package org.nikkii.rs07;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nikkii.rs07.metrics.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests waiting for screenshots to settle: the quiet period, the IEND check of PNG files, the size and modification
+ * time check of other files, and giving up on files which never settle.
+ *
+ * @author Nikki
+ */
+public class SettleDetectorTest {
+
+	/**
+	 * The time between ticks of the wheel, in milliseconds.
+	 */
+	private static final long TICK = 20;
+
+	private static final long QUIET_PERIOD = 100;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final MetricsRegistry metrics = new MetricsRegistry();
+
+	/**
+	 * The files which settled, in order.
+	 */
+	private final BlockingQueue<Settled> settled = new LinkedBlockingQueue<>();
+
+	private SettleDetector detector;
+
+	@After
+	public void closeDetector() {
+		if (detector != null) {
+			detector.close();
+		}
+	}
+
+	@Test
+	public void onlyCompletePngsAreSettledAtOnce() throws IOException {
+		start(5000);
+
+		byte[] png = png();
+
+		assertTrue(detector.isSettled(write("complete.png", png)));
+		assertFalse(detector.isSettled(write("partial.png", Arrays.copyOf(png, png.length / 2))));
+		assertFalse(detector.isSettled(write("text.png", "not a png".getBytes("UTF-8"))));
+		assertFalse(detector.isSettled(write("empty.png", new byte[0])));
+	}
+
+	@Test
+	public void completePngSettlesAfterTheQuietPeriod() throws Exception {
+		start(5000);
+
+		File file = write("Attack Level (2).png", png());
+		long start = System.nanoTime();
+
+		assertTrue(detector.watch(folder.getRoot(), file));
+
+		Settled result = settled.poll(2, TimeUnit.SECONDS);
+
+		assertNotNull(result);
+		assertEquals(file, result.file);
+		assertEquals(folder.getRoot(), result.directory);
+		assertTrue(elapsed(start, result) >= QUIET_PERIOD - TICK);
+		assertEquals(0, detector.getPending());
+		assertEquals(1, metrics.histogram("stage.settle").getCount());
+	}
+
+	@Test
+	public void changesPushTheCheckBack() throws Exception {
+		start(5000);
+
+		File file = write("Attack Level (2).png", png());
+
+		assertTrue(detector.watch(folder.getRoot(), file));
+
+		long last = System.nanoTime();
+
+		// Changes every tick for three quiet periods, the file is only looked at once they stop
+		for (int i = 0; i < 3 * QUIET_PERIOD / TICK; i++) {
+			Thread.sleep(TICK);
+
+			assertFalse(detector.watch(folder.getRoot(), file));
+			last = System.nanoTime();
+
+			assertTrue(settled.isEmpty());
+		}
+
+		Settled result = settled.poll(2, TimeUnit.SECONDS);
+
+		assertNotNull(result);
+		assertTrue(elapsed(last, result) >= QUIET_PERIOD - TICK);
+		assertNull(settled.poll(3 * QUIET_PERIOD, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void pngSettlesOnceItsIEndChunkIsWritten() throws Exception {
+		start(5000);
+
+		byte[] png = png();
+		File file = write("Attack Level (2).png", Arrays.copyOf(png, png.length - 12));
+
+		detector.watch(folder.getRoot(), file);
+
+		assertNull(settled.poll(4 * QUIET_PERIOD, TimeUnit.MILLISECONDS));
+		assertEquals(1, detector.getPending());
+
+		try (OutputStream output = new FileOutputStream(file, true)) {
+			output.write(png, png.length - 12, 12);
+		}
+
+		assertNotNull(settled.poll(2, TimeUnit.SECONDS));
+		assertEquals(0, detector.getPending());
+	}
+
+	@Test
+	public void otherFilesNeedAStableSize() throws Exception {
+		start(5000);
+
+		File file = write("Attack Level (2).png", "not a png".getBytes("UTF-8"));
+		long start = System.nanoTime();
+
+		detector.watch(folder.getRoot(), file);
+
+		// The first check only records the size and modification time, the second one finds them unchanged
+		Settled result = settled.poll(2, TimeUnit.SECONDS);
+
+		assertNotNull(result);
+		assertTrue(elapsed(start, result) >= 2 * QUIET_PERIOD - TICK);
+	}
+
+	@Test
+	public void emptyFileIsGivenUpOn() throws Exception {
+		start(4 * QUIET_PERIOD);
+
+		File file = write("Attack Level (2).png", new byte[0]);
+
+		detector.watch(folder.getRoot(), file);
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+
+		while (detector.getPending() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(TICK);
+		}
+
+		assertEquals(0, detector.getPending());
+		assertTrue(settled.isEmpty());
+		assertEquals(1, metrics.counter("failures.settle").get());
+	}
+
+	@Test
+	public void removedFileIsGivenUpOn() throws Exception {
+		start(5000);
+
+		File file = write("Attack Level (2).png", png());
+
+		detector.watch(folder.getRoot(), file);
+		assertTrue(file.delete());
+
+		assertNull(settled.poll(3 * QUIET_PERIOD, TimeUnit.MILLISECONDS));
+		assertEquals(0, detector.getPending());
+		assertEquals(1, metrics.counter("failures.settle").get());
+	}
+
+	@Test
+	public void manyFilesSettleOnceEach() throws Exception {
+		start(5000);
+
+		byte[] png = png();
+		Set<File> files = new HashSet<>();
+
+		// Spread over a few dozen slots, with some slots holding several files
+		for (int i = 0; i < 200; i++) {
+			File file = write("Attack Level (" + i + ").png", png);
+
+			files.add(file);
+			detector.watch(folder.getRoot(), file);
+
+			if (i % 10 == 0) {
+				Thread.sleep(TICK);
+			}
+		}
+
+		Set<File> seen = new HashSet<>();
+
+		for (int i = 0; i < files.size(); i++) {
+			Settled result = settled.poll(2, TimeUnit.SECONDS);
+
+			assertNotNull(result);
+			assertTrue(result.file.getName(), seen.add(result.file));
+		}
+
+		assertEquals(files, seen);
+		assertNull(settled.poll(3 * QUIET_PERIOD, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Start a detector which records the files which settled.
+	 *
+	 * @param maxWait The time in milliseconds after which a file which didn't settle is given up on.
+	 */
+	private void start(long maxWait) {
+		detector = new SettleDetector(null, metrics, QUIET_PERIOD, maxWait) {
+			@Override
+			void settled(File directory, File file) {
+				settled.add(new Settled(directory, file));
+			}
+		};
+
+		new Thread(detector, "settle-detector").start();
+	}
+
+	private File write(String name, byte[] bytes) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Files.write(file.toPath(), bytes);
+		return file;
+	}
+
+	private static byte[] png() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		try (InputStream input = ProgressTracker.class.getResourceAsStream("/icon.png")) {
+			byte[] buffer = new byte[8192];
+			int read;
+
+			while ((read = input.read(buffer)) != -1) {
+				output.write(buffer, 0, read);
+			}
+		}
+
+		return output.toByteArray();
+	}
+
+	private static long elapsed(long start, Settled result) {
+		return TimeUnit.NANOSECONDS.toMillis(result.time - start);
+	}
+
+	/**
+	 * A file which settled.
+	 */
+	private static class Settled {
+		private final File directory;
+
+		private final File file;
+
+		private final long time = System.nanoTime();
+
+		public Settled(File directory, File file) {
+			this.directory = directory;
+			this.file = file;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package org.nikkii.rs07;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nikkii.rs07.metrics.Gauge;
+import org.nikkii.rs07.metrics.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the status server of a tracker: the status JSON, the Prometheus metrics, and the methods it answers.
+ *
+ * @author Nikki
+ */
+public class StatusServerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final MetricsRegistry metrics = new MetricsRegistry();
+
+	private String home;
+
+	private File screenshots;
+
+	private ProgressTracker tracker;
+
+	private StatusServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		File directory = folder.getRoot();
+		File rslog = new File(directory, ".rslog");
+
+		screenshots = new File(directory, "screenshots");
+
+		assertTrue(rslog.mkdirs() && screenshots.mkdirs());
+
+		try (Writer writer = new FileWriter(new File(rslog, "settings.json"))) {
+			writer.write("{ \"backfill\" : false, \"metricsJmx\" : false, \"metricsInterval\" : 0 }");
+		}
+
+		home = System.getProperty("user.home");
+		System.setProperty("user.home", directory.getAbsolutePath());
+
+		try (Reader reader = new InputStreamReader(ProgressTracker.class.getResourceAsStream("/settings.json"))) {
+			tracker = new ProgressTracker(new Gson().fromJson(reader, ProgressTrackerSettings.class));
+		}
+
+		tracker.track(screenshots);
+
+		server = new StatusServer(tracker, metrics, new Gson(), 0);
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+		tracker.shutdown();
+		System.setProperty("user.home", home);
+	}
+
+	@Test
+	public void serverOnlyListensOnLoopback() {
+		assertTrue(server.getAddress().getAddress().isLoopbackAddress());
+		assertTrue(server.getAddress().getPort() > 0);
+	}
+
+	@Test
+	public void statusIsServedAsJson() throws IOException {
+		HttpURLConnection connection = open("/status", "GET");
+
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("application/json; charset=utf-8", connection.getContentType());
+		assertEquals("no-store", connection.getHeaderField("Cache-Control"));
+
+		JsonObject status = new JsonParser().parse(read(connection)).getAsJsonObject();
+
+		assertEquals(0, status.getAsJsonObject("queue").get("depth").getAsInt());
+		assertTrue(status.getAsJsonArray("watchedDirectories").contains(new JsonPrimitive(screenshots.getAbsolutePath())));
+		assertEquals("CLOSED", status.getAsJsonObject("endpoints").getAsJsonObject("update").get("circuit").getAsString());
+		assertEquals(0, status.getAsJsonArray("recentEvents").size());
+	}
+
+	@Test
+	public void metricsAreServedInThePrometheusFormat() throws IOException {
+		metrics.counter("events.detected").add(3);
+		metrics.gauge("queue.depth", new Gauge() {
+			@Override
+			public long getValue() {
+				return 7;
+			}
+		});
+		metrics.histogram("stage.upload").record(250, TimeUnit.MILLISECONDS);
+
+		HttpURLConnection connection = open("/metrics", "GET");
+
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("text/plain; version=0.0.4; charset=utf-8", connection.getContentType());
+
+		String body = read(connection);
+
+		assertTrue(body, body.contains("# TYPE rslog_events_detected_total counter\nrslog_events_detected_total 3\n"));
+		assertTrue(body, body.contains("# TYPE rslog_queue_depth gauge\nrslog_queue_depth 7\n"));
+		assertTrue(body, body.contains("# TYPE rslog_stage_upload_seconds summary\n"));
+		assertTrue(body, body.contains("rslog_stage_upload_seconds{quantile=\"0.5\"} 0.25"));
+		assertTrue(body, body.contains("rslog_stage_upload_seconds_sum 0.25\n"));
+		assertTrue(body, body.contains("rslog_stage_upload_seconds_count 1\n"));
+	}
+
+	@Test
+	public void headHasNoBody() throws IOException {
+		HttpURLConnection connection = open("/status", "HEAD");
+
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("application/json; charset=utf-8", connection.getContentType());
+		assertEquals("", read(connection));
+	}
+
+	@Test
+	public void otherMethodsAreNotAllowed() throws IOException {
+		HttpURLConnection connection = open("/status", "POST");
+		connection.setDoOutput(true);
+		connection.getOutputStream().write("{}".getBytes("UTF-8"));
+
+		assertEquals(405, connection.getResponseCode());
+		assertEquals("GET, HEAD", connection.getHeaderField("Allow"));
+
+		connection = open("/metrics", "DELETE");
+
+		assertEquals(405, connection.getResponseCode());
+	}
+
+	@Test
+	public void unknownPathIsNotFound() throws IOException {
+		assertEquals(404, open("/", "GET").getResponseCode());
+		assertEquals(404, open("/status/extra", "GET").getResponseCode());
+	}
+
+	private HttpURLConnection open(String path, String method) throws IOException {
+		URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(5000);
+		connection.setReadTimeout(5000);
+
+		return connection;
+	}
+
+	private static String read(HttpURLConnection connection) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		try (InputStream input = connection.getInputStream()) {
+			byte[] buffer = new byte[8192];
+			int read;
+
+			while ((read = input.read(buffer)) != -1) {
+				body.write(buffer, 0, read);
+			}
+		}
+
+		return body.toString("UTF-8");
+	}
+}
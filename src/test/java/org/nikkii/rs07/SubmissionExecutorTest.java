@@ -0,0 +1,302 @@
+package org.nikkii.rs07;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nikkii.rs07.event.LevelUpEvent;
+import org.nikkii.rs07.event.OSBuddyEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests running submissions in per display name lanes: the order within a lane, parallelism across lanes, taking
+ * turns, retries and asynchronous events.
+ *
+ * @author Nikki
+ */
+public class SubmissionExecutorTest {
+
+	private static final String[] NAMES = { "Alice", "Bob", "Carol", "Dave" };
+
+	/**
+	 * The events which were processed, in order.
+	 */
+	private final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+
+	private SubmissionExecutor executor;
+
+	@After
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void laneRunsEventsOneAtATimeInOrder() throws Exception {
+		final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+		final AtomicInteger overlaps = new AtomicInteger();
+
+		for (String name : NAMES) {
+			running.put(name, new AtomicInteger());
+		}
+
+		executor = new SubmissionExecutor(new SubmissionHandler() {
+			@Override
+			public long process(OSBuddyEvent event, int attempt, SubmissionCallback callback) throws Exception {
+				AtomicInteger lane = running.get(event.getDisplayName());
+
+				if (lane.incrementAndGet() > 1) {
+					overlaps.incrementAndGet();
+				}
+
+				record(event);
+				Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+				lane.decrementAndGet();
+				return -1;
+			}
+		}, 4);
+
+		int perName = 50;
+
+		for (int level = 0; level < perName; level++) {
+			for (String name : NAMES) {
+				executor.submit(event(name, level));
+			}
+		}
+
+		await(NAMES.length * perName);
+
+		assertEquals(0, overlaps.get());
+		assertEquals(NAMES.length * perName, executor.getCompleted());
+
+		for (String name : NAMES) {
+			List<String> lane = lane(name);
+
+			assertEquals(perName, lane.size());
+
+			for (int level = 0; level < perName; level++) {
+				assertEquals(name + " " + level, lane.get(level));
+			}
+		}
+	}
+
+	@Test
+	public void lanesRunInParallel() throws Exception {
+		// Only trips if every lane is inside the handler at the same time
+		final CyclicBarrier barrier = new CyclicBarrier(NAMES.length);
+		final AtomicInteger tripped = new AtomicInteger();
+
+		executor = new SubmissionExecutor(new SubmissionHandler() {
+			@Override
+			public long process(OSBuddyEvent event, int attempt, SubmissionCallback callback) throws Exception {
+				barrier.await(5, TimeUnit.SECONDS);
+				tripped.incrementAndGet();
+				record(event);
+				return -1;
+			}
+		}, NAMES.length);
+
+		for (String name : NAMES) {
+			executor.submit(event(name, 2));
+		}
+
+		await(NAMES.length);
+
+		assertEquals(NAMES.length, tripped.get());
+		assertEquals(0, executor.getFailed());
+	}
+
+	@Test
+	public void busyLaneTakesTurns() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+
+		executor = new SubmissionExecutor(new SubmissionHandler() {
+			@Override
+			public long process(OSBuddyEvent event, int attempt, SubmissionCallback callback) throws Exception {
+				started.countDown();
+				proceed.await();
+				record(event);
+				return -1;
+			}
+		}, 1);
+
+		int events = SubmissionExecutor.LANE_BATCH * 3;
+
+		for (int level = 0; level < events; level++) {
+			executor.submit(event("Alice", level));
+		}
+
+		// Bob's lane is queued behind Alice's while her first event holds the only thread
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		executor.submit(event("Bob", 0));
+		proceed.countDown();
+
+		await(events + 1);
+
+		assertEquals("Bob 0", processed.get(SubmissionExecutor.LANE_BATCH));
+	}
+
+	@Test
+	public void retryHoldsItsLaneButNotTheOthers() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+
+		executor = new SubmissionExecutor(new SubmissionHandler() {
+			@Override
+			public long process(OSBuddyEvent event, int attempt, SubmissionCallback callback) throws Exception {
+				record(event);
+
+				if (event.getDisplayName().equals("Alice") && event.getFields().get("level").equals("0")) {
+					attempts.incrementAndGet();
+
+					// Retried twice, 100 ms apart
+					if (attempt < 2) {
+						return 100;
+					}
+				}
+
+				return -1;
+			}
+		}, 1);
+
+		executor.submit(event("Alice", 0));
+		executor.submit(event("Alice", 1));
+		executor.submit(event("Bob", 0));
+
+		await(3);
+
+		assertEquals(3, attempts.get());
+		assertEquals(2, executor.getRetries());
+		assertEquals(Collections.nCopies(3, "Alice 0"), lane("Alice").subList(0, 3));
+		assertEquals("Alice 1", lane("Alice").get(3));
+		// The retry delay doesn't hold the thread, Bob goes first
+		assertTrue(processed.indexOf("Bob 0") < processed.indexOf("Alice 1"));
+		assertTrue(processed.indexOf("Bob 0") < processed.lastIndexOf("Alice 0"));
+	}
+
+	@Test
+	public void pendingEventHoldsItsLaneUntilItIsDone() throws Exception {
+		final List<SubmissionCallback> callbacks = Collections.synchronizedList(new ArrayList<SubmissionCallback>());
+
+		executor = new SubmissionExecutor(new SubmissionHandler() {
+			@Override
+			public long process(OSBuddyEvent event, int attempt, SubmissionCallback callback) throws Exception {
+				record(event);
+
+				if (event.getDisplayName().equals("Alice") && event.getFields().get("level").equals("0")) {
+					callbacks.add(callback);
+					return PENDING;
+				}
+
+				return -1;
+			}
+		}, 1);
+
+		executor.submit(event("Alice", 0));
+		executor.submit(event("Alice", 1));
+		executor.submit(event("Bob", 0));
+
+		// Bob's event completes while Alice's first one is still pending
+		await(1);
+		Thread.sleep(100);
+
+		assertEquals(1, callbacks.size());
+		assertEquals(Collections.singletonList("Alice 0"), lane("Alice"));
+		assertEquals(1, executor.getActiveLanes());
+
+		callbacks.get(0).done(-1);
+
+		await(3);
+		assertEquals(0, executor.getFailed());
+		assertEquals("Alice 1", lane("Alice").get(1));
+	}
+
+	@Test
+	public void failedEventIsDroppedAndTheLaneGoesOn() throws Exception {
+		executor = new SubmissionExecutor(new SubmissionHandler() {
+			@Override
+			public long process(OSBuddyEvent event, int attempt, SubmissionCallback callback) throws Exception {
+				record(event);
+
+				if (event.getFields().get("level").equals("0")) {
+					throw new IOException("Rejected");
+				}
+
+				return -1;
+			}
+		}, 2);
+
+		executor.submit(event("Alice", 0));
+		executor.submit(event("Alice", 1));
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+		while (executor.getCompleted() + executor.getFailed() < 2 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+
+		assertEquals(1, executor.getFailed());
+		assertEquals(1, executor.getCompleted());
+		assertEquals(0, executor.getRetries());
+		assertEquals(lane("Alice"), processed);
+		assertEquals(2, processed.size());
+	}
+
+	/**
+	 * Wait until a number of events completed and every lane is idle.
+	 *
+	 * @param completed The number of events.
+	 */
+	private void await(int completed) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+		while (processed.size() < completed || executor.getCompleted() < completed) {
+			assertTrue("Only " + executor.getCompleted() + " of " + completed + " events completed, " + processed,
+				System.nanoTime() < deadline);
+
+			Thread.sleep(5);
+		}
+	}
+
+	private void record(OSBuddyEvent event) {
+		processed.add(event.getDisplayName() + " " + event.getFields().get("level"));
+	}
+
+	/**
+	 * Get the processed events of a display name, in order.
+	 *
+	 * @param name The display name.
+	 * @return The events.
+	 */
+	private List<String> lane(String name) {
+		List<String> lane = new ArrayList<>();
+
+		synchronized (processed) {
+			for (String event : processed) {
+				if (event.startsWith(name + " ")) {
+					lane.add(event);
+				}
+			}
+		}
+
+		return lane;
+	}
+
+	private static LevelUpEvent event(String displayName, int level) {
+		return new LevelUpEvent(new File("Attack Level (" + level + ").png"), displayName, "Attack", level);
+	}
+}
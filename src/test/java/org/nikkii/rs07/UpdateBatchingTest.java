@@ -0,0 +1,215 @@
+package org.nikkii.rs07;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests batching updates against a local stub of the image and update services, counting the round trips.
+ *
+ * @author Nikki
+ */
+public class UpdateBatchingTest {
+
+	/**
+	 * The number of screenshots taken in each run.
+	 */
+	private static final int SCREENSHOTS = 20;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final AtomicInteger updates = new AtomicInteger();
+
+	private HttpServer server;
+
+	private String home;
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new StubHandler());
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+
+		home = System.getProperty("user.home");
+	}
+
+	@After
+	public void stopServer() {
+		System.setProperty("user.home", home);
+		server.stop(0);
+	}
+
+	@Test
+	public void batchingNeedsFewerRoundTrips() throws Exception {
+		int single = submit(false);
+
+		// One image upload and one update per screenshot
+		assertEquals(SCREENSHOTS * 2, single);
+
+		int batched = submit(true);
+
+		// At least two updates per batch on average, a burst of screenshots usually fits in one or two
+		assertTrue("batched " + batched + ", single " + single, batched <= SCREENSHOTS + SCREENSHOTS / 2);
+	}
+
+	/**
+	 * Take a burst of screenshots with a new tracker, and wait until every update reached the stub.
+	 *
+	 * @param batch Whether the tracker is given the batch update endpoint.
+	 * @return The number of requests the stub served.
+	 */
+	private int submit(boolean batch) throws Exception {
+		requests.set(0);
+		updates.set(0);
+
+		File directory = folder.newFolder();
+		File rslog = new File(directory, ".rslog");
+		File screenshots = new File(directory, "screenshots");
+		File character = new File(screenshots, "Alice");
+
+		assertTrue(rslog.mkdirs() && character.mkdirs());
+
+		try (Writer writer = new FileWriter(new File(rslog, "settings.json"))) {
+			writer.write("{ \"backfill\" : false, \"metricsJmx\" : false, \"metricsInterval\" : 0, \"uploadCacheCapacity\" : 0 }");
+		}
+
+		System.setProperty("user.home", directory.getAbsolutePath());
+
+		ProgressTracker tracker = new ProgressTracker(settings(batch));
+
+		try {
+			tracker.track(screenshots);
+
+			for (int i = 0; i < SCREENSHOTS; i++) {
+				File screenshot = new File(character, "Attack Level (" + (i + 2) + ").png");
+
+				try (InputStream input = ProgressTracker.class.getResourceAsStream("/icon.png")) {
+					Files.copy(input, screenshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+
+			while (updates.get() < SCREENSHOTS && System.nanoTime() < deadline) {
+				Thread.sleep(20);
+			}
+		} finally {
+			tracker.shutdown();
+		}
+
+		assertEquals(SCREENSHOTS, updates.get());
+
+		return requests.get();
+	}
+
+	/**
+	 * Get the bundled settings, with the service urls pointing to the stub.
+	 *
+	 * @param batch Whether to set the batch update url.
+	 * @return The settings.
+	 */
+	private ProgressTrackerSettings settings(boolean batch) throws IOException {
+		JsonObject object;
+
+		try (Reader reader = new InputStreamReader(ProgressTracker.class.getResourceAsStream("/settings.json"))) {
+			object = new JsonParser().parse(reader).getAsJsonObject();
+		}
+
+		String url = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		object.addProperty("imageUrl", url + "/image/upload");
+		object.addProperty("updateUrl", url + "/update");
+
+		if (batch) {
+			object.addProperty("batchUpdateUrl", url + "/update/batch");
+		}
+
+		return new Gson().fromJson(object, ProgressTrackerSettings.class);
+	}
+
+	/**
+	 * Answers image uploads with a url, and updates and batches of updates with "ok".
+	 */
+	private class StubHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+			try (InputStream input = exchange.getRequestBody()) {
+				byte[] buffer = new byte[8192];
+				int read;
+
+				while ((read = input.read(buffer)) != -1) {
+					body.write(buffer, 0, read);
+				}
+			}
+
+			requests.incrementAndGet();
+
+			String path = exchange.getRequestURI().getPath();
+			String response;
+
+			if (path.equals("/image/upload")) {
+				response = "http://i.example/" + requests.get() + ".png";
+			} else if (path.equals("/update")) {
+				updates.incrementAndGet();
+				response = "ok";
+			} else if (path.equals("/update/batch")) {
+				JsonArray batch = new JsonParser().parse(body.toString("UTF-8")).getAsJsonArray();
+				JsonArray responses = new JsonArray();
+
+				for (int i = 0; i < batch.size(); i++) {
+					responses.add(new JsonPrimitive("ok"));
+				}
+
+				updates.addAndGet(batch.size());
+				response = responses.toString();
+			} else {
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+				return;
+			}
+
+			byte[] bytes = response.getBytes("UTF-8");
+
+			exchange.sendResponseHeaders(200, bytes.length);
+
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(bytes);
+			}
+		}
+	}
+}
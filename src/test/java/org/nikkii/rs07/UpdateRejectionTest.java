@@ -0,0 +1,241 @@
+package org.nikkii.rs07;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that updates the server rejects are dropped from the outbox, rather than replayed on every start.
+ *
+ * @author Nikki
+ */
+public class UpdateRejectionTest {
+
+	/**
+	 * The number of screenshots taken in each run, the stub rejects the odd levels.
+	 */
+	private static final int SCREENSHOTS = 6;
+
+	/**
+	 * Finds the level of an update, in both form and JSON bodies.
+	 */
+	private static final Pattern LEVEL = Pattern.compile("\"?level\"?[=:](\\d+)");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger updates = new AtomicInteger();
+
+	private final AtomicInteger accepted = new AtomicInteger();
+
+	private final AtomicInteger batches = new AtomicInteger();
+
+	private HttpServer server;
+
+	private String home;
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new StubHandler());
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+
+		home = System.getProperty("user.home");
+	}
+
+	@After
+	public void stopServer() {
+		System.setProperty("user.home", home);
+		server.stop(0);
+	}
+
+	@Test
+	public void rejectedUpdatesAreDropped() throws Exception {
+		File directory = submit(false);
+
+		assertEquals(SCREENSHOTS, updates.get());
+		assertEquals(SCREENSHOTS / 2, accepted.get());
+		assertEquals(0, pending(directory));
+	}
+
+	@Test
+	public void rejectedBatchIsPostedOneByOne() throws Exception {
+		File directory = submit(true);
+
+		assertTrue(batches.get() > 0);
+		assertEquals(SCREENSHOTS / 2, accepted.get());
+		assertEquals(0, pending(directory));
+	}
+
+	/**
+	 * Take a burst of screenshots with a new tracker, and wait until every update was answered.
+	 *
+	 * @param batch Whether the tracker is given the batch update endpoint.
+	 * @return The home directory of the tracker.
+	 */
+	private File submit(boolean batch) throws Exception {
+		File directory = folder.newFolder();
+		File rslog = new File(directory, ".rslog");
+		File screenshots = new File(directory, "screenshots");
+		File character = new File(screenshots, "Alice");
+
+		assertTrue(rslog.mkdirs() && character.mkdirs());
+
+		try (Writer writer = new FileWriter(new File(rslog, "settings.json"))) {
+			writer.write("{ \"backfill\" : false, \"metricsJmx\" : false, \"metricsInterval\" : 0, \"uploadCacheCapacity\" : 0 }");
+		}
+
+		System.setProperty("user.home", directory.getAbsolutePath());
+
+		ProgressTracker tracker = new ProgressTracker(settings(batch));
+
+		try {
+			tracker.track(screenshots);
+
+			for (int i = 0; i < SCREENSHOTS; i++) {
+				File screenshot = new File(character, "Attack Level (" + (i + 2) + ").png");
+
+				try (InputStream input = ProgressTracker.class.getResourceAsStream("/icon.png")) {
+					Files.copy(input, screenshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+
+			while (updates.get() < SCREENSHOTS && System.nanoTime() < deadline) {
+				Thread.sleep(20);
+			}
+		} finally {
+			tracker.shutdown();
+		}
+
+		return directory;
+	}
+
+	/**
+	 * Count the events left in the outbox of a tracker which was shut down.
+	 *
+	 * @param directory The home directory of the tracker.
+	 * @return The number of events which would be replayed on the next start.
+	 */
+	private static int pending(File directory) throws IOException {
+		try (Outbox outbox = new Outbox(new File(directory, ".rslog/outbox"), new Gson())) {
+			return outbox.getPendingCount();
+		}
+	}
+
+	/**
+	 * Get the bundled settings, with the service urls pointing to the stub.
+	 *
+	 * @param batch Whether to set the batch update url.
+	 * @return The settings.
+	 */
+	private ProgressTrackerSettings settings(boolean batch) throws IOException {
+		JsonObject object;
+
+		try (Reader reader = new InputStreamReader(ProgressTracker.class.getResourceAsStream("/settings.json"))) {
+			object = new JsonParser().parse(reader).getAsJsonObject();
+		}
+
+		String url = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		object.addProperty("imageUrl", url + "/image/upload");
+		object.addProperty("updateUrl", url + "/update");
+
+		if (batch) {
+			object.addProperty("batchUpdateUrl", url + "/update/batch");
+		}
+
+		return new Gson().fromJson(object, ProgressTrackerSettings.class);
+	}
+
+	/**
+	 * Answers image uploads with a url, accepts updates of even levels, and rejects the other updates and every batch
+	 * with 422 Unprocessable Entity.
+	 */
+	private class StubHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+			try (InputStream input = exchange.getRequestBody()) {
+				byte[] buffer = new byte[8192];
+				int read;
+
+				while ((read = input.read(buffer)) != -1) {
+					body.write(buffer, 0, read);
+				}
+			}
+
+			String path = exchange.getRequestURI().getPath();
+			String response;
+
+			if (path.equals("/image/upload")) {
+				response = "http://i.example/" + System.nanoTime() + ".png";
+			} else if (path.equals("/update")) {
+				Matcher matcher = LEVEL.matcher(body.toString("UTF-8"));
+
+				if (!matcher.find() || Integer.parseInt(matcher.group(1)) % 2 != 0) {
+					updates.incrementAndGet();
+					reject(exchange);
+					return;
+				}
+
+				accepted.incrementAndGet();
+				updates.incrementAndGet();
+				response = "ok";
+			} else if (path.equals("/update/batch")) {
+				batches.incrementAndGet();
+				reject(exchange);
+				return;
+			} else {
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+				return;
+			}
+
+			byte[] bytes = response.getBytes("UTF-8");
+
+			exchange.sendResponseHeaders(200, bytes.length);
+
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(bytes);
+			}
+		}
+
+		private void reject(HttpExchange exchange) throws IOException {
+			exchange.sendResponseHeaders(422, -1);
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package org.nikkii.rs07;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the upload cache and the recovery of its journal.
+ *
+ * @author Nikki
+ */
+public class UploadCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void urlsSurviveReload() throws IOException {
+		File file = folder.newFile("uploads.idx");
+
+		try (UploadCache cache = new UploadCache(file, 10)) {
+			cache.put("a", "http://i.example/a.png");
+			cache.put("b", "http://i.example/b.png");
+			cache.put("a", "http://i.example/a2.png");
+		}
+
+		try (UploadCache cache = new UploadCache(file, 10)) {
+			assertEquals(2, cache.size());
+			assertEquals("http://i.example/a2.png", cache.get("a"));
+			assertEquals("http://i.example/b.png", cache.get("b"));
+			assertNull(cache.get("c"));
+		}
+	}
+
+	@Test
+	public void tornRecordIsDiscarded() throws IOException {
+		File file = folder.newFile("uploads.idx");
+
+		try (UploadCache cache = new UploadCache(file, 10)) {
+			cache.put("a", "http://i.example/a.png");
+			cache.put("b", "http://i.example/b.png");
+		}
+
+		// A crash halfway through writing the url of the second record
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 4);
+		}
+
+		try (UploadCache cache = new UploadCache(file, 10)) {
+			assertEquals(1, cache.size());
+			cache.put("c", "http://i.example/c.png");
+		}
+
+		try (UploadCache cache = new UploadCache(file, 10)) {
+			assertEquals(2, cache.size());
+			assertEquals("http://i.example/a.png", cache.get("a"));
+			assertNull(cache.get("b"));
+			assertEquals("http://i.example/c.png", cache.get("c"));
+		}
+	}
+
+	@Test
+	public void garbageIsDiscarded() throws IOException {
+		File file = folder.newFile("uploads.idx");
+
+		try (UploadCache cache = new UploadCache(file, 10)) {
+			cache.put("a", "http://i.example/a.png");
+		}
+
+		try (OutputStream output = new FileOutputStream(file, true)) {
+			output.write(new byte[] { 0, 0, 0, 0 });
+		}
+
+		try (UploadCache cache = new UploadCache(file, 10)) {
+			cache.put("b", "http://i.example/b.png");
+		}
+
+		try (UploadCache cache = new UploadCache(file, 10)) {
+			assertEquals(2, cache.size());
+			assertEquals("http://i.example/b.png", cache.get("b"));
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() throws IOException {
+		File file = folder.newFile("uploads.idx");
+
+		try (UploadCache cache = new UploadCache(file, 2)) {
+			cache.put("a", "http://i.example/a.png");
+			cache.put("b", "http://i.example/b.png");
+			// The hit is journaled, so "b" is still the least recently used after a reload
+			cache.get("a");
+		}
+
+		try (UploadCache cache = new UploadCache(file, 2)) {
+			cache.put("c", "http://i.example/c.png");
+
+			assertEquals(2, cache.size());
+			assertNull(cache.get("b"));
+			assertEquals("http://i.example/a.png", cache.get("a"));
+		}
+	}
+
+	@Test
+	public void journalIsCompacted() throws IOException {
+		File file = folder.newFile("uploads.idx");
+
+		try (UploadCache cache = new UploadCache(file, 4)) {
+			for (int i = 0; i < 100; i++) {
+				cache.put("digest" + i, "http://i.example/" + i + ".png");
+			}
+		}
+
+		// A record is its type and two lengths, the digest and the url, and the journal keeps twice the capacity at most
+		int record = 5 + "digest99".length() + "http://i.example/99.png".length();
+		assertTrue(file.length() <= 4 * 2 * record);
+
+		try (UploadCache cache = new UploadCache(file, 4)) {
+			assertEquals(4, cache.size());
+			assertEquals("http://i.example/99.png", cache.get("digest99"));
+		}
+	}
+
+	@Test
+	public void digestDependsOnVariant() throws IOException {
+		File screenshot = folder.newFile("screenshot.png");
+		Files.write(screenshot.toPath(), new byte[] { 1, 2, 3 });
+
+		assertEquals(UploadCache.digest(screenshot, "png"), UploadCache.digest(screenshot, "png"));
+		assertNotEquals(UploadCache.digest(screenshot, "png"), UploadCache.digest(screenshot, "jpeg-85"));
+	}
+}
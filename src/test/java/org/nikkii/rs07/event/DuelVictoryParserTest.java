@@ -0,0 +1,123 @@
+package org.nikkii.rs07.event;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+import org.nikkii.rs07.ProgressTrackerSettings;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests parsing the duel victory screenshot names of the corpus in duel-victory-names.txt.
+ *
+ * @author Nikki
+ */
+public class DuelVictoryParserTest {
+
+	private final DuelVictoryParser parser = new DuelVictoryParser();
+
+	@Test
+	public void corpusIsParsed() throws IOException {
+		List<String[]> corpus = loadCorpus();
+		int parsed = 0, rejected = 0;
+
+		for (String[] entry : corpus) {
+			String name = entry[0];
+			String[] fields = parser.parse(name, name.lastIndexOf('.'));
+
+			if (entry.length == 1) {
+				assertNull(name, fields);
+				rejected++;
+			} else {
+				assertArrayEquals(name, new String[]{entry[1], entry[2]}, fields);
+				parsed++;
+			}
+		}
+
+		assertTrue("parsed " + parsed + ", rejected " + rejected, parsed > 0 && rejected > 0);
+	}
+
+	@Test
+	public void corpusIsClassifiedWithTheBundledRules() throws IOException {
+		RuleClassifier classifier;
+
+		try (Reader reader = new InputStreamReader(DuelVictoryParserTest.class.getResourceAsStream("/settings.json"))) {
+			classifier = new RuleClassifier(new Gson().fromJson(reader, ProgressTrackerSettings.class).getEventRules());
+		}
+
+		for (String[] entry : loadCorpus()) {
+			OSBuddyEvent event = classifier.classify("Alice", new File(entry[0]));
+
+			if (entry.length == 1) {
+				assertNull(entry[0], event);
+			} else {
+				DuelVictoryEvent victory = (DuelVictoryEvent) event;
+
+				assertEquals(entry[0], entry[1], victory.getOpponent());
+				assertEquals(entry[0], entry[2], victory.getTimestamp());
+			}
+		}
+	}
+
+	/**
+	 * Load the corpus, with the escapes of non ASCII characters decoded.
+	 *
+	 * @return The file name, opponent and timestamp of each entry, or only the file name of names to reject.
+	 */
+	private static List<String[]> loadCorpus() throws IOException {
+		List<String[]> corpus = new ArrayList<>();
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+			DuelVictoryParserTest.class.getResourceAsStream("/duel-victory-names.txt"), StandardCharsets.UTF_8))) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] entry = line.split("\t");
+
+				for (int i = 0; i < entry.length; i++) {
+					entry[i] = unescape(entry[i]);
+				}
+
+				corpus.add(entry);
+			}
+		}
+
+		return corpus;
+	}
+
+	/**
+	 * Decode the backslash u escapes of a corpus line.
+	 *
+	 * @param text The text.
+	 * @return The decoded text.
+	 */
+	private static String unescape(String text) {
+		StringBuilder builder = new StringBuilder(text.length());
+
+		for (int i = 0; i < text.length(); i++) {
+			if (text.startsWith("\\u", i)) {
+				builder.append((char) Integer.parseInt(text.substring(i + 2, i + 6), 16));
+				i += 5;
+			} else {
+				builder.append(text.charAt(i));
+			}
+		}
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,109 @@
+package org.nikkii.rs07.event;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests finding prefixes and markers with the keyword trie.
+ *
+ * @author Nikki
+ */
+public class KeywordTrieTest {
+
+	@Test
+	public void prefixOnlyMatchesTheStart() {
+		KeywordTrie trie = new KeywordTrie();
+		trie.add("Victory against", true, 0);
+		trie.build();
+
+		assertEquals(1L, match(trie, "Victory against Bob"));
+		assertEquals(0L, match(trie, "A Victory against Bob"));
+		assertEquals(0L, match(trie, "Victory"));
+	}
+
+	@Test
+	public void prefixIsNotFoundThroughASuffix() {
+		KeywordTrie trie = new KeywordTrie();
+		trie.add("ab", true, 0);
+		trie.build();
+
+		// The automaton ends up in the "ab" node, but "ab" doesn't start the text
+		assertEquals(0L, match(trie, "aab"));
+		assertEquals(1L, match(trie, "abab"));
+	}
+
+	@Test
+	public void markerMatchesAnywhere() {
+		KeywordTrie trie = new KeywordTrie();
+		trie.add(" Level (", false, 0);
+		trie.build();
+
+		assertEquals(1L, match(trie, "Attack Level (42)"));
+		assertEquals(1L, match(trie, " Level ("));
+		assertEquals(0L, match(trie, "Attack Level 42"));
+	}
+
+	@Test
+	public void overlappingKeywordsAreAllFound() {
+		KeywordTrie trie = new KeywordTrie();
+		trie.add("abcd", false, 0);
+		trie.add("bc", false, 1);
+		trie.add("c", false, 2);
+		trie.add("ab", true, 3);
+		trie.build();
+
+		assertEquals(0b0110L, match(trie, "xabcx"));
+		assertEquals(0b1111L, match(trie, "abcd"));
+		// The first "abc" ends in a mismatch, the automaton falls back and still finds "abcd" after it
+		assertEquals(0b0111L, match(trie, "xabcabcd"));
+	}
+
+	@Test
+	public void searchStopsAtTheEnd() {
+		KeywordTrie trie = new KeywordTrie();
+		trie.add("png", false, 0);
+		trie.build();
+
+		String name = "screenshot.png";
+
+		assertEquals(0L, trie.match(name, name.lastIndexOf('.')));
+		assertEquals(1L, trie.match(name, name.length()));
+	}
+
+	@Test
+	public void nonAsciiCharactersAreMatched() {
+		KeywordTrie trie = new KeywordTrie();
+		trie.add("Victory against", true, 0);
+		trie.add("\u2013", false, 1);
+		trie.build();
+
+		assertEquals(0b11L, match(trie, "Victory against Bob \u2013 12:00"));
+		assertEquals(0b10L, match(trie, "\u00e9\u2013"));
+		assertEquals(0b01L, match(trie, "Victory against Bob"));
+	}
+
+	@Test
+	public void everyRuleBitIsUsable() {
+		KeywordTrie trie = new KeywordTrie();
+		trie.add("first", true, 0);
+		trie.add("last", false, KeywordTrie.MAX_RULES - 1);
+		trie.build();
+
+		assertEquals(Long.MIN_VALUE | 1L, match(trie, "first and last"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tooManyRulesAreRejected() {
+		new KeywordTrie().add("keyword", false, KeywordTrie.MAX_RULES);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void emptyKeywordIsRejected() {
+		new KeywordTrie().add("", true, 0);
+	}
+
+	private static long match(KeywordTrie trie, String text) {
+		return trie.match(text, text.length());
+	}
+}
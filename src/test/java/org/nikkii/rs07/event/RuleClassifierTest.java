@@ -0,0 +1,118 @@
+package org.nikkii.rs07.event;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+import org.nikkii.rs07.ProgressTrackerSettings;
+import org.nikkii.rs07.ProgressType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests classifying screenshot names with the bundled and custom event rules.
+ *
+ * @author Nikki
+ */
+public class RuleClassifierTest {
+
+	@Test
+	public void levelUpIsClassified() throws IOException {
+		OSBuddyEvent event = bundled().classify("Alice", new File("Attack Level (42).png"));
+
+		assertTrue(event instanceof LevelUpEvent);
+		assertEquals("Alice", event.getDisplayName());
+		assertEquals("Attack", ((LevelUpEvent) event).getSkill());
+		assertEquals(42, ((LevelUpEvent) event).getLevel());
+	}
+
+	@Test
+	public void treasureTrailIsClassified() throws IOException {
+		OSBuddyEvent event = bundled().classify("Alice", new File("Treasure Trail - Elite - 2016-03-04_12-30-00.png"));
+
+		assertTrue(event instanceof TreasureTrailEvent);
+		assertEquals("Elite", ((TreasureTrailEvent) event).getDifficulty());
+		assertEquals("2016-03-04_12-30-00", ((TreasureTrailEvent) event).getCompletionDate());
+	}
+
+	@Test
+	public void otherScreenshotsAreIgnored() throws IOException {
+		RuleClassifier classifier = bundled();
+
+		assertNull(classifier.classify("Alice", new File("2016-03-04_12-30-00.png")));
+		assertNull(classifier.classify("Alice", new File("Attack Level 42.png")));
+		assertNull(classifier.classify("Alice", new File("Treasure Trail - Master - 2016-03-04.png")));
+		// Only the name without its extension is matched
+		assertNull(classifier.classify("Alice", new File("Attack Level (42)")));
+		assertNull(classifier.classify("Alice", new File("Attack.Level (42)")));
+	}
+
+	@Test(expected = ParseEventError.class)
+	public void unknownSkillIsAnError() throws IOException {
+		bundled().classify("Alice", new File("Sailing Level (2).png"));
+	}
+
+	@Test
+	public void firstMatchingRuleWins() {
+		ProgressType milestone = ProgressType.register("MILESTONE");
+		ProgressType any = ProgressType.register("ANY_LEVEL");
+
+		RuleClassifier classifier = new RuleClassifier(Arrays.asList(
+			new EventRule(milestone, null, " Level (", "^(\\w+) Level \\((99)\\)$", "skill", "level"),
+			new EventRule(any, null, " Level (", "^(\\w+) Level \\((\\d+)\\)$", "skill", "level")));
+
+		OSBuddyEvent maxed = classifier.classify("Alice", new File("Attack Level (99).png"));
+		OSBuddyEvent level = classifier.classify("Alice", new File("Attack Level (98).png"));
+
+		assertEquals(milestone, maxed.getType());
+		assertEquals("99", maxed.getFields().get("level"));
+		assertEquals(any, level.getType());
+		assertEquals("Attack", level.getFields().get("skill"));
+	}
+
+	@Test
+	public void ruleWithoutKeywordIsTriedOnEveryName() {
+		ProgressType photo = ProgressType.register("PHOTO");
+
+		RuleClassifier classifier = new RuleClassifier(Collections.singletonList(
+			new EventRule(photo, null, null, "^photo-(\\d+)$", "number")));
+
+		assertEquals("7", classifier.classify("Alice", new File("photo-7.png")).getFields().get("number"));
+		assertNull(classifier.classify("Alice", new File("photo.png")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void reservedFieldIsRejected() {
+		new RuleClassifier(Collections.singletonList(
+			new EventRule(ProgressType.register("RESERVED"), "x", null, "^x(.*)$", "displayName")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingGroupIsRejected() {
+		new RuleClassifier(Collections.singletonList(
+			new EventRule(ProgressType.register("GROUPS"), "x", null, "^x(.*)$", "first", "second")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void ruleWithoutPatternIsRejected() {
+		new RuleClassifier(Collections.singletonList(new EventRule(ProgressType.register("EMPTY"), "x", null, null)));
+	}
+
+	/**
+	 * Create a classifier of the rules bundled in the settings.
+	 *
+	 * @return The classifier.
+	 */
+	private static RuleClassifier bundled() throws IOException {
+		try (Reader reader = new InputStreamReader(RuleClassifierTest.class.getResourceAsStream("/settings.json"))) {
+			return new RuleClassifier(new Gson().fromJson(reader, ProgressTrackerSettings.class).getEventRules());
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package org.nikkii.rs07.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the asynchronous client against a stub server which answers each request exactly as a test tells it to:
+ * reusing kept alive connections, retrying a stale one, timeouts and shutting down.
+ *
+ * @author Nikki
+ */
+public class AsyncHttpClientTest {
+
+	/**
+	 * The connections the stub server accepted, in order.
+	 */
+	private final BlockingQueue<Socket> accepted = new LinkedBlockingQueue<>();
+
+	/**
+	 * Every accepted connection, closed after each test.
+	 */
+	private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+	private ServerSocket server;
+
+	private AsyncHttpClient client;
+
+	private Thread thread;
+
+	private int connectTimeout, readTimeout;
+
+	@Before
+	public void start() throws IOException {
+		connectTimeout = HttpConnectionManager.getConnectTimeout();
+		readTimeout = HttpConnectionManager.getReadTimeout();
+
+		server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Socket socket = server.accept();
+						socket.setSoTimeout(5000);
+						sockets.add(socket);
+						accepted.add(socket);
+					}
+				} catch (IOException e) {
+					// The server was closed
+				}
+			}
+		}, "stub-server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		client = new AsyncHttpClient(2);
+		thread = new Thread(client, "async-http");
+		thread.start();
+	}
+
+	@After
+	public void stop() throws Exception {
+		client.close();
+		thread.join(5000);
+		server.close();
+
+		synchronized (sockets) {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+		}
+
+		HttpConnectionManager.setTimeouts(connectTimeout, readTimeout);
+	}
+
+	@Test
+	public void keptAliveConnectionIsReused() throws Exception {
+		HttpFuture<HttpResponse> first = client.execute(get("/first"), null);
+		Socket socket = accept();
+
+		assertTrue(readRequest(socket).startsWith("GET /first HTTP/1.1\r\n"));
+		respond(socket, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfirst");
+		assertEquals("first", body(first));
+
+		HttpFuture<HttpResponse> second = client.execute(get("/second"), null);
+
+		assertTrue(readRequest(socket).startsWith("GET /second HTTP/1.1\r\n"));
+		respond(socket, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nsec\r\n3\r\nond\r\n0\r\n\r\n");
+		assertEquals("second", body(second));
+
+		assertNull(accepted.poll(100, TimeUnit.MILLISECONDS));
+		assertEquals(1, client.getOpened());
+		assertEquals(1, client.getReused());
+		assertEquals(1, client.getConnections());
+		assertEquals(0, client.getInFlight());
+	}
+
+	@Test
+	public void requestsWaitForAConnection() throws Exception {
+		List<HttpFuture<HttpResponse>> futures = new ArrayList<>();
+
+		for (int i = 0; i < 4; i++) {
+			futures.add(client.execute(get("/" + i), null));
+		}
+
+		// Only two connections to the host, each answers two requests in turn
+		Socket first = accept();
+		Socket second = accept();
+
+		for (int i = 0; i < 2; i++) {
+			for (Socket socket : new Socket[] { first, second }) {
+				String path = readRequest(socket).split(" ")[1];
+				respond(socket, "HTTP/1.1 200 OK\r\nContent-Length: " + path.length() + "\r\n\r\n" + path);
+			}
+		}
+
+		for (int i = 0; i < 4; i++) {
+			assertEquals("/" + i, body(futures.get(i)));
+		}
+
+		assertNull(accepted.poll(100, TimeUnit.MILLISECONDS));
+		assertEquals(2, client.getOpened());
+		assertEquals(2, client.getReused());
+	}
+
+	@Test
+	public void requestBodyIsSentWithItsLength() throws Exception {
+		HttpPostRequest request = new HttpPostRequest(url("/update"));
+		request.addParameter("displayName", "Alice");
+		request.addParameter("level", 99);
+
+		HttpFuture<HttpResponse> future = client.execute(request, null);
+		Socket socket = accept();
+		String sent = readRequest(socket);
+
+		assertTrue(sent, sent.startsWith("POST /update HTTP/1.1\r\nHost: 127.0.0.1:" + server.getLocalPort() + "\r\n"));
+		assertTrue(sent, sent.contains("Content-Type: application/x-www-form-urlencoded\r\n"));
+
+		String body = sent.substring(sent.indexOf("\r\n\r\n") + 4);
+
+		assertTrue(sent, sent.contains("Content-Length: " + body.length() + "\r\n"));
+		assertTrue(body, body.contains("displayName=Alice") && body.contains("level=99"));
+
+		respond(socket, "HTTP/1.1 422 Unprocessable Entity\r\nContent-Length: 7\r\nConnection: close\r\n\r\nInvalid");
+
+		HttpResponse response = future.get(5, TimeUnit.SECONDS);
+
+		// Error statuses are responses, the caller decides what they mean
+		assertEquals(422, response.getStatusCode());
+		assertEquals("Invalid", new String(response.getBody(), "UTF-8"));
+		assertEquals(-1, socket.getInputStream().read());
+	}
+
+	@Test
+	public void staleKeptAliveConnectionIsRetried() throws Exception {
+		HttpFuture<HttpResponse> first = client.execute(get("/first"), null);
+		Socket stale = accept();
+
+		readRequest(stale);
+		respond(stale, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfirst");
+		assertEquals("first", body(first));
+
+		HttpFuture<HttpResponse> second = client.execute(get("/second"), null);
+
+		// The server gave up on the connection just as the request arrived
+		readRequest(stale);
+		stale.close();
+
+		Socket fresh = accept();
+
+		assertTrue(readRequest(fresh).startsWith("GET /second HTTP/1.1\r\n"));
+		respond(fresh, "HTTP/1.1 200 OK\r\nContent-Length: 6\r\n\r\nsecond");
+		assertEquals("second", body(second));
+		assertEquals(2, client.getOpened());
+	}
+
+	@Test
+	public void newConnectionIsNotRetried() throws Exception {
+		HttpFuture<HttpResponse> future = client.execute(get("/first"), null);
+		Socket socket = accept();
+
+		readRequest(socket);
+		socket.close();
+
+		assertFailure(future, EOFException.class);
+		assertNull(accepted.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void connectionClosedMidResponseFailsTheRequest() throws Exception {
+		HttpFuture<HttpResponse> first = client.execute(get("/first"), null);
+		Socket socket = accept();
+
+		readRequest(socket);
+		respond(socket, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfirst");
+		body(first);
+
+		HttpFuture<HttpResponse> second = client.execute(get("/second"), null);
+
+		// The server had started responding, so the request may have been handled and isn't sent again
+		readRequest(socket);
+		respond(socket, "HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\npartial");
+		socket.close();
+
+		assertFailure(second, EOFException.class);
+		assertNull(accepted.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void slowResponseTimesOut() throws Exception {
+		HttpConnectionManager.setTimeouts(5000, 300);
+
+		HttpFuture<HttpResponse> future = client.execute(get("/slow"), null);
+		Socket socket = accept();
+
+		readRequest(socket);
+
+		assertFailure(future, SocketTimeoutException.class);
+		assertEquals(0, client.getConnections());
+		assertEquals(-1, socket.getInputStream().read());
+	}
+
+	@Test
+	public void unknownHostFailsTheRequest() throws Exception {
+		HttpFuture<HttpResponse> future = client.execute(new HttpGetRequest("http://rs07.invalid/"), null);
+
+		assertFailure(future, UnknownHostException.class);
+	}
+
+	@Test
+	public void shutdownFailsPendingRequests() throws Exception {
+		final BlockingQueue<IOException> failures = new LinkedBlockingQueue<>();
+
+		HttpFuture<HttpResponse> future = client.execute(get("/pending"), new HttpCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse result) {
+				fail("Completed " + result.getStatusCode());
+			}
+
+			@Override
+			public void failed(IOException e) {
+				failures.add(e);
+			}
+		});
+
+		readRequest(accept());
+		client.close();
+		thread.join(5000);
+
+		assertFalse(thread.isAlive());
+		assertFailure(future, IOException.class);
+		assertNotNull(failures.poll(5, TimeUnit.SECONDS));
+		assertEquals(0, client.getInFlight());
+		assertEquals(0, client.getConnections());
+
+		try {
+			client.execute(get("/late"), null);
+			fail("Executed a request on a closed client");
+		} catch (IOException e) {
+			assertEquals(0, client.getInFlight());
+		}
+	}
+
+	private String url(String path) {
+		return "http://127.0.0.1:" + server.getLocalPort() + path;
+	}
+
+	private HttpGetRequest get(String path) throws IOException {
+		return new HttpGetRequest(url(path));
+	}
+
+	private Socket accept() throws InterruptedException {
+		Socket socket = accepted.poll(5, TimeUnit.SECONDS);
+
+		assertNotNull("No connection was opened", socket);
+
+		return socket;
+	}
+
+	/**
+	 * Read a request, one byte at a time so nothing of the next request is read.
+	 *
+	 * @param socket The connection.
+	 * @return The request line, headers and body.
+	 */
+	private static String readRequest(Socket socket) throws IOException {
+		InputStream input = socket.getInputStream();
+		ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+		while (!request.toString("ISO-8859-1").endsWith("\r\n\r\n")) {
+			int b = input.read();
+
+			if (b == -1) {
+				throw new EOFException("Connection closed after " + request.toString("ISO-8859-1"));
+			}
+
+			request.write(b);
+		}
+
+		String head = request.toString("ISO-8859-1");
+		int index = head.indexOf("Content-Length: ");
+
+		if (index != -1) {
+			int length = Integer.parseInt(head.substring(index + 16, head.indexOf("\r\n", index)));
+
+			for (int i = 0; i < length; i++) {
+				request.write(input.read());
+			}
+		}
+
+		return request.toString("ISO-8859-1");
+	}
+
+	private static void respond(Socket socket, String response) throws IOException {
+		OutputStream output = socket.getOutputStream();
+		output.write(response.getBytes("ISO-8859-1"));
+		output.flush();
+	}
+
+	private static String body(HttpFuture<HttpResponse> future) throws Exception {
+		HttpResponse response = future.get(5, TimeUnit.SECONDS);
+
+		assertEquals(200, response.getStatusCode());
+
+		return response.getResponseBody();
+	}
+
+	private static void assertFailure(HttpFuture<HttpResponse> future, Class<? extends IOException> type) throws Exception {
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("Request didn't fail");
+		} catch (ExecutionException e) {
+			assertTrue(String.valueOf(e.getCause()), type.isInstance(e.getCause()));
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package org.nikkii.rs07.http;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the circuit breaker states and the retry delays of an endpoint guard, on a clock the test moves forward.
+ *
+ * @author Nikki
+ */
+public class EndpointGuardTest {
+
+	private static final int THRESHOLD = 3;
+
+	private static final long OPEN_TIME = 1000;
+
+	private static final long BASE_DELAY = 100;
+
+	private static final long MAX_DELAY = 4000;
+
+	private final TestGuard guard = new TestGuard();
+
+	@Test
+	public void circuitOpensAfterConsecutiveFailures() {
+		for (int i = 0; i < THRESHOLD - 1; i++) {
+			request(new IOException("Connection refused"));
+		}
+
+		// A success in between starts the count over
+		acquire();
+		guard.success();
+
+		for (int i = 0; i < THRESHOLD - 1; i++) {
+			request(new IOException("Connection refused"));
+		}
+
+		assertEquals(EndpointGuard.State.CLOSED, guard.getState());
+
+		request(new IOException("Connection refused"));
+
+		assertEquals(EndpointGuard.State.OPEN, guard.getState());
+		assertEquals(1, guard.getOpened());
+		assertRejected();
+
+		guard.time += OPEN_TIME - 1;
+		assertRejected();
+		assertEquals(2, guard.getRejected());
+	}
+
+	@Test
+	public void singleProbeIsLetThroughOnceOpenTimePassed() {
+		open();
+
+		guard.time += OPEN_TIME;
+		acquire();
+
+		assertEquals(EndpointGuard.State.HALF_OPEN, guard.getState());
+		assertRejected();
+
+		// A probe which was never sent makes way for another one
+		guard.release();
+		acquire();
+
+		guard.success();
+
+		assertEquals(EndpointGuard.State.CLOSED, guard.getState());
+		acquire();
+		acquire();
+	}
+
+	@Test
+	public void failedProbeDoublesOpenTimeUpToTheMaximum() {
+		open();
+
+		long openTime = OPEN_TIME;
+
+		for (int i = 0; i < 4; i++) {
+			guard.time += openTime;
+			request(new IOException("Connection refused"));
+
+			assertEquals(EndpointGuard.State.OPEN, guard.getState());
+
+			openTime = Math.min(openTime * 2, MAX_DELAY);
+
+			guard.time += openTime - 1;
+			assertRejected();
+			guard.time += 1;
+		}
+
+		assertEquals(MAX_DELAY, openTime);
+
+		// Recovering resets the open time
+		acquire();
+		guard.success();
+		open();
+
+		guard.time += OPEN_TIME;
+		acquire();
+	}
+
+	@Test
+	public void clientErrorsDontOpenTheCircuit() {
+		for (int i = 0; i < THRESHOLD * 2; i++) {
+			EndpointException e = request(new HttpStatusException("http://localhost/update", 422));
+
+			assertFalse(e.isRetryable());
+		}
+
+		assertEquals(EndpointGuard.State.CLOSED, guard.getState());
+		assertEquals(THRESHOLD * 2, guard.getFailures());
+
+		assertTrue(request(new HttpStatusException("http://localhost/update", 503)).isRetryable());
+		assertTrue(request(new HttpStatusException("http://localhost/update", 429)).isRetryable());
+	}
+
+	@Test
+	public void retryDelayBacksOffWithJitter() {
+		for (int attempt = 0; attempt < 40; attempt++) {
+			long backoff = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt, 30));
+
+			for (int i = 0; i < 100; i++) {
+				long delay = guard.getRetryDelay(attempt);
+
+				assertTrue("attempt " + attempt + ": " + delay, delay >= backoff / 2 && delay <= backoff);
+			}
+		}
+	}
+
+	@Test
+	public void retryDelayLastsUntilTheProbe() {
+		open();
+
+		guard.time += OPEN_TIME / 4;
+
+		long remaining = OPEN_TIME - OPEN_TIME / 4;
+
+		for (int i = 0; i < 100; i++) {
+			long delay = guard.getRetryDelay(0);
+
+			assertTrue(String.valueOf(delay), delay >= remaining && delay <= remaining + BASE_DELAY);
+		}
+
+		// A longer backoff still applies
+		for (int i = 0; i < 100; i++) {
+			long delay = guard.getRetryDelay(10);
+
+			assertTrue(String.valueOf(delay), delay >= MAX_DELAY / 2 && delay <= MAX_DELAY);
+		}
+	}
+
+	/**
+	 * Open the circuit from the closed state.
+	 */
+	private void open() {
+		for (int i = 0; i < THRESHOLD; i++) {
+			request(new IOException("Connection refused"));
+		}
+
+		assertEquals(EndpointGuard.State.OPEN, guard.getState());
+	}
+
+	/**
+	 * Make a request which fails.
+	 *
+	 * @param cause The failure.
+	 * @return The exception the guard turned the failure into.
+	 */
+	private EndpointException request(IOException cause) {
+		acquire();
+		return guard.failure(cause);
+	}
+
+	private void acquire() {
+		try {
+			guard.acquire();
+		} catch (CircuitOpenException e) {
+			throw new AssertionError("The request was rejected", e);
+		}
+	}
+
+	private void assertRejected() {
+		try {
+			guard.acquire();
+			fail("The request was let through");
+		} catch (CircuitOpenException e) {
+			assertTrue(e.isRetryable());
+		}
+	}
+
+	/**
+	 * A guard which reads the time the test sets.
+	 */
+	private static class TestGuard extends EndpointGuard {
+		private long time = 1000000;
+
+		public TestGuard() {
+			super("Test service", THRESHOLD, OPEN_TIME, BASE_DELAY, MAX_DELAY);
+		}
+
+		@Override
+		long now() {
+			return time;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package org.nikkii.rs07.http;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests parsing responses delimited by their length, in chunks or by the end of the connection, whatever the pieces
+ * they arrive in, and rejecting malformed ones.
+ *
+ * @author Nikki
+ */
+public class ResponseParserTest {
+
+	private static final String URL = "http://localhost/update";
+
+	@Test
+	public void fixedLengthResponse() throws IOException {
+		ResponseParser parser = new ResponseParser("POST");
+
+		assertTrue(parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 11\r\n\r\n{\"ok\":true}")));
+
+		HttpResponse response = parser.toResponse(URL);
+
+		assertEquals(200, response.getStatusCode());
+		assertEquals("application/json", response.getHeader("content-type"));
+		assertEquals("{\"ok\":true}", response.getResponseBody());
+		assertTrue(parser.isKeepAlive());
+	}
+
+	@Test
+	public void chunkedResponse() throws IOException {
+		ResponseParser parser = new ResponseParser("POST");
+
+		assertTrue(parser.feed(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+			+ "5\r\nHello\r\n7;name=value\r\n, world\r\nA\r\n from rs07\r\n0\r\nX-Trailer: ignored\r\n\r\n")));
+
+		HttpResponse response = parser.toResponse(URL);
+
+		assertEquals("Hello, world from rs07", response.getResponseBody());
+		assertTrue(parser.isKeepAlive());
+	}
+
+	@Test
+	public void responseSplitAtEveryByte() throws IOException {
+		String[] responses = {
+			"HTTP/1.1 200 OK\r\nContent-Length: 13\r\n\r\nHello, world!",
+			"HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nHello\r\n8\r\n, world!\r\n0\r\n\r\n",
+			"HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 200 OK\r\nContent-Length: 13\r\n\r\nHello, world!"
+		};
+
+		for (String response : responses) {
+			byte[] bytes = response.getBytes("ISO-8859-1");
+
+			// Every split of the response into two reads
+			for (int split = 0; split <= bytes.length; split++) {
+				ResponseParser parser = new ResponseParser("GET");
+
+				assertEquals(response, split == bytes.length, parser.feed(ByteBuffer.wrap(bytes, 0, split)));
+				assertTrue(response, parser.feed(ByteBuffer.wrap(bytes, split, bytes.length - split)));
+				assertEquals(200, parser.toResponse(URL).getStatusCode());
+				assertEquals("Hello, world!", parser.toResponse(URL).getResponseBody());
+			}
+
+			// One byte per read
+			ResponseParser parser = new ResponseParser("GET");
+
+			for (int i = 0; i < bytes.length; i++) {
+				assertEquals(response, i == bytes.length - 1, parser.feed(ByteBuffer.wrap(bytes, i, 1)));
+			}
+
+			assertEquals("Hello, world!", parser.toResponse(URL).getResponseBody());
+		}
+	}
+
+	@Test
+	public void largeBodyGrowsTheBuffer() throws IOException {
+		byte[] body = new byte[100000];
+		Arrays.fill(body, (byte) 'x');
+
+		ResponseParser parser = new ResponseParser("GET");
+
+		assertFalse(parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n")));
+		assertTrue(parser.feed(ByteBuffer.wrap(body)));
+		assertEquals(body.length, parser.toResponse(URL).getBody().length);
+	}
+
+	@Test
+	public void bodyUntilTheConnectionCloses() throws IOException {
+		ResponseParser parser = new ResponseParser("GET");
+
+		assertFalse(parser.feed(bytes("HTTP/1.1 200 OK\r\n\r\nHello, ")));
+		assertFalse(parser.feed(bytes("world!")));
+		assertFalse(parser.isKeepAlive());
+		assertTrue(parser.finish());
+		assertEquals("Hello, world!", parser.toResponse(URL).getResponseBody());
+	}
+
+	@Test
+	public void incompleteResponseIsNotFinished() throws IOException {
+		ResponseParser parser = new ResponseParser("GET");
+
+		assertFalse(parser.hasReceived());
+		assertFalse(parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nHello")));
+		assertTrue(parser.hasReceived());
+		assertFalse(parser.finish());
+	}
+
+	@Test
+	public void responsesWithoutABody() throws IOException {
+		ResponseParser head = new ResponseParser("HEAD");
+
+		assertTrue(head.feed(bytes("HTTP/1.1 200 OK\r\nContent-Length: 500\r\n\r\n")));
+		assertEquals(0, head.toResponse(URL).getBody().length);
+
+		ResponseParser noContent = new ResponseParser("POST");
+
+		assertTrue(noContent.feed(bytes("HTTP/1.1 204 No Content\r\n\r\n")));
+		assertTrue(noContent.isKeepAlive());
+	}
+
+	@Test
+	public void keepAliveFollowsTheConnectionHeader() throws IOException {
+		assertFalse(keepAlive("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 0\r\n\r\n"));
+		assertFalse(keepAlive("HTTP/1.0 200 OK\r\nContent-Length: 0\r\n\r\n"));
+		assertTrue(keepAlive("HTTP/1.0 200 OK\r\nConnection: Keep-Alive\r\nContent-Length: 0\r\n\r\n"));
+		// A second response we never asked for leaves the connection in an unknown state
+		assertFalse(keepAlive("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\nHTTP/1.1 200 OK\r\n"));
+	}
+
+	@Test
+	public void errorStatusIsParsed() throws IOException {
+		ResponseParser parser = new ResponseParser("POST");
+
+		assertTrue(parser.feed(bytes("HTTP/1.1 503 Service Unavailable\r\nRetry-After: 30\r\nContent-Length: 4\r\n\r\nBusy")));
+
+		HttpResponse response = parser.toResponse(URL);
+
+		assertEquals(503, response.getStatusCode());
+		assertEquals("30", response.getHeader("Retry-After"));
+
+		try {
+			response.getResponseBody();
+			fail("Read the body of an error response");
+		} catch (HttpStatusException e) {
+			assertEquals(503, e.getStatusCode());
+		}
+	}
+
+	@Test
+	public void malformedResponsesAreRejected() throws UnsupportedEncodingException {
+		assertMalformed("SSH-2.0-OpenSSH_7.4\r\n\r\n");
+		assertMalformed("HTTP/1.1\r\n\r\n");
+		assertMalformed("HTTP/1.1 OK 200\r\n\r\n");
+		assertMalformed("HTTP/1.1 200 OK\r\nContent-Length: many\r\n\r\n");
+		assertMalformed("HTTP/1.1 200 OK\r\nContent-Length: -1\r\n\r\n");
+		assertMalformed("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n");
+		assertMalformed("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n-5\r\nHello\r\n");
+		assertMalformed("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nHello world\r\n");
+
+		char[] header = new char[70 * 1024];
+		Arrays.fill(header, 'x');
+
+		assertMalformed("HTTP/1.1 200 OK\r\nX-Large: " + new String(header));
+	}
+
+	private static boolean keepAlive(String response) throws IOException {
+		ResponseParser parser = new ResponseParser("GET");
+
+		assertTrue(parser.feed(bytes(response)));
+
+		return parser.isKeepAlive();
+	}
+
+	private static void assertMalformed(String response) throws UnsupportedEncodingException {
+		try {
+			new ResponseParser("GET").feed(bytes(response));
+			fail("Parsed " + response);
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static ByteBuffer bytes(String text) throws UnsupportedEncodingException {
+		return ByteBuffer.wrap(text.getBytes("ISO-8859-1"));
+	}
+}
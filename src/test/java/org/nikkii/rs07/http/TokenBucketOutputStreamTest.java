@@ -0,0 +1,56 @@
+package org.nikkii.rs07.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests how a rate limited stream splits up writes.
+ *
+ * @author Nikki
+ */
+public class TokenBucketOutputStreamTest {
+
+	@Test
+	public void unlimitedWritesAreNotSplit() throws IOException {
+		RecordingOutputStream output = new RecordingOutputStream();
+
+		try (TokenBucketOutputStream stream = new TokenBucketOutputStream(output, new TokenBucket(0))) {
+			stream.write(new byte[64 * 1024]);
+		}
+
+		assertEquals(1, output.writes.size());
+		assertEquals(64 * 1024, (int) output.writes.get(0));
+	}
+
+	@Test
+	public void limitedWritesAreSplitIntoBursts() throws IOException {
+		RecordingOutputStream output = new RecordingOutputStream();
+
+		// A burst of a quarter second, 16 KB
+		try (TokenBucketOutputStream stream = new TokenBucketOutputStream(output, new TokenBucket(64 * 1024))) {
+			stream.write(new byte[32 * 1024]);
+		}
+
+		assertEquals(2, output.writes.size());
+		assertEquals(32 * 1024, output.size());
+	}
+
+	/**
+	 * Records the length of every write.
+	 */
+	private static class RecordingOutputStream extends ByteArrayOutputStream {
+		private final List<Integer> writes = new ArrayList<>();
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writes.add(len);
+			super.write(b, off, len);
+		}
+	}
+}
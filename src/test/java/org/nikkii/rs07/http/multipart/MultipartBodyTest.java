@@ -0,0 +1,370 @@
+package org.nikkii.rs07.http.multipart;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nikkii.rs07.http.data.RequestData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the length of a multipart body is the length of what is written, and that a body of unknown length is
+ * sent in chunks.
+ *
+ * @author Nikki
+ */
+public class MultipartBodyTest {
+
+	private static final String BOUNDARY = "---------------------------HttpAPIFormBoundary42";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * The screenshot data, larger than the copy buffer so it takes several reads.
+	 */
+	private final byte[] screenshot = new byte[150 * 1024];
+
+	private final byte[] thumbnail = new byte[1000];
+
+	private File file;
+
+	private HttpServer server;
+
+	/**
+	 * The headers and body of the last request the server received.
+	 */
+	private volatile String contentType, contentLength, transferEncoding;
+
+	private volatile byte[] received;
+
+	@Before
+	public void createFiles() throws IOException {
+		Random random = new Random(42);
+		random.nextBytes(screenshot);
+		random.nextBytes(thumbnail);
+
+		file = folder.newFile("Attack Level (99).png");
+
+		try (OutputStream output = new FileOutputStream(file)) {
+			output.write(screenshot);
+		}
+	}
+
+	@After
+	public void stopServer() {
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void lengthIsTheLengthOfTheBodyWrittenToAStream() throws IOException {
+		MultipartBody body = new MultipartBody(mixedParts(), BOUNDARY);
+		byte[] written = write(body);
+
+		assertEquals(written.length, body.getLength());
+
+		String text = new String(written, "ISO-8859-1");
+
+		assertTrue(text.startsWith("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\""));
+		assertTrue(text.contains("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"username\"\r\n\r\nAlice\r\n"));
+		assertTrue(text.contains("name=\"note\"\r\n\r\n\u00c3\u00a9t\u00c3\u00a9 \u00e2\u009c\u0093\r\n"));
+		assertTrue(text.contains("name=\"screenshot\"; filename=\"Attack Level (99).png\"\r\nContent-Type: image/png\r\n\r\n"));
+		assertTrue(text.contains("name=\"thumbnail\"; filename=\"thumb.bin\"\r\nContent-Type: application/octet-stream\r\n\r\n"));
+		assertTrue(text.endsWith("\r\n--" + BOUNDARY + "--\r\n"));
+		assertTrue(contains(written, screenshot));
+		assertTrue(contains(written, thumbnail));
+	}
+
+	@Test
+	public void lengthIsTheLengthOfTheBodyWrittenToAChannel() throws IOException {
+		byte[] expected = write(new MultipartBody(mixedParts(), BOUNDARY));
+
+		MultipartBody body = new MultipartBody(mixedParts(), BOUNDARY);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		// A channel which takes a little at a time, and sometimes nothing, like a full socket buffer
+		writeFully(body, new SlowChannel(output));
+		body.close();
+
+		assertEquals(output.size(), body.getLength());
+		assertArrayEquals(expected, output.toByteArray());
+	}
+
+	@Test
+	public void resetBodyIsWrittenAgain() throws IOException {
+		MultipartBody body = new MultipartBody(mixedParts(), BOUNDARY);
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+
+		writeFully(body, new SlowChannel(first));
+		body.reset();
+		writeFully(body, Channels.newChannel(second));
+		body.close();
+
+		assertEquals(body.getLength(), second.size());
+		assertArrayEquals(first.toByteArray(), second.toByteArray());
+	}
+
+	@Test
+	public void streamOfUnknownLengthHasNoLength() throws IOException {
+		RequestData parameters = mixedParts();
+		parameters.put("log", new MultipartFile("log.txt", new ByteArrayInputStream(thumbnail)));
+
+		MultipartBody body = new MultipartBody(parameters, BOUNDARY);
+
+		assertEquals(-1, body.getLength());
+
+		byte[] written = write(body);
+
+		assertTrue(contains(written, thumbnail));
+		assertTrue(new String(written, "ISO-8859-1").endsWith("\r\n--" + BOUNDARY + "--\r\n"));
+	}
+
+	@Test
+	public void requestSendsTheLengthOfItsBody() throws IOException {
+		startServer();
+
+		HttpMultipartPostRequest request = request(mixedParts());
+		long length = request.getContentLength();
+
+		assertSame(request.getStreamingBody(), request.getStreamingBody());
+		assertEquals(length, request.getStreamingBody().getLength());
+
+		try {
+			assertEquals(200, request.getResponseCode());
+		} finally {
+			request.close();
+		}
+
+		assertEquals(Long.toString(length), contentLength);
+		assertNull(transferEncoding);
+		assertEquals(length, received.length);
+		assertArrayEquals(write(new MultipartBody(mixedParts(), boundary(contentType))), received);
+	}
+
+	@Test
+	public void requestOfUnknownLengthIsSentInChunks() throws IOException {
+		startServer();
+
+		RequestData parameters = mixedParts();
+		parameters.put("log", new MultipartFile("log.txt", new ByteArrayInputStream(thumbnail)));
+
+		HttpMultipartPostRequest request = request(parameters);
+
+		assertEquals(-1, request.getContentLength());
+		// The asynchronous client can't send chunks, so the body is only written to a stream
+		assertNull(request.getStreamingBody());
+
+		try {
+			assertEquals(200, request.getResponseCode());
+		} finally {
+			request.close();
+		}
+
+		assertNull(contentLength);
+		assertEquals("chunked", transferEncoding);
+
+		parameters = mixedParts();
+		parameters.put("log", new MultipartFile("log.txt", thumbnail));
+
+		assertArrayEquals(write(new MultipartBody(parameters, boundary(contentType))), received);
+	}
+
+	@Test
+	public void truncatedFileFailsTheBody() throws IOException {
+		MultipartBody body = new MultipartBody(mixedParts(), BOUNDARY);
+
+		truncate(file, 1000);
+
+		try {
+			write(body);
+			fail("Wrote a body shorter than its length");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Attack Level (99).png"));
+		}
+
+		body = new MultipartBody(mixedParts(), BOUNDARY);
+		truncate(file, 500);
+
+		try {
+			writeFully(body, Channels.newChannel(new ByteArrayOutputStream()));
+			fail("Wrote a body shorter than its length");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Attack Level (99).png"));
+		} finally {
+			body.close();
+		}
+	}
+
+	@Test
+	public void grownFileFailsTheBody() throws IOException {
+		MultipartBody body = new MultipartBody(mixedParts(), BOUNDARY);
+
+		try (OutputStream output = new FileOutputStream(file, true)) {
+			output.write(thumbnail);
+		}
+
+		try {
+			write(body);
+			fail("Wrote a body longer than its length");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Attack Level (99).png"));
+		}
+	}
+
+	/**
+	 * Create fields and files of every kind with a known length.
+	 *
+	 * @return The parameters.
+	 */
+	private RequestData mixedParts() throws IOException {
+		RequestData parameters = new RequestData();
+		parameters.put("username", "Alice");
+		parameters.put("screenshot", new MultipartFile("Attack Level (99).png", file));
+		parameters.put("skill", "Attack");
+		parameters.put("level", 99);
+		parameters.put("thumbnail", new MultipartFile("thumb.bin", thumbnail));
+		parameters.put("note", "\u00e9t\u00e9 \u2713");
+		return parameters;
+	}
+
+	private HttpMultipartPostRequest request(RequestData parameters) {
+		HttpMultipartPostRequest request = new HttpMultipartPostRequest("http://127.0.0.1:" + server.getAddress().getPort() + "/upload");
+		request.setParameters(parameters);
+		return request;
+	}
+
+	/**
+	 * Start a server which records the request and answers with an empty body.
+	 */
+	private void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/upload", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+				contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+				transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+				received = read(exchange.getRequestBody());
+
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+	}
+
+	private static String boundary(String contentType) {
+		String prefix = "multipart/form-data; boundary=";
+
+		assertTrue(contentType, contentType.startsWith(prefix));
+
+		return contentType.substring(prefix.length());
+	}
+
+	private static byte[] write(MultipartBody body) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		body.writeTo(output);
+		return output.toByteArray();
+	}
+
+	private static void writeFully(MultipartBody body, WritableByteChannel channel) throws IOException {
+		for (int i = 0; !body.writeTo(channel); i++) {
+			assertTrue("The body never finished", i < 100000);
+		}
+	}
+
+	private static byte[] read(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+
+		while ((read = input.read(buffer)) != -1) {
+			output.write(buffer, 0, read);
+		}
+
+		return output.toByteArray();
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+			access.setLength(length);
+		}
+	}
+
+	private static boolean contains(byte[] data, byte[] part) {
+		search:
+		for (int i = 0; i + part.length <= data.length; i++) {
+			for (int j = 0; j < part.length; j++) {
+				if (data[i + j] != part[j]) {
+					continue search;
+				}
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * A channel which accepts at most 1000 bytes per write, and nothing on every third write.
+	 */
+	private static class SlowChannel implements WritableByteChannel {
+		private final ByteArrayOutputStream output;
+
+		private int writes;
+
+		public SlowChannel(ByteArrayOutputStream output) {
+			this.output = output;
+		}
+
+		@Override
+		public int write(ByteBuffer source) {
+			if (++writes % 3 == 0) {
+				return 0;
+			}
+
+			byte[] bytes = new byte[Math.min(source.remaining(), 1000)];
+			source.get(bytes);
+			output.write(bytes, 0, bytes.length);
+			return bytes.length;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+
+		}
+	}
+}
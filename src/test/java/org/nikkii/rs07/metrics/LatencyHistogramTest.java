@@ -0,0 +1,150 @@
+package org.nikkii.rs07.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the log-linear buckets of the latency histogram and the percentiles read from them.
+ *
+ * @author Nikki
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void smallValuesHaveBucketsOfTheirOwn() {
+		for (int value = 0; value < 64; value++) {
+			assertEquals(value, LatencyHistogram.indexOf(value));
+			assertEquals(value, LatencyHistogram.highestValue(value));
+		}
+	}
+
+	@Test
+	public void bucketsWidenAtEachPowerOfTwo() {
+		// 63 is the last exact bucket, from 64 on a bucket holds two values, from 128 on four
+		assertEquals(63, LatencyHistogram.indexOf(63));
+		assertEquals(64, LatencyHistogram.indexOf(64));
+		assertEquals(64, LatencyHistogram.indexOf(65));
+		assertEquals(65, LatencyHistogram.highestValue(64));
+
+		assertEquals(95, LatencyHistogram.indexOf(126));
+		assertEquals(95, LatencyHistogram.indexOf(127));
+		assertEquals(127, LatencyHistogram.highestValue(95));
+
+		assertEquals(96, LatencyHistogram.indexOf(128));
+		assertEquals(96, LatencyHistogram.indexOf(131));
+		assertEquals(97, LatencyHistogram.indexOf(132));
+		assertEquals(131, LatencyHistogram.highestValue(96));
+	}
+
+	@Test
+	public void largestValueIsInTheLastBucket() {
+		int last = LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE);
+
+		assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValue(last));
+		assertEquals(last - 1, LatencyHistogram.indexOf(LatencyHistogram.highestValue(last - 1)));
+		assertTrue(LatencyHistogram.highestValue(last - 1) < LatencyHistogram.MAX_VALUE);
+	}
+
+	@Test
+	public void everyValueIsWithinItsBucket() {
+		Random random = new Random(42);
+
+		for (int i = 0; i < 100000; i++) {
+			long value = i < 10000 ? i : (random.nextLong() & LatencyHistogram.MAX_VALUE) >>> random.nextInt(41);
+			int index = LatencyHistogram.indexOf(value);
+			long highest = LatencyHistogram.highestValue(index);
+
+			assertTrue(value + " above " + highest, value <= highest);
+			assertTrue(value + " below bucket " + index, index == 0 || value > LatencyHistogram.highestValue(index - 1));
+			// Off by at most one part in 32
+			assertTrue(value + " in a bucket up to " + highest, highest - value <= value / 32);
+		}
+	}
+
+	@Test
+	public void percentilesOfAUniformDistribution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		for (int value = 1; value <= 1000; value++) {
+			histogram.record(value, TimeUnit.MICROSECONDS);
+		}
+
+		LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500500, snapshot.getSum());
+		assertEquals(500.5, snapshot.getMean(), 0.001);
+		assertEquals(1000, snapshot.getMax());
+
+		assertEquals(1, snapshot.getPercentile(0));
+		assertEquals(1, snapshot.getPercentile(0.1));
+		assertWithin(500, snapshot.getPercentile(50));
+		assertWithin(900, snapshot.getPercentile(90));
+		assertWithin(990, snapshot.getPercentile(99));
+		// Never above the largest value, although its bucket goes up to 1007
+		assertEquals(1000, snapshot.getPercentile(99.9));
+		assertEquals(1000, snapshot.getPercentile(100));
+	}
+
+	@Test
+	public void percentilesOfASkewedDistribution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		for (int i = 0; i < 990; i++) {
+			histogram.record(2, TimeUnit.MILLISECONDS);
+		}
+
+		for (int i = 0; i < 10; i++) {
+			histogram.record(3, TimeUnit.SECONDS);
+		}
+
+		LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+		assertWithin(2000, snapshot.getPercentile(50));
+		assertWithin(2000, snapshot.getPercentile(99));
+		assertWithin(3000000, snapshot.getPercentile(99.5));
+		assertEquals(3000000, snapshot.getMax());
+	}
+
+	@Test
+	public void valuesAreClamped() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		histogram.record(-5, TimeUnit.MILLISECONDS);
+		histogram.record(Long.MAX_VALUE, TimeUnit.DAYS);
+		histogram.record(1999, TimeUnit.NANOSECONDS);
+
+		LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+		assertEquals(3, snapshot.getCount());
+		assertEquals(LatencyHistogram.MAX_VALUE + 1, snapshot.getSum());
+		assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getMax());
+		assertEquals(0, snapshot.getPercentile(33));
+		assertEquals(1, snapshot.getPercentile(50));
+		assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getPercentile(100));
+	}
+
+	@Test
+	public void emptyHistogramReadsZero() {
+		LatencyHistogram.Snapshot snapshot = new LatencyHistogram().getSnapshot();
+
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMean(), 0);
+		assertEquals(0, snapshot.getPercentile(50));
+	}
+
+	/**
+	 * Check a percentile is the expected value, give or take the width of its bucket.
+	 *
+	 * @param expected The exact percentile.
+	 * @param actual The percentile read from the histogram.
+	 */
+	private static void assertWithin(long expected, long actual) {
+		assertTrue("expected " + expected + " but was " + actual, actual >= expected && actual <= expected + expected / 32);
+	}
+}